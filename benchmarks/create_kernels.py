@@ -0,0 +1,126 @@
+# create_kernels.py
+#
+# Hand-assembles the guest kernels the macro benchmarks run end to end, using the
+# assembler from the test resources. Each kernel loops over a fixed amount of work
+# and exits, so every run retires the same number of instructions.
+
+import os
+import sys
+
+HERE = os.path.dirname(os.path.abspath(__file__))
+sys.path.insert(0, os.path.join(HERE, '..', 'src', 'test', 'resources'))
+
+from create_program_elf import Program, r_type, i_type, addi, add, mul, div, lui, lw, sw, ecall, write_elf  # noqa: E402
+
+
+def xor(p, rd, rs1, rs2): p.emit(r_type(0x00, rs2, rs1, 4, rd, 0x33))
+def rem(p, rd, rs1, rs2): p.emit(r_type(0x01, rs2, rs1, 6, rd, 0x33))
+def slli(p, rd, rs1, shamt): p.emit(i_type(shamt, rs1, 1, rd, 0x13))
+def srli(p, rd, rs1, shamt): p.emit(i_type(shamt, rs1, 5, rd, 0x13))
+def andi(p, rd, rs1, imm): p.emit(i_type(imm, rs1, 7, rd, 0x13))
+
+
+def li(p, rd, value):
+    # addi sign-extends its immediate, so round the upper part to compensate
+    lui(p, rd, (value + 0x800) >> 12)
+    addi(p, rd, rd, value & 0xFFF)
+
+
+def exit_program(p):
+    addi(p, 'a7', 'zero', 0)
+    ecall(p)
+
+
+def arith_kernel():
+    # 200k iterations of dependent integer arithmetic
+    p = Program()
+    li(p, 't1', 200000)
+    addi(p, 't0', 'zero', 0)
+    addi(p, 'a0', 'zero', 0)
+    p.label('loop')
+    addi(p, 't0', 't0', 1)
+    add(p, 'a0', 'a0', 't0')
+    slli(p, 't2', 'a0', 3)
+    xor(p, 'a0', 'a0', 't2')
+    srli(p, 't2', 'a0', 5)
+    add(p, 'a0', 'a0', 't2')
+    p.branch(4, 't0', 't1', 'loop')  # blt t0, t1, loop
+    exit_program(p)
+    return p.assemble()
+
+
+def memory_kernel():
+    # Fill a 16 KiB buffer with words and sum it back, 20 times over
+    p = Program()
+    lui(p, 's0', 0x10)               # s0 = 0x10000, buffer
+    lui(p, 's1', 0x14)               # s1 = 0x14000, buffer end
+    addi(p, 's2', 'zero', 20)        # passes
+    p.label('pass')
+    addi(p, 't0', 's0', 0)
+    p.label('fill')
+    sw(p, 't0', 0, 't0')
+    addi(p, 't0', 't0', 4)
+    p.branch(6, 't0', 's1', 'fill')  # bltu t0, s1, fill
+    addi(p, 't0', 's0', 0)
+    p.label('sum')
+    lw(p, 't1', 0, 't0')
+    add(p, 'a0', 'a0', 't1')
+    addi(p, 't0', 't0', 4)
+    p.branch(6, 't0', 's1', 'sum')   # bltu t0, s1, sum
+    addi(p, 's2', 's2', -1)
+    p.branch(1, 's2', 'zero', 'pass')  # bnez s2, pass
+    exit_program(p)
+    return p.assemble()
+
+
+def muldiv_kernel():
+    # 100k iterations of multiply, divide and remainder
+    p = Program()
+    li(p, 't1', 100000)
+    addi(p, 't0', 'zero', 1)
+    addi(p, 'a0', 'zero', 7)
+    p.label('loop')
+    mul(p, 't2', 't0', 'a0')
+    div(p, 't3', 't2', 't0')
+    rem(p, 't4', 't2', 't1')
+    add(p, 'a0', 't3', 't4')
+    addi(p, 't0', 't0', 1)
+    p.branch(4, 't0', 't1', 'loop')  # blt t0, t1, loop
+    exit_program(p)
+    return p.assemble()
+
+
+def branchy_kernel():
+    # Collatz step counts for 1..3000, with data-dependent branches
+    p = Program()
+    addi(p, 's0', 'zero', 1)
+    li(p, 's1', 3000)
+    addi(p, 's2', 'zero', 1)
+    p.label('outer')
+    addi(p, 't0', 's0', 0)
+    p.label('step')
+    p.branch(0, 't0', 's2', 'next')  # beq t0, 1, next
+    andi(p, 't1', 't0', 1)
+    p.branch(1, 't1', 'zero', 'odd')  # bnez t1, odd
+    srli(p, 't0', 't0', 1)
+    addi(p, 'a0', 'a0', 1)
+    p.jal('zero', 'step')
+    p.label('odd')
+    slli(p, 't1', 't0', 1)
+    add(p, 't0', 't0', 't1')
+    addi(p, 't0', 't0', 1)
+    addi(p, 'a0', 'a0', 1)
+    p.jal('zero', 'step')
+    p.label('next')
+    addi(p, 's0', 's0', 1)
+    p.branch(5, 's1', 's0', 'outer')  # bge s1, s0, outer
+    exit_program(p)
+    return p.assemble()
+
+
+if __name__ == '__main__':
+    out = os.path.join(HERE, 'src', 'main', 'resources', 'kernels')
+    write_elf(os.path.join(out, 'arith.elf'), arith_kernel())
+    write_elf(os.path.join(out, 'memory.elf'), memory_kernel())
+    write_elf(os.path.join(out, 'muldiv.elf'), muldiv_kernel())
+    write_elf(os.path.join(out, 'branchy.elf'), branchy_kernel())
@@ -0,0 +1,76 @@
+package org.parkerharrelson.riscv.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.pipeline.InstructionDecode;
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+import org.parkerharrelson.riscv.util.Instruction;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of decoding one instruction of each opcode class: {@code predecode} builds the
+ * cached form from the raw word, and {@code decodeInstruction} is what the decode
+ * stage does on every execution once the cached form exists.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    private static final Map<String, Integer> WORDS = Map.ofEntries(
+            Map.entry("R", 0x00550533), // add a0, a0, t0
+            Map.entry("I", 0x00128293), // addi t0, t0, 1
+            Map.entry("LOAD", 0x00412583), // lw a1, 4(sp)
+            Map.entry("STORE", 0x00A12223), // sw a0, 4(sp)
+            Map.entry("BRANCH", 0xFE62CCE3), // blt t0, t1, -8
+            Map.entry("LUI", 0x123454B7), // lui s1, 0x12345
+            Map.entry("AUIPC", 0x00000C17), // auipc s8, 0
+            Map.entry("JAL", 0x010000EF), // jal ra, 16
+            Map.entry("JALR", 0x00008067), // jalr zero, 0(ra)
+            Map.entry("SYSTEM", 0x00000073), // ecall
+            Map.entry("AMO", 0x0059202F), // amoadd.w zero, t0, (s2)
+            Map.entry("FENCE", 0x0330000F) // fence rw, rw
+    );
+
+    @Param({"R", "I", "LOAD", "STORE", "BRANCH", "LUI", "AUIPC", "JAL", "JALR", "SYSTEM", "AMO", "FENCE"})
+    public String opcodeClass;
+
+    private int word;
+    private DecodedInstruction decoded;
+    private InstructionDecode decodeStage;
+    private final Instruction instruction = new Instruction(0);
+
+    @Setup
+    public void setUp() {
+        word = WORDS.get(opcodeClass);
+        decoded = InstructionDecode.predecode(word);
+        decodeStage = new InstructionDecode(new Machine());
+    }
+
+    @Benchmark
+    public DecodedInstruction predecode() {
+        return InstructionDecode.predecode(word);
+    }
+
+    @Benchmark
+    public Instruction decodeInstruction() {
+        instruction.reset(0x1000, word, decoded);
+        decodeStage.decodeInstruction(instruction);
+        return instruction;
+    }
+}
@@ -0,0 +1,47 @@
+package org.parkerharrelson.riscv.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.parkerharrelson.riscv.pipeline.InstructionExecute;
+import org.parkerharrelson.riscv.util.AluOp;
+import org.parkerharrelson.riscv.util.Instruction;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the execute stage for every ALU operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExecuteBenchmark {
+
+    @Param
+    public AluOp aluOp;
+
+    // Non-final so the JIT cannot fold the operation away
+    private int left = 0x12345678;
+    private int right = 7;
+    private final InstructionExecute executeStage = new InstructionExecute();
+    private final Instruction instruction = new Instruction(0);
+
+    @Benchmark
+    public int executeInstruction() {
+        instruction.setAluOp(aluOp);
+        instruction.setLeft(left);
+        instruction.setRight(right);
+        executeStage.executeInstruction(instruction);
+        return instruction.getResult();
+    }
+}
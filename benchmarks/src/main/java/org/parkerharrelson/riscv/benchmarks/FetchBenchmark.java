@@ -0,0 +1,60 @@
+package org.parkerharrelson.riscv.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.pipeline.InstructionFetch;
+import org.parkerharrelson.riscv.util.Instruction;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the fetch stage when the instruction is already decoded, and when it has
+ * to be read from guest memory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FetchBenchmark {
+
+    private Machine machine;
+    private InstructionFetch fetchStage;
+    private final Instruction instruction = new Instruction(0);
+    private int entry;
+
+    @Setup
+    public void setUp() throws IOException {
+        machine = new Machine();
+        machine.loadImage(Kernels.image("arith"));
+        entry = machine.getProgramCounter();
+        fetchStage = new InstructionFetch(machine);
+        machine.step(); // decodes and caches the first instruction
+    }
+
+    @Benchmark
+    public Instruction fetchCached() {
+        machine.setProgramCounter(entry);
+        fetchStage.fetchInstruction(instruction);
+        return instruction;
+    }
+
+    @Benchmark
+    public Instruction fetchUncached() {
+        machine.getDecodeCache().invalidate(entry);
+        machine.setProgramCounter(entry);
+        fetchStage.fetchInstruction(instruction);
+        return instruction;
+    }
+}
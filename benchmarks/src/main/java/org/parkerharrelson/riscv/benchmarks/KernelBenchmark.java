@@ -0,0 +1,80 @@
+package org.parkerharrelson.riscv.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.util.ElfImage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each bundled guest kernel from load to exit in a fresh machine.
+ *
+ * <p>
+ * The primary score is whole runs per second. The {@code instructions} secondary
+ * score counts retired guest instructions per microsecond, which is MIPS. Every run
+ * starts cold, so in JIT mode the score includes compiling the kernel's hot blocks.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class KernelBenchmark {
+
+    @Param({"arith", "memory", "muldiv", "branchy"})
+    public String kernel;
+
+    @Param({"INTERPRETER", "FAST", "JIT"})
+    public ExecutionMode mode;
+
+    private ElfImage image;
+    private long instructionsPerRun;
+
+    /**
+     * Guest instructions retired, reported by JMH as a rate next to the primary score.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Retired {
+        public long instructions;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            instructions = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        image = Kernels.image(kernel);
+        instructionsPerRun = Kernels.countInstructions(image);
+    }
+
+    @Benchmark
+    public Machine run(Retired retired) throws IOException {
+        Machine machine = new Machine();
+        machine.setExecutionMode(mode);
+        machine.setConsole(InputStream.nullInputStream(), Kernels.NULL_CONSOLE);
+        machine.loadImage(image);
+        machine.run();
+        retired.instructions += instructionsPerRun;
+        return machine;
+    }
+}
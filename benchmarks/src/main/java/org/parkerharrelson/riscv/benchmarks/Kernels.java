@@ -0,0 +1,64 @@
+package org.parkerharrelson.riscv.benchmarks;
+
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.core.Reader;
+import org.parkerharrelson.riscv.util.ElfImage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Access to the guest kernels bundled with the benchmarks (see create_kernels.py).
+ */
+final class Kernels {
+
+    static final PrintStream NULL_CONSOLE = new PrintStream(OutputStream.nullOutputStream());
+
+    private Kernels() {
+
+    }
+
+    /**
+     * Parses a bundled kernel. The ELF is copied out of the jar first because the
+     * reader maps files from disk.
+     *
+     * @param name The kernel name, e.g. "arith".
+     * @return The parsed image.
+     * @throws IOException Exception thrown if the kernel cannot be extracted or parsed.
+     */
+    static ElfImage image(String name) throws IOException {
+        Path file = Files.createTempFile(name, ".elf");
+        file.toFile().deleteOnExit();
+        try (InputStream input = Kernels.class.getResourceAsStream("/kernels/" + name + ".elf")) {
+            if (input == null) {
+                throw new IOException("Unknown kernel: " + name);
+            }
+            Files.copy(input, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return new Reader().parseElfFile(file.toString());
+    }
+
+    /**
+     * Counts the instructions one run of a kernel retires by stepping it through the pipeline.
+     *
+     * @param image The kernel.
+     * @return The number of instructions executed before the exit call.
+     * @throws IOException Exception thrown if the kernel does not fit in memory.
+     */
+    static long countInstructions(ElfImage image) throws IOException {
+        Machine machine = new Machine();
+        machine.setConsole(InputStream.nullInputStream(), NULL_CONSOLE);
+        machine.loadImage(image);
+        long count = 0;
+        while (machine.isRunning()) {
+            machine.step();
+            count++;
+        }
+        return count;
+    }
+}
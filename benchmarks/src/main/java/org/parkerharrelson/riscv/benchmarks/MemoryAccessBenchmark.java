@@ -0,0 +1,80 @@
+package org.parkerharrelson.riscv.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.memory.DirectMemory;
+import org.parkerharrelson.riscv.memory.GuestMemory;
+import org.parkerharrelson.riscv.memory.HeapMemory;
+import org.parkerharrelson.riscv.memory.SparseMemory;
+import org.parkerharrelson.riscv.pipeline.MemoryAccess;
+import org.parkerharrelson.riscv.util.Instruction;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.RAM_SIZE;
+
+/**
+ * Cost of the memory stage for each load and store width on each memory backend.
+ * Stores include dropping decoded instructions from the written page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MemoryAccessBenchmark {
+
+    private static final int ADDRESS = 0x8000;
+
+    @Param({"heap", "direct", "sparse"})
+    public String backend;
+
+    @Param({"8", "16", "32"})
+    public int width;
+
+    private MemoryAccess memoryStage;
+    private Instruction load;
+    private Instruction store;
+    private int value = 0x12345678;
+
+    @Setup
+    public void setUp() {
+        GuestMemory memory = switch (backend) {
+            case "heap" -> new HeapMemory(RAM_SIZE);
+            case "direct" -> new DirectMemory(RAM_SIZE);
+            default -> new SparseMemory();
+        };
+        memoryStage = new MemoryAccess(new Machine(memory));
+
+        int funct3 = Integer.numberOfTrailingZeros(width / 8); // LB/SB, LH/SH, LW/SW
+        load = new Instruction((funct3 << 12) | 0x03);
+        load.setMemop(1);
+        store = new Instruction((funct3 << 12) | 0x23);
+        store.setMemop(2);
+    }
+
+    @Benchmark
+    public int load() {
+        load.setResult(ADDRESS);
+        memoryStage.accessMemory(load);
+        return load.getResult();
+    }
+
+    @Benchmark
+    public void store() {
+        store.setResult(ADDRESS);
+        store.setDisp(value);
+        memoryStage.accessMemory(store);
+    }
+}
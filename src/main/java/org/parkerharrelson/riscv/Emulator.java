@@ -1,7 +1,41 @@
 package org.parkerharrelson.riscv;
 
+import org.parkerharrelson.riscv.core.BatchRunner;
+import org.parkerharrelson.riscv.core.ExecutionMode;
 import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.core.MultiHartMachine;
+import org.parkerharrelson.riscv.core.Reader;
+import org.parkerharrelson.riscv.memory.DirectMemory;
+import org.parkerharrelson.riscv.memory.GuestMemory;
+import org.parkerharrelson.riscv.memory.HeapMemory;
+import org.parkerharrelson.riscv.memory.SparseMemory;
+import org.parkerharrelson.riscv.stats.ExecutionStats;
+import org.parkerharrelson.riscv.stats.GuestProfiler;
+import org.parkerharrelson.riscv.timing.BranchPredictor;
+import org.parkerharrelson.riscv.timing.BranchTargetBuffer;
+import org.parkerharrelson.riscv.timing.CacheModel;
+import org.parkerharrelson.riscv.timing.ReplacementPolicy;
+import org.parkerharrelson.riscv.timing.StaticPredictor;
+import org.parkerharrelson.riscv.timing.TimingModel;
+import org.parkerharrelson.riscv.timing.TwoBitPredictor;
+import org.parkerharrelson.riscv.trace.InputLog;
+import org.parkerharrelson.riscv.trace.TraceRecorder;
+import org.parkerharrelson.riscv.util.SymbolTable;
+
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.PROFILER_SAMPLE_INTERVAL;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.RAM_SIZE;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.TIMING_BTB_ENTRIES;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.TIMING_PREDICTOR_ENTRIES;
 
 /**
  * Main entry point for the RISC-V emulator.
@@ -13,20 +47,415 @@ import java.io.IOException;
 public class Emulator {
 
     public static void main(String[] args) {
-        if (args.length < 1) {
+        String filePath = null;
+        ExecutionMode executionMode = ExecutionMode.INTERPRETER;
+        String backing = "sparse";
+        long ramSize = RAM_SIZE;
+        int hartCount = 1;
+        String manifest = null;
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        long instructionBudget = Long.MAX_VALUE;
+        Duration timeout = null;
+        boolean collectStats = false;
+        String profilePath = null;
+        int profileInterval = PROFILER_SAMPLE_INTERVAL;
+        Path sandbox = null;
+        String tracePath = null;
+        String recordPath = null;
+        String replayPath = null;
+        String predictorName = null;
+        boolean forwarding = true;
+        String instructionCacheSpec = null;
+        String dataCacheSpec = null;
+        boolean withDevices = false;
+
+        for (String arg : args) {
+            if (arg.startsWith("--mode=")) {
+                try {
+                    executionMode = ExecutionMode.valueOf(arg.substring("--mode=".length()).toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: Unknown Execution Mode " + arg.substring("--mode=".length()));
+                    System.exit(1);
+                }
+            } else if (arg.startsWith("--memory=")) {
+                backing = arg.substring("--memory=".length());
+                if (!backing.equals("sparse") && !backing.equals("heap") && !backing.equals("direct")) {
+                    System.err.println("Error: Unknown Memory Backing " + backing);
+                    System.exit(1);
+                }
+            } else if (arg.startsWith("--ram=")) {
+                try {
+                    ramSize = Long.parseLong(arg.substring("--ram=".length())) << 20;
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: RAM Size Must Be A Number Of MiB");
+                    System.exit(1);
+                }
+            } else if (arg.startsWith("--harts=")) {
+                try {
+                    hartCount = Integer.parseInt(arg.substring("--harts=".length()));
+                } catch (NumberFormatException e) {
+                    hartCount = 0;
+                }
+                if (hartCount < 1) {
+                    System.err.println("Error: Hart Count Must Be A Positive Number");
+                    System.exit(1);
+                }
+            } else if (arg.startsWith("--batch=")) {
+                manifest = arg.substring("--batch=".length());
+            } else if (arg.startsWith("--jobs=")) {
+                try {
+                    concurrency = Integer.parseInt(arg.substring("--jobs=".length()));
+                } catch (NumberFormatException e) {
+                    concurrency = 0;
+                }
+                if (concurrency < 1) {
+                    System.err.println("Error: Job Count Must Be A Positive Number");
+                    System.exit(1);
+                }
+            } else if (arg.startsWith("--budget=")) {
+                try {
+                    instructionBudget = Long.parseLong(arg.substring("--budget=".length()));
+                } catch (NumberFormatException e) {
+                    instructionBudget = 0;
+                }
+                if (instructionBudget < 1) {
+                    System.err.println("Error: Instruction Budget Must Be A Positive Number");
+                    System.exit(1);
+                }
+            } else if (arg.startsWith("--timeout=")) {
+                long seconds;
+                try {
+                    seconds = Long.parseLong(arg.substring("--timeout=".length()));
+                } catch (NumberFormatException e) {
+                    seconds = 0;
+                }
+                if (seconds < 1) {
+                    System.err.println("Error: Timeout Must Be A Positive Number Of Seconds");
+                    System.exit(1);
+                }
+                timeout = Duration.ofSeconds(seconds);
+            } else if (arg.equals("--devices")) {
+                withDevices = true;
+            } else if (arg.equals("--stats")) {
+                collectStats = true;
+            } else if (arg.startsWith("--profile=")) {
+                profilePath = arg.substring("--profile=".length());
+            } else if (arg.startsWith("--profile-interval=")) {
+                try {
+                    profileInterval = Integer.parseInt(arg.substring("--profile-interval=".length()));
+                } catch (NumberFormatException e) {
+                    profileInterval = 0;
+                }
+                if (profileInterval < 1) {
+                    System.err.println("Error: Profile Interval Must Be A Positive Number");
+                    System.exit(1);
+                }
+            } else if (arg.startsWith("--trace=")) {
+                tracePath = arg.substring("--trace=".length());
+            } else if (arg.startsWith("--record=")) {
+                recordPath = arg.substring("--record=".length());
+            } else if (arg.startsWith("--replay=")) {
+                replayPath = arg.substring("--replay=".length());
+            } else if (arg.startsWith("--timing=")) {
+                predictorName = arg.substring("--timing=".length());
+                if (!predictorName.equals("static") && !predictorName.equals("2bit") && !predictorName.equals("btb")) {
+                    System.err.println("Error: Unknown Branch Predictor " + predictorName);
+                    System.exit(1);
+                }
+            } else if (arg.equals("--no-forwarding")) {
+                forwarding = false;
+            } else if (arg.startsWith("--icache=") || arg.startsWith("--dcache=")) {
+                String spec = arg.substring("--icache=".length());
+                try {
+                    parseCache("", spec);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: Invalid Cache " + spec + ", Expected <size>:<ways>:<line>:<lru|plru|random>");
+                    System.exit(1);
+                }
+                if (arg.startsWith("--icache=")) {
+                    instructionCacheSpec = spec;
+                } else {
+                    dataCacheSpec = spec;
+                }
+            } else if (arg.startsWith("--sandbox=")) {
+                sandbox = Path.of(arg.substring("--sandbox=".length()));
+                if (!Files.isDirectory(sandbox)) {
+                    System.err.println("Error: Sandbox Must Be An Existing Directory");
+                    System.exit(1);
+                }
+            } else {
+                filePath = arg;
+            }
+        }
+
+        if (recordPath != null && replayPath != null) {
+            System.err.println("Error: Cannot Record And Replay At The Same Time");
+            System.exit(1);
+        }
+
+        if (withDevices && hartCount > 1) {
+            System.err.println("Error: Devices Require A Single Hart");
+            System.exit(1);
+        }
+
+        if (backing.equals("heap") && ramSize > Integer.MAX_VALUE) {
+            System.err.println("Error: RAM Larger Than 2 GiB Requires --memory=direct");
+            System.exit(1);
+        }
+
+        String memoryBacking = backing;
+        long memorySize = ramSize;
+        Supplier<GuestMemory> memoryFactory = () -> switch (memoryBacking) {
+            case "heap" -> new HeapMemory((int) memorySize);
+            case "direct" -> new DirectMemory(memorySize);
+            default -> new SparseMemory();
+        };
+
+        if (manifest != null) {
+            BatchRunner runner = new BatchRunner(concurrency, executionMode, memoryFactory);
+            runner.setInstructionBudget(instructionBudget);
+            runner.setTimeout(timeout);
+            System.exit(runBatch(manifest, runner));
+        }
+
+        if (filePath == null) {
             System.err.println("Error: Must Provide File Path");
             System.exit(1);
         }
 
-        Machine machine = new Machine();
-        String filePath = args[0];
+        GuestMemory memory = memoryFactory.get();
+        ExecutionStats stats = collectStats ? new ExecutionStats() : null;
+        if (stats != null) {
+            stats.register();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> stats.print(System.err)));
+        }
+        List<GuestProfiler> profilers = new ArrayList<>();
+        if (profilePath != null) {
+            String folded = profilePath;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> writeProfile(folded, profilers)));
+        }
+
+        List<TimingModel> timingModels = new ArrayList<>();
+        if (predictorName != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> printTiming(timingModels)));
+        }
+
+        List<CacheModel> caches = new ArrayList<>();
+        if (instructionCacheSpec != null || dataCacheSpec != null) {
+            String elf = filePath;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> printCaches(elf, caches)));
+        }
 
+        List<AutoCloseable> logs = new ArrayList<>();
+        int exitCode;
         try {
-            machine.loadContents(filePath);
-            machine.run();
+            if (hartCount > 1) {
+                MultiHartMachine machine = new MultiHartMachine(memory, hartCount);
+                machine.setExecutionMode(executionMode);
+                if (stats != null) {
+                    for (int i = 0; i < hartCount; i++) {
+                        machine.getHart(i).setExecutionCounters(stats.addHart());
+                    }
+                }
+                if (profilePath != null) {
+                    SymbolTable symbols = new Reader().parseElfFile(filePath).getSymbols();
+                    for (int i = 0; i < hartCount; i++) {
+                        GuestProfiler profiler = new GuestProfiler(symbols, profileInterval);
+                        profilers.add(profiler);
+                        machine.getHart(i).setProfiler(profiler);
+                    }
+                }
+                if (predictorName != null) {
+                    for (int i = 0; i < hartCount; i++) {
+                        TimingModel timingModel = new TimingModel(createPredictor(predictorName), forwarding);
+                        timingModels.add(timingModel);
+                        machine.getHart(i).setTimingModel(timingModel);
+                    }
+                }
+                for (int i = 0; i < hartCount; i++) {
+                    attachCaches(machine.getHart(i), "hart " + i + " ", instructionCacheSpec, dataCacheSpec, caches);
+                }
+                if (tracePath != null) {
+                    for (int i = 0; i < hartCount; i++) {
+                        TraceRecorder tracer = new TraceRecorder(Path.of(tracePath + "." + i));
+                        logs.add(tracer);
+                        machine.getHart(i).setTracer(tracer);
+                    }
+                }
+                if (recordPath != null || replayPath != null) {
+                    for (int i = 0; i < hartCount; i++) {
+                        InputLog inputLog = openInputLog(recordPath, replayPath, "." + i);
+                        logs.add(inputLog);
+                        machine.getHart(i).setInputLog(inputLog);
+                    }
+                }
+                machine.getHart(0).setFileSystemRoot(sandbox);
+                machine.loadContents(filePath);
+                machine.run();
+                exitCode = machine.getExitCode();
+            } else {
+                Machine machine = new Machine(memory, withDevices);
+                machine.setExecutionMode(executionMode);
+                if (stats != null) {
+                    machine.setExecutionCounters(stats.addHart());
+                }
+                if (profilePath != null) {
+                    GuestProfiler profiler = new GuestProfiler(new Reader().parseElfFile(filePath).getSymbols(), profileInterval);
+                    profilers.add(profiler);
+                    machine.setProfiler(profiler);
+                }
+                if (predictorName != null) {
+                    TimingModel timingModel = new TimingModel(createPredictor(predictorName), forwarding);
+                    timingModels.add(timingModel);
+                    machine.setTimingModel(timingModel);
+                }
+                attachCaches(machine, "", instructionCacheSpec, dataCacheSpec, caches);
+                if (tracePath != null) {
+                    TraceRecorder tracer = new TraceRecorder(Path.of(tracePath));
+                    logs.add(tracer);
+                    machine.setTracer(tracer);
+                }
+                if (recordPath != null || replayPath != null) {
+                    InputLog inputLog = openInputLog(recordPath, replayPath, "");
+                    logs.add(inputLog);
+                    machine.setInputLog(inputLog);
+                }
+                machine.setFileSystemRoot(sandbox);
+                machine.loadContents(filePath);
+                machine.run();
+                exitCode = machine.getExitCode();
+            }
         } catch (IOException e) {
             System.err.println("Error reading ELF File: " + e.getMessage());
-            System.exit(1);
+            exitCode = 1;
+        } finally {
+            closeLogs(logs);
+        }
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    private static BranchPredictor createPredictor(String name) {
+        return switch (name) {
+            case "static" -> new StaticPredictor();
+            case "2bit" -> new TwoBitPredictor(TIMING_PREDICTOR_ENTRIES);
+            default -> new BranchTargetBuffer(TIMING_PREDICTOR_ENTRIES, TIMING_BTB_ENTRIES);
+        };
+    }
+
+    /**
+     * Parses a cache description of the form {@code <size>:<ways>:<line>:<policy>}, where
+     * the size may end in K or M, such as {@code 32K:4:64:lru}.
+     *
+     * @throws IllegalArgumentException Exception thrown if the description is malformed.
+     */
+    private static CacheModel parseCache(String name, String spec) {
+        String[] fields = spec.split(":");
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("Expected four fields");
+        }
+        String size = fields[0].toUpperCase();
+        int scale = size.endsWith("K") ? 10 : size.endsWith("M") ? 20 : 0;
+        if (scale != 0) {
+            size = size.substring(0, size.length() - 1);
+        }
+        return new CacheModel(name, Integer.parseInt(size) << scale, Integer.parseInt(fields[1]),
+                Integer.parseInt(fields[2]), ReplacementPolicy.valueOf(fields[3].toUpperCase()));
+    }
+
+    /**
+     * Gives a hart its own L1 instruction and data cache models, for the caches that were asked for.
+     */
+    private static void attachCaches(Machine hart, String prefix, String instructionCacheSpec, String dataCacheSpec,
+                                     List<CacheModel> caches) {
+        if (instructionCacheSpec != null) {
+            CacheModel cache = parseCache(prefix + "L1I", instructionCacheSpec);
+            caches.add(cache);
+            hart.setInstructionCache(cache);
+        }
+        if (dataCacheSpec != null) {
+            CacheModel cache = parseCache(prefix + "L1D", dataCacheSpec);
+            caches.add(cache);
+            hart.setDataCache(cache);
+        }
+    }
+
+    /**
+     * Prints every cache model's report, naming functions from the ELF file's symbols.
+     */
+    private static void printCaches(String elf, List<CacheModel> caches) {
+        SymbolTable symbols;
+        try {
+            symbols = new Reader().parseElfFile(elf).getSymbols();
+        } catch (IOException e) {
+            symbols = SymbolTable.EMPTY;
+        }
+        for (CacheModel cache : caches) {
+            cache.print(System.err, symbols);
+        }
+    }
+
+    private static void printTiming(List<TimingModel> timingModels) {
+        for (int i = 0; i < timingModels.size(); i++) {
+            timingModels.get(i).print(System.err, "hart " + i);
+        }
+    }
+
+    private static InputLog openInputLog(String recordPath, String replayPath, String suffix) throws IOException {
+        return recordPath != null ? InputLog.record(Path.of(recordPath + suffix)) : InputLog.replay(Path.of(replayPath + suffix));
+    }
+
+    /**
+     * Flushes every trace and input log before the emulator exits, even if the guest failed.
+     */
+    private static void closeLogs(List<AutoCloseable> logs) {
+        for (AutoCloseable log : logs) {
+            try {
+                log.close();
+            } catch (Exception e) {
+                System.err.println("Error writing log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the samples of every hart to one folded stack file; flame graph tools add up repeated stacks.
+     */
+    private static void writeProfile(String path, List<GuestProfiler> profilers) {
+        try (PrintStream out = new PrintStream(path)) {
+            for (GuestProfiler profiler : profilers) {
+                profiler.writeFolded(out);
+            }
+        } catch (FileNotFoundException e) {
+            System.err.println("Error writing profile: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs every job in a batch manifest and prints each job's output in manifest order.
+     *
+     * @return The process exit status: 0 if every job exited normally, 1 otherwise.
+     */
+    private static int runBatch(String manifest, BatchRunner runner) {
+        List<BatchRunner.Job> jobs;
+        try {
+            jobs = BatchRunner.readManifest(Path.of(manifest));
+        } catch (IOException e) {
+            System.err.println("Error reading batch manifest: " + e.getMessage());
+            return 1;
+        }
+
+        int failures = 0;
+        for (BatchRunner.Result result : runner.run(jobs)) {
+            System.out.println("=== " + result.job.elf + " (" + result.elapsedNanos / 1_000_000 + " ms) ===");
+            System.out.write(result.output, 0, result.output.length);
+            System.out.flush();
+            if (!result.succeeded()) {
+                System.err.println("Error: " + result.job.elf + ": " + result.error.getMessage());
+                failures++;
+            }
         }
+        return failures == 0 ? 0 : 1;
     }
 }
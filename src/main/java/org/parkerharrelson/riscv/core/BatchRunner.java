@@ -0,0 +1,209 @@
+package org.parkerharrelson.riscv.core;
+
+import org.parkerharrelson.riscv.memory.GuestMemory;
+import org.parkerharrelson.riscv.util.ElfImage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs many independent guest programs inside one JVM.
+ *
+ * <p>
+ * Every job gets a fresh {@link Machine} and memory, and has its console redirected:
+ * getchar reads the job's stdin file (or nothing), and everything it prints is
+ * captured in its result. The jobs are time-sliced over {@code concurrency} threads by
+ * a {@link GuestScheduler}, so a job that never exits does not hold up the others,
+ * and an instruction budget or timeout can stop it.
+ * ELF files are parsed once and the read-only image is shared by every job that
+ * runs the same file, so neither parsing nor the JVM's own warm-up is paid per job.
+ * </p>
+ */
+public class BatchRunner {
+
+    private final int concurrency;
+    private final ExecutionMode executionMode;
+    private final Supplier<GuestMemory> memoryFactory;
+    private final Reader reader = new Reader();
+    private final Map<Path, ElfImage> images = new ConcurrentHashMap<>();
+    private long instructionBudget = Long.MAX_VALUE;
+    private Duration timeout;
+
+    /**
+     * Constructor for BatchRunner.
+     *
+     * @param concurrency The number of threads guests are run on.
+     * @param executionMode The execution mode every guest runs in.
+     * @param memoryFactory Creates the memory for each guest.
+     */
+    public BatchRunner(int concurrency, ExecutionMode executionMode, Supplier<GuestMemory> memoryFactory) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+        this.executionMode = executionMode;
+        this.memoryFactory = memoryFactory;
+    }
+
+    /**
+     * Reads a batch manifest. Each non-blank line that does not start with '#' names
+     * an ELF file, optionally followed by a file to use as the guest's stdin.
+     * Relative paths are resolved against the manifest's directory.
+     *
+     * @param manifest The manifest file.
+     * @return The jobs in manifest order.
+     * @throws IOException Exception thrown if the manifest cannot be read.
+     */
+    public static List<Job> readManifest(Path manifest) throws IOException {
+        Path directory = manifest.toAbsolutePath().getParent();
+        List<Job> jobs = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest)) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            String[] fields = trimmed.split("\\s+");
+            if (fields.length > 2) {
+                throw new IOException("Invalid manifest line: " + line);
+            }
+            Path input = fields.length == 2 ? directory.resolve(fields[1]) : null;
+            jobs.add(new Job(directory.resolve(fields[0]), input));
+        }
+        return jobs;
+    }
+
+    /**
+     * Limits the number of instructions each job may retire. A job that reaches it fails.
+     *
+     * @param instructionBudget The budget per job, or Long.MAX_VALUE for no limit.
+     */
+    public void setInstructionBudget(long instructionBudget) {
+        this.instructionBudget = instructionBudget;
+    }
+
+    /**
+     * Limits the wall-clock time each job may run for. A job that reaches it fails.
+     *
+     * @param timeout The timeout per job, or null for no limit.
+     */
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Runs every job and waits for all of them to finish.
+     *
+     * @param jobs The jobs to run.
+     * @return One result per job, in the same order as the jobs.
+     */
+    public List<Result> run(List<Job> jobs) {
+        try (GuestScheduler scheduler = new GuestScheduler(Math.min(concurrency, Math.max(jobs.size(), 1)))) {
+            List<CompletableFuture<Result>> futures = new ArrayList<>();
+            for (Job job : jobs) {
+                futures.add(startJob(scheduler, job));
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (CompletableFuture<Result> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Number of distinct ELF files parsed so far.
+     *
+     * @return The number of cached images.
+     */
+    public int getImageCount() {
+        return images.size();
+    }
+
+    private CompletableFuture<Result> startJob(GuestScheduler scheduler, Job job) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Machine machine;
+        try {
+            // Read stdin up front so thousands of queued jobs do not hold a file open each
+            InputStream input = job.input == null ? InputStream.nullInputStream()
+                    : new ByteArrayInputStream(Files.readAllBytes(job.input));
+            machine = new Machine(memoryFactory.get());
+            machine.setExecutionMode(executionMode);
+            machine.setConsole(input, output);
+            machine.loadImage(image(job.elf));
+        } catch (UncheckedIOException e) {
+            return CompletableFuture.completedFuture(new Result(job, output.toByteArray(), e.getCause(), 0));
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.completedFuture(new Result(job, output.toByteArray(), e, 0));
+        }
+
+        return scheduler.submit(machine, instructionBudget, timeout).thenApply(outcome -> {
+            Throwable error = switch (outcome.status) {
+                case EXITED -> null;
+                case BUDGET_EXHAUSTED -> new IllegalStateException(
+                        "Instruction budget exhausted after " + outcome.instructions + " instructions");
+                case TIMED_OUT -> new TimeoutException("Timed out after " + outcome.elapsedNanos / 1_000_000 + " ms");
+                case DEBUG_STOP -> new IllegalStateException("Stopped at " + outcome.machine.getDebugStop());
+                case FAILED -> outcome.error;
+            };
+            return new Result(job, output.toByteArray(), error, outcome.elapsedNanos);
+        });
+    }
+
+    private ElfImage image(Path elf) {
+        return images.computeIfAbsent(elf.toAbsolutePath().normalize(), path -> {
+            try {
+                return reader.parseElfFile(path.toString());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * A guest program to run, with an optional file to feed to getchar.
+     */
+    public static class Job {
+        public final Path elf;
+        public final Path input;
+
+        public Job(Path elf, Path input) {
+            this.elf = elf;
+            this.input = input;
+        }
+    }
+
+    /**
+     * The outcome of one job: everything it printed, and the exception or error that stopped it if it did not exit normally.
+     */
+    public static class Result {
+        public final Job job;
+        public final byte[] output;
+        public final Throwable error;
+        public final long elapsedNanos;
+
+        public Result(Job job, byte[] output, Throwable error, long elapsedNanos) {
+            this.job = job;
+            this.output = output;
+            this.error = error;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.parkerharrelson.riscv.core;
+
+import org.parkerharrelson.riscv.memory.GuestMemory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.CONSOLE_BUFFER_SIZE;
+
+/**
+ * Buffered byte console behind the putchar and getchar system calls.
+ *
+ * <p>
+ * Output bytes are collected in a buffer and written to the host stream in one call
+ * when the buffer fills up, when the guest reads input, when the machine stops, and,
+ * for a line buffered console, after every newline. Input is read ahead in blocks of
+ * whatever the host stream has available. Bytes pass through unchanged in both
+ * directions, so guests that print UTF-8 or binary data get exactly those bytes out.
+ * The bulk read and write calls copy whole ranges of guest memory at a time, and
+ * transfers larger than the buffer go straight between guest memory and the host
+ * stream. A console belongs to one machine and is not thread safe.
+ * </p>
+ */
+public class Console {
+
+    private final InputStream inputStream;
+    private final ReadableByteChannel input;
+    private final WritableByteChannel output;
+    private final OutputStream outputStream;
+    private final boolean lineBuffered;
+    private final ByteBuffer inputBuffer = ByteBuffer.allocate(CONSOLE_BUFFER_SIZE).limit(0);
+    private final ByteBuffer outputBuffer = ByteBuffer.allocate(CONSOLE_BUFFER_SIZE);
+    private boolean endOfInput = false;
+
+    /**
+     * Creates a console on the JVM's standard streams, line buffered when they are attached to a terminal.
+     */
+    public Console() {
+        this(System.in, System.out, System.console() != null);
+    }
+
+    /**
+     * Constructor for Console.
+     *
+     * @param input The stream getchar reads from.
+     * @param output The stream putchar writes to.
+     * @param lineBuffered Whether output is flushed after every newline.
+     */
+    public Console(InputStream input, OutputStream output, boolean lineBuffered) {
+        this.inputStream = input;
+        this.input = Channels.newChannel(input);
+        this.output = Channels.newChannel(output);
+        this.outputStream = output;
+        this.lineBuffered = lineBuffered;
+    }
+
+    /**
+     * Writes one byte of guest output.
+     *
+     * @param value The byte to write, in the low 8 bits.
+     * @throws IOException Exception thrown if the buffer has to be flushed and the write fails.
+     */
+    public void write(int value) throws IOException {
+        outputBuffer.put((byte) value);
+        if (!outputBuffer.hasRemaining() || (lineBuffered && value == '\n')) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes a range of guest memory as output.
+     *
+     * @param memory The guest memory.
+     * @param address The guest address of the first byte.
+     * @param length The number of bytes to write.
+     * @throws IOException Exception thrown if the buffer has to be flushed and the write fails.
+     */
+    public void write(GuestMemory memory, int address, int length) throws IOException {
+        if (length >= outputBuffer.capacity()) {
+            flush();
+            memory.writeTo(output, address, length);
+            outputStream.flush();
+            return;
+        }
+        while (length > 0) {
+            int count = Math.min(length, outputBuffer.remaining());
+            memory.read(address, outputBuffer.array(), outputBuffer.position(), count);
+            outputBuffer.position(outputBuffer.position() + count);
+            if (!outputBuffer.hasRemaining()) {
+                flush();
+            }
+            address += count;
+            length -= count;
+        }
+        if (lineBuffered) {
+            flush();
+        }
+    }
+
+    /**
+     * Reads guest input into a range of guest memory, first flushing any pending output.
+     * Like a read from a terminal it returns whatever input is available, waiting only
+     * if there is none.
+     *
+     * @param memory The guest memory.
+     * @param address The guest address to store the input at.
+     * @param length The maximum number of bytes to read.
+     * @return The number of bytes read, 0 at the end of the input.
+     * @throws IOException Exception thrown if reading or flushing fails.
+     */
+    public int read(GuestMemory memory, int address, int length) throws IOException {
+        flush();
+        if (length <= 0) {
+            return 0;
+        }
+        if (!inputBuffer.hasRemaining()) {
+            if (endOfInput) {
+                return 0;
+            }
+            if (length >= inputBuffer.capacity()) {
+                int count = memory.readFrom(input, address, length);
+                endOfInput = count < 0;
+                return Math.max(count, 0);
+            }
+            if (!fill()) {
+                return 0;
+            }
+        }
+        int count = Math.min(length, inputBuffer.remaining());
+        memory.write(address, inputBuffer.array(), inputBuffer.position(), count);
+        inputBuffer.position(inputBuffer.position() + count);
+        return count;
+    }
+
+    /**
+     * Reads one byte of guest input, first flushing any pending output so prompts are visible.
+     *
+     * @return The byte read, or -1 at the end of the input.
+     * @throws IOException Exception thrown if reading or flushing fails.
+     */
+    public int read() throws IOException {
+        flush();
+        if (!inputBuffer.hasRemaining() && (endOfInput || !fill())) {
+            return -1;
+        }
+        return inputBuffer.get() & 0xFF;
+    }
+
+    /**
+     * Checks whether a byte can be read without waiting, because it is already buffered
+     * or the host stream reports it available. Unlike {@link #read()} it never blocks, so
+     * input that has not arrived yet and the end of the input both read as not ready.
+     * A line buffered console flushes its output when there is nothing to read, so a
+     * prompt is visible while the guest polls for an answer.
+     *
+     * @return True if a byte is ready.
+     * @throws IOException Exception thrown if reading or flushing fails.
+     */
+    public boolean ready() throws IOException {
+        if (inputBuffer.hasRemaining()) {
+            return true;
+        }
+        if (!endOfInput && inputStream.available() > 0) {
+            return fill();
+        }
+        if (lineBuffered) {
+            flush();
+        }
+        return false;
+    }
+
+    /**
+     * Reads the next block of input into the empty input buffer.
+     *
+     * @return False at the end of the input.
+     */
+    private boolean fill() throws IOException {
+        inputBuffer.clear();
+        int count;
+        do {
+            count = input.read(inputBuffer);
+        } while (count == 0);
+        inputBuffer.flip();
+        if (count < 0) {
+            endOfInput = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes all buffered output to the host stream.
+     *
+     * @throws IOException Exception thrown if the write fails.
+     */
+    public void flush() throws IOException {
+        if (outputBuffer.position() == 0) {
+            return;
+        }
+        outputBuffer.flip();
+        while (outputBuffer.hasRemaining()) {
+            output.write(outputBuffer);
+        }
+        outputBuffer.clear();
+        outputStream.flush();
+    }
+}
@@ -0,0 +1,230 @@
+package org.parkerharrelson.riscv.core;
+
+import org.parkerharrelson.riscv.device.DeviceBus;
+import org.parkerharrelson.riscv.timing.TimingModel;
+
+/**
+ * The machine-mode control and status registers of one hart, for the Zicsr instructions and traps.
+ *
+ * <p>
+ * Only machine mode exists, so {@code mstatus} holds just MIE, MPIE and an MPP that
+ * always reads as machine mode. {@code mip} is read-only and reflects the interrupts
+ * the machine's devices are raising; a machine without devices never has one pending.
+ * The counters are not stored: {@code instret} is the machine's retired instruction
+ * count, {@code cycle} is the timing model's cycle count when one is attached and the
+ * retired count otherwise, and {@code time} is the device bus time. Writes to the
+ * counters are ignored.
+ * </p>
+ */
+public class ControlStatusRegisters {
+
+    public static final int MSTATUS = 0x300;
+    public static final int MISA = 0x301;
+    public static final int MIE = 0x304;
+    public static final int MTVEC = 0x305;
+    public static final int MSTATUSH = 0x310;
+    public static final int MSCRATCH = 0x340;
+    public static final int MEPC = 0x341;
+    public static final int MCAUSE = 0x342;
+    public static final int MTVAL = 0x343;
+    public static final int MIP = 0x344;
+    public static final int MCYCLE = 0xB00;
+    public static final int MINSTRET = 0xB02;
+    public static final int MCYCLEH = 0xB80;
+    public static final int MINSTRETH = 0xB82;
+    public static final int CYCLE = 0xC00;
+    public static final int TIME = 0xC01;
+    public static final int INSTRET = 0xC02;
+    public static final int CYCLEH = 0xC80;
+    public static final int TIMEH = 0xC81;
+    public static final int INSTRETH = 0xC82;
+    public static final int MVENDORID = 0xF11;
+    public static final int MARCHID = 0xF12;
+    public static final int MIMPID = 0xF13;
+    public static final int MHARTID = 0xF14;
+
+    public static final int MSTATUS_MIE = 1 << 3;
+    public static final int MSTATUS_MPIE = 1 << 7;
+    public static final int MSTATUS_MPP = 3 << 11;
+    public static final int INTERRUPT = 1 << 31;    // Set in mcause for interrupts
+
+    // RV32 with the I, M, A and C extensions
+    private static final int MISA_VALUE = (1 << 30) | (1 << ('I' - 'A')) | (1 << ('M' - 'A'))
+            | (1 << ('A' - 'A')) | (1 << ('C' - 'A'));
+    private static final int MIE_MASK = 0x888;   // MSIE, MTIE and MEIE
+
+    private final Machine machine;
+    private int hartId;
+    private int mstatus;
+    private int mie;
+    private int mtvec;
+    private int mscratch;
+    private int mepc;
+    private int mcause;
+    private int mtval;
+
+    /**
+     * Constructor for ControlStatusRegisters.
+     *
+     * @param machine The hart the registers belong to, which supplies the counters and pending interrupts.
+     */
+    public ControlStatusRegisters(Machine machine) {
+        this.machine = machine;
+    }
+
+    /**
+     * Reads a register.
+     *
+     * @param csr The register number.
+     * @return The value.
+     * @throws IllegalArgumentException If there is no such register.
+     */
+    public int read(int csr) {
+        return switch (csr) {
+            case MSTATUS -> mstatus | MSTATUS_MPP;
+            case MISA -> MISA_VALUE;
+            case MIE -> mie;
+            case MTVEC -> mtvec;
+            case MSTATUSH, MVENDORID, MARCHID, MIMPID -> 0;
+            case MSCRATCH -> mscratch;
+            case MEPC -> mepc;
+            case MCAUSE -> mcause;
+            case MTVAL -> mtval;
+            case MIP -> getPendingInterrupts();
+            case MCYCLE, CYCLE -> (int) cycles();
+            case MCYCLEH, CYCLEH -> (int) (cycles() >>> 32);
+            case MINSTRET, INSTRET -> (int) machine.getInstructionsRetired();
+            case MINSTRETH, INSTRETH -> (int) (machine.getInstructionsRetired() >>> 32);
+            case TIME -> (int) time();
+            case TIMEH -> (int) (time() >>> 32);
+            case MHARTID -> hartId;
+            default -> throw new IllegalArgumentException(String.format("No CSR 0x%03x", csr));
+        };
+    }
+
+    /**
+     * Writes a register. Writes to fields and registers that are read-only in machine mode are ignored.
+     *
+     * @param csr The register number.
+     * @param value The value.
+     * @throws IllegalArgumentException If there is no such register, or it is in the read-only CSR range.
+     */
+    public void write(int csr, int value) {
+        if ((csr >>> 10) == 0x3) {
+            throw new IllegalArgumentException(String.format("CSR 0x%03x is read-only", csr));
+        }
+        switch (csr) {
+            case MSTATUS -> mstatus = value & (MSTATUS_MIE | MSTATUS_MPIE);
+            case MIE -> mie = value & MIE_MASK;
+            case MTVEC -> mtvec = value & ~0x2;     // Direct or vectored mode
+            case MSCRATCH -> mscratch = value;
+            case MEPC -> mepc = value & ~1;
+            case MCAUSE -> mcause = value;
+            case MTVAL -> mtval = value;
+            case MISA, MSTATUSH, MIP, MCYCLE, MCYCLEH, MINSTRET, MINSTRETH -> {
+            }
+            default -> throw new IllegalArgumentException(String.format("No CSR 0x%03x", csr));
+        }
+    }
+
+    /**
+     * Checks whether the guest has installed a trap handler. Until it does, ECALL is a host system call.
+     *
+     * @return True if mtvec is set.
+     */
+    public boolean hasTrapVector() {
+        return mtvec != 0;
+    }
+
+    /**
+     * Enters the trap handler, saving the interrupted program counter and the interrupt enable bit.
+     *
+     * @param cause The exception code, with {@link #INTERRUPT} set for interrupts.
+     * @param epc The address of the instruction that trapped, or of the next instruction for an interrupt.
+     * @param tval The faulting value, or 0.
+     * @return The address of the handler.
+     */
+    public int trap(int cause, int epc, int tval) {
+        mepc = epc;
+        mcause = cause;
+        mtval = tval;
+        mstatus = (mstatus & MSTATUS_MIE) != 0 ? MSTATUS_MPIE : 0;
+        int base = mtvec & ~0x3;
+        // In vectored mode interrupts go to the entry for their cause
+        return (mtvec & 0x1) != 0 && cause < 0 ? base + 4 * (cause & ~INTERRUPT) : base;
+    }
+
+    /**
+     * Returns from the trap handler, restoring the interrupt enable bit.
+     *
+     * @return The address to return to.
+     */
+    public int mret() {
+        mstatus = ((mstatus & MSTATUS_MPIE) != 0 ? MSTATUS_MIE : 0) | MSTATUS_MPIE;
+        return mepc;
+    }
+
+    /**
+     * The highest priority interrupt that is pending, enabled and not masked by mstatus.MIE.
+     *
+     * @return The mcause value to take it with, or 0 if no interrupt can be taken.
+     */
+    public int takeableInterrupt() {
+        if ((mstatus & MSTATUS_MIE) == 0) {
+            return 0;
+        }
+        int ready = getPendingInterrupts() & mie;
+        // External, then software, then timer interrupts
+        if ((ready & (1 << 11)) != 0) {
+            return INTERRUPT | 11;
+        } else if ((ready & (1 << 3)) != 0) {
+            return INTERRUPT | 3;
+        } else if ((ready & (1 << 7)) != 0) {
+            return INTERRUPT | 7;
+        }
+        return 0;
+    }
+
+    /**
+     * Checks whether WFI has anything to wait for: an interrupt that is pending and
+     * enabled in mie, whatever mstatus.MIE says, ends the wait.
+     *
+     * @return True if such an interrupt is pending.
+     */
+    public boolean isInterruptPending() {
+        return (getPendingInterrupts() & mie) != 0;
+    }
+
+    void setHartId(int hartId) {
+        this.hartId = hartId;
+    }
+
+    /**
+     * Copies the registers of another hart, for restoring a snapshot.
+     */
+    void copyFrom(ControlStatusRegisters other) {
+        hartId = other.hartId;
+        mstatus = other.mstatus;
+        mie = other.mie;
+        mtvec = other.mtvec;
+        mscratch = other.mscratch;
+        mepc = other.mepc;
+        mcause = other.mcause;
+        mtval = other.mtval;
+    }
+
+    private int getPendingInterrupts() {
+        DeviceBus devices = machine.getDevices();
+        return devices == null ? 0 : devices.getPendingInterrupts();
+    }
+
+    private long cycles() {
+        TimingModel timingModel = machine.getTimingModel();
+        return timingModel != null ? timingModel.getCycles() : machine.getInstructionsRetired();
+    }
+
+    private long time() {
+        DeviceBus devices = machine.getDevices();
+        return devices != null ? devices.now() : machine.getInstructionsRetired();
+    }
+}
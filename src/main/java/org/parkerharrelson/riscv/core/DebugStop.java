@@ -0,0 +1,31 @@
+package org.parkerharrelson.riscv.core;
+
+/**
+ * Why a machine suspended itself for a debugger: it reached a breakpoint or a guest store hit a watchpoint.
+ *
+ * <p>
+ * At a breakpoint the instruction has not run yet and the program counter points at it;
+ * running the machine again steps over it. After a watchpoint the store has been made, and
+ * the machine stops after the instruction that made it, or in JIT mode after its block.
+ * </p>
+ */
+public class DebugStop {
+
+    public enum Kind {
+        BREAKPOINT,
+        WATCHPOINT
+    }
+
+    public final Kind kind;
+    public final int address;   // The breakpoint's program counter, or the watched address that was written
+
+    public DebugStop(Kind kind, int address) {
+        this.kind = kind;
+        this.address = address;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s at 0x%08x", kind == Kind.BREAKPOINT ? "Breakpoint" : "Watchpoint", address);
+    }
+}
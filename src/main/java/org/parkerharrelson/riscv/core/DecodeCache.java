@@ -0,0 +1,293 @@
+package org.parkerharrelson.riscv.core;
+
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+import org.parkerharrelson.riscv.util.PageTable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.CODE_PAGE_SHIFT;
+
+/**
+ * Cache of pre-decoded instructions indexed by program counter.
+ *
+ * <p>
+ * Entries are grouped into code pages so that a store into a page holding
+ * cached instructions only has to drop that one page. Pages are allocated
+ * the first time an instruction inside them is decoded, so memory that is
+ * never executed costs nothing beyond a null slot in the two-level page table.
+ * </p>
+ *
+ * <p>
+ * There is a slot for every two bytes, since compressed instructions can start at
+ * any even address. A four-byte instruction in the last slot of a page ends in the
+ * next page, so the next page is allocated along with it and dropping the next page
+ * drops the instruction's page as well.
+ * </p>
+ *
+ * <p>
+ * Breakpoints and watchpoints are kept here as well, so that the execution engines
+ * only pay for them on paths they already take for decoding and self-modifying code.
+ * An instruction under a breakpoint is never cached, so the engines find it on their
+ * decode miss path, which checks for breakpoints before decoding. A page holding a
+ * watchpoint always has an entry in the page table, if only a shared empty one, so
+ * stores to it take the slow path of {@link #invalidate} like stores to code do.
+ * Watchpoints are matched a naturally aligned word at a time, since a store is only
+ * reported here by the addresses of its first and last bytes.
+ * </p>
+ */
+public class DecodeCache {
+
+    private static final int ENTRIES_PER_PAGE = (1 << CODE_PAGE_SHIFT) >> 1;
+    private static final int ENTRY_MASK = ENTRIES_PER_PAGE - 1;
+    private static final DecodedInstruction[] WATCHED_PAGE = new DecodedInstruction[ENTRIES_PER_PAGE];
+
+    private final PageTable<DecodedInstruction[]> pages = new PageTable<>();
+    private IntConsumer invalidationListener;
+    private final Set<Integer> breakpoints = new HashSet<>();
+    private final List<int[]> watchpoints = new ArrayList<>();  // The first and last address of each watched range
+    private IntConsumer watchListener;
+
+    /**
+     * Registers a callback that is told the index of every code page that gets dropped,
+     * so caches built on top of decoded instructions can drop their copies as well.
+     *
+     * @param invalidationListener The callback, or null to remove it.
+     */
+    public void setInvalidationListener(IntConsumer invalidationListener) {
+        this.invalidationListener = invalidationListener;
+    }
+
+    /**
+     * Registers a callback that is told the address of every store that hits a watchpoint.
+     *
+     * @param watchListener The callback, or null to remove it.
+     */
+    public void setWatchListener(IntConsumer watchListener) {
+        this.watchListener = watchListener;
+    }
+
+    /**
+     * Looks up the decoded instruction at the given address.
+     *
+     * @param pc The address of the instruction.
+     * @return The cached decoded instruction, or null if it has not been decoded yet.
+     */
+    public DecodedInstruction get(int pc) {
+        DecodedInstruction[] page = pages.get(pc >>> CODE_PAGE_SHIFT);
+        return page == null ? null : page[(pc >>> 1) & ENTRY_MASK];
+    }
+
+    /**
+     * Stores a decoded instruction for the given address. A fused pair whose second
+     * instruction is under a breakpoint is stored unfused, so the breakpoint is not skipped.
+     *
+     * @param pc The address of the instruction.
+     * @param decoded The decoded form of the instruction at that address.
+     * @return The instruction as stored, which the caller should execute.
+     */
+    public DecodedInstruction put(int pc, DecodedInstruction decoded) {
+        if (decoded.getNext() != null && isBreakpoint(pc + decoded.getLength())) {
+            decoded = decoded.unfused();
+        }
+        int pageIndex = pc >>> CODE_PAGE_SHIFT;
+        DecodedInstruction[] page = pages.get(pageIndex);
+        if (page == null || page == WATCHED_PAGE) {
+            page = new DecodedInstruction[ENTRIES_PER_PAGE];
+            pages.put(pageIndex, page);
+        }
+        int slot = (pc >>> 1) & ENTRY_MASK;
+        page[slot] = decoded;
+        if (slot == ENTRY_MASK && decoded.getLength() == 4) {
+            int nextIndex = (pageIndex + 1) & (-1 >>> CODE_PAGE_SHIFT);
+            DecodedInstruction[] next = pages.get(nextIndex);
+            if (next == null || next == WATCHED_PAGE) {
+                pages.put(nextIndex, new DecodedInstruction[ENTRIES_PER_PAGE]);
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Drops every cached instruction in the code page containing the given address.
+     * Called for every store, so the common case of writing to a data page is a single null check.
+     *
+     * @param address The address that was written.
+     */
+    public void invalidate(int address) {
+        int pageIndex = address >>> CODE_PAGE_SHIFT;
+        DecodedInstruction[] page = pages.get(pageIndex);
+        if (page != null) {
+            written(pageIndex, page, address & ~3, address | 3);
+        }
+    }
+
+    /**
+     * Drops every cached instruction in the code pages overlapping a range, after the range was written in bulk.
+     *
+     * @param address The first address that was written.
+     * @param length The number of bytes written.
+     */
+    public void invalidateRange(int address, int length) {
+        if (length <= 0) {
+            return;
+        }
+        int lastAddress = address + length - 1;
+        int last = lastAddress >>> CODE_PAGE_SHIFT;
+        for (int pageIndex = address >>> CODE_PAGE_SHIFT; ; pageIndex = (pageIndex + 1) & (-1 >>> CODE_PAGE_SHIFT)) {
+            DecodedInstruction[] page = pages.get(pageIndex);
+            if (page != null) {
+                written(pageIndex, page, address, lastAddress);
+            }
+            if (pageIndex == last) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Drops every cached instruction.
+     */
+    public void clear() {
+        pages.forEachPage(this::dropPage);
+    }
+
+    /**
+     * Sets a breakpoint, dropping any cached instruction or compiled block that covers its address.
+     *
+     * @param pc The address of the instruction to stop at.
+     */
+    public void addBreakpoint(int pc) {
+        breakpoints.add(pc);
+        dropPage(pc >>> CODE_PAGE_SHIFT);
+    }
+
+    /**
+     * Removes a breakpoint.
+     *
+     * @param pc The address of the instruction.
+     */
+    public void removeBreakpoint(int pc) {
+        if (breakpoints.remove(pc)) {
+            dropPage(pc >>> CODE_PAGE_SHIFT);
+        }
+    }
+
+    /**
+     * Checks for a breakpoint. The engines call it only when an instruction is not cached.
+     *
+     * @param pc The address of the instruction.
+     * @return True if there is a breakpoint at the address.
+     */
+    public boolean isBreakpoint(int pc) {
+        return !breakpoints.isEmpty() && breakpoints.contains(pc);
+    }
+
+    /**
+     * Runs an action with a breakpoint lifted, so the instruction under it can be stepped over.
+     *
+     * @param pc The address of the breakpoint.
+     * @param action The action, typically a single pipeline step.
+     */
+    public void withoutBreakpoint(int pc, Runnable action) {
+        if (!breakpoints.remove(pc)) {
+            action.run();
+            return;
+        }
+        try {
+            action.run();
+        } finally {
+            breakpoints.add(pc);
+            DecodedInstruction[] page = pages.get(pc >>> CODE_PAGE_SHIFT);
+            if (page != null) {
+                page[(pc >>> 1) & ENTRY_MASK] = null;
+            }
+        }
+    }
+
+    /**
+     * Watches a range of memory for stores.
+     *
+     * @param address The first address to watch.
+     * @param length The number of bytes to watch.
+     */
+    public void addWatchpoint(int address, int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Watchpoint length must be positive");
+        }
+        int last = address + length - 1;
+        watchpoints.add(new int[]{address, last});
+        for (int pageIndex = address >>> CODE_PAGE_SHIFT; ; pageIndex = (pageIndex + 1) & (-1 >>> CODE_PAGE_SHIFT)) {
+            if (pages.get(pageIndex) == null) {
+                pages.put(pageIndex, WATCHED_PAGE);
+            }
+            if (pageIndex == last >>> CODE_PAGE_SHIFT) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Removes a watchpoint set with the same address and length.
+     *
+     * @param address The first address watched.
+     * @param length The number of bytes watched.
+     */
+    public void removeWatchpoint(int address, int length) {
+        int last = address + length - 1;
+        if (!watchpoints.removeIf(range -> range[0] == address && range[1] == last)) {
+            return;
+        }
+        for (int pageIndex = address >>> CODE_PAGE_SHIFT; ; pageIndex = (pageIndex + 1) & (-1 >>> CODE_PAGE_SHIFT)) {
+            if (pages.get(pageIndex) == WATCHED_PAGE && !isWatched(pageIndex)) {
+                pages.put(pageIndex, null);
+            }
+            if (pageIndex == last >>> CODE_PAGE_SHIFT) {
+                break;
+            }
+        }
+    }
+
+    private boolean isWatched(int pageIndex) {
+        for (int[] range : watchpoints) {
+            if (Integer.compareUnsigned(pageIndex, range[0] >>> CODE_PAGE_SHIFT) >= 0
+                    && Integer.compareUnsigned(pageIndex, range[1] >>> CODE_PAGE_SHIFT) <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handles a store of the bytes from first to last into a page that has an entry in the page table.
+     */
+    private void written(int pageIndex, DecodedInstruction[] page, int first, int last) {
+        if (!watchpoints.isEmpty() && watchListener != null) {
+            for (int[] range : watchpoints) {
+                if (Integer.compareUnsigned(first, range[1]) <= 0 && Integer.compareUnsigned(last, range[0]) >= 0) {
+                    watchListener.accept(Integer.compareUnsigned(first, range[0]) > 0 ? first : range[0]);
+                    break;
+                }
+            }
+        }
+        if (page != WATCHED_PAGE) {
+            dropPage(pageIndex);
+        }
+    }
+
+    private void dropPage(int pageIndex) {
+        pages.put(pageIndex, !watchpoints.isEmpty() && isWatched(pageIndex) ? WATCHED_PAGE : null);
+        if (invalidationListener != null) {
+            invalidationListener.accept(pageIndex);
+        }
+        // An instruction straddling into this page from the one before has to go too
+        int previousIndex = (pageIndex - 1) & (-1 >>> CODE_PAGE_SHIFT);
+        DecodedInstruction[] previous = pages.get(previousIndex);
+        if (previous != null && previous[ENTRY_MASK] != null && previous[ENTRY_MASK].getLength() == 4) {
+            dropPage(previousIndex);
+        }
+    }
+}
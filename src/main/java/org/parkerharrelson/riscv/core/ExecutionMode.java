@@ -0,0 +1,8 @@
+package org.parkerharrelson.riscv.core;
+
+public enum ExecutionMode {
+
+    INTERPRETER, // Every instruction runs through the five pipeline stages
+    FAST,        // Every instruction runs in a single fused switch loop
+    JIT,         // Hot basic blocks are compiled to JVM bytecode, the rest is interpreted
+}
@@ -0,0 +1,295 @@
+package org.parkerharrelson.riscv.core;
+
+import org.parkerharrelson.riscv.memory.GuestMemory;
+import org.parkerharrelson.riscv.pipeline.AtomicUnit;
+import org.parkerharrelson.riscv.pipeline.InstructionDecode;
+import org.parkerharrelson.riscv.pipeline.InstructionExecute;
+import org.parkerharrelson.riscv.stats.ExecutionCounters;
+import org.parkerharrelson.riscv.stats.GuestProfiler;
+import org.parkerharrelson.riscv.timing.CacheModel;
+import org.parkerharrelson.riscv.trace.TraceRecorder;
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+
+/**
+ * Fast functional interpreter that runs every instruction in a single switch loop.
+ *
+ * <p>
+ * The five pipeline stages stay available as the reference implementation. This
+ * interpreter produces the same architectural state, but works directly on the
+ * machine's register file and guest memory backend, keeps the program counter in a local, and
+ * does not go through the IMachine accessors or allocate anything per instruction.
+ * Instructions come from the same decode cache the pipeline uses.
+ * </p>
+ *
+ * <p>
+ * Instruction pairs that the decoder fuses, such as LUI followed by ADDI, run as a
+ * single dispatch with the same effect on registers, memory and the program counter
+ * as running them one at a time. Pairs are not fused while the machine is traced or
+ * has a cache model, so that every instruction gets its own trace record and fetch.
+ * </p>
+ *
+ * <p>
+ * Compressed instructions come out of the decode cache already expanded, so apart from
+ * advancing the program counter by two instead of four they run exactly like the
+ * instructions they stand for.
+ * </p>
+ */
+public class FastInterpreter {
+
+    private final Machine machine;
+
+    /**
+     * Constructor for FastInterpreter.
+     *
+     * @param machine The machine whose guest code is executed.
+     */
+    public FastInterpreter(Machine machine) {
+        this.machine = machine;
+    }
+
+    /**
+     * Runs the machine until the guest makes an exit call, or until the machine's
+     * instruction limit is reached.
+     */
+    public void run() {
+        int[] x = machine.getRegisters();
+        GuestMemory memory = machine.getMemory();
+        DecodeCache decodeCache = machine.getDecodeCache();
+        AtomicUnit atomicUnit = machine.getAtomicUnit();
+        ExecutionCounters counters = machine.getExecutionCounters();
+        GuestProfiler profiler = machine.getProfiler();
+        TraceRecorder tracer = machine.getTracer();
+        CacheModel instructionCache = machine.getInstructionCache();
+        CacheModel dataCache = machine.getDataCache();
+        boolean fusing = tracer == null && instructionCache == null && dataCache == null;
+        // Devices take the time from the machine's retired count, so it is published before every load and store
+        boolean timed = machine.getDevices() != null;
+        machine.initializeStackPointer();
+        int pc = machine.getProgramCounter();
+        long retired = machine.getInstructionsRetired();
+        long limit = machine.getInstructionLimit();
+
+        while (machine.isRunning() && retired < limit) {
+            DecodedInstruction decoded = decodeCache.get(pc);
+            if (decoded == null) {
+                // Instructions under breakpoints are never cached, so only a miss has to look for one
+                if (decodeCache.isBreakpoint(pc)) {
+                    machine.hitBreakpoint(pc);
+                    break;
+                }
+                try {
+                    decoded = fusing ? InstructionDecode.predecodeFused(memory, pc) : InstructionDecode.predecode(memory, pc);
+                } catch (UnsupportedOperationException e) {
+                    machine.setInstructionsRetired(retired);
+                    machine.decodeFailed(InstructionDecode.fetch(memory, pc), pc, e);
+                    pc = machine.getProgramCounter();
+                    continue;
+                }
+                decoded = decodeCache.put(pc, decoded);
+            }
+            if (counters != null) {
+                counters.retire(decoded);
+            }
+            if (profiler != null) {
+                profiler.retire(pc, 1);
+            }
+            if (instructionCache != null) {
+                instructionCache.access(pc, pc);
+            }
+
+            int rd = decoded.getRd();
+            // Selected by a predictable branch rather than added, so that the next lookup
+            // does not have to wait for the length to be loaded
+            int nextPc = decoded.getLength() == 4 ? pc + 4 : pc + 2;
+            int address = 0;
+            int memoryValue = 0;
+
+            switch (decoded.getFusedOpcode()) {
+                case 0x33: // R-type
+                    if (rd != 0) {
+                        x[rd] = InstructionExecute.compute(decoded.getAluop(), x[decoded.getRs1()], x[decoded.getRs2()]);
+                    }
+                    break;
+                case 0x13: // I-type (OP-IMM)
+                    if (rd != 0) {
+                        x[rd] = InstructionExecute.compute(decoded.getAluop(), x[decoded.getRs1()], decoded.getImm());
+                    }
+                    break;
+                case 0x03: // I-type (LOAD)
+                    address = x[decoded.getRs1()] + decoded.getImm();
+                    if (timed) {
+                        machine.setInstructionsRetired(retired);
+                    }
+                    int loadedValue = load(memory, decoded.getFunct3(), address);
+                    if (rd != 0) {
+                        x[rd] = loadedValue;
+                    }
+                    memoryValue = loadedValue;
+                    break;
+                case 0x23: // S-type
+                    address = x[decoded.getRs1()] + decoded.getImm();
+                    int value = x[decoded.getRs2()];
+                    if (timed) {
+                        machine.setInstructionsRetired(retired);
+                    }
+                    switch (decoded.getFunct3()) {
+                        case 0x0: // SB
+                            memory.store8(address, value);
+                            break;
+                        case 0x1: // SH
+                            memory.store16(address, value);
+                            break;
+                        case 0x2: // SW
+                            memory.store32(address, value);
+                            break;
+                        default:
+                            throw new UnsupportedOperationException("Unsupported store funct3: " + decoded.getFunct3());
+                    }
+                    decodeCache.invalidate(address);
+                    decodeCache.invalidate(address + 3);
+                    memoryValue = value;
+                    break;
+                case 0x63: // B-type
+                    if (isBranchTaken(decoded.getFunct3(), x[decoded.getRs1()], x[decoded.getRs2()])) {
+                        nextPc = pc + decoded.getImm();
+                    }
+                    break;
+                case 0x37: // U-type (LUI)
+                    if (rd != 0) {
+                        x[rd] = decoded.getImm();
+                    }
+                    break;
+                case 0x17: // U-type (AUIPC)
+                    if (rd != 0) {
+                        x[rd] = pc + decoded.getImm();
+                    }
+                    break;
+                case 0x6F: // J-type (JAL)
+                    if (rd != 0) {
+                        x[rd] = nextPc;
+                    }
+                    if (profiler != null) {
+                        profiler.jump(rd, 0, nextPc);
+                    }
+                    nextPc = pc + decoded.getImm();
+                    break;
+                case 0x67: // JALR, target is computed before rd is written in case rd == rs1
+                    int target = (x[decoded.getRs1()] + decoded.getImm()) & ~1;
+                    if (rd != 0) {
+                        x[rd] = nextPc;
+                    }
+                    if (profiler != null) {
+                        profiler.jump(rd, decoded.getRs1(), nextPc);
+                    }
+                    nextPc = target;
+                    break;
+                case 0x2F: // AMO
+                    address = x[decoded.getRs1()];
+                    memoryValue = atomicUnit.execute(decoded.getInst(), address, x[decoded.getRs2()]);
+                    if (rd != 0) {
+                        x[rd] = memoryValue;
+                    }
+                    break;
+                case 0x0F: // MISC-MEM
+                    atomicUnit.fence(decoded.getInst());
+                    break;
+                case 0x73: // SYSTEM, which can trap or return from a trap, so the machine may move the program counter
+                    machine.setProgramCounter(nextPc);
+                    machine.setInstructionsRetired(retired);
+                    machine.executeSystem(decoded.getInst(), x[decoded.getRs1()], pc);
+                    nextPc = machine.getProgramCounter();
+                    break;
+                case DecodedInstruction.FUSED_LOAD_IMMEDIATE: // LUI + ADDI, rd is never x0
+                    x[rd] = decoded.getImm() + decoded.getNext().getImm();
+                    retireSecond(decoded, nextPc, counters, profiler);
+                    nextPc += decoded.getNext().getLength();
+                    retired++;
+                    break;
+                case DecodedInstruction.FUSED_FAR_JUMP: // AUIPC + JALR
+                    DecodedInstruction jump = decoded.getNext();
+                    x[rd] = pc + decoded.getImm();
+                    retireSecond(decoded, nextPc, counters, profiler);
+                    int returnAddress = nextPc + jump.getLength();
+                    nextPc = (x[rd] + jump.getImm()) & ~1;
+                    if (jump.getRd() != 0) {
+                        x[jump.getRd()] = returnAddress;
+                    }
+                    if (profiler != null) {
+                        profiler.jump(jump.getRd(), jump.getRs1(), returnAddress);
+                    }
+                    retired++;
+                    break;
+                case DecodedInstruction.FUSED_PC_RELATIVE_LOAD: // AUIPC + LOAD
+                    DecodedInstruction pcRelativeLoad = decoded.getNext();
+                    x[rd] = pc + decoded.getImm();
+                    address = x[rd] + pcRelativeLoad.getImm();
+                    if (timed) {
+                        machine.setInstructionsRetired(retired + 1);
+                    }
+                    memoryValue = load(memory, pcRelativeLoad.getFunct3(), address);
+                    if (pcRelativeLoad.getRd() != 0) {
+                        x[pcRelativeLoad.getRd()] = memoryValue;
+                    }
+                    retireSecond(decoded, nextPc, counters, profiler);
+                    nextPc += pcRelativeLoad.getLength();
+                    retired++;
+                    break;
+                case DecodedInstruction.FUSED_COMPARE_BRANCH: // SLT[I][U] + BEQ/BNE against zero
+                    int right = decoded.getOpcode() == 0x33 ? x[decoded.getRs2()] : decoded.getImm();
+                    x[rd] = InstructionExecute.compute(decoded.getAluop(), x[decoded.getRs1()], right);
+                    DecodedInstruction branch = decoded.getNext();
+                    retireSecond(decoded, nextPc, counters, profiler);
+                    nextPc = (x[rd] != 0) == (branch.getFunct3() == 0x1) ? nextPc + branch.getImm() : nextPc + branch.getLength();
+                    retired++;
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unsupported opcode: " + decoded.getOpcode());
+            }
+
+            if (dataCache != null && decoded.getMemop() >= 1 && decoded.getMemop() <= 3) {
+                dataCache.access(address, pc);
+            }
+            if (tracer != null) {
+                tracer.record(pc, decoded.getInst(), x, address, memoryValue);
+            }
+            pc = nextPc;
+            retired++;
+        }
+
+        machine.setProgramCounter(pc);
+        machine.setInstructionsRetired(retired);
+    }
+
+    /**
+     * Accounts for the second instruction of a fused pair in the optional counters and profiler.
+     */
+    private static void retireSecond(DecodedInstruction decoded, int secondPc, ExecutionCounters counters, GuestProfiler profiler) {
+        if (counters != null) {
+            counters.retire(decoded.getNext());
+        }
+        if (profiler != null) {
+            profiler.retire(secondPc, 1);
+        }
+    }
+
+    private static int load(GuestMemory memory, int funct3, int address) {
+        return switch (funct3) {
+            case 0x0 -> memory.load8(address); // LB
+            case 0x1 -> memory.load16(address); // LH
+            case 0x2 -> memory.load32(address); // LW
+            case 0x4 -> memory.load8(address) & 0xFF; // LBU
+            default -> memory.load16(address) & 0xFFFF; // LHU
+        };
+    }
+
+    private static boolean isBranchTaken(int funct3, int left, int right) {
+        return switch (funct3) {
+            case 0x0 -> left == right; // BEQ
+            case 0x1 -> left != right; // BNE
+            case 0x4 -> left < right; // BLT
+            case 0x5 -> left >= right; // BGE
+            case 0x6 -> Integer.compareUnsigned(left, right) < 0; // BLTU
+            default -> Integer.compareUnsigned(left, right) >= 0; // BGEU
+        };
+    }
+}
@@ -0,0 +1,198 @@
+package org.parkerharrelson.riscv.core;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.SCHEDULER_QUANTUM;
+
+/**
+ * Time-slices many guests over a fixed number of host threads.
+ *
+ * <p>
+ * Each guest runs for one quantum of retired instructions with {@link Machine#runFor},
+ * and is then put back at the end of the queue, so thousands of machines share a pool
+ * sized to the host's cores and a guest that never exits cannot hold a thread. The pool
+ * is a work-stealing pool in FIFO mode: a thread requeues the guest it just ran on its
+ * own queue, where the guests it holds take turns, and idle threads steal from busy ones.
+ * A guest whose instruction budget or wall-clock timeout runs out, or that reaches a
+ * breakpoint or watchpoint, is not run again, but it is left suspended rather than
+ * stopped, so it can be submitted again to resume it.
+ * </p>
+ */
+public class GuestScheduler implements AutoCloseable {
+
+    private final ExecutorService executor;
+    private final long quantum;
+    private final Set<Guest> guests = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructor for GuestScheduler using the default quantum.
+     *
+     * @param parallelism The number of host threads to run guests on.
+     */
+    public GuestScheduler(int parallelism) {
+        this(parallelism, SCHEDULER_QUANTUM);
+    }
+
+    /**
+     * Constructor for GuestScheduler.
+     *
+     * @param parallelism The number of host threads to run guests on.
+     * @param quantum The number of instructions a guest retires before the next guest gets its turn.
+     */
+    public GuestScheduler(int parallelism, long quantum) {
+        if (parallelism < 1 || quantum < 1) {
+            throw new IllegalArgumentException("Parallelism and quantum must be at least 1");
+        }
+        this.executor = Executors.newWorkStealingPool(parallelism);
+        this.quantum = quantum;
+    }
+
+    /**
+     * Schedules a guest to run until it exits.
+     *
+     * @param machine A loaded machine that is not running anywhere else.
+     * @return A future completed once the guest stops.
+     */
+    public CompletableFuture<Result> submit(Machine machine) {
+        return submit(machine, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Schedules a guest to run until it exits or runs out of instructions or time.
+     * The budget and timeout count from this call, so a guest submitted again gets a fresh allowance.
+     *
+     * @param machine A loaded machine that is not running anywhere else.
+     * @param instructionBudget The most instructions to retire, or Long.MAX_VALUE for no limit.
+     *                          It may be overrun by up to one basic block.
+     * @param timeout The most wall-clock time to run for, or null for no limit. It is
+     *                checked between quanta, including time spent waiting for a turn.
+     * @return A future completed once the guest stops.
+     */
+    public CompletableFuture<Result> submit(Machine machine, long instructionBudget, Duration timeout) {
+        if (instructionBudget < 1) {
+            throw new IllegalArgumentException("Instruction budget must be at least 1");
+        }
+        Guest guest = new Guest(machine, instructionBudget, timeout == null ? Long.MAX_VALUE : timeout.toNanos());
+        guests.add(guest);
+        try {
+            executor.execute(() -> slice(guest));
+        } catch (RejectedExecutionException e) {
+            guests.remove(guest);
+            throw new IllegalStateException("Scheduler is closed", e);
+        }
+        return guest.result;
+    }
+
+    /**
+     * Number of guests submitted that have not stopped yet.
+     *
+     * @return The number of scheduled guests.
+     */
+    public int getGuestCount() {
+        return guests.size();
+    }
+
+    /**
+     * Stops the pool. Guests that have not stopped yet are abandoned where they are
+     * and their futures are cancelled.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (Guest guest : guests) {
+            guest.result.cancel(false);
+        }
+        guests.clear();
+    }
+
+    private void slice(Guest guest) {
+        Machine machine = guest.machine;
+        Status status = null;
+        Throwable error = null;
+        try {
+            long remaining = guest.instructionBudget - (machine.getInstructionsRetired() - guest.startRetired);
+            if (!machine.runFor(Math.min(quantum, remaining))) {
+                status = Status.EXITED;
+            } else if (machine.getDebugStop() != null) {
+                status = Status.DEBUG_STOP;
+            } else if (machine.getInstructionsRetired() - guest.startRetired >= guest.instructionBudget) {
+                status = Status.BUDGET_EXHAUSTED;
+            } else if (System.nanoTime() - guest.startNanos >= guest.timeoutNanos) {
+                status = Status.TIMED_OUT;
+            }
+        } catch (Throwable e) {
+            // Errors as well, such as a guest overflowing the host stack, or the future would never complete
+            status = Status.FAILED;
+            error = e;
+        }
+
+        if (status == null) {
+            try {
+                executor.execute(() -> slice(guest));
+            } catch (RejectedExecutionException e) {
+                // The scheduler was closed, which cancelled the guest's future
+            }
+            return;
+        }
+        guests.remove(guest);
+        guest.result.complete(new Result(machine, status, error,
+                machine.getInstructionsRetired() - guest.startRetired, System.nanoTime() - guest.startNanos));
+    }
+
+    /**
+     * Why a scheduled guest stopped.
+     */
+    public enum Status {
+        EXITED,             // The guest made an exit call, or the machine was stopped
+        BUDGET_EXHAUSTED,   // The guest retired its whole instruction budget and is suspended
+        TIMED_OUT,          // The guest ran past its timeout and is suspended
+        DEBUG_STOP,         // The guest reached a breakpoint or watchpoint and is suspended
+        FAILED              // Running the guest threw an exception or error
+    }
+
+    private static class Guest {
+        final Machine machine;
+        final long instructionBudget;
+        final long timeoutNanos;
+        final long startRetired;
+        final long startNanos = System.nanoTime();
+        final CompletableFuture<Result> result = new CompletableFuture<>();
+
+        Guest(Machine machine, long instructionBudget, long timeoutNanos) {
+            this.machine = machine;
+            this.instructionBudget = instructionBudget;
+            this.timeoutNanos = timeoutNanos;
+            this.startRetired = machine.getInstructionsRetired();
+        }
+    }
+
+    /**
+     * The outcome of one scheduled guest, with the instructions it retired and the time
+     * it took while scheduled, and the exception or error that stopped it if it failed.
+     */
+    public static class Result {
+        public final Machine machine;
+        public final Status status;
+        public final Throwable error;
+        public final long instructions;
+        public final long elapsedNanos;
+
+        public Result(Machine machine, Status status, Throwable error, long instructions, long elapsedNanos) {
+            this.machine = machine;
+            this.status = status;
+            this.error = error;
+            this.instructions = instructions;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public boolean exited() {
+            return status == Status.EXITED;
+        }
+    }
+}
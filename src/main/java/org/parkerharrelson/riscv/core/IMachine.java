@@ -1,10 +1,21 @@
 package org.parkerharrelson.riscv.core;
 
+import org.parkerharrelson.riscv.memory.GuestMemory;
+import org.parkerharrelson.riscv.pipeline.AtomicUnit;
+import org.parkerharrelson.riscv.stats.GuestProfiler;
+import org.parkerharrelson.riscv.timing.CacheModel;
+
 public interface IMachine {
     int getRegister(int index);
     void writeToRegister(int index, int val);
     int getProgramCounter();
     void setProgramCounter(int programCounter);
-    byte[] getMemory();
+    GuestMemory getMemory();
+    DecodeCache getDecodeCache();
+    AtomicUnit getAtomicUnit();
+    GuestProfiler getProfiler();
+    CacheModel getInstructionCache();
+    CacheModel getDataCache();
     void handleSystemCall();
+    void executeSystem(int inst, int source, int pc);
 }
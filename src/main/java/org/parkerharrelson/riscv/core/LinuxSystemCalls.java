@@ -0,0 +1,428 @@
+package org.parkerharrelson.riscv.core;
+
+import org.parkerharrelson.riscv.memory.GuestMemory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.MAX_OPEN_FILES;
+
+/**
+ * The subset of the Linux RISC-V system call interface that newlib-style C runtimes need
+ * for file I/O and heap management: read, write, openat, close, lseek, fstat, exit,
+ * exit_group and brk, using the asm-generic numbers, flags and 32-bit struct stat layout.
+ *
+ * <p>
+ * Results are returned in a0, with failures reported as a negative errno. File
+ * descriptors 0, 1 and 2 are the machine's console and the host's standard error.
+ * Every other descriptor is a host FileChannel, and reads and writes move data
+ * straight between it and guest memory with no per-byte work. Guest paths, absolute
+ * or relative, are resolved inside a sandbox directory, and no file can be opened
+ * until one is set. Paths that leave the sandbox, including through symbolic links,
+ * are refused.
+ * </p>
+ *
+ * <p>
+ * The harts of a {@link MultiHartMachine} share one instance, like the threads of a
+ * process share a descriptor table, so every call is synchronized.
+ * </p>
+ */
+public class LinuxSystemCalls {
+
+    private static final int AT_FDCWD = -100;
+    private static final int O_ACCMODE = 0x3;
+    private static final int O_WRONLY = 0x1;
+    private static final int O_RDWR = 0x2;
+    private static final int O_CREAT = 0x40;
+    private static final int O_EXCL = 0x80;
+    private static final int O_TRUNC = 0x200;
+    private static final int O_APPEND = 0x400;
+    private static final int PATH_MAX = 4096;
+    private static final int STAT_SIZE = 80;
+
+    private static final int ENOENT = 2;
+    private static final int EIO = 5;
+    private static final int EBADF = 9;
+    private static final int EACCES = 13;
+    private static final int EFAULT = 14;
+    private static final int EEXIST = 17;
+    private static final int EISDIR = 21;
+    private static final int EINVAL = 22;
+    private static final int EMFILE = 24;
+    private static final int ESPIPE = 29;
+    private static final int ENAMETOOLONG = 36;
+    private static final int EOVERFLOW = 75;
+
+    private final FileChannel[] files = new FileChannel[MAX_OPEN_FILES];
+    private final int[] openFlags = new int[MAX_OPEN_FILES];
+    private Path root;
+    private Console errorConsole;
+    private int initialBreak;
+    private int programBreak;
+
+    /**
+     * Restricts file system calls to a host directory. Until this is called every open fails with EACCES.
+     *
+     * @param root The directory guest paths are resolved against, or null to forbid file access.
+     * @throws IOException Exception thrown if the directory does not exist.
+     */
+    public synchronized void setRoot(Path root) throws IOException {
+        this.root = root == null ? null : root.toRealPath();
+    }
+
+    /**
+     * Sets the initial program break, which brk never moves below.
+     *
+     * @param address The first address after the loaded program.
+     */
+    public synchronized void setProgramBreak(int address) {
+        initialBreak = address;
+        programBreak = address;
+    }
+
+    public synchronized int getProgramBreak() {
+        return programBreak;
+    }
+
+    /**
+     * Creates a descriptor table for a machine forked from a snapshot. The sandbox and
+     * program break carry over, but files opened by the original machine do not.
+     *
+     * @return The new instance.
+     */
+    public synchronized LinuxSystemCalls fork() {
+        LinuxSystemCalls copy = new LinuxSystemCalls();
+        copy.root = root;
+        copy.initialBreak = initialBreak;
+        copy.programBreak = programBreak;
+        return copy;
+    }
+
+    /**
+     * Checks whether a system call's result depends on the host, such as the contents
+     * of a file or the console input, so that it has to be logged for replay.
+     *
+     * @param number The system call number.
+     * @return True for the file and console calls.
+     */
+    static boolean dependsOnHost(int number) {
+        return number == 56 || number == 57 || number == 62 || number == 63 || number == 64 || number == 80;
+    }
+
+    /**
+     * The number of bytes a system call stored into the guest buffer passed in a1.
+     *
+     * @param number The system call number.
+     * @param result The value it returned in a0.
+     * @return The length of the stored range.
+     */
+    static int storedLength(int number, int result) {
+        if (number == 63) { // read
+            return Math.max(result, 0);
+        } else if (number == 80) { // fstat
+            return result == 0 ? STAT_SIZE : 0;
+        }
+        return 0;
+    }
+
+    /**
+     * Runs the system call in a7 with its arguments in a0 to a3.
+     *
+     * @param machine The machine making the call.
+     * @param number The system call number.
+     * @return False if the number is not one of the supported calls.
+     */
+    public synchronized boolean handle(Machine machine, int number) {
+        int a0 = machine.getRegister(10);
+        int a1 = machine.getRegister(11);
+        int a2 = machine.getRegister(12);
+        int a3 = machine.getRegister(13);
+        int result;
+        try {
+            switch (number) {
+                case 56: // openat
+                    result = openat(machine, a0, a1, a2);
+                    break;
+                case 57: // close
+                    result = close(a0);
+                    break;
+                case 62: // lseek
+                    result = lseek(a0, a1, a2);
+                    break;
+                case 63: // read
+                    result = read(machine, a0, a1, a2);
+                    break;
+                case 64: // write
+                    result = write(machine, a0, a1, a2);
+                    break;
+                case 80: // fstat
+                    result = fstat(machine.getMemory(), a0, a1);
+                    break;
+                case 93: // exit
+                case 94: // exit_group
+                    machine.exit(a0);
+                    return true;
+                case 214: // brk
+                    result = brk(machine.getMemory(), a0);
+                    break;
+                default:
+                    return false;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            result = -EFAULT;
+        } catch (IOException e) {
+            result = -errno(e);
+        }
+        machine.writeToRegister(10, result);
+        return true;
+    }
+
+    private int openat(Machine machine, int directory, int pathAddress, int flags) throws IOException {
+        String name = readPath(machine.getMemory(), pathAddress);
+        if (name == null) {
+            return -ENAMETOOLONG;
+        }
+        if (directory != AT_FDCWD && !name.startsWith("/")) {
+            return -EBADF;
+        }
+        if (root == null) {
+            return -EACCES;
+        }
+
+        Path path;
+        try {
+            path = root.resolve(name.replaceFirst("^/+", "")).normalize();
+        } catch (InvalidPathException e) {
+            return -ENOENT;
+        }
+        Path parent = path.getParent();
+        if (!path.startsWith(root) || parent == null || !parent.toRealPath().startsWith(root)) {
+            return -EACCES;
+        }
+        if (Files.isDirectory(path)) {
+            return -EISDIR;
+        }
+
+        int fd = 3;
+        while (fd < files.length && files[fd] != null) {
+            fd++;
+        }
+        if (fd == files.length) {
+            return -EMFILE;
+        }
+
+        // Java refuses READ with APPEND and only creates files it can write, so O_APPEND is
+        // done by write itself and the access mode is checked there and in read
+        Set<OpenOption> options = new HashSet<>();
+        options.add(LinkOption.NOFOLLOW_LINKS);
+        if ((flags & O_ACCMODE) != O_WRONLY) {
+            options.add(StandardOpenOption.READ);
+        }
+        if ((flags & O_ACCMODE) != 0 || (flags & O_CREAT) != 0) {
+            options.add(StandardOpenOption.WRITE);
+        }
+        if ((flags & O_CREAT) != 0) {
+            options.add((flags & O_EXCL) != 0 ? StandardOpenOption.CREATE_NEW : StandardOpenOption.CREATE);
+        }
+        if ((flags & O_TRUNC) != 0 && (flags & O_ACCMODE) != 0) {
+            options.add(StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        try {
+            files[fd] = FileChannel.open(path, options);
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            return -EINVAL;
+        }
+        openFlags[fd] = flags;
+        return fd;
+    }
+
+    private int close(int fd) throws IOException {
+        if (fd >= 0 && fd <= 2) {
+            return 0;
+        }
+        FileChannel file = file(fd);
+        if (file == null) {
+            return -EBADF;
+        }
+        files[fd] = null;
+        file.close();
+        return 0;
+    }
+
+    private int lseek(int fd, int offset, int whence) throws IOException {
+        if (fd >= 0 && fd <= 2) {
+            return -ESPIPE;
+        }
+        FileChannel file = file(fd);
+        if (file == null) {
+            return -EBADF;
+        }
+        long position = switch (whence) {
+            case 0 -> offset; // SEEK_SET
+            case 1 -> file.position() + offset; // SEEK_CUR
+            case 2 -> file.size() + offset; // SEEK_END
+            default -> -1;
+        };
+        if (position < 0) {
+            return -EINVAL;
+        }
+        if (position > Integer.MAX_VALUE) {
+            return -EOVERFLOW;
+        }
+        file.position(position);
+        return (int) position;
+    }
+
+    private int read(Machine machine, int fd, int address, int length) throws IOException {
+        if (!inBounds(machine.getMemory(), address, length)) {
+            return -EFAULT;
+        }
+        if (fd == 0) {
+            int done = machine.getConsole().read(machine.getMemory(), address, length);
+            machine.getDecodeCache().invalidateRange(address, done);
+            return done;
+        }
+        FileChannel file = file(fd);
+        if (file == null || fd <= 2 || (openFlags[fd] & O_ACCMODE) == O_WRONLY) {
+            return -EBADF;
+        }
+        if (length == 0) {
+            return 0;
+        }
+        int done = Math.max(machine.getMemory().readFrom(file, address, length), 0);
+        machine.getDecodeCache().invalidateRange(address, done);
+        return done;
+    }
+
+    private int write(Machine machine, int fd, int address, int length) throws IOException {
+        if (!inBounds(machine.getMemory(), address, length)) {
+            return -EFAULT;
+        }
+        if (fd == 1) {
+            machine.getConsole().write(machine.getMemory(), address, length);
+            return length;
+        }
+        if (fd == 2) {
+            machine.getConsole().flush();
+            if (errorConsole == null) {
+                errorConsole = new Console(InputStream.nullInputStream(), System.err, true);
+            }
+            errorConsole.write(machine.getMemory(), address, length);
+            errorConsole.flush();
+            return length;
+        }
+        FileChannel file = file(fd);
+        if (file == null || (openFlags[fd] & O_ACCMODE) == 0) {
+            return -EBADF;
+        }
+        if ((openFlags[fd] & O_APPEND) != 0) {
+            file.position(file.size());
+        }
+        machine.getMemory().writeTo(file, address, length);
+        return length;
+    }
+
+    /**
+     * Fills in a struct stat as laid out by the asm-generic headers for 32-bit targets.
+     */
+    private int fstat(GuestMemory memory, int fd, int address) throws IOException {
+        int mode;
+        long size = 0;
+        long modified = 0;
+        if (fd >= 0 && fd <= 2) {
+            mode = 0020620; // S_IFCHR | rw--w----
+        } else {
+            FileChannel file = file(fd);
+            if (file == null) {
+                return -EBADF;
+            }
+            mode = 0100644; // S_IFREG | rw-r--r--
+            size = file.size();
+            modified = System.currentTimeMillis() / 1000;
+        }
+        if (size > Integer.MAX_VALUE) {
+            return -EOVERFLOW;
+        }
+
+        memory.zero(address, STAT_SIZE);
+        memory.store32(address + 4, fd + 1);                         // st_ino
+        memory.store32(address + 8, mode);                           // st_mode
+        memory.store32(address + 12, 1);                             // st_nlink
+        memory.store32(address + 32, (int) size);                    // st_size
+        memory.store32(address + 36, 4096);                          // st_blksize
+        memory.store32(address + 44, (int) ((size + 511) / 512));    // st_blocks
+        memory.store32(address + 48, (int) modified);                // st_atime
+        memory.store32(address + 56, (int) modified);                // st_mtime
+        memory.store32(address + 64, (int) modified);                // st_ctime
+        return 0;
+    }
+
+    /**
+     * Moves the program break. Like Linux, a request that cannot be satisfied (including 0)
+     * leaves it where it is, and the current break is returned either way. Memory
+     * between the old and new break is cleared when the break grows.
+     */
+    private int brk(GuestMemory memory, int address) {
+        if (Integer.compareUnsigned(address, initialBreak) >= 0 && Integer.toUnsignedLong(address) <= memory.size()) {
+            if (Integer.compareUnsigned(address, programBreak) > 0) {
+                memory.zero(programBreak, address - programBreak);
+            }
+            programBreak = address;
+        }
+        return programBreak;
+    }
+
+    private FileChannel file(int fd) {
+        return fd >= 0 && fd < files.length ? files[fd] : null;
+    }
+
+    /**
+     * Reads a NUL-terminated path from guest memory.
+     *
+     * @return The path, or null if it is longer than PATH_MAX.
+     */
+    private static String readPath(GuestMemory memory, int address) {
+        byte[] bytes = new byte[PATH_MAX];
+        for (int i = 0; i < PATH_MAX; i++) {
+            bytes[i] = (byte) memory.load8(address + i);
+            if (bytes[i] == 0) {
+                return new String(bytes, 0, i, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks that a buffer lies entirely inside guest memory. Counts of 2 GiB or more,
+     * whose result would not fit in a0, are refused as well.
+     */
+    private static boolean inBounds(GuestMemory memory, int address, int length) {
+        return length >= 0 && Integer.toUnsignedLong(address) + length <= memory.size();
+    }
+
+    private static int errno(IOException e) {
+        if (e instanceof NoSuchFileException) {
+            return ENOENT;
+        } else if (e instanceof FileAlreadyExistsException) {
+            return EEXIST;
+        } else if (e instanceof AccessDeniedException) {
+            return EACCES;
+        }
+        return EIO;
+    }
+}
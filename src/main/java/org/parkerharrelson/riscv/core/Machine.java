@@ -1,18 +1,41 @@
 package org.parkerharrelson.riscv.core;
 
+import org.parkerharrelson.riscv.device.Clint;
+import org.parkerharrelson.riscv.device.DeviceBus;
+import org.parkerharrelson.riscv.device.Uart;
+import org.parkerharrelson.riscv.jit.JitEngine;
+import org.parkerharrelson.riscv.memory.GuestMemory;
+import org.parkerharrelson.riscv.memory.SparseMemory;
 import org.parkerharrelson.riscv.pipeline.*;
+import org.parkerharrelson.riscv.stats.ExecutionCounters;
+import org.parkerharrelson.riscv.stats.GuestProfiler;
+import org.parkerharrelson.riscv.timing.CacheModel;
+import org.parkerharrelson.riscv.timing.TimingModel;
+import org.parkerharrelson.riscv.trace.InputLog;
+import org.parkerharrelson.riscv.trace.TraceRecorder;
+import org.parkerharrelson.riscv.util.ElfImage;
 import org.parkerharrelson.riscv.util.Instruction;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.CLINT_BASE;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.CLINT_SIZE;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.MTIME_TICK_NANOS;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.UART_BASE;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.UART_SIZE;
 
-import static org.parkerharrelson.riscv.util.EmulatorConstants.RAM_SIZE;
 
 /**
  * Machine core code class for Part 1 of RISC-V Emulator Project
  *
  * <p>
- * Contains logic for setting up the machine's memory (RAM) with
- * 1 MiB, the register file containing 32, 32 bit registers, the
+ * Contains logic for setting up the machine's memory (RAM), by
+ * default a demand-paged 4 GiB address space, the register file containing 32, 32 bit registers, the
  * and the program counter. Will be the main entry point into running
  * the emulator, with logic to run the entire pipeline after ELF file
  * contents are stored in memory.
@@ -20,28 +43,85 @@ import static org.parkerharrelson.riscv.util.EmulatorConstants.RAM_SIZE;
  */
 public class Machine implements IMachine {
 
-    private final byte[] memory;
+    private final GuestMemory memory;
+    private final DeviceBus devices;
     private final int[] registers;
     private int pc;
     private final Reader reader;
+    private final DecodeCache decodeCache;
+    private final AtomicUnit atomicUnit;
+    private final ControlStatusRegisters csrs;
+    private final Instruction instruction;
     private final InstructionFetch fetchStage;
     private final InstructionDecode decodeStage;
     private final InstructionExecute executeStage;
     private final MemoryAccess memoryStage;
     private final RegisterWriteback writebackStage;
-    private boolean isRunning;
+    private volatile boolean isRunning;
+    private boolean suspended;  // Set with isRunning cleared, so the engines' running check also catches debug stops
+    private boolean executing;
+    private DebugStop debugStop;
+    private ExecutionMode executionMode;
+    private JitEngine jitEngine;
+    private Console console;
+    private ExecutionCounters executionCounters;
+    private GuestProfiler profiler;
+    private TraceRecorder tracer;
+    private TimingModel timingModel;
+    private CacheModel instructionCache;
+    private CacheModel dataCache;
+    private InputLog inputLog;
+    private long instructionsRetired;
+    private long instructionLimit = Long.MAX_VALUE;
+    private LinuxSystemCalls systemCalls;
+    private int exitCode;
 
     public Machine() {
-        registers = new int[32];
-        pc = 0x0;
-        memory = new byte[RAM_SIZE];
+        this(new SparseMemory());
+    }
+
+    /**
+     * Creates a machine on top of the given memory backend.
+     *
+     * @param memory The guest memory the machine runs in.
+     */
+    public Machine(GuestMemory memory) {
+        this(memory, false);
+    }
+
+    /**
+     * Creates a machine on top of the given memory backend, optionally with a CLINT timer
+     * and a UART mapped in front of it on a {@link DeviceBus}.
+     *
+     * @param memory The guest memory the machine runs in.
+     * @param withDevices True to attach the devices.
+     */
+    public Machine(GuestMemory memory, boolean withDevices) {
+        this.registers = new int[32];
+        this.pc = 0x0;
+        if (withDevices) {
+            devices = new DeviceBus(this, memory);
+            devices.attach(CLINT_BASE, CLINT_SIZE, new Clint(devices));
+            devices.attach(UART_BASE, UART_SIZE, new Uart(this));
+            memory = devices;
+        } else {
+            devices = null;
+        }
+        this.memory = memory;
         reader = new Reader();
+        decodeCache = new DecodeCache();
+        atomicUnit = new AtomicUnit(memory, decodeCache);
+        csrs = new ControlStatusRegisters(this);
+        instruction = new Instruction(0);
         fetchStage = new InstructionFetch(this);
         decodeStage = new InstructionDecode(this);
         executeStage = new InstructionExecute();
         memoryStage = new MemoryAccess(this);
         writebackStage = new RegisterWriteback(this);
         this.isRunning = true;
+        this.executionMode = ExecutionMode.INTERPRETER;
+        this.systemCalls = new LinuxSystemCalls();
+        decodeCache.setWatchListener(address -> suspend(new DebugStop(DebugStop.Kind.WATCHPOINT, address)));
     }
 
     /**
@@ -52,21 +132,536 @@ public class Machine implements IMachine {
      * @throws IOException Exception to be thrown if there are any issues with reading the file into memory
      */
     public void loadContents(String filepath) throws IOException {
-        reader.readElfFile(memory, this, filepath);
+        loadImage(reader.parseElfFile(filepath));
+    }
+
+    /**
+     * Loads an ELF file that has already been parsed, possibly shared with other machines.
+     *
+     * @param image The parsed ELF file.
+     * @throws IOException Exception to be thrown if the image does not fit in memory
+     */
+    public void loadImage(ElfImage image) throws IOException {
+        decodeCache.clear();
+        reader.loadImage(image, memory, this);
+        systemCalls.setProgramBreak(image.getEnd());
+    }
+
+    /**
+     * Lets the guest open host files inside a directory through the Linux file system calls.
+     *
+     * @param root The directory guest paths are resolved against, or null to forbid file access.
+     * @throws IOException Exception thrown if the directory does not exist.
+     */
+    public void setFileSystemRoot(Path root) throws IOException {
+        systemCalls.setRoot(root);
+    }
+
+    /**
+     * The handler for Linux system calls, which holds the guest's open files and program break.
+     *
+     * @return The handler.
+     */
+    public LinuxSystemCalls getSystemCalls() {
+        return systemCalls;
+    }
+
+    /**
+     * Replaces the Linux system call handler, so that several harts can share one descriptor table.
+     *
+     * @param systemCalls The handler to use.
+     */
+    void setSystemCalls(LinuxSystemCalls systemCalls) {
+        this.systemCalls = systemCalls;
+    }
+
+    /**
+     * Redirects the putchar and getchar system calls away from the JVM's standard streams.
+     * Output is fully buffered and reaches the stream when the guest reads input or the machine stops.
+     *
+     * @param input The stream getchar reads from.
+     * @param output The stream putchar writes to.
+     */
+    public void setConsole(InputStream input, OutputStream output) {
+        this.console = new Console(input, output, false);
+    }
+
+    /**
+     * The console behind putchar and getchar, created on the JVM's standard streams on first use.
+     *
+     * @return The console.
+     */
+    public Console getConsole() {
+        if (console == null) {
+            console = new Console();
+        }
+        return console;
+    }
+
+    /**
+     * Turns on counting of retired instructions and system calls in every execution mode.
+     *
+     * @param executionCounters The counters to add to, or null to stop counting.
+     */
+    public void setExecutionCounters(ExecutionCounters executionCounters) {
+        this.executionCounters = executionCounters;
     }
 
     /**
-     * Entry point for running the emulator. Run loop will take place in here.
+     * The counters this machine adds to.
+     *
+     * @return The counters, or null if counting is off.
+     */
+    public ExecutionCounters getExecutionCounters() {
+        return executionCounters;
+    }
+
+    /**
+     * Attaches a sampling profiler that follows this machine's calls and returns in every execution mode.
+     *
+     * @param profiler The profiler to sample into, or null to stop profiling.
+     */
+    public void setProfiler(GuestProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    @Override
+    public GuestProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Records every instruction this machine retires into a binary trace. In JIT mode
+     * blocks are not compiled while a tracer is attached and in fast mode instruction
+     * pairs are not fused, so that every instruction is recorded with its effects.
+     * Attaching a tracer drops the cached instructions, which may hold fused pairs.
+     *
+     * @param tracer The recorder to write to, or null to stop tracing.
+     */
+    public void setTracer(TraceRecorder tracer) {
+        if (tracer != null) {
+            decodeCache.clear();
+        }
+        this.tracer = tracer;
+    }
+
+    public TraceRecorder getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Feeds every instruction this machine retires to a pipeline timing model. While a
+     * model is attached {@link #run()} steps the pipeline stages whatever the execution
+     * mode, so the fast and JIT engines never see the model.
+     *
+     * @param timingModel The model to feed, or null to stop modelling.
+     */
+    public void setTimingModel(TimingModel timingModel) {
+        this.timingModel = timingModel;
+    }
+
+    public TimingModel getTimingModel() {
+        return timingModel;
+    }
+
+    /**
+     * Passes the address of every instruction this machine fetches to a cache model.
+     * In fast mode instruction pairs are not fused while a cache is attached, and in
+     * JIT mode blocks are not compiled, so every fetch is seen. Attaching a cache drops
+     * the cached instructions, which may hold fused pairs.
+     *
+     * @param instructionCache The cache to model, or null to stop modelling it.
+     */
+    public void setInstructionCache(CacheModel instructionCache) {
+        if (instructionCache != null) {
+            decodeCache.clear();
+        }
+        this.instructionCache = instructionCache;
+    }
+
+    @Override
+    public CacheModel getInstructionCache() {
+        return instructionCache;
+    }
+
+    /**
+     * Passes the address of every load, store and AMO this machine executes to a cache
+     * model, with the same effect on fusion and compilation as an instruction cache.
+     *
+     * @param dataCache The cache to model, or null to stop modelling it.
+     */
+    public void setDataCache(CacheModel dataCache) {
+        if (dataCache != null) {
+            decodeCache.clear();
+        }
+        this.dataCache = dataCache;
+    }
+
+    @Override
+    public CacheModel getDataCache() {
+        return dataCache;
+    }
+
+    /**
+     * Records every input this machine receives from the host into a log, or replays
+     * the inputs of a recorded log instead of asking the host, depending on the log's mode.
+     *
+     * @param inputLog The log to record into or replay from, or null to use the host normally.
+     */
+    public void setInputLog(InputLog inputLog) {
+        this.inputLog = inputLog;
+    }
+
+    public InputLog getInputLog() {
+        return inputLog;
+    }
+
+    /**
+     * The number of instructions this machine has retired since it was created. The
+     * execution engines count in a local and publish the count when they return, before
+     * every SYSTEM instruction, which can read it through the instret CSR, and, while
+     * devices are attached, before every access that can reach one.
+     *
+     * @return The retired instruction count.
+     */
+    public long getInstructionsRetired() {
+        return instructionsRetired;
+    }
+
+    /**
+     * Lets execution engines that count retired instructions in a local publish their count.
+     *
+     * @param instructionsRetired The retired instruction count.
+     */
+    public void setInstructionsRetired(long instructionsRetired) {
+        this.instructionsRetired = instructionsRetired;
+    }
+
+    /**
+     * Entry point for running the emulator. Run loop will take place in here,
+     * using whichever execution mode has been selected. It returns early if the
+     * guest reaches a breakpoint or watchpoint, see {@link #getDebugStop()}.
      */
     public void run() {
+        instructionLimit = Long.MAX_VALUE;
+        execute();
+    }
 
-        while (isRunning) {
-            Instruction instruction = fetchStage.fetchInstruction();
+    /**
+     * Runs the machine for a bounded quantum and then suspends it. All of the machine's
+     * state stays in place, so calling this again resumes the guest where it stopped,
+     * possibly on another thread. The engines check the bound between instructions, or
+     * between blocks in JIT mode, so a quantum may overrun by up to one basic block.
+     * A breakpoint or watchpoint ends the quantum early.
+     *
+     * @param instructions The number of instructions to retire before suspending.
+     * @return True if the guest is still running, false once it has exited.
+     */
+    public boolean runFor(long instructions) {
+        instructionLimit = instructions >= Long.MAX_VALUE - instructionsRetired
+                ? Long.MAX_VALUE : instructionsRetired + instructions;
+        try {
+            execute();
+        } finally {
+            instructionLimit = Long.MAX_VALUE;
+        }
+        return isRunning;
+    }
+
+    /**
+     * The retired instruction count at which the execution engine has to return, which is
+     * the end of the current {@link #runFor} quantum or the time of the next device event.
+     *
+     * @return The count to stop at, or Long.MAX_VALUE when running until the guest exits.
+     */
+    public long getInstructionLimit() {
+        return instructionLimit;
+    }
+
+    private void execute() {
+        resume();
+        DebugStop previousStop = debugStop;
+        debugStop = null;
+        long end = instructionLimit;
+        executing = true;
+        try {
+            // Resuming from a breakpoint runs the instruction under it before anything else
+            if (previousStop != null && previousStop.kind == DebugStop.Kind.BREAKPOINT
+                    && previousStop.address == pc && isRunning) {
+                decodeCache.withoutBreakpoint(pc, this::step);
+            }
+            if (devices == null) {
+                runEngine();
+                return;
+            }
+            // The engine runs up to the next device event as if it ended a quantum, so no device is ticked
+            do {
+                devices.runEvents();
+                int cause = csrs.takeableInterrupt();
+                if (cause != 0) {
+                    pc = csrs.trap(cause, pc, 0);
+                }
+                instructionLimit = Math.min(end, devices.nextEvent());
+                runEngine();
+            } while (debugStop == null && instructionsRetired < end && resume());
+        } finally {
+            executing = false;
+            instructionLimit = end;
+            resume();
+            flushConsole();
+        }
+    }
+
+    private void runEngine() {
+        switch (timingModel != null ? ExecutionMode.INTERPRETER : executionMode) {
+            case FAST:
+                new FastInterpreter(this).run();
+                break;
+            case JIT:
+                if (jitEngine == null) {
+                    jitEngine = new JitEngine(this);
+                }
+                jitEngine.run();
+                break;
+            default:
+                interpret();
+                break;
+        }
+    }
+
+    private void interpret() {
+        while (isRunning && instructionsRetired < instructionLimit) {
+            step();
+        }
+    }
+
+    /**
+     * Runs a single instruction through all five pipeline stages.
+     * A single Instruction object is reused for every step, and decoded
+     * instructions are served from the decode cache after their first execution.
+     *
+     * @return The instruction that was executed. It is overwritten by the next step.
+     */
+    public Instruction step() {
+        if (!fetchStage.fetchInstruction(instruction)) {
+            hitBreakpoint(instruction.getPc());
+            return instruction;
+        }
+        try {
             decodeStage.decodeInstruction(instruction);
-            executeStage.executeInstruction(instruction);
-            memoryStage.accessMemory(instruction);
-            writebackStage.writebackInstruction(instruction);
+        } catch (UnsupportedOperationException e) {
+            decodeFailed(instruction.getInst(), instruction.getPc(), e);
+            return instruction;
+        }
+        executeStage.executeInstruction(instruction);
+        int address = instruction.getResult(); // Loads and AMOs replace it with the value read
+        memoryStage.accessMemory(instruction);
+        if (profiler != null) {
+            profiler.retire(instruction.getPc(), 1);
+        }
+        writebackStage.writebackInstruction(instruction);
+        if (executionCounters != null) {
+            executionCounters.retire(instruction.getDecoded());
+        }
+        if (tracer != null) {
+            tracer.record(instruction.getPc(), instruction.getInst(), registers, address,
+                    instruction.getMemop() == 2 ? instruction.getDisp() : instruction.getResult());
         }
+        if (timingModel != null) {
+            timingModel.retire(instruction.getPc(), instruction.getDecoded(), pc);
+        }
+        instructionsRetired++;
+        return instruction;
+    }
+
+    /**
+     * Initializes the stack pointer if no instruction has been fetched yet.
+     */
+    public void initializeStackPointer() {
+        fetchStage.initializeStackPointer();
+    }
+
+    /**
+     * Captures the complete architectural state of the machine so that any number of
+     * machines can later be forked from it. The memory is forked as well, which for
+     * SparseMemory only copies the page tables. Call it between steps or after
+     * {@link #run()} returns, not while another thread is running the machine.
+     *
+     * @return The snapshot.
+     */
+    public MachineSnapshot snapshot() {
+        ControlStatusRegisters csrsCopy = new ControlStatusRegisters(this);
+        csrsCopy.copyFrom(csrs);
+        return new MachineSnapshot(registers.clone(), pc, isRunning, fetchStage.isStackPointerInitialized(),
+                executionMode, memory.fork(), systemCalls.fork(), exitCode, instructionsRetired, csrsCopy);
+    }
+
+    /**
+     * Copies a snapshot's state into this freshly created machine.
+     *
+     * @param snapshot The snapshot to restore.
+     */
+    void restore(MachineSnapshot snapshot) {
+        if (snapshot.isStackPointerInitialized()) {
+            fetchStage.initializeStackPointer();
+        }
+        System.arraycopy(snapshot.getRegisters(), 0, registers, 0, registers.length);
+        pc = snapshot.getProgramCounter();
+        isRunning = snapshot.isRunning();
+        executionMode = snapshot.getExecutionMode();
+        systemCalls = snapshot.getSystemCalls().fork();
+        exitCode = snapshot.getExitCode();
+        instructionsRetired = snapshot.getInstructionsRetired();
+        csrs.copyFrom(snapshot.getControlStatusRegisters());
+    }
+
+    /**
+     * Selects how {@link #run()} executes guest code.
+     *
+     * @param executionMode The execution mode to use.
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * Checks whether the machine is still running, i.e. the guest has not made an exit call.
+     *
+     * @return True until the guest exits.
+     */
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * Stops the machine as if the guest had made an exit call. It may be called from
+     * another thread; the execution engines notice it before the next instruction or block.
+     */
+    public synchronized void stop() {
+        suspended = false;
+        isRunning = false;
+        notifyAll();    // Wakes the machine if it is waiting in WFI
+    }
+
+    /**
+     * Sets a breakpoint. When the guest reaches the address the machine suspends before
+     * running the instruction there, and running it again steps over the instruction.
+     * Code that never reaches a breakpoint runs at full speed, and breakpoints should
+     * only be changed while the machine is not running.
+     *
+     * @param pc The address of the instruction to stop at.
+     */
+    public void addBreakpoint(int pc) {
+        decodeCache.addBreakpoint(pc);
+    }
+
+    public void removeBreakpoint(int pc) {
+        decodeCache.removeBreakpoint(pc);
+    }
+
+    /**
+     * Sets a watchpoint on a range of memory. When the guest stores into it the machine
+     * suspends after the storing instruction, or in JIT mode after its block. Stores are
+     * matched a naturally aligned word at a time, and only stores made by this machine,
+     * including system calls that fill guest buffers, are seen. Stores into pages without
+     * a watchpoint cost nothing extra. Watchpoints should only be changed while the
+     * machine is not running.
+     *
+     * @param address The first address to watch.
+     * @param length The number of bytes to watch.
+     */
+    public void addWatchpoint(int address, int length) {
+        decodeCache.addWatchpoint(address, length);
+    }
+
+    public void removeWatchpoint(int address, int length) {
+        decodeCache.removeWatchpoint(address, length);
+    }
+
+    /**
+     * The breakpoint or watchpoint that made the last call to {@link #run} or {@link #runFor} return.
+     *
+     * @return The debug stop, or null if the last run ended for any other reason.
+     */
+    public DebugStop getDebugStop() {
+        return debugStop;
+    }
+
+    /**
+     * Suspends the machine at a breakpoint, before the instruction at the given address runs.
+     *
+     * @param pc The address of the breakpoint.
+     */
+    void hitBreakpoint(int pc) {
+        this.pc = pc;
+        suspend(new DebugStop(DebugStop.Kind.BREAKPOINT, pc));
+    }
+
+    /**
+     * Ends the current run without stopping the guest, by clearing the running flag every
+     * engine already checks. The flag is set again when the run returns. A run that is
+     * already ending for a reschedule still records the stop, but the first stop is kept.
+     */
+    private synchronized void suspend(DebugStop stop) {
+        if (isRunning || (suspended && debugStop == null)) {
+            debugStop = stop;
+            suspended = true;
+            isRunning = false;
+        }
+    }
+
+    /**
+     * Ends the execution engine's current run early without stopping the guest, so the
+     * machine works out its instruction limit again. Devices call it when they schedule
+     * an event earlier than the limit the engine is running to.
+     */
+    public synchronized void reschedule() {
+        if (executing && isRunning) {
+            suspended = true;
+            isRunning = false;
+        }
+    }
+
+    /**
+     * Sets the running flag again after a debug stop or a reschedule.
+     *
+     * @return True unless the guest has exited or the machine was stopped.
+     */
+    private synchronized boolean resume() {
+        if (suspended) {
+            suspended = false;
+            isRunning = true;
+        }
+        return isRunning;
+    }
+
+    /**
+     * Stops the machine on behalf of the guest, recording its exit status and flushing its output.
+     *
+     * @param status The exit status passed by the guest.
+     */
+    void exit(int status) {
+        exitCode = status;
+        stop();
+        flushConsole();
+    }
+
+    /**
+     * The status the guest passed to exit or exit_group, or 0 for the legacy exit call.
+     *
+     * @return The exit status.
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Gives execution engines direct access to the register file. Index 0 is never written and always holds 0x0.
+     *
+     * @return The register file.
+     */
+    public int[] getRegisters() {
+        return registers;
     }
 
     /**
@@ -122,10 +717,175 @@ public class Machine implements IMachine {
     }
 
     @Override
-    public byte[] getMemory() {
+    public GuestMemory getMemory() {
         return memory;
     }
 
+    /**
+     * The bus the machine's devices are attached to. When there is one it is also the machine's memory.
+     *
+     * @return The device bus, or null if the machine was created without devices.
+     */
+    public DeviceBus getDevices() {
+        return devices;
+    }
+
+    @Override
+    public DecodeCache getDecodeCache() {
+        return decodeCache;
+    }
+
+    @Override
+    public AtomicUnit getAtomicUnit() {
+        return atomicUnit;
+    }
+
+    /**
+     * The hart's control and status registers.
+     *
+     * @return The registers.
+     */
+    public ControlStatusRegisters getControlStatusRegisters() {
+        return csrs;
+    }
+
+    /**
+     * Executes a SYSTEM instruction after the program counter has been advanced past it.
+     *
+     * <p>
+     * ECALL is a host system call, numbered by a7, until the guest sets mtvec; after
+     * that it traps to the guest's handler like EBREAK does. MRET returns from the
+     * handler. WFI waits for the next device event when no enabled interrupt is pending,
+     * see {@link #waitForInterrupt()}. The Zicsr instructions read the old value of the
+     * register into rd. Unknown instructions and registers trap as illegal instructions
+     * once there is a handler, and throw before that.
+     * </p>
+     *
+     * @param inst The instruction.
+     * @param source The value of rs1.
+     * @param pc The address of the instruction.
+     */
+    @Override
+    public void executeSystem(int inst, int source, int pc) {
+        int funct3 = (inst >> 12) & 0x7;
+        if (funct3 != 0) {
+            executeCsrInstruction(inst, funct3, source, pc);
+            return;
+        }
+        switch (inst) {
+            case 0x00000073: // ECALL
+                if (csrs.hasTrapVector()) {
+                    this.pc = csrs.trap(11, pc, 0);
+                } else {
+                    handleSystemCall();
+                }
+                break;
+            case 0x00100073: // EBREAK, which does nothing without a handler
+                if (csrs.hasTrapVector()) {
+                    this.pc = csrs.trap(3, pc, pc);
+                }
+                break;
+            case 0x30200073: // MRET
+                this.pc = csrs.mret();
+                interruptsChanged();
+                break;
+            case 0x10500073: // WFI
+                waitForInterrupt();
+                break;
+            default:
+                illegalInstruction(inst, pc, String.format("Unsupported system instruction: 0x%08x", inst));
+                break;
+        }
+    }
+
+    private void executeCsrInstruction(int inst, int funct3, int source, int pc) {
+        int csr = inst >>> 20;
+        int rd = (inst >> 7) & 0x1F;
+        int rs1 = (inst >> 15) & 0x1F;
+        int operand = funct3 >= 5 ? rs1 : source; // The immediate forms use the rs1 field as a value
+        try {
+            // CSRRW does not read when rd is x0, and CSRRS and CSRRC do not write when rs1 is x0
+            int old = (funct3 & 0x3) == 1 && rd == 0 ? 0 : csrs.read(csr);
+            if ((funct3 & 0x3) == 1) {
+                csrs.write(csr, operand);
+            } else if (rs1 != 0) {
+                csrs.write(csr, (funct3 & 0x3) == 2 ? old | operand : old & ~operand);
+            }
+            writeToRegister(rd, old);
+        } catch (IllegalArgumentException e) {
+            illegalInstruction(inst, pc, e.getMessage());
+            return;
+        }
+        if (csr == ControlStatusRegisters.MSTATUS || csr == ControlStatusRegisters.MIE) {
+            interruptsChanged();
+        }
+    }
+
+    private void illegalInstruction(int inst, int pc, String message) {
+        if (!csrs.hasTrapVector()) {
+            throw new UnsupportedOperationException(message);
+        }
+        this.pc = csrs.trap(2, pc, inst);
+    }
+
+    /**
+     * Traps to the guest's handler with an illegal instruction exception for an instruction
+     * that could not be decoded, without retiring it. Before the guest has set mtvec the
+     * decoder's exception is rethrown instead.
+     *
+     * @param inst The raw instruction, with the upper half zero if it is compressed.
+     * @param pc The address of the instruction.
+     * @param e The exception the decoder threw.
+     */
+    public void decodeFailed(int inst, int pc, UnsupportedOperationException e) {
+        if (!csrs.hasTrapVector()) {
+            throw e;
+        }
+        this.pc = csrs.trap(2, pc, inst);
+    }
+
+    /**
+     * Makes the execution engine return if an interrupt can now be taken, so that the run
+     * loop takes it before the next instruction. The engines never check for interrupts
+     * themselves; anything that raises or enables one calls this instead.
+     */
+    public void interruptsChanged() {
+        if (csrs.takeableInterrupt() != 0) {
+            reschedule();
+        }
+    }
+
+    /**
+     * Idles the hart until the next device event when no enabled interrupt is pending.
+     * The host thread sleeps for as long as the event is away at the mtime rate, and the
+     * bus time then jumps to the event without retiring any instructions, so an idle
+     * guest costs almost no host CPU and sees the same times whatever the host does.
+     * With no event scheduled nothing could end the wait, so WFI does nothing, and a
+     * wait cut short by stopping the machine leaves the time where it was.
+     */
+    private void waitForInterrupt() {
+        if (devices == null || csrs.isInterruptPending() || devices.nextEventTime() == Long.MAX_VALUE) {
+            return;
+        }
+        long wake = devices.nextEventTime();
+        long ticks = wake - devices.now();
+        long nanos = ticks >= Long.MAX_VALUE / MTIME_TICK_NANOS ? Long.MAX_VALUE : ticks * MTIME_TICK_NANOS;
+        synchronized (this) {
+            long deadline = System.nanoTime() + nanos;
+            try {
+                for (long left = nanos; isRunning && left > 0; left = deadline - System.nanoTime()) {
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (isRunning) {
+            devices.advanceTo(wake);
+            reschedule();
+        }
+    }
+
     /**
      * Handles system calls based on the value in the a7 register.
      * Will be called in the writeback stage.
@@ -133,16 +893,62 @@ public class Machine implements IMachine {
     @Override
     public void handleSystemCall() {
         int syscallNumber = getRegister(17); // a7
+        if (executionCounters != null) {
+            executionCounters.countSystemCall(syscallNumber);
+        }
+        if (inputLog != null && (syscallNumber == 2 || LinuxSystemCalls.dependsOnHost(syscallNumber))) {
+            logSystemCall(syscallNumber);
+        } else {
+            dispatchSystemCall(syscallNumber);
+        }
+    }
+
+    /**
+     * Runs a system call whose result comes from the host and records it, or, when
+     * replaying, takes its result and the bytes it stored from the input log instead.
+     * Console writes are still performed during replay so that the output matches the
+     * recorded run.
+     */
+    private void logSystemCall(int syscallNumber) {
+        try {
+            if (inputLog.isReplaying()) {
+                int fd = getRegister(10);
+                if (syscallNumber == 64 && (fd == 1 || fd == 2)) {
+                    dispatchSystemCall(syscallNumber);
+                }
+                InputLog.Event event = new InputLog.Event();
+                inputLog.replay(instructionsRetired, syscallNumber, event);
+                memory.write(event.address, event.data, 0, event.data.length);
+                decodeCache.invalidateRange(event.address, event.data.length);
+                writeToRegister(10, event.result);
+            } else {
+                int address = getRegister(11); // a1, the buffer of read and fstat
+                dispatchSystemCall(syscallNumber);
+                int result = getRegister(10);
+                byte[] data = new byte[LinuxSystemCalls.storedLength(syscallNumber, result)];
+                memory.read(address, data, 0, data.length);
+                inputLog.record(instructionsRetired, syscallNumber, result, address, data);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error accessing input log", e);
+        }
+    }
+
+    private void dispatchSystemCall(int syscallNumber) {
         switch (syscallNumber) {
             case 0: // Exit
-                isRunning = false; // Stop the emulator
+                exit(0);
                 break;
             case 1: // Putchar
-                System.out.print((char) getRegister(10)); // a0
+                try {
+                    getConsole().write(getRegister(10)); // a0
+                } catch (IOException e) {
+                    System.err.println("Error occurred writing output: " + e.getMessage());
+                }
                 break;
             case 2: // Getchar
                 try {
-                    int input = System.in.read();
+                    int input = getConsole().read();
                     writeToRegister(10, input); // a0
                 } catch (IOException e) {
                     System.err.println("Error occurred reading input: " + e.getMessage());
@@ -152,7 +958,20 @@ public class Machine implements IMachine {
                 // Handle debug call
                 break;
             default:
-                throw new UnsupportedOperationException("Unknown system call: " + syscallNumber);
+                if (!systemCalls.handle(this, syscallNumber)) {
+                    throw new UnsupportedOperationException("Unknown system call: " + syscallNumber);
+                }
+                break;
+        }
+    }
+
+    private void flushConsole() {
+        if (console != null) {
+            try {
+                console.flush();
+            } catch (IOException e) {
+                System.err.println("Error occurred writing output: " + e.getMessage());
+            }
         }
     }
 
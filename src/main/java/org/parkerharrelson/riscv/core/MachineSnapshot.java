@@ -0,0 +1,105 @@
+package org.parkerharrelson.riscv.core;
+
+import org.parkerharrelson.riscv.memory.GuestMemory;
+
+/**
+ * Frozen architectural state of a {@link Machine}, taken with {@link Machine#snapshot()}.
+ *
+ * <p>
+ * The snapshot owns its own fork of the machine's memory and is never run itself.
+ * Every {@link #fork()} creates a new machine with a further fork of that memory, so
+ * with SparseMemory all children share the snapshot's pages copy-on-write and each
+ * one only pays for the pages it writes. Decoded instructions and compiled blocks
+ * are not part of the snapshot; each child rebuilds its own as it runs. Neither are
+ * files the guest has open, so children start with only the console descriptors.
+ * </p>
+ */
+public class MachineSnapshot {
+
+    private final int[] registers;
+    private final int pc;
+    private final boolean running;
+    private final boolean stackPointerInitialized;
+    private final ExecutionMode executionMode;
+    private final GuestMemory memory;
+    private final LinuxSystemCalls systemCalls;
+    private final int exitCode;
+    private final long instructionsRetired;
+    private final ControlStatusRegisters csrs;
+
+    /**
+     * Constructor for MachineSnapshot.
+     *
+     * @param registers A copy of the register file.
+     * @param pc The program counter.
+     * @param running Whether the machine had not exited yet.
+     * @param stackPointerInitialized Whether the stack pointer had already been initialized.
+     * @param executionMode The execution mode of the machine.
+     * @param memory A fork of the machine's memory that nothing else writes to.
+     * @param systemCalls A fork of the machine's system call state, without its open files.
+     * @param exitCode The guest's exit status.
+     * @param instructionsRetired The number of instructions the machine had retired.
+     * @param csrs A copy of the machine's control and status registers.
+     */
+    MachineSnapshot(int[] registers, int pc, boolean running, boolean stackPointerInitialized,
+                    ExecutionMode executionMode, GuestMemory memory, LinuxSystemCalls systemCalls, int exitCode,
+                    long instructionsRetired, ControlStatusRegisters csrs) {
+        this.registers = registers;
+        this.pc = pc;
+        this.running = running;
+        this.stackPointerInitialized = stackPointerInitialized;
+        this.executionMode = executionMode;
+        this.memory = memory;
+        this.systemCalls = systemCalls;
+        this.exitCode = exitCode;
+        this.instructionsRetired = instructionsRetired;
+        this.csrs = csrs;
+    }
+
+    /**
+     * Creates a new machine in exactly the state the snapshot was taken in.
+     *
+     * @return The new machine.
+     */
+    public Machine fork() {
+        Machine machine = new Machine(memory.fork());
+        machine.restore(this);
+        return machine;
+    }
+
+    public int[] getRegisters() {
+        return registers.clone();
+    }
+
+    public int getProgramCounter() {
+        return pc;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public boolean isStackPointerInitialized() {
+        return stackPointerInitialized;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    LinuxSystemCalls getSystemCalls() {
+        return systemCalls;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public long getInstructionsRetired() {
+        return instructionsRetired;
+    }
+
+    ControlStatusRegisters getControlStatusRegisters() {
+        return csrs;
+    }
+}
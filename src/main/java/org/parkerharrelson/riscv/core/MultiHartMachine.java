@@ -0,0 +1,149 @@
+package org.parkerharrelson.riscv.core;
+
+import org.parkerharrelson.riscv.memory.GuestMemory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.HART_STACK_SIZE;
+
+/**
+ * Symmetric multiprocessor made of several harts sharing one guest memory.
+ *
+ * <p>
+ * Each hart is a full {@link Machine} with its own registers, program counter,
+ * decode cache and execution engine, and runs on its own platform thread. All
+ * harts start at the ELF entry point with their hart ID in a0 and their own
+ * {@link org.parkerharrelson.riscv.util.EmulatorConstants#HART_STACK_SIZE} byte
+ * stack carved down from the top of memory. An exit call from any hart stops the
+ * whole machine, as does an exception on any hart, which is rethrown from
+ * {@link #run()}.
+ * </p>
+ *
+ * <p>
+ * Harts only see instructions written by other harts after executing FENCE.I,
+ * as the RISC-V specification requires.
+ * </p>
+ */
+public class MultiHartMachine {
+
+    private final GuestMemory memory;
+    private final Machine[] harts;
+
+    /**
+     * Constructor for MultiHartMachine.
+     *
+     * @param memory The guest memory shared by every hart.
+     * @param hartCount The number of harts.
+     */
+    public MultiHartMachine(GuestMemory memory, int hartCount) {
+        if (hartCount < 1) {
+            throw new IllegalArgumentException("A machine needs at least one hart");
+        }
+        this.memory = memory;
+        this.harts = new Machine[hartCount];
+        for (int i = 0; i < hartCount; i++) {
+            harts[i] = new Machine(memory);
+            harts[i].setSystemCalls(harts[0].getSystemCalls());
+            harts[i].getControlStatusRegisters().setHartId(i);
+        }
+    }
+
+    /**
+     * Loads an ELF file into the shared memory and points every hart at its entry point.
+     *
+     * @param filepath The filepath of the ELF file to be read into memory.
+     * @throws IOException Exception to be thrown if there are any issues with reading the file into memory.
+     */
+    public void loadContents(String filepath) throws IOException {
+        harts[0].loadContents(filepath);
+        for (int i = 0; i < harts.length; i++) {
+            Machine hart = harts[i];
+            hart.getDecodeCache().clear();
+            hart.setProgramCounter(harts[0].getProgramCounter());
+            hart.initializeStackPointer();
+            hart.writeToRegister(2, (int) memory.size() - i * HART_STACK_SIZE); // sp
+            hart.writeToRegister(10, i); // a0
+        }
+    }
+
+    /**
+     * Selects how every hart executes guest code.
+     *
+     * @param executionMode The execution mode to use.
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        for (Machine hart : harts) {
+            hart.setExecutionMode(executionMode);
+        }
+    }
+
+    /**
+     * Runs every hart on its own thread until one of them exits.
+     */
+    public void run() {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[harts.length];
+        for (int i = 0; i < harts.length; i++) {
+            Machine hart = harts[i];
+            threads[i] = new Thread(() -> {
+                try {
+                    hart.run();
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    stopAll();
+                }
+            }, "hart-" + i);
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                stopAll();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+    }
+
+    private void stopAll() {
+        for (Machine hart : harts) {
+            hart.stop();
+        }
+    }
+
+    public int getHartCount() {
+        return harts.length;
+    }
+
+    public Machine getHart(int hartId) {
+        return harts[hartId];
+    }
+
+    /**
+     * The exit status of the guest, taken from the first hart that made an exit call.
+     *
+     * @return The exit status.
+     */
+    public int getExitCode() {
+        for (Machine hart : harts) {
+            if (hart.getExitCode() != 0) {
+                return hart.getExitCode();
+            }
+        }
+        return 0;
+    }
+
+    public GuestMemory getMemory() {
+        return memory;
+    }
+}
@@ -1,45 +1,171 @@
 package org.parkerharrelson.riscv.core;
 
+import org.parkerharrelson.riscv.memory.GuestMemory;
 import org.parkerharrelson.riscv.util.ElfHeader;
+import org.parkerharrelson.riscv.util.ElfImage;
 import org.parkerharrelson.riscv.util.ProgramHeader;
+import org.parkerharrelson.riscv.util.SectionHeader;
+import org.parkerharrelson.riscv.util.SymbolTable;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.parkerharrelson.riscv.util.EmulatorConstants.*;
 
+/**
+ * Loads ELF executables into guest memory.
+ *
+ * <p>
+ * The file is mapped read-only and the headers are parsed straight out of the
+ * mapping. Each loadable segment is handed to the memory as a slice of that
+ * mapping, so a backend that supports it (such as SparseMemory) only copies the
+ * pages the guest touches, and the host only reads them from disk when it does.
+ * Function symbols are read from the section headers when the file has a symbol
+ * table, for symbolizing guest addresses in profiles.
+ * </p>
+ */
 public class Reader {
 
     /**
      * Reads the ELF file and loads its contents into memory.
      *
-     * @param memory  The byte array representing the machine's memory (RAM).
+     * @param memory  The machine's memory (RAM).
      * @param machine The machine instance to set the program counter.
      * @param filepath The path to the ELF file to be read.
      * @throws IOException Exception thrown if there are issues reading the file.
      */
-    public void readElfFile(byte[] memory, IMachine machine, String filepath) throws IOException {
-        try (RandomAccessFile file = new RandomAccessFile(filepath, "r")) {
+    public void readElfFile(GuestMemory memory, IMachine machine, String filepath) throws IOException {
+        loadImage(parseElfFile(filepath), memory, machine);
+    }
+
+    /**
+     * Maps and validates an ELF file without loading it into any memory.
+     *
+     * @param filepath The path to the ELF file to be read.
+     * @return The parsed image, which can be loaded into any number of machines.
+     * @throws IOException Exception thrown if there are issues reading the file or it is not a valid ELF file.
+     */
+    public ElfImage parseElfFile(String filepath) throws IOException {
+        ByteBuffer image;
+        try (FileChannel channel = FileChannel.open(Path.of(filepath), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (image.capacity() < ELF_HEADER_SIZE) {
+            throw new IOException("Invalid ELF file");
+        }
+        ElfHeader elfHeader = ElfHeader.fromBuffer(image, 0);
+
+        validateElfHeader(elfHeader);
 
-            byte[] elfHeaderData = new byte[ELF_HEADER_SIZE];
-            file.readFully(elfHeaderData);
-            ElfHeader elfHeader = ElfHeader.fromBytes(elfHeaderData);
+        List<ProgramHeader> segments = new ArrayList<>();
+        for (int i = 0; i < elfHeader.e_phnum; i++) {
+            long headerOffset = Integer.toUnsignedLong(elfHeader.e_phoff) + (long) i * PROGRAM_HEADER_SIZE;
+            if (headerOffset + PROGRAM_HEADER_SIZE > image.capacity()) {
+                throw new IOException("Program header exceeds file bounds");
+            }
+            ProgramHeader programHeader = ProgramHeader.fromBuffer(image, (int) headerOffset);
+
+            if (programHeader.p_type == PT_LOAD) {
+                if (Integer.toUnsignedLong(programHeader.p_offset) + Integer.toUnsignedLong(programHeader.p_filesz) > image.capacity()
+                        || Integer.compareUnsigned(programHeader.p_filesz, programHeader.p_memsz) > 0) {
+                    throw new IOException("Segment exceeds file bounds");
+                }
+                segments.add(programHeader);
+            }
+        }
+
+        return new ElfImage(image, elfHeader.e_entry, segments, readSymbols(image, elfHeader));
+    }
+
+    /**
+     * Reads the function symbols from the first SHT_SYMTAB section, if there is one.
+     *
+     * @param image The mapped ELF file.
+     * @param elfHeader The file's ELF header.
+     * @return The function symbols, empty if the file has no symbol table.
+     * @throws IOException Exception thrown if the section headers or symbol table exceed the file bounds.
+     */
+    private SymbolTable readSymbols(ByteBuffer image, ElfHeader elfHeader) throws IOException {
+        if (elfHeader.e_shoff == 0 || elfHeader.e_shnum == 0) {
+            return SymbolTable.EMPTY;
+        }
 
-            validateElfHeader(elfHeader);
+        List<SectionHeader> sections = new ArrayList<>();
+        for (int i = 0; i < elfHeader.e_shnum; i++) {
+            long headerOffset = Integer.toUnsignedLong(elfHeader.e_shoff) + (long) i * SECTION_HEADER_SIZE;
+            if (headerOffset + SECTION_HEADER_SIZE > image.capacity()) {
+                throw new IOException("Section header exceeds file bounds");
+            }
+            sections.add(SectionHeader.fromBuffer(image, (int) headerOffset));
+        }
 
-            file.seek(elfHeader.e_phoff);
-            for (int i = 0; i < elfHeader.e_phnum; i++) {
-                byte[] programHeaderData = new byte[PROGRAM_HEADER_SIZE];
-                file.readFully(programHeaderData);
-                ProgramHeader programHeader = ProgramHeader.fromBytes(programHeaderData);
+        for (SectionHeader symtab : sections) {
+            if (symtab.sh_type != SHT_SYMTAB) {
+                continue;
+            }
+            if (Integer.compareUnsigned(symtab.sh_link, sections.size()) >= 0) {
+                throw new IOException("Symbol table has no string table");
+            }
+            SectionHeader strtab = sections.get(symtab.sh_link);
+            checkSectionBounds(image, symtab);
+            checkSectionBounds(image, strtab);
 
-                if (programHeader.p_type == PT_LOAD) {
-                    loadSegment(file, memory, programHeader.p_offset, programHeader.p_vaddr, programHeader.p_filesz, programHeader.p_memsz);
+            ByteBuffer buffer = image.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            List<SymbolTable.Symbol> symbols = new ArrayList<>();
+            for (int offset = 0; offset + SYMBOL_SIZE <= symtab.sh_size; offset += SYMBOL_SIZE) {
+                int entry = symtab.sh_offset + offset;
+                int name = buffer.getInt(entry);
+                int value = buffer.getInt(entry + 4);
+                int size = buffer.getInt(entry + 8);
+                int info = buffer.get(entry + 12);
+                if ((info & 0xF) == STT_FUNC && Integer.compareUnsigned(name, strtab.sh_size) < 0) {
+                    symbols.add(new SymbolTable.Symbol(readString(image, strtab.sh_offset + name, strtab.sh_offset + strtab.sh_size), value, size));
                 }
             }
+            return new SymbolTable(symbols);
+        }
+        return SymbolTable.EMPTY;
+    }
+
+    private void checkSectionBounds(ByteBuffer image, SectionHeader section) throws IOException {
+        if (Integer.toUnsignedLong(section.sh_offset) + Integer.toUnsignedLong(section.sh_size) > image.capacity()) {
+            throw new IOException("Section exceeds file bounds");
+        }
+    }
 
-            machine.setProgramCounter(elfHeader.e_entry);
+    private String readString(ByteBuffer image, int start, int limit) {
+        int end = start;
+        while (end < limit && image.get(end) != 0) {
+            end++;
         }
+        byte[] bytes = new byte[end - start];
+        image.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Loads a parsed ELF image into memory and points the machine at its entry point.
+     *
+     * @param image   The parsed ELF file.
+     * @param memory  The machine's memory (RAM).
+     * @param machine The machine instance to set the program counter.
+     * @throws IOException Exception thrown if a segment does not fit in memory.
+     */
+    public void loadImage(ElfImage image, GuestMemory memory, IMachine machine) throws IOException {
+        for (ProgramHeader segment : image.getSegments()) {
+            loadSegment(image.getContents(), memory, segment.p_offset, segment.p_vaddr, segment.p_filesz, segment.p_memsz);
+        }
+
+        machine.setProgramCounter(image.getEntry());
     }
 
     /**
@@ -66,26 +192,20 @@ public class Reader {
     /**
      * Loads a segment from the ELF file into memory.
      *
-     * @param file    The RandomAccessFile object to read the ELF file.
-     * @param memory  The byte array representing the machine's memory.
+     * @param image   The mapped ELF file.
+     * @param memory  The machine's memory.
      * @param offset  The offset in the file where the segment starts.
      * @param vaddr   The virtual address where the segment should be loaded.
      * @param filesz  The size of the segment in the file.
      * @param memsz   The size of the segment in memory.
-     * @throws IOException Exception thrown if there are issues reading the segment or if it exceeds memory bounds.
+     * @throws IOException Exception thrown if the segment exceeds the memory bounds.
      */
-    private void loadSegment(RandomAccessFile file, byte[] memory, int offset, int vaddr, int filesz, int memsz) throws IOException {
-        file.seek(offset);
-        byte[] segment = new byte[filesz];
-        file.readFully(segment);
-        if (vaddr + filesz > memory.length) {
+    private void loadSegment(ByteBuffer image, GuestMemory memory, int offset, int vaddr, int filesz, int memsz) throws IOException {
+        if (Integer.toUnsignedLong(vaddr) + Integer.toUnsignedLong(memsz) > memory.size()) {
             throw new IOException("Segment exceeds memory bounds");
         }
 
-        System.arraycopy(segment, 0, memory, vaddr, filesz);
-
-        for (int i = filesz; i < memsz; i++) {
-            memory[vaddr + i] = 0;
-        }
+        memory.map(vaddr, image.slice(offset, filesz));
+        memory.zero(vaddr + filesz, memsz - filesz);
     }
 }
@@ -0,0 +1,89 @@
+package org.parkerharrelson.riscv.device;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.MIP_MSIP;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.MIP_MTIP;
+
+/**
+ * Core-local interruptor with the register layout of the SiFive CLINT, for a single hart.
+ *
+ * <p>
+ * {@code mtime} is the bus time, so it advances by one for every retired instruction,
+ * jumps ahead while the hart waits in WFI, and ignores writes. Writing {@code mtimecmp}
+ * schedules a single bus event for the time it names, which raises the machine timer
+ * interrupt; nothing is checked while the guest runs towards it. Writing {@code msip}
+ * raises or clears the machine software interrupt.
+ * </p>
+ */
+public class Clint implements Device {
+
+    private static final int MSIP = 0x0;
+    private static final int MTIMECMP = 0x4000;
+    private static final int MTIME = 0xBFF8;
+
+    private final DeviceBus bus;
+    private long mtimecmp = -1L;    // Unsigned, and never reached until the guest writes it
+    private DeviceBus.Event timerEvent;
+
+    /**
+     * Constructor for Clint.
+     *
+     * @param bus The bus the CLINT is attached to, which supplies the time and takes its interrupts.
+     */
+    public Clint(DeviceBus bus) {
+        this.bus = bus;
+    }
+
+    @Override
+    public int load(int offset, int size) {
+        if (offset >= MTIMECMP && offset < MTIMECMP + 8) {
+            return extract(mtimecmp, offset - MTIMECMP, size);
+        } else if (offset >= MTIME && offset < MTIME + 8) {
+            return extract(bus.now(), offset - MTIME, size);
+        } else if (offset == MSIP) {
+            return (bus.getPendingInterrupts() & MIP_MSIP) != 0 ? 1 : 0;
+        }
+        return 0;
+    }
+
+    @Override
+    public void store(int offset, int size, int value) {
+        if (offset >= MTIMECMP && offset < MTIMECMP + 8) {
+            int shift = (offset - MTIMECMP) * 8;
+            long mask = (size == 4 ? 0xFFFFFFFFL : (1L << (size * 8)) - 1) << shift;
+            mtimecmp = (mtimecmp & ~mask) | (((long) value << shift) & mask);
+            arm();
+        } else if (offset == MSIP) {
+            if ((value & 1) != 0) {
+                bus.raise(MIP_MSIP);
+            } else {
+                bus.lower(MIP_MSIP);
+            }
+        }
+    }
+
+    /**
+     * Replaces the timer event after a write to mtimecmp. A compare value that has
+     * already been reached raises the interrupt straight away.
+     */
+    private void arm() {
+        bus.cancel(timerEvent);
+        timerEvent = null;
+        if (Long.compareUnsigned(mtimecmp, bus.now()) <= 0) {
+            bus.raise(MIP_MTIP);
+            return;
+        }
+        bus.lower(MIP_MTIP);
+        // Compare values past Long.MAX_VALUE are never reached
+        if (mtimecmp > 0) {
+            timerEvent = bus.schedule(mtimecmp, () -> {
+                timerEvent = null;
+                bus.raise(MIP_MTIP);
+            });
+        }
+    }
+
+    private static int extract(long register, int byteOffset, int size) {
+        long value = register >>> (byteOffset * 8);
+        return size == 4 ? (int) value : (int) (value & ((1L << (size * 8)) - 1));
+    }
+}
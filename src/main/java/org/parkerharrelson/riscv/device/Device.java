@@ -0,0 +1,31 @@
+package org.parkerharrelson.riscv.device;
+
+/**
+ * A memory-mapped device attached to a {@link DeviceBus}.
+ *
+ * <p>
+ * Registers are addressed by their offset from the device's base address. Accesses
+ * are 1, 2 or 4 bytes wide, and a device reads or writes the bytes of a wider register
+ * that an access covers, which is how RV32 guests reach 64-bit registers.
+ * </p>
+ */
+public interface Device {
+
+    /**
+     * Reads from the device's registers.
+     *
+     * @param offset The offset of the first byte from the device's base address.
+     * @param size The number of bytes read.
+     * @return The bytes read, zero-extended.
+     */
+    int load(int offset, int size);
+
+    /**
+     * Writes to the device's registers.
+     *
+     * @param offset The offset of the first byte from the device's base address.
+     * @param size The number of bytes written.
+     * @param value The value whose low bytes are written.
+     */
+    void store(int offset, int size, int value);
+}
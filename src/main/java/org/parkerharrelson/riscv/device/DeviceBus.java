@@ -0,0 +1,370 @@
+package org.parkerharrelson.riscv.device;
+
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.memory.GuestMemory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.DEVICE_BASE;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.DEVICE_SIZE;
+
+/**
+ * Guest memory with memory-mapped devices in front of it.
+ *
+ * <p>
+ * Every device sits in one fixed window of the address space, so a load or store that
+ * does not touch a device costs a single unsigned range check on its way to the RAM
+ * behind the bus. Only accesses inside the window look for the device they address.
+ * System calls and ELF loading copy to and from RAM in bulk without going through the
+ * devices, and the atomic operations are not supported on device registers.
+ * </p>
+ *
+ * <p>
+ * Devices are never ticked. Anything a device has to do later is scheduled as an event
+ * keyed by the bus time, which is the machine's retired instruction count plus the ticks
+ * the hart has spent waiting in WFI. The machine runs its execution engine up to the
+ * earliest pending event as if it were the end of a quantum, fires the events that are
+ * due, and carries on. A device that schedules an event earlier than the current bound
+ * ends the engine's run, so the new bound is picked up. Interrupts raised by devices are
+ * collected as pending bits in the layout of the mip register, and raising one tells the
+ * machine, which takes it between engine runs.
+ * </p>
+ */
+public class DeviceBus implements GuestMemory {
+
+    private final Machine machine;
+    private final GuestMemory ram;
+    private final List<Mapping> mappings = new ArrayList<>();
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long sequence;
+    private long idleTicks;     // Time that passed without instructions being retired
+    private int pendingInterrupts;
+
+    /**
+     * Constructor for DeviceBus.
+     *
+     * @param machine The machine whose retired instruction count the devices are timed by.
+     * @param ram The memory behind every address outside the device window.
+     */
+    public DeviceBus(Machine machine, GuestMemory ram) {
+        this.machine = machine;
+        this.ram = ram;
+    }
+
+    /**
+     * Checks whether an address is inside the device window.
+     *
+     * @param address The guest address.
+     * @return True if the address belongs to the devices rather than to RAM.
+     */
+    public static boolean isDeviceAddress(int address) {
+        return Integer.compareUnsigned(address - DEVICE_BASE, DEVICE_SIZE) < 0;
+    }
+
+    /**
+     * Maps a device's registers into the device window.
+     *
+     * @param base The address of the device's first register.
+     * @param size The number of bytes the device's registers take up.
+     * @param device The device.
+     */
+    public void attach(int base, int size, Device device) {
+        if (!isDeviceAddress(base) || !isDeviceAddress(base + size - 1)) {
+            throw new IllegalArgumentException(String.format("Device at 0x%08x is outside the device window", base));
+        }
+        mappings.add(new Mapping(base, size, device));
+    }
+
+    /**
+     * The current time on the bus, which is the machine's retired instruction count plus
+     * the time it has spent idle.
+     *
+     * @return The time in ticks.
+     */
+    public long now() {
+        return machine.getInstructionsRetired() + idleTicks;
+    }
+
+    /**
+     * Moves the time forward without retiring instructions, for a hart waiting in WFI.
+     *
+     * @param time The time to move to. Times in the past are ignored.
+     */
+    public void advanceTo(long time) {
+        long now = now();
+        if (time > now) {
+            idleTicks += time - now;
+        }
+    }
+
+    /**
+     * Schedules an action to run at a time on the bus.
+     * Events due at the same time run in the order they were scheduled.
+     *
+     * @param when The time to run the action at.
+     * @param action The action.
+     * @return The event, which can be passed to {@link #cancel}.
+     */
+    public Event schedule(long when, Runnable action) {
+        Event event = new Event(when, sequence++, action);
+        events.add(event);
+        if (when - idleTicks < machine.getInstructionLimit()) {
+            machine.reschedule();
+        }
+        return event;
+    }
+
+    /**
+     * Cancels an event that has not run yet.
+     *
+     * @param event The event, or null to do nothing.
+     */
+    public void cancel(Event event) {
+        if (event != null) {
+            events.remove(event);
+        }
+    }
+
+    /**
+     * The retired instruction count the machine runs its engine up to, at which the earliest pending event is due.
+     *
+     * @return The retired instruction count, or Long.MAX_VALUE if there is no event.
+     */
+    public long nextEvent() {
+        Event next = events.peek();
+        return next == null ? Long.MAX_VALUE : next.when - idleTicks;
+    }
+
+    /**
+     * The time of the earliest pending event.
+     *
+     * @return The time, or Long.MAX_VALUE if there is no event.
+     */
+    public long nextEventTime() {
+        Event next = events.peek();
+        return next == null ? Long.MAX_VALUE : next.when;
+    }
+
+    /**
+     * Runs every event that is due, including events scheduled by the ones that run.
+     */
+    public void runEvents() {
+        long now = now();
+        while (!events.isEmpty() && events.peek().when <= now) {
+            events.poll().action.run();
+        }
+    }
+
+    /**
+     * Sets interrupt pending bits.
+     *
+     * @param mask The bits to set, in the layout of the mip register.
+     */
+    public void raise(int mask) {
+        pendingInterrupts |= mask;
+        machine.interruptsChanged();
+    }
+
+    /**
+     * Clears interrupt pending bits.
+     *
+     * @param mask The bits to clear, in the layout of the mip register.
+     */
+    public void lower(int mask) {
+        pendingInterrupts &= ~mask;
+    }
+
+    /**
+     * The interrupts the devices are currently raising.
+     *
+     * @return The pending bits, in the layout of the mip register.
+     */
+    public int getPendingInterrupts() {
+        return pendingInterrupts;
+    }
+
+    @Override
+    public long size() {
+        return ram.size();
+    }
+
+    @Override
+    public int load8(int address) {
+        return isDeviceAddress(address) ? (byte) deviceLoad(address, 1) : ram.load8(address);
+    }
+
+    @Override
+    public int load16(int address) {
+        return isDeviceAddress(address) ? (short) deviceLoad(address, 2) : ram.load16(address);
+    }
+
+    @Override
+    public int load32(int address) {
+        return isDeviceAddress(address) ? deviceLoad(address, 4) : ram.load32(address);
+    }
+
+    @Override
+    public void store8(int address, int value) {
+        if (isDeviceAddress(address)) {
+            deviceStore(address, 1, value);
+        } else {
+            ram.store8(address, value);
+        }
+    }
+
+    @Override
+    public void store16(int address, int value) {
+        if (isDeviceAddress(address)) {
+            deviceStore(address, 2, value);
+        } else {
+            ram.store16(address, value);
+        }
+    }
+
+    @Override
+    public void store32(int address, int value) {
+        if (isDeviceAddress(address)) {
+            deviceStore(address, 4, value);
+        } else {
+            ram.store32(address, value);
+        }
+    }
+
+    @Override
+    public int compareAndExchange32(int address, int expected, int value) {
+        return ram(address).compareAndExchange32(address, expected, value);
+    }
+
+    @Override
+    public int getAndSet32(int address, int value) {
+        return ram(address).getAndSet32(address, value);
+    }
+
+    @Override
+    public int getAndAdd32(int address, int value) {
+        return ram(address).getAndAdd32(address, value);
+    }
+
+    @Override
+    public int getAndBitwiseAnd32(int address, int value) {
+        return ram(address).getAndBitwiseAnd32(address, value);
+    }
+
+    @Override
+    public int getAndBitwiseOr32(int address, int value) {
+        return ram(address).getAndBitwiseOr32(address, value);
+    }
+
+    @Override
+    public int getAndBitwiseXor32(int address, int value) {
+        return ram(address).getAndBitwiseXor32(address, value);
+    }
+
+    @Override
+    public void read(int address, byte[] destination, int offset, int length) {
+        ram.read(address, destination, offset, length);
+    }
+
+    @Override
+    public void write(int address, byte[] source, int offset, int length) {
+        ram.write(address, source, offset, length);
+    }
+
+    @Override
+    public int readFrom(ReadableByteChannel channel, int address, int length) throws IOException {
+        return ram.readFrom(channel, address, length);
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel channel, int address, int length) throws IOException {
+        ram.writeTo(channel, address, length);
+    }
+
+    @Override
+    public void map(int address, ByteBuffer source) {
+        ram.map(address, source);
+    }
+
+    @Override
+    public void zero(int address, int length) {
+        ram.zero(address, length);
+    }
+
+    /**
+     * Forks the RAM behind the bus. Devices belong to a machine, so a fork has none.
+     *
+     * @return The copy of the RAM.
+     */
+    @Override
+    public GuestMemory fork() {
+        return ram.fork();
+    }
+
+    private GuestMemory ram(int address) {
+        if (isDeviceAddress(address)) {
+            throw new UnsupportedOperationException(String.format("Atomic access to device register 0x%08x", address));
+        }
+        return ram;
+    }
+
+    private int deviceLoad(int address, int size) {
+        Mapping mapping = find(address);
+        return mapping.device.load(address - mapping.base, size);
+    }
+
+    private void deviceStore(int address, int size, int value) {
+        Mapping mapping = find(address);
+        mapping.device.store(address - mapping.base, size, value);
+    }
+
+    private Mapping find(int address) {
+        for (Mapping mapping : mappings) {
+            if (Integer.compareUnsigned(address - mapping.base, mapping.size) < 0) {
+                return mapping;
+            }
+        }
+        throw new UnsupportedOperationException(String.format("No device at 0x%08x", address));
+    }
+
+    private static class Mapping {
+        final int base;
+        final int size;
+        final Device device;
+
+        Mapping(int base, int size, Device device) {
+            this.base = base;
+            this.size = size;
+            this.device = device;
+        }
+    }
+
+    /**
+     * An action scheduled on the bus.
+     */
+    public static class Event implements Comparable<Event> {
+        private final long when;
+        private final long sequence;
+        private final Runnable action;
+
+        Event(long when, long sequence, Runnable action) {
+            this.when = when;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        public long getWhen() {
+            return when;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            return when != other.when ? Long.compare(when, other.when) : Long.compare(sequence, other.sequence);
+        }
+    }
+}
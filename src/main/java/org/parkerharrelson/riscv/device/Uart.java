@@ -0,0 +1,106 @@
+package org.parkerharrelson.riscv.device;
+
+import org.parkerharrelson.riscv.core.Machine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Serial port with the register layout of a 16550 UART, connected to the machine's console.
+ *
+ * <p>
+ * Bytes written to the transmit register go to the console's output buffer, so the
+ * transmitter is always ready. The line status register never waits: it reports
+ * received data only when the console has a byte buffered or available from the host,
+ * and reading the receive register takes the next byte, waiting for one like a read
+ * from a terminal does. The divisor latch, line control, modem control and scratch
+ * registers only hold what is written to them, and the UART raises no interrupts, so
+ * guests poll the line status register. Input read through the UART is not recorded by
+ * an input log.
+ * </p>
+ */
+public class Uart implements Device {
+
+    private static final int RBR_THR = 0;       // Receive and transmit, or divisor latch low while DLAB is set
+    private static final int IER = 1;           // Interrupt enable, or divisor latch high while DLAB is set
+    private static final int IIR_FCR = 2;
+    private static final int LCR = 3;
+    private static final int MCR = 4;
+    private static final int LSR = 5;
+    private static final int SCR = 7;
+    private static final int LCR_DLAB = 0x80;
+    private static final int LSR_DATA_READY = 0x01;
+    private static final int LSR_TRANSMITTER_EMPTY = 0x60;
+    private static final int IIR_NO_INTERRUPT = 0x01;
+
+    private final Machine machine;
+    private int divisor;
+    private int interruptEnable;
+    private int lineControl;
+    private int modemControl;
+    private int scratch;
+
+    /**
+     * Constructor for Uart.
+     *
+     * @param machine The machine whose console the UART is connected to.
+     */
+    public Uart(Machine machine) {
+        this.machine = machine;
+    }
+
+    @Override
+    public int load(int offset, int size) {
+        boolean latch = (lineControl & LCR_DLAB) != 0;
+        try {
+            return switch (offset) {
+                case RBR_THR -> latch ? divisor & 0xFF : Math.max(machine.getConsole().read(), 0);
+                case IER -> latch ? divisor >>> 8 : interruptEnable;
+                case IIR_FCR -> IIR_NO_INTERRUPT;
+                case LCR -> lineControl;
+                case MCR -> modemControl;
+                case LSR -> LSR_TRANSMITTER_EMPTY | (machine.getConsole().ready() ? LSR_DATA_READY : 0);
+                case SCR -> scratch;
+                default -> 0;
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading UART input", e);
+        }
+    }
+
+    @Override
+    public void store(int offset, int size, int value) {
+        boolean latch = (lineControl & LCR_DLAB) != 0;
+        switch (offset) {
+            case RBR_THR:
+                if (latch) {
+                    divisor = (divisor & 0xFF00) | (value & 0xFF);
+                } else {
+                    try {
+                        machine.getConsole().write(value & 0xFF);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Error writing UART output", e);
+                    }
+                }
+                break;
+            case IER:
+                if (latch) {
+                    divisor = (divisor & 0xFF) | ((value & 0xFF) << 8);
+                } else {
+                    interruptEnable = value & 0x0F;
+                }
+                break;
+            case LCR:
+                lineControl = value & 0xFF;
+                break;
+            case MCR:
+                modemControl = value & 0x1F;
+                break;
+            case SCR:
+                scratch = value & 0xFF;
+                break;
+            default:
+                break;
+        }
+    }
+}
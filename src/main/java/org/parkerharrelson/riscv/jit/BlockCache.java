@@ -0,0 +1,211 @@
+package org.parkerharrelson.riscv.jit;
+
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+import org.parkerharrelson.riscv.util.PageTable;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.CODE_PAGE_SHIFT;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.JIT_MAX_BACKOFF;
+
+/**
+ * Execution profile and compiled code for every basic block the JIT has seen, indexed by start address.
+ *
+ * <p>
+ * Entries are grouped into the same code pages as the decode cache so a store into
+ * code can drop the affected blocks in one step. Once more than the configured number
+ * of blocks have been compiled, every compiled block is evicted at once and the blocks
+ * go back to being interpreted until they become hot again.
+ * </p>
+ *
+ * <p>
+ * A store into a code page drops the compiled code of its blocks but keeps their
+ * entries and execution counts, since programs often keep data on the same page as
+ * the code that writes it. Every drop doubles the number of executions a block needs
+ * before it is compiled again, so a block that keeps writing to its own page is
+ * recompiled a few times rather than on every pass or never.
+ * </p>
+ *
+ * <p>
+ * Compiled blocks are chained: every entry links directly to the compiled blocks that
+ * ran after it, one for the fall-through address and one for the taken branch or jump
+ * target, so the engine can follow them without looking the next block up. A link is
+ * only followed while its target is still compiled and starts at the address the block
+ * returned, so dropping or evicting a block breaks every link to it.
+ * </p>
+ */
+public class BlockCache {
+
+    private static final int ENTRIES_PER_PAGE = (1 << CODE_PAGE_SHIFT) >> 1;
+    private static final int ENTRY_MASK = ENTRIES_PER_PAGE - 1;
+
+    private final PageTable<BlockEntry[]> pages = new PageTable<>();
+    private final int capacity;
+    private int compiledCount = 0;
+    private long compilations = 0;
+
+    /**
+     * Constructor for BlockCache.
+     *
+     * @param capacity The number of compiled blocks to keep before evicting them all.
+     */
+    public BlockCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Looks up the entry for the block starting at the given address, creating it on first use.
+     *
+     * @param pc The start address of the block.
+     * @return The entry for the block.
+     */
+    public BlockEntry getOrCreate(int pc) {
+        int pageIndex = pc >>> CODE_PAGE_SHIFT;
+        BlockEntry[] page = pages.get(pageIndex);
+        if (page == null) {
+            page = new BlockEntry[ENTRIES_PER_PAGE];
+            pages.put(pageIndex, page);
+        }
+        int slot = (pc >>> 1) & ENTRY_MASK;
+        BlockEntry entry = page[slot];
+        if (entry == null) {
+            entry = new BlockEntry(pc);
+            page[slot] = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * Installs compiled code for a block, evicting every compiled block first if the cache is full.
+     *
+     * @param entry The entry for the block.
+     * @param block The compiled code.
+     * @param instructions The instructions the code was compiled from.
+     * @param endPc The address just past the last instruction of the block.
+     */
+    public void install(BlockEntry entry, CompiledBlock block, DecodedInstruction[] instructions, int endPc) {
+        if (compiledCount >= capacity) {
+            evictAll();
+        }
+        entry.compiled = block;
+        entry.instructions = instructions;
+        entry.endPc = endPc;
+        compiledCount++;
+        compilations++;
+    }
+
+    /**
+     * Drops the compiled code of every block that has instructions in the given code page.
+     * Blocks are shorter than a page, so only blocks starting in this page or the one
+     * before can overlap it. The entries keep their execution counts.
+     *
+     * @param pageIndex The index of the code page that was written.
+     */
+    public void invalidatePage(int pageIndex) {
+        BlockEntry[] page = pages.get(pageIndex);
+        if (page != null) {
+            for (BlockEntry entry : page) {
+                if (entry != null) {
+                    // The code may have been rewritten into something the compiler handles
+                    entry.uncompilable = false;
+                    if (entry.compiled != null) {
+                        invalidate(entry);
+                    }
+                }
+            }
+        }
+
+        BlockEntry[] previous = pages.get(pageIndex - 1);
+        if (previous != null) {
+            for (BlockEntry entry : previous) {
+                if (entry != null && entry.compiled != null && (entry.endPc - 1) >>> CODE_PAGE_SHIFT == pageIndex) {
+                    invalidate(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts every compiled block and resets the execution counters so blocks have to become hot again.
+     */
+    public void evictAll() {
+        pages.forEachPage(pageIndex -> {
+            for (BlockEntry entry : pages.get(pageIndex)) {
+                if (entry != null) {
+                    entry.drop();
+                    entry.executions = 0;
+                }
+            }
+        });
+        compiledCount = 0;
+    }
+
+    /**
+     * The number of blocks compiled so far, counting every recompilation.
+     *
+     * @return The number of blocks compiled.
+     */
+    public long getCompilations() {
+        return compilations;
+    }
+
+    private void invalidate(BlockEntry entry) {
+        compiledCount--;
+        entry.drop();
+        if (entry.backoff < JIT_MAX_BACKOFF) {
+            entry.backoff++;
+        }
+    }
+
+    /**
+     * Profile and compiled code for a single basic block.
+     */
+    public static class BlockEntry {
+        final int pc;                      // The start address of the block
+        int executions;                    // Times the block has been interpreted since it was last evicted
+        int backoff;                       // Times the block's code page was written while it was compiled
+        boolean uncompilable;              // Set when the block starts with an instruction the compiler does not handle
+        CompiledBlock compiled;            // The compiled code, or null while the block is interpreted
+        DecodedInstruction[] instructions; // The instructions the compiled code runs
+        int endPc;                         // The address just past the last compiled instruction
+        BlockEntry fallThrough;            // The compiled block that last ran after this one from endPc
+        BlockEntry taken;                  // The compiled block that last ran after this one from anywhere else
+
+        BlockEntry(int pc) {
+            this.pc = pc;
+        }
+
+        /**
+         * Follows the link to the block starting at the address this block returned.
+         *
+         * @param nextPc The address of the next instruction to execute.
+         * @return The linked block, or null if it is not linked or no longer compiled.
+         */
+        BlockEntry successor(int nextPc) {
+            BlockEntry next = nextPc == endPc ? fallThrough : taken;
+            return next != null && next.pc == nextPc && next.compiled != null ? next : null;
+        }
+
+        /**
+         * Links a compiled block as the successor at the given address, replacing the previous link.
+         *
+         * @param nextPc The address the next block starts at.
+         * @param next The compiled block starting at that address.
+         */
+        void link(int nextPc, BlockEntry next) {
+            if (nextPc == endPc) {
+                fallThrough = next;
+            } else {
+                taken = next;
+            }
+        }
+
+        /**
+         * Discards the compiled code and the links out of this block.
+         */
+        void drop() {
+            compiled = null;
+            instructions = null;
+            fallThrough = null;
+            taken = null;
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package org.parkerharrelson.riscv.jit;
+
+import org.parkerharrelson.riscv.core.DecodeCache;
+import org.parkerharrelson.riscv.memory.GuestMemory;
+import org.parkerharrelson.riscv.pipeline.InstructionDecode;
+import org.parkerharrelson.riscv.util.AluOp;
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Translates guest basic blocks into JVM classes.
+ *
+ * <p>
+ * A block starts at a given program counter and runs up to and including the
+ * first jump or branch, stopping early before any SYSTEM, AMO or FENCE
+ * instruction (which are left to the interpreter) or after {@link #MAX_BLOCK_LENGTH} instructions.
+ * Every guest register the block reads is loaded from the register file into
+ * a JVM local once on entry, all arithmetic works on those locals, and only the
+ * registers the block writes are stored back before it returns the next program
+ * counter. Loads and stores call straight into the guest memory backend. The
+ * generated class is defined with {@code Lookup.defineHiddenClass} so it can be
+ * unloaded as soon as the block is evicted.
+ * </p>
+ */
+public class BlockCompiler {
+
+    public static final int MAX_BLOCK_LENGTH = 64;
+
+    private static final String BLOCK_CLASS = "org/parkerharrelson/riscv/jit/Block";
+    private static final String COMPILED_BLOCK = "org/parkerharrelson/riscv/jit/CompiledBlock";
+    private static final String RUNTIME = "org/parkerharrelson/riscv/jit/JitRuntime";
+    private static final String EXECUTE_DESCRIPTOR = "([ILorg/parkerharrelson/riscv/memory/GuestMemory;Lorg/parkerharrelson/riscv/core/DecodeCache;)I";
+    private static final String BINARY_DESCRIPTOR = "(II)I";
+    private static final String LOAD_DESCRIPTOR = "(Lorg/parkerharrelson/riscv/memory/GuestMemory;I)I";
+    private static final String STORE_DESCRIPTOR = "(Lorg/parkerharrelson/riscv/memory/GuestMemory;Lorg/parkerharrelson/riscv/core/DecodeCache;II)V";
+
+    // Local variable slots of the generated execute method: 0 is this, 1-3 are the registers,
+    // memory and decode cache parameters, followed by one slot per guest register and a temporary
+    private static final int FIRST_REGISTER_LOCAL = 4;
+    private static final int TEMP_LOCAL = FIRST_REGISTER_LOCAL + 32;
+    private static final int MAX_LOCALS = TEMP_LOCAL + 1;
+    private static final int MAX_STACK = 6;
+
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    /**
+     * Checks whether an instruction ends a basic block.
+     *
+     * @param decoded The decoded instruction.
+     * @return True for jumps, branches and instructions that are never compiled.
+     */
+    public static boolean endsBlock(DecodedInstruction decoded) {
+        int opcode = decoded.getOpcode();
+        return opcode == 0x63 || opcode == 0x6F || opcode == 0x67 || isInterpretedOnly(decoded);
+    }
+
+    /**
+     * Checks whether an instruction is always left to the interpreter. SYSTEM
+     * instructions call back into the machine, and atomics and fences need the
+     * hart's reservation state and decode cache.
+     *
+     * @param decoded The decoded instruction.
+     * @return True for SYSTEM, AMO and MISC-MEM instructions.
+     */
+    private static boolean isInterpretedOnly(DecodedInstruction decoded) {
+        int opcode = decoded.getOpcode();
+        return opcode == 0x73 || opcode == 0x2F || opcode == 0x0F;
+    }
+
+    /**
+     * Collects the instructions of the basic block starting at the given address,
+     * decoding and caching any instruction that has not been decoded yet. A block ends
+     * before an instruction under a breakpoint, so the breakpoint is always interpreted.
+     *
+     * @param pc The address of the first instruction in the block.
+     * @param memory The guest memory.
+     * @param decodeCache The decode cache to read from and fill.
+     * @return The instructions of the block, empty if the first instruction cannot be compiled.
+     */
+    public static List<DecodedInstruction> formBlock(int pc, GuestMemory memory, DecodeCache decodeCache) {
+        List<DecodedInstruction> block = new ArrayList<>();
+        int address = pc;
+
+        while (block.size() < MAX_BLOCK_LENGTH) {
+            DecodedInstruction decoded = decodeCache.get(address);
+            if (decoded == null) {
+                if (decodeCache.isBreakpoint(address)) {
+                    break;
+                }
+                try {
+                    decoded = InstructionDecode.predecode(memory, address);
+                } catch (UnsupportedOperationException | IndexOutOfBoundsException e) {
+                    break;
+                }
+                decodeCache.put(address, decoded);
+            }
+            if (isInterpretedOnly(decoded)) {
+                break;
+            }
+            block.add(decoded);
+            if (endsBlock(decoded)) {
+                break;
+            }
+            address += decoded.getLength();
+        }
+
+        return block;
+    }
+
+    /**
+     * Compiles a basic block into a new hidden class and instantiates it.
+     *
+     * @param pc The address of the first instruction in the block.
+     * @param block The instructions of the block, as returned by {@link #formBlock}.
+     * @return The compiled block.
+     */
+    public CompiledBlock compile(int pc, List<DecodedInstruction> block) {
+        ClassFileWriter classFile = new ClassFileWriter(BLOCK_CLASS, "java/lang/Object", COMPILED_BLOCK);
+
+        byte[] constructor = {
+                0x2A,               // aload_0
+                (byte) 0xB7, 0, 0,  // invokespecial Object.<init>
+                (byte) 0xB1         // return
+        };
+        int objectInit = classFile.methodRef("java/lang/Object", "<init>", "()V");
+        constructor[2] = (byte) (objectInit >> 8);
+        constructor[3] = (byte) objectInit;
+        classFile.addMethod(0x0001, "<init>", "()V", 1, 1, constructor);
+
+        byte[] code = new BlockAssembler(classFile, pc, block).assemble();
+        classFile.addMethod(0x0001, "execute", EXECUTE_DESCRIPTOR, MAX_STACK, MAX_LOCALS, code);
+
+        try {
+            MethodHandles.Lookup blockLookup = lookup.defineHiddenClass(classFile.toByteArray(0x0031), true);
+            return (CompiledBlock) blockLookup.findConstructor(blockLookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to compile block at 0x" + Integer.toHexString(pc), e);
+        }
+    }
+
+    /**
+     * Emits the bytecode of the execute method for a single block.
+     */
+    private static class BlockAssembler {
+
+        private final ClassFileWriter classFile;
+        private final int startPc;
+        private final List<DecodedInstruction> block;
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private final boolean[] read = new boolean[32];
+        private final boolean[] written = new boolean[32];
+
+        BlockAssembler(ClassFileWriter classFile, int startPc, List<DecodedInstruction> block) {
+            this.classFile = classFile;
+            this.startPc = startPc;
+            this.block = block;
+        }
+
+        byte[] assemble() {
+            for (DecodedInstruction decoded : block) {
+                markRegisters(decoded);
+            }
+
+            // Prologue: load every guest register the block reads into its local
+            for (int reg = 1; reg < 32; reg++) {
+                if (read[reg]) {
+                    op(0x2B); // aload_1
+                    iconst(reg);
+                    op(0x2E); // iaload
+                    istore(FIRST_REGISTER_LOCAL + reg);
+                }
+            }
+
+            int pc = startPc;
+            for (DecodedInstruction decoded : block) {
+                emitInstruction(decoded, pc);
+                pc += decoded.getLength();
+            }
+
+            if (!endsBlock(block.get(block.size() - 1))) {
+                exit(pc);
+            }
+            return Arrays.copyOf(code, length);
+        }
+
+        private void markRegisters(DecodedInstruction decoded) {
+            switch (decoded.getOpcode()) {
+                case 0x33, 0x23, 0x63 -> {
+                    read[decoded.getRs1()] = true;
+                    read[decoded.getRs2()] = true;
+                }
+                case 0x13, 0x03, 0x67 -> read[decoded.getRs1()] = true;
+                default -> {
+                }
+            }
+            switch (decoded.getOpcode()) {
+                case 0x33, 0x13, 0x03, 0x37, 0x17, 0x6F, 0x67 -> written[decoded.getRd()] = true;
+                default -> {
+                }
+            }
+            read[0] = false;
+            written[0] = false;
+        }
+
+        private void emitInstruction(DecodedInstruction decoded, int pc) {
+            switch (decoded.getOpcode()) {
+                case 0x33: // R-type
+                    loadRegister(decoded.getRs1());
+                    loadRegister(decoded.getRs2());
+                    emitAluOp(decoded.getAluop());
+                    storeRegister(decoded.getRd());
+                    break;
+                case 0x13: // I-type (OP-IMM)
+                    loadRegister(decoded.getRs1());
+                    iconst(decoded.getImm());
+                    emitAluOp(decoded.getAluop());
+                    storeRegister(decoded.getRd());
+                    break;
+                case 0x03: // I-type (LOAD)
+                    op(0x2C); // aload_2
+                    emitAddress(decoded);
+                    invokeStatic(RUNTIME, loadHelper(decoded.getFunct3()), LOAD_DESCRIPTOR);
+                    storeRegister(decoded.getRd());
+                    break;
+                case 0x23: // S-type
+                    op(0x2C); // aload_2
+                    op(0x2D); // aload_3
+                    emitAddress(decoded);
+                    loadRegister(decoded.getRs2());
+                    invokeStatic(RUNTIME, storeHelper(decoded.getFunct3()), STORE_DESCRIPTOR);
+                    break;
+                case 0x37: // U-type (LUI)
+                    iconst(decoded.getImm());
+                    storeRegister(decoded.getRd());
+                    break;
+                case 0x17: // U-type (AUIPC)
+                    iconst(pc + decoded.getImm());
+                    storeRegister(decoded.getRd());
+                    break;
+                case 0x6F: // J-type (JAL)
+                    iconst(pc + decoded.getLength());
+                    storeRegister(decoded.getRd());
+                    exit(pc + decoded.getImm());
+                    break;
+                case 0x67: // JALR, target is computed before rd is written in case rd == rs1
+                    emitAddress(decoded);
+                    iconst(~1);
+                    op(0x7E); // iand
+                    istore(TEMP_LOCAL);
+                    iconst(pc + decoded.getLength());
+                    storeRegister(decoded.getRd());
+                    writeBack();
+                    iload(TEMP_LOCAL);
+                    op(0xAC); // ireturn
+                    break;
+                case 0x63: // B-type
+                    emitBranch(decoded, pc);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Cannot compile opcode: " + decoded.getOpcode());
+            }
+        }
+
+        private void emitBranch(DecodedInstruction decoded, int pc) {
+            loadRegister(decoded.getRs1());
+            loadRegister(decoded.getRs2());
+            int branchOpcode;
+            switch (decoded.getFunct3()) {
+                case 0x0 -> branchOpcode = 0x9F; // if_icmpeq
+                case 0x1 -> branchOpcode = 0xA0; // if_icmpne
+                case 0x4 -> branchOpcode = 0xA1; // if_icmplt
+                case 0x5 -> branchOpcode = 0xA2; // if_icmpge
+                case 0x6 -> {
+                    invokeStatic("java/lang/Integer", "compareUnsigned", BINARY_DESCRIPTOR);
+                    branchOpcode = 0x9B; // iflt
+                }
+                default -> {
+                    invokeStatic("java/lang/Integer", "compareUnsigned", BINARY_DESCRIPTOR);
+                    branchOpcode = 0x9C; // ifge
+                }
+            }
+
+            int branchPosition = length;
+            op(branchOpcode);
+            u2(0);
+            exit(pc + decoded.getLength());
+
+            int offset = length - branchPosition;
+            code[branchPosition + 1] = (byte) (offset >> 8);
+            code[branchPosition + 2] = (byte) offset;
+            exit(pc + decoded.getImm());
+        }
+
+        private void emitAluOp(AluOp aluOp) {
+            switch (aluOp) {
+                case Add -> op(0x60); // iadd
+                case Sub -> op(0x64); // isub
+                case Mul -> op(0x68); // imul
+                case LeftShift -> op(0x78); // ishl
+                case RightShiftA -> op(0x7A); // ishr
+                case RightShiftL -> op(0x7C); // iushr
+                case And -> op(0x7E); // iand
+                case Or -> op(0x80); // ior
+                case Xor -> op(0x82); // ixor
+                case MulH -> invokeStatic(RUNTIME, "mulh", BINARY_DESCRIPTOR);
+                case MulHSU -> invokeStatic(RUNTIME, "mulhsu", BINARY_DESCRIPTOR);
+                case MulHU -> invokeStatic(RUNTIME, "mulhu", BINARY_DESCRIPTOR);
+                case Div -> invokeStatic(RUNTIME, "div", BINARY_DESCRIPTOR);
+                case DivU -> invokeStatic(RUNTIME, "divu", BINARY_DESCRIPTOR);
+                case Rem -> invokeStatic(RUNTIME, "rem", BINARY_DESCRIPTOR);
+                case RemU -> invokeStatic(RUNTIME, "remu", BINARY_DESCRIPTOR);
+                case Slt -> invokeStatic(RUNTIME, "slt", BINARY_DESCRIPTOR);
+                case SltU -> invokeStatic(RUNTIME, "sltu", BINARY_DESCRIPTOR);
+                default -> throw new UnsupportedOperationException("Cannot compile ALU operation: " + aluOp);
+            }
+        }
+
+        private static String loadHelper(int funct3) {
+            return switch (funct3) {
+                case 0x0 -> "lb";
+                case 0x1 -> "lh";
+                case 0x2 -> "lw";
+                case 0x4 -> "lbu";
+                default -> "lhu";
+            };
+        }
+
+        private static String storeHelper(int funct3) {
+            return switch (funct3) {
+                case 0x0 -> "sb";
+                case 0x1 -> "sh";
+                case 0x2 -> "sw";
+                default -> throw new UnsupportedOperationException("Unsupported store funct3: " + funct3);
+            };
+        }
+
+        private void emitAddress(DecodedInstruction decoded) {
+            loadRegister(decoded.getRs1());
+            if (decoded.getImm() != 0) {
+                iconst(decoded.getImm());
+                op(0x60); // iadd
+            }
+        }
+
+        private void exit(int nextPc) {
+            writeBack();
+            iconst(nextPc);
+            op(0xAC); // ireturn
+        }
+
+        private void writeBack() {
+            for (int reg = 1; reg < 32; reg++) {
+                if (written[reg]) {
+                    op(0x2B); // aload_1
+                    iconst(reg);
+                    iload(FIRST_REGISTER_LOCAL + reg);
+                    op(0x4F); // iastore
+                }
+            }
+        }
+
+        private void loadRegister(int reg) {
+            if (reg == 0) {
+                op(0x03); // iconst_0
+            } else {
+                iload(FIRST_REGISTER_LOCAL + reg);
+            }
+        }
+
+        private void storeRegister(int reg) {
+            if (reg == 0) {
+                op(0x57); // pop
+            } else {
+                istore(FIRST_REGISTER_LOCAL + reg);
+            }
+        }
+
+        private void invokeStatic(String owner, String name, String descriptor) {
+            op(0xB8); // invokestatic
+            u2(classFile.methodRef(owner, name, descriptor));
+        }
+
+        private void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value); // iconst_<n>
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(0x10); // bipush
+                op(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(0x11); // sipush
+                u2(value);
+            } else {
+                op(0x13); // ldc_w
+                u2(classFile.integer(value));
+            }
+        }
+
+        private void iload(int local) {
+            op(0x15);
+            op(local);
+        }
+
+        private void istore(int local) {
+            op(0x36);
+            op(local);
+        }
+
+        private void op(int value) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            op(value >> 8);
+            op(value);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.parkerharrelson.riscv.jit;
+
+import org.parkerharrelson.riscv.core.DecodeCache;
+import org.parkerharrelson.riscv.memory.GuestMemory;
+
+/**
+ * A guest basic block translated to JVM bytecode.
+ * Implementations are generated at runtime by {@link BlockCompiler} and defined as hidden classes.
+ */
+public interface CompiledBlock {
+
+    /**
+     * Runs every instruction in the block.
+     *
+     * @param registers The guest register file.
+     * @param memory The guest memory.
+     * @param decodeCache The decode cache to invalidate when the block stores to memory.
+     * @return The program counter of the next instruction to execute.
+     */
+    int execute(int[] registers, GuestMemory memory, DecodeCache decodeCache);
+}
@@ -0,0 +1,187 @@
+package org.parkerharrelson.riscv.jit;
+
+import org.parkerharrelson.riscv.core.DecodeCache;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.memory.GuestMemory;
+import org.parkerharrelson.riscv.stats.ExecutionCounters;
+import org.parkerharrelson.riscv.stats.GuestProfiler;
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+import org.parkerharrelson.riscv.util.Instruction;
+
+import java.util.List;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.JIT_BLOCK_CAPACITY;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.JIT_HOT_THRESHOLD;
+
+/**
+ * Tiered execution engine that runs next to the pipeline interpreter.
+ *
+ * <p>
+ * Every basic block starts out interpreted through the machine's pipeline stages,
+ * and the engine counts how often each block is entered. Once a block has been
+ * entered often enough it is compiled by the {@link BlockCompiler} and every later
+ * entry runs the compiled code instead. Blocks whose code is written, or which are
+ * evicted when the block cache fills up, go back to being interpreted.
+ * </p>
+ *
+ * <p>
+ * Compiled blocks are linked to the compiled blocks that run after them, so a hot
+ * loop made of compiled blocks keeps jumping from one block's code to the next
+ * without going back through the block cache lookup.
+ * </p>
+ */
+public class JitEngine {
+
+    private final Machine machine;
+    private final BlockCache blockCache;
+    private final BlockCompiler compiler;
+    private final int hotThreshold;
+
+    /**
+     * Constructor for JitEngine using the default hot threshold and block cache capacity.
+     *
+     * @param machine The machine whose guest code is executed.
+     */
+    public JitEngine(Machine machine) {
+        this(machine, JIT_HOT_THRESHOLD, JIT_BLOCK_CAPACITY);
+    }
+
+    /**
+     * Constructor for JitEngine.
+     *
+     * @param machine The machine whose guest code is executed.
+     * @param hotThreshold The number of times a block is interpreted before it is compiled.
+     * @param capacity The number of compiled blocks to keep before evicting them all.
+     */
+    public JitEngine(Machine machine, int hotThreshold, int capacity) {
+        this.machine = machine;
+        this.blockCache = new BlockCache(capacity);
+        this.compiler = new BlockCompiler();
+        this.hotThreshold = hotThreshold;
+        machine.getDecodeCache().setInvalidationListener(blockCache::invalidatePage);
+    }
+
+    /**
+     * Runs the machine until it exits or reaches its instruction limit, one basic block
+     * at a time. While the machine is traced or has a cache model, blocks are never
+     * compiled and every instruction goes through the pipeline.
+     */
+    public void run() {
+        int[] registers = machine.getRegisters();
+        GuestMemory memory = machine.getMemory();
+        DecodeCache decodeCache = machine.getDecodeCache();
+        ExecutionCounters counters = machine.getExecutionCounters();
+        GuestProfiler profiler = machine.getProfiler();
+        // Every instruction has to go through the pipeline stages to be traced or seen by a cache model
+        boolean interpreting = machine.getTracer() != null || machine.getInstructionCache() != null
+                || machine.getDataCache() != null;
+        long limit = machine.getInstructionLimit();
+        // Devices take the time from the machine's retired count, so it is published after every block
+        boolean timed = machine.getDevices() != null;
+        machine.initializeStackPointer();
+        long retired = machine.getInstructionsRetired();
+
+        BlockCache.BlockEntry previous = null;
+
+        while (machine.isRunning() && retired < limit) {
+            int pc = machine.getProgramCounter();
+            BlockCache.BlockEntry entry = blockCache.getOrCreate(pc);
+
+            // Each time the block's code page was written while it was compiled, it has to get twice as hot
+            if (entry.compiled == null && !entry.uncompilable && !interpreting
+                    && ++entry.executions >= hotThreshold << entry.backoff) {
+                compile(pc, entry, memory, decodeCache);
+            }
+
+            if (entry.compiled != null && !interpreting) {
+                if (previous != null) {
+                    previous.link(pc, entry);
+                }
+                // Follow the links between compiled blocks until one leads somewhere not yet linked
+                do {
+                    if (counters != null) {
+                        counters.retireBlock(entry.instructions);
+                    }
+                    if (profiler != null) {
+                        profiler.retire(pc, entry.instructions.length);
+                    }
+                    // A block that stores into its own code page drops itself while it runs
+                    DecodedInstruction[] instructions = entry.instructions;
+                    int endPc = entry.endPc;
+                    int nextPc = entry.compiled.execute(registers, memory, decodeCache);
+                    retired += instructions.length;
+                    if (timed) {
+                        machine.setInstructionsRetired(retired);
+                    }
+                    if (profiler != null) {
+                        reportJump(profiler, instructions, endPc);
+                    }
+                    pc = nextPc;
+                    BlockCache.BlockEntry next = entry.successor(pc);
+                    if (next == null) {
+                        break;
+                    }
+                    entry = next;
+                } while (machine.isRunning() && retired < limit);
+                machine.setProgramCounter(pc);
+                previous = entry;
+            } else {
+                previous = null;
+                machine.setInstructionsRetired(retired);
+                interpretBlock();
+                retired = machine.getInstructionsRetired();
+            }
+        }
+        machine.setInstructionsRetired(retired);
+    }
+
+    private void compile(int pc, BlockCache.BlockEntry entry, GuestMemory memory, DecodeCache decodeCache) {
+        List<DecodedInstruction> block = BlockCompiler.formBlock(pc, memory, decodeCache);
+        if (block.isEmpty()) {
+            entry.uncompilable = true;
+            return;
+        }
+        int endPc = pc;
+        for (DecodedInstruction decoded : block) {
+            endPc += decoded.getLength();
+        }
+        blockCache.install(entry, compiler.compile(pc, block), block.toArray(new DecodedInstruction[0]), endPc);
+    }
+
+    /**
+     * The number of blocks compiled so far, counting every block compiled again after
+     * its code page was written or the block cache was emptied.
+     *
+     * @return The number of blocks compiled.
+     */
+    public long getCompilations() {
+        return blockCache.getCompilations();
+    }
+
+    /**
+     * Reports the jump that ends a compiled block, if it ends with one, to the profiler.
+     * The block is described by what it was compiled from, since it may have dropped itself.
+     */
+    private static void reportJump(GuestProfiler profiler, DecodedInstruction[] instructions, int endPc) {
+        DecodedInstruction last = instructions[instructions.length - 1];
+        if (last.getOpcode() == 0x6F) {
+            profiler.jump(last.getRd(), 0, endPc);
+        } else if (last.getOpcode() == 0x67) {
+            profiler.jump(last.getRd(), last.getRs1(), endPc);
+        }
+    }
+
+    /**
+     * Steps the pipeline through one basic block, stopping after the first jump,
+     * branch, SYSTEM, AMO or FENCE instruction, or once the block reaches its maximum length.
+     */
+    private void interpretBlock() {
+        for (int i = 0; i < BlockCompiler.MAX_BLOCK_LENGTH && machine.isRunning(); i++) {
+            Instruction instruction = machine.step();
+            // An instruction that could not be decoded trapped to the guest's handler
+            if (instruction.getDecoded() == null || BlockCompiler.endsBlock(instruction.getDecoded())) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.parkerharrelson.riscv.jit;
+
+import org.parkerharrelson.riscv.core.DecodeCache;
+import org.parkerharrelson.riscv.memory.GuestMemory;
+
+/**
+ * Static helpers called from compiled blocks.
+ *
+ * <p>
+ * Operations that would need several bytecodes or a branch in the generated code
+ * are kept here instead. They are small enough that HotSpot inlines them into the
+ * compiled block, and they mirror the semantics of the interpreter's execute and
+ * memory stages exactly.
+ * </p>
+ */
+public final class JitRuntime {
+
+    private JitRuntime() {
+
+    }
+
+    public static int mulh(int left, int right) {
+        return (int) (((long) left * right) >> 32);
+    }
+
+    public static int mulhsu(int left, int right) {
+        return (int) (((long) left * Integer.toUnsignedLong(right)) >> 32);
+    }
+
+    public static int mulhu(int left, int right) {
+        return (int) ((Integer.toUnsignedLong(left) * Integer.toUnsignedLong(right)) >>> 32);
+    }
+
+    public static int div(int left, int right) {
+        return (right == 0) ? -1 : left / right;
+    }
+
+    public static int divu(int left, int right) {
+        return (right == 0) ? -1 : Integer.divideUnsigned(left, right);
+    }
+
+    public static int rem(int left, int right) {
+        return (right == 0) ? left : left % right;
+    }
+
+    public static int remu(int left, int right) {
+        return (right == 0) ? left : Integer.remainderUnsigned(left, right);
+    }
+
+    public static int slt(int left, int right) {
+        return (left < right) ? 1 : 0;
+    }
+
+    public static int sltu(int left, int right) {
+        return (Integer.compareUnsigned(left, right) < 0) ? 1 : 0;
+    }
+
+    public static int lb(GuestMemory memory, int address) {
+        return memory.load8(address);
+    }
+
+    public static int lbu(GuestMemory memory, int address) {
+        return memory.load8(address) & 0xFF;
+    }
+
+    public static int lh(GuestMemory memory, int address) {
+        return memory.load16(address);
+    }
+
+    public static int lhu(GuestMemory memory, int address) {
+        return memory.load16(address) & 0xFFFF;
+    }
+
+    public static int lw(GuestMemory memory, int address) {
+        return memory.load32(address);
+    }
+
+    public static void sb(GuestMemory memory, DecodeCache decodeCache, int address, int value) {
+        memory.store8(address, value);
+        decodeCache.invalidate(address);
+    }
+
+    public static void sh(GuestMemory memory, DecodeCache decodeCache, int address, int value) {
+        memory.store16(address, value);
+        decodeCache.invalidate(address);
+        decodeCache.invalidate(address + 1);
+    }
+
+    public static void sw(GuestMemory memory, DecodeCache decodeCache, int address, int value) {
+        memory.store32(address, value);
+        decodeCache.invalidate(address);
+        decodeCache.invalidate(address + 3);
+    }
+}
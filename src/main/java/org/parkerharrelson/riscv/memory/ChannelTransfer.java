@@ -0,0 +1,83 @@
+package org.parkerharrelson.riscv.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Moves data between host channels and views of a memory backend's storage.
+ *
+ * <p>
+ * A guest range that spans several pages or chunks becomes several buffers. Channels
+ * that support scattering and gathering, such as FileChannel, transfer all of them in
+ * as few system calls as the host allows; other channels get one call per buffer.
+ * </p>
+ */
+final class ChannelTransfer {
+
+    // Linux's IOV_MAX; a host that takes fewer buffers per call just reads less at a time
+    private static final int MAX_BUFFERS_PER_CALL = 1024;
+
+    private ChannelTransfer() {
+
+    }
+
+    /**
+     * Fills the buffers in order until the channel delivers less than was asked for.
+     *
+     * @return The number of bytes read, or -1 if the channel was already at its end.
+     */
+    static int read(ReadableByteChannel channel, ByteBuffer[] buffers) throws IOException {
+        long total = 0;
+        int first = 0;
+        while (first < buffers.length) {
+            int count = Math.min(buffers.length - first, channel instanceof ScatteringByteChannel ? MAX_BUFFERS_PER_CALL : 1);
+            long requested = remaining(buffers, first, count);
+            long read = count == 1
+                    ? channel.read(buffers[first])
+                    : ((ScatteringByteChannel) channel).read(buffers, first, count);
+            if (read < 0) {
+                return total == 0 ? -1 : (int) total;
+            }
+            total += read;
+            if (read < requested) {
+                break;
+            }
+            first += count;
+        }
+        return (int) total;
+    }
+
+    /**
+     * Writes every buffer in order.
+     */
+    static void write(WritableByteChannel channel, ByteBuffer[] buffers) throws IOException {
+        if (channel instanceof GatheringByteChannel) {
+            GatheringByteChannel gathering = (GatheringByteChannel) channel;
+            int first = 0;
+            while (first < buffers.length) {
+                gathering.write(buffers, first, buffers.length - first);
+                while (first < buffers.length && !buffers[first].hasRemaining()) {
+                    first++;
+                }
+            }
+        } else {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    private static long remaining(ByteBuffer[] buffers, int first, int count) {
+        long remaining = 0;
+        for (int i = first; i < first + count; i++) {
+            remaining += buffers[i].remaining();
+        }
+        return remaining;
+    }
+}
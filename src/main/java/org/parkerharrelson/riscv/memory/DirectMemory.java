@@ -0,0 +1,202 @@
+package org.parkerharrelson.riscv.memory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Guest memory allocated off the Java heap with {@link ByteBuffer#allocateDirect}.
+ *
+ * <p>
+ * A direct buffer holds at most 2 GiB, so the memory is split into 1 GiB chunks,
+ * which lets it cover the whole 4 GiB address space without counting against the
+ * heap or being moved by the garbage collector. Halfword and word accesses use
+ * little-endian byte buffer view VarHandles. The rare access that straddles two
+ * chunks is split into byte accesses.
+ * </p>
+ */
+public class DirectMemory implements GuestMemory {
+
+    private static final VarHandle SHORT = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final int CHUNK_SHIFT = 30;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final ByteBuffer[] chunks;
+    private final long size;
+
+    /**
+     * Constructor for DirectMemory.
+     *
+     * @param size The size of the memory in bytes, at most 4 GiB.
+     */
+    public DirectMemory(long size) {
+        if (size <= 0 || size > (1L << 32)) {
+            throw new IllegalArgumentException("Memory size must be between 1 byte and 4 GiB: " + size);
+        }
+        this.size = size;
+        this.chunks = new ByteBuffer[(int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < chunks.length; i++) {
+            long chunkSize = Math.min(CHUNK_SIZE, size - ((long) i << CHUNK_SHIFT));
+            chunks[i] = ByteBuffer.allocateDirect((int) chunkSize);
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int load8(int address) {
+        return chunk(address).get(address & CHUNK_MASK);
+    }
+
+    @Override
+    public int load16(int address) {
+        int offset = address & CHUNK_MASK;
+        if (offset > CHUNK_SIZE - 2) {
+            return (short) ((load8(address) & 0xFF) | (load8(address + 1) << 8));
+        }
+        return (short) SHORT.get(chunk(address), offset);
+    }
+
+    @Override
+    public int load32(int address) {
+        int offset = address & CHUNK_MASK;
+        if (offset > CHUNK_SIZE - 4) {
+            return (load16(address) & 0xFFFF) | (load16(address + 2) << 16);
+        }
+        return (int) INT.get(chunk(address), offset);
+    }
+
+    @Override
+    public void store8(int address, int value) {
+        chunk(address).put(address & CHUNK_MASK, (byte) value);
+    }
+
+    @Override
+    public void store16(int address, int value) {
+        int offset = address & CHUNK_MASK;
+        if (offset > CHUNK_SIZE - 2) {
+            store8(address, value);
+            store8(address + 1, value >> 8);
+            return;
+        }
+        SHORT.set(chunk(address), offset, (short) value);
+    }
+
+    @Override
+    public void store32(int address, int value) {
+        int offset = address & CHUNK_MASK;
+        if (offset > CHUNK_SIZE - 4) {
+            store16(address, value);
+            store16(address + 2, value >> 16);
+            return;
+        }
+        INT.set(chunk(address), offset, value);
+    }
+
+    @Override
+    public int compareAndExchange32(int address, int expected, int value) {
+        return (int) INT.compareAndExchange(chunk(address), address & CHUNK_MASK, expected, value);
+    }
+
+    @Override
+    public int getAndSet32(int address, int value) {
+        return (int) INT.getAndSet(chunk(address), address & CHUNK_MASK, value);
+    }
+
+    @Override
+    public int getAndAdd32(int address, int value) {
+        return (int) INT.getAndAdd(chunk(address), address & CHUNK_MASK, value);
+    }
+
+    @Override
+    public int getAndBitwiseAnd32(int address, int value) {
+        return (int) INT.getAndBitwiseAnd(chunk(address), address & CHUNK_MASK, value);
+    }
+
+    @Override
+    public int getAndBitwiseOr32(int address, int value) {
+        return (int) INT.getAndBitwiseOr(chunk(address), address & CHUNK_MASK, value);
+    }
+
+    @Override
+    public int getAndBitwiseXor32(int address, int value) {
+        return (int) INT.getAndBitwiseXor(chunk(address), address & CHUNK_MASK, value);
+    }
+
+    @Override
+    public void read(int address, byte[] destination, int offset, int length) {
+        while (length > 0) {
+            int chunkOffset = address & CHUNK_MASK;
+            int count = Math.min(length, CHUNK_SIZE - chunkOffset);
+            chunk(address).get(chunkOffset, destination, offset, count);
+            address += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void write(int address, byte[] source, int offset, int length) {
+        while (length > 0) {
+            int chunkOffset = address & CHUNK_MASK;
+            int count = Math.min(length, CHUNK_SIZE - chunkOffset);
+            chunk(address).put(chunkOffset, source, offset, count);
+            address += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public int readFrom(ReadableByteChannel channel, int address, int length) throws IOException {
+        return ChannelTransfer.read(channel, views(address, length));
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel channel, int address, int length) throws IOException {
+        ChannelTransfer.write(channel, views(address, length));
+    }
+
+    @Override
+    public DirectMemory fork() {
+        DirectMemory copy = new DirectMemory(size);
+        for (int i = 0; i < chunks.length; i++) {
+            copy.chunks[i].put(0, chunks[i], 0, chunks[i].capacity());
+        }
+        return copy;
+    }
+
+    /**
+     * Slices a range of memory into one view per chunk it covers.
+     */
+    private ByteBuffer[] views(int address, int length) {
+        if (Integer.toUnsignedLong(address) + length > size) {
+            throw new IndexOutOfBoundsException("Range exceeds memory: " + Integer.toHexString(address));
+        }
+        List<ByteBuffer> views = new ArrayList<>();
+        while (length > 0) {
+            int chunkOffset = address & CHUNK_MASK;
+            int count = Math.min(length, CHUNK_SIZE - chunkOffset);
+            views.add(chunk(address).slice(chunkOffset, count));
+            address += count;
+            length -= count;
+        }
+        return views.toArray(new ByteBuffer[0]);
+    }
+
+    private ByteBuffer chunk(int address) {
+        return chunks[address >>> CHUNK_SHIFT];
+    }
+}
@@ -0,0 +1,176 @@
+package org.parkerharrelson.riscv.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The guest's physical memory.
+ *
+ * <p>
+ * All accesses are little-endian and may be unaligned. Addresses are treated as
+ * unsigned 32-bit values. Loads of 8 and 16 bits are sign-extended to 32 bits,
+ * matching LB and LH; callers mask the result for the unsigned variants. Accessing
+ * an address outside the memory throws an IndexOutOfBoundsException.
+ * </p>
+ *
+ * <p>
+ * Memory may be shared by several harts running on different host threads. Plain
+ * loads and stores are not ordered between threads; the 32-bit atomic operations
+ * are atomic and sequentially consistent, and require a naturally aligned address.
+ * </p>
+ */
+public interface GuestMemory {
+
+    /**
+     * Size of the memory in bytes.
+     *
+     * @return The number of addressable bytes.
+     */
+    long size();
+
+    int load8(int address);
+
+    int load16(int address);
+
+    int load32(int address);
+
+    void store8(int address, int value);
+
+    void store16(int address, int value);
+
+    void store32(int address, int value);
+
+    /**
+     * Atomically replaces a word if it holds the expected value.
+     *
+     * @param address The aligned guest address of the word.
+     * @param expected The value the word must hold for the exchange to happen.
+     * @param value The new value.
+     * @return The value the word held, which equals expected if the exchange happened.
+     */
+    int compareAndExchange32(int address, int expected, int value);
+
+    int getAndSet32(int address, int value);
+
+    int getAndAdd32(int address, int value);
+
+    int getAndBitwiseAnd32(int address, int value);
+
+    int getAndBitwiseOr32(int address, int value);
+
+    int getAndBitwiseXor32(int address, int value);
+
+    /**
+     * Copies a range of guest memory into a host array.
+     *
+     * @param address The guest address to start reading at.
+     * @param destination The array to copy into.
+     * @param offset The index in the array to start writing at.
+     * @param length The number of bytes to copy.
+     */
+    void read(int address, byte[] destination, int offset, int length);
+
+    /**
+     * Copies a host array into a range of guest memory.
+     *
+     * @param address The guest address to start writing at.
+     * @param source The array to copy from.
+     * @param offset The index in the array to start reading at.
+     * @param length The number of bytes to copy.
+     */
+    void write(int address, byte[] source, int offset, int length);
+
+    /**
+     * Reads from a host channel straight into a range of guest memory, like a POSIX read:
+     * it returns once the channel delivers fewer bytes than asked for, such as at the end
+     * of a file. Backends read into views of their own storage, so no bytes are copied
+     * on the Java side. This default goes through a temporary array instead.
+     *
+     * @param channel The channel to read from.
+     * @param address The guest address to start writing at.
+     * @param length The maximum number of bytes to read.
+     * @return The number of bytes read, or -1 if the channel was already at its end.
+     * @throws IOException Exception thrown if reading from the channel fails.
+     */
+    default int readFrom(ReadableByteChannel channel, int address, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(length, 4096));
+        int done = 0;
+        while (done < length) {
+            buffer.clear().limit(Math.min(buffer.capacity(), length - done));
+            int count = channel.read(buffer);
+            if (count < 0) {
+                return done == 0 ? -1 : done;
+            }
+            write(address + done, buffer.array(), 0, count);
+            done += count;
+            if (buffer.hasRemaining()) {
+                break;
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Writes a range of guest memory straight to a host channel.
+     * This default goes through a temporary array; backends hand the channel views of their own storage.
+     *
+     * @param channel The channel to write to.
+     * @param address The guest address to start reading at.
+     * @param length The number of bytes to write.
+     * @throws IOException Exception thrown if writing to the channel fails.
+     */
+    default void writeTo(WritableByteChannel channel, int address, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(length, 4096));
+        for (int done = 0; done < length; done += buffer.limit()) {
+            buffer.clear().limit(Math.min(buffer.capacity(), length - done));
+            read(address + done, buffer.array(), 0, buffer.limit());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Creates an independent copy of this memory, used to fork machines from a snapshot.
+     * Later writes to either memory are not seen by the other.
+     *
+     * @return The copy.
+     */
+    GuestMemory fork();
+
+    /**
+     * Makes the contents of a host buffer the contents of a range of guest memory.
+     *
+     * <p>
+     * The buffer, typically a read-only mapping of a file, must not change afterwards:
+     * backends may keep it and defer the copy until the guest touches the range. This
+     * default copies it immediately. The buffer's position is not changed.
+     * </p>
+     *
+     * @param address The guest address to start writing at.
+     * @param source The buffer whose remaining bytes are copied.
+     */
+    default void map(int address, ByteBuffer source) {
+        byte[] buffer = new byte[Math.min(source.remaining(), 4096)];
+        for (int done = 0; done < source.remaining(); done += buffer.length) {
+            int count = Math.min(buffer.length, source.remaining() - done);
+            source.get(source.position() + done, buffer, 0, count);
+            write(address + done, buffer, 0, count);
+        }
+    }
+
+    /**
+     * Sets a range of guest memory to zero.
+     *
+     * @param address The guest address to start clearing at.
+     * @param length The number of bytes to clear.
+     */
+    default void zero(int address, int length) {
+        byte[] zeros = new byte[Math.min(length, 4096)];
+        for (int done = 0; done < length; done += zeros.length) {
+            write(address + done, zeros, 0, Math.min(zeros.length, length - done));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.parkerharrelson.riscv.memory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Guest memory backed by a single byte array on the Java heap.
+ * Halfword and word accesses go through little-endian byte array view VarHandles,
+ * which compile down to a single bounds check and a single host load or store.
+ */
+public class HeapMemory implements GuestMemory {
+
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final byte[] memory;
+
+    /**
+     * Constructor for HeapMemory.
+     *
+     * @param size The size of the memory in bytes.
+     */
+    public HeapMemory(int size) {
+        this(new byte[size]);
+    }
+
+    private HeapMemory(byte[] memory) {
+        this.memory = memory;
+    }
+
+    @Override
+    public long size() {
+        return memory.length;
+    }
+
+    @Override
+    public int load8(int address) {
+        return memory[address];
+    }
+
+    @Override
+    public int load16(int address) {
+        return (short) SHORT.get(memory, address);
+    }
+
+    @Override
+    public int load32(int address) {
+        return (int) INT.get(memory, address);
+    }
+
+    @Override
+    public void store8(int address, int value) {
+        memory[address] = (byte) value;
+    }
+
+    @Override
+    public void store16(int address, int value) {
+        SHORT.set(memory, address, (short) value);
+    }
+
+    @Override
+    public void store32(int address, int value) {
+        INT.set(memory, address, value);
+    }
+
+    @Override
+    public int compareAndExchange32(int address, int expected, int value) {
+        return (int) INT.compareAndExchange(memory, address, expected, value);
+    }
+
+    @Override
+    public int getAndSet32(int address, int value) {
+        return (int) INT.getAndSet(memory, address, value);
+    }
+
+    @Override
+    public int getAndAdd32(int address, int value) {
+        return (int) INT.getAndAdd(memory, address, value);
+    }
+
+    @Override
+    public int getAndBitwiseAnd32(int address, int value) {
+        return (int) INT.getAndBitwiseAnd(memory, address, value);
+    }
+
+    @Override
+    public int getAndBitwiseOr32(int address, int value) {
+        return (int) INT.getAndBitwiseOr(memory, address, value);
+    }
+
+    @Override
+    public int getAndBitwiseXor32(int address, int value) {
+        return (int) INT.getAndBitwiseXor(memory, address, value);
+    }
+
+    @Override
+    public void read(int address, byte[] destination, int offset, int length) {
+        System.arraycopy(memory, address, destination, offset, length);
+    }
+
+    @Override
+    public void write(int address, byte[] source, int offset, int length) {
+        System.arraycopy(source, offset, memory, address, length);
+    }
+
+    @Override
+    public int readFrom(ReadableByteChannel channel, int address, int length) throws IOException {
+        return ChannelTransfer.read(channel, new ByteBuffer[]{ByteBuffer.wrap(memory, address, length)});
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel channel, int address, int length) throws IOException {
+        ChannelTransfer.write(channel, new ByteBuffer[]{ByteBuffer.wrap(memory, address, length)});
+    }
+
+    @Override
+    public HeapMemory fork() {
+        return new HeapMemory(memory.clone());
+    }
+
+    @Override
+    public void map(int address, ByteBuffer source) {
+        source.get(source.position(), memory, address, source.remaining());
+    }
+
+    @Override
+    public void zero(int address, int length) {
+        Arrays.fill(memory, address, address + length, (byte) 0);
+    }
+}
@@ -0,0 +1,389 @@
+package org.parkerharrelson.riscv.memory;
+
+import org.parkerharrelson.riscv.util.PageTable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Demand-paged guest memory covering the full 32-bit address space.
+ *
+ * <p>
+ * Memory is split into 4 KiB pages held in a two-level page table: a 1024-entry
+ * directory of 1024-entry tables. A page is only allocated the first time it is
+ * written, and reading a page that was never written returns zeros without
+ * allocating it, so the host footprint grows with the guest's working set rather
+ * than with the range of addresses it uses. Accesses that straddle two pages are
+ * split into byte accesses. Pages are allocated under a lock and published safely,
+ * so the memory can be shared by harts on several threads.
+ * </p>
+ *
+ * <p>
+ * Ranges given to {@link #map} are not copied up front. Each page remembers the
+ * slice of the source buffer that belongs to it and copies it in the first time
+ * the page is read or written, so loading a large memory-mapped image only costs
+ * host memory for the pages the guest actually touches.
+ * </p>
+ *
+ * <p>
+ * {@link #fork()} shares every page copy-on-write, which is what makes machine
+ * snapshots cheap.
+ * </p>
+ */
+public class SparseMemory implements GuestMemory {
+
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle TABLES = MethodHandles.arrayElementVarHandle(byte[][][].class);
+    private static final VarHandle PAGES = MethodHandles.arrayElementVarHandle(byte[][].class);
+
+    public static final int PAGE_SHIFT = 12;
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int TABLE_SHIFT = 10;
+    private static final int TABLE_SIZE = 1 << TABLE_SHIFT;
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+
+    private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
+
+    // Every page is in the readable table; only pages this memory owns, rather than shares with a fork, are writable
+    private final byte[][][] readable = new byte[TABLE_SIZE][][];
+    private final byte[][][] writable = new byte[TABLE_SIZE][][];
+    private final PageTable<PendingPage> pendingPages;
+    private int allocatedPages = 0;
+    private volatile int pendingCount;
+
+    /**
+     * Constructor for an empty SparseMemory, which reads as zeros everywhere.
+     */
+    public SparseMemory() {
+        this(new PageTable<>(), 0);
+    }
+
+    private SparseMemory(PageTable<PendingPage> pendingPages, int pendingCount) {
+        this.pendingPages = pendingPages;
+        this.pendingCount = pendingCount;
+    }
+
+    @Override
+    public long size() {
+        return 1L << 32;
+    }
+
+    /**
+     * Number of pages that have been allocated so far, not counting pages shared with a fork.
+     *
+     * @return The number of 4 KiB pages this memory has allocated or copied.
+     */
+    public synchronized int getAllocatedPageCount() {
+        return allocatedPages;
+    }
+
+    @Override
+    public int load8(int address) {
+        return readPage(address)[address & PAGE_MASK];
+    }
+
+    @Override
+    public int load16(int address) {
+        int offset = address & PAGE_MASK;
+        if (offset > PAGE_SIZE - 2) {
+            return (short) ((load8(address) & 0xFF) | (load8(address + 1) << 8));
+        }
+        return (short) SHORT.get(readPage(address), offset);
+    }
+
+    @Override
+    public int load32(int address) {
+        int offset = address & PAGE_MASK;
+        if (offset > PAGE_SIZE - 4) {
+            return (load16(address) & 0xFFFF) | (load16(address + 2) << 16);
+        }
+        return (int) INT.get(readPage(address), offset);
+    }
+
+    @Override
+    public void store8(int address, int value) {
+        writePage(address)[address & PAGE_MASK] = (byte) value;
+    }
+
+    @Override
+    public void store16(int address, int value) {
+        int offset = address & PAGE_MASK;
+        if (offset > PAGE_SIZE - 2) {
+            store8(address, value);
+            store8(address + 1, value >> 8);
+            return;
+        }
+        SHORT.set(writePage(address), offset, (short) value);
+    }
+
+    @Override
+    public void store32(int address, int value) {
+        int offset = address & PAGE_MASK;
+        if (offset > PAGE_SIZE - 4) {
+            store16(address, value);
+            store16(address + 2, value >> 16);
+            return;
+        }
+        INT.set(writePage(address), offset, value);
+    }
+
+    @Override
+    public int compareAndExchange32(int address, int expected, int value) {
+        return (int) INT.compareAndExchange(writePage(address), address & PAGE_MASK, expected, value);
+    }
+
+    @Override
+    public int getAndSet32(int address, int value) {
+        return (int) INT.getAndSet(writePage(address), address & PAGE_MASK, value);
+    }
+
+    @Override
+    public int getAndAdd32(int address, int value) {
+        return (int) INT.getAndAdd(writePage(address), address & PAGE_MASK, value);
+    }
+
+    @Override
+    public int getAndBitwiseAnd32(int address, int value) {
+        return (int) INT.getAndBitwiseAnd(writePage(address), address & PAGE_MASK, value);
+    }
+
+    @Override
+    public int getAndBitwiseOr32(int address, int value) {
+        return (int) INT.getAndBitwiseOr(writePage(address), address & PAGE_MASK, value);
+    }
+
+    @Override
+    public int getAndBitwiseXor32(int address, int value) {
+        return (int) INT.getAndBitwiseXor(writePage(address), address & PAGE_MASK, value);
+    }
+
+    @Override
+    public void read(int address, byte[] destination, int offset, int length) {
+        while (length > 0) {
+            int pageOffset = address & PAGE_MASK;
+            int count = Math.min(length, PAGE_SIZE - pageOffset);
+            System.arraycopy(readPage(address), pageOffset, destination, offset, count);
+            address += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void write(int address, byte[] source, int offset, int length) {
+        while (length > 0) {
+            int pageOffset = address & PAGE_MASK;
+            int count = Math.min(length, PAGE_SIZE - pageOffset);
+            System.arraycopy(source, offset, writePage(address), pageOffset, count);
+            address += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public int readFrom(ReadableByteChannel channel, int address, int length) throws IOException {
+        ByteBuffer[] views = new ByteBuffer[pageCount(address, length)];
+        for (int i = 0; i < views.length; i++) {
+            int pageOffset = address & PAGE_MASK;
+            int count = Math.min(length, PAGE_SIZE - pageOffset);
+            views[i] = ByteBuffer.wrap(writePage(address), pageOffset, count);
+            address += count;
+            length -= count;
+        }
+        return ChannelTransfer.read(channel, views);
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel channel, int address, int length) throws IOException {
+        ByteBuffer[] views = new ByteBuffer[pageCount(address, length)];
+        for (int i = 0; i < views.length; i++) {
+            int pageOffset = address & PAGE_MASK;
+            int count = Math.min(length, PAGE_SIZE - pageOffset);
+            views[i] = ByteBuffer.wrap(readPage(address), pageOffset, count).asReadOnlyBuffer();
+            address += count;
+            length -= count;
+        }
+        ChannelTransfer.write(channel, views);
+    }
+
+    private static int pageCount(int address, int length) {
+        if (length <= 0) {
+            return 0;
+        }
+        return (int) (((Integer.toUnsignedLong(address) + length - 1) >>> PAGE_SHIFT) - (Integer.toUnsignedLong(address) >>> PAGE_SHIFT) + 1);
+    }
+
+    @Override
+    public synchronized void map(int address, ByteBuffer source) {
+        int length = source.remaining();
+        int done = 0;
+        while (done < length) {
+            int target = address + done;
+            int pageOffset = target & PAGE_MASK;
+            int count = Math.min(length - done, PAGE_SIZE - pageOffset);
+            ByteBuffer contents = source.slice(source.position() + done, count);
+            int pageIndex = target >>> PAGE_SHIFT;
+            if (findPage(readable, target) != null || pendingPages.get(pageIndex) != null) {
+                // Another segment already shares this page, so merge into it now
+                contents.get(0, writePage(target), pageOffset, count);
+            } else {
+                pendingPages.put(pageIndex, new PendingPage(contents, pageOffset));
+                pendingCount++;
+            }
+            done += count;
+        }
+    }
+
+    @Override
+    public synchronized void zero(int address, int length) {
+        while (length > 0) {
+            int pageOffset = address & PAGE_MASK;
+            int count = Math.min(length, PAGE_SIZE - pageOffset);
+            if (count == PAGE_SIZE) {
+                freePage(address);
+            } else if (findPage(readable, address) != null || pendingPages.get(address >>> PAGE_SHIFT) != null) {
+                Arrays.fill(writePage(address), pageOffset, pageOffset + count, (byte) 0);
+            }
+            address += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Creates a copy of this memory that shares every page with it copy-on-write.
+     *
+     * <p>
+     * Pages stay shared until either memory writes to them, at which point the writer
+     * takes a private copy of that one page. Forking costs one copy of the page tables,
+     * and each memory afterwards only allocates the pages it dirties. Pages that were
+     * mapped but never touched stay lazily mapped in both memories.
+     * </p>
+     *
+     * @return The new memory.
+     */
+    @Override
+    public synchronized SparseMemory fork() {
+        SparseMemory child = new SparseMemory(pendingPages.copy(), pendingCount);
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            if (readable[i] != null) {
+                child.readable[i] = readable[i].clone();
+            }
+            // Every page is now shared, so the next write to any of them must copy it
+            TABLES.setRelease(writable, i, null);
+        }
+        return child;
+    }
+
+    /**
+     * Finds the page holding an address for reading, without allocating it.
+     *
+     * @param address The guest address.
+     * @return The page, or a shared page of zeros if it has never been written.
+     */
+    private byte[] readPage(int address) {
+        byte[] page = findPage(readable, address);
+        if (page != null) {
+            return page;
+        }
+        return pendingCount == 0 ? ZERO_PAGE : faultIn(address);
+    }
+
+    /**
+     * Finds the page holding an address for writing, allocating it on first touch
+     * and copying it first if it is shared with a fork.
+     *
+     * @param address The guest address.
+     * @return The page.
+     */
+    private byte[] writePage(int address) {
+        byte[] page = findPage(writable, address);
+        return page != null ? page : allocatePage(address);
+    }
+
+    /**
+     * Looks up a page in one of the page tables. Pages are published with release semantics, so
+     * a hart that sees a page another hart just allocated also sees its initial contents.
+     */
+    private static byte[] findPage(byte[][][] directory, int address) {
+        byte[][] table = (byte[][]) TABLES.getAcquire(directory, address >>> (PAGE_SHIFT + TABLE_SHIFT));
+        return table == null ? null : (byte[]) PAGES.getAcquire(table, (address >>> PAGE_SHIFT) & TABLE_MASK);
+    }
+
+    private static void publishPage(byte[][][] directory, int address, byte[] page) {
+        int directoryIndex = address >>> (PAGE_SHIFT + TABLE_SHIFT);
+        byte[][] table = directory[directoryIndex];
+        if (table == null) {
+            table = new byte[TABLE_SIZE][];
+            TABLES.setRelease(directory, directoryIndex, table);
+        }
+        PAGES.setRelease(table, (address >>> PAGE_SHIFT) & TABLE_MASK, page);
+    }
+
+    private synchronized byte[] faultIn(int address) {
+        byte[] page = findPage(readable, address);
+        if (page != null) {
+            return page;
+        }
+        return pendingPages.get(address >>> PAGE_SHIFT) == null ? ZERO_PAGE : allocatePage(address);
+    }
+
+    private synchronized byte[] allocatePage(int address) {
+        byte[] page = findPage(writable, address);
+        if (page != null) {
+            return page;
+        }
+
+        page = new byte[PAGE_SIZE];
+        byte[] shared = findPage(readable, address);
+        if (shared != null) {
+            System.arraycopy(shared, 0, page, 0, PAGE_SIZE);
+        } else {
+            PendingPage pending = pendingPages.get(address >>> PAGE_SHIFT);
+            if (pending != null) {
+                pending.contents.get(0, page, pending.offset, pending.contents.limit());
+                pendingPages.put(address >>> PAGE_SHIFT, null);
+                pendingCount--;
+            }
+        }
+        publishPage(readable, address, page);
+        publishPage(writable, address, page);
+        allocatedPages++;
+        return page;
+    }
+
+    private void freePage(int address) {
+        if (pendingPages.get(address >>> PAGE_SHIFT) != null) {
+            pendingPages.put(address >>> PAGE_SHIFT, null);
+            pendingCount--;
+        }
+        if (findPage(writable, address) != null) {
+            allocatedPages--;
+        }
+        if (findPage(readable, address) != null) {
+            publishPage(readable, address, null);
+            publishPage(writable, address, null);
+        }
+    }
+
+    /**
+     * Initial contents of a page that have been mapped but not copied in yet.
+     */
+    private static class PendingPage {
+        final ByteBuffer contents;
+        final int offset;
+
+        PendingPage(ByteBuffer contents, int offset) {
+            this.contents = contents;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.parkerharrelson.riscv.pipeline;
+
+import org.parkerharrelson.riscv.core.DecodeCache;
+import org.parkerharrelson.riscv.memory.GuestMemory;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Executes the RV32A atomic instructions and the FENCE instructions for one hart.
+ *
+ * <p>
+ * AMOs map onto the memory backend's atomic operations, which are sequentially
+ * consistent and so satisfy any combination of the aq and rl bits. LR.W records a
+ * reservation holding the address and the value it read, and SC.W succeeds only if
+ * a compare-and-exchange from that value succeeds. FENCE is mapped to the
+ * narrowest JVM fence that gives the requested ordering, and FENCE.I drops this
+ * hart's decoded instructions so that it sees code written by other harts.
+ * </p>
+ */
+public class AtomicUnit {
+
+    private static final int FENCE_READ = 0b0010;
+    private static final int FENCE_WRITE = 0b0001;
+
+    private final GuestMemory memory;
+    private final DecodeCache decodeCache;
+    private boolean reserved = false;
+    private int reservedAddress;
+    private int reservedValue;
+
+    /**
+     * Constructor for AtomicUnit.
+     *
+     * @param memory The guest memory, possibly shared with other harts.
+     * @param decodeCache The decode cache of the hart this unit belongs to.
+     */
+    public AtomicUnit(GuestMemory memory, DecodeCache decodeCache) {
+        this.memory = memory;
+        this.decodeCache = decodeCache;
+    }
+
+    /**
+     * Executes an LR.W, SC.W or AMO*.W instruction.
+     *
+     * @param inst The instruction word.
+     * @param address The address in rs1.
+     * @param value The value in rs2.
+     * @return The value to write to rd.
+     */
+    public int execute(int inst, int address, int value) {
+        if ((address & 0x3) != 0) {
+            throw new UnsupportedOperationException("Misaligned atomic access at address: " + Integer.toHexString(address));
+        }
+
+        int funct5 = inst >>> 27;
+        if (funct5 == 0x02) { // LR.W
+            reservedValue = memory.load32(address);
+            VarHandle.acquireFence();
+            reservedAddress = address;
+            reserved = true;
+            return reservedValue;
+        }
+
+        int result;
+        switch (funct5) {
+            case 0x03: // SC.W
+                boolean success = reserved && reservedAddress == address
+                        && memory.compareAndExchange32(address, reservedValue, value) == reservedValue;
+                reserved = false;
+                if (!success) {
+                    return 1;
+                }
+                result = 0;
+                break;
+            case 0x01: // AMOSWAP.W
+                result = memory.getAndSet32(address, value);
+                break;
+            case 0x00: // AMOADD.W
+                result = memory.getAndAdd32(address, value);
+                break;
+            case 0x04: // AMOXOR.W
+                result = memory.getAndBitwiseXor32(address, value);
+                break;
+            case 0x0C: // AMOAND.W
+                result = memory.getAndBitwiseAnd32(address, value);
+                break;
+            case 0x08: // AMOOR.W
+                result = memory.getAndBitwiseOr32(address, value);
+                break;
+            default: // AMOMIN.W, AMOMAX.W, AMOMINU.W, AMOMAXU.W
+                result = getAndUpdateMinMax(funct5, address, value);
+                break;
+        }
+
+        decodeCache.invalidate(address);
+        return result;
+    }
+
+    /**
+     * Executes a FENCE or FENCE.I instruction.
+     *
+     * @param inst The instruction word.
+     */
+    public void fence(int inst) {
+        if (((inst >> 12) & 0x7) == 0x1) { // FENCE.I
+            VarHandle.fullFence();
+            decodeCache.clear();
+            return;
+        }
+
+        int predecessor = (inst >>> 24) & 0xF;
+        int successor = (inst >>> 20) & 0xF;
+        if (predecessor == FENCE_READ && successor == FENCE_READ) {
+            VarHandle.loadLoadFence();
+        } else if (predecessor == FENCE_WRITE && successor == FENCE_WRITE) {
+            VarHandle.storeStoreFence();
+        } else if (predecessor == FENCE_READ && (successor & ~(FENCE_READ | FENCE_WRITE)) == 0) {
+            VarHandle.acquireFence();
+        } else if ((predecessor & ~(FENCE_READ | FENCE_WRITE)) == 0 && successor == FENCE_WRITE) {
+            VarHandle.releaseFence();
+        } else {
+            VarHandle.fullFence();
+        }
+    }
+
+    private int getAndUpdateMinMax(int funct5, int address, int value) {
+        int current = memory.load32(address);
+        while (true) {
+            int updated = switch (funct5) {
+                case 0x10 -> Math.min(current, value); // AMOMIN.W
+                case 0x14 -> Math.max(current, value); // AMOMAX.W
+                case 0x18 -> Integer.compareUnsigned(current, value) <= 0 ? current : value; // AMOMINU.W
+                default -> Integer.compareUnsigned(current, value) >= 0 ? current : value; // AMOMAXU.W
+            };
+            int witness = memory.compareAndExchange32(address, current, updated);
+            if (witness == current) {
+                return current;
+            }
+            current = witness;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.parkerharrelson.riscv.pipeline;
+
+import org.parkerharrelson.riscv.core.Machine;
+
+/**
+ * Expands RV32C compressed instructions into the 32-bit instructions they stand for.
+ *
+ * <p>
+ * Every compressed instruction is shorthand for a single base instruction with some
+ * registers or immediate bits fixed, so the decoder expands it once and decodes the
+ * result like any other word. The three-bit register fields of the CIW, CL, CS, CA
+ * and CB formats name x8 to x15. Floating point loads and stores are not supported,
+ * since the emulator has no F or D extension.
+ * </p>
+ */
+public class CompressedExpander {
+
+    private CompressedExpander() {
+    }
+
+    /**
+     * Checks whether an instruction is compressed from its lowest two bits.
+     *
+     * @param parcel The instruction, or at least its first 16 bits.
+     * @return True if the instruction is two bytes long.
+     */
+    public static boolean isCompressed(int parcel) {
+        return (parcel & 0x3) != 0x3;
+    }
+
+    /**
+     * Expands a compressed instruction.
+     *
+     * @param parcel The two-byte instruction; higher bits are ignored.
+     * @return The equivalent four-byte instruction.
+     */
+    public static int expand(int parcel) {
+        int c = parcel & 0xFFFF;
+        return switch (c & 0x3) {
+            case 0x0 -> expandQuadrant0(c);
+            case 0x1 -> expandQuadrant1(c);
+            default -> expandQuadrant2(c);
+        };
+    }
+
+    private static int expandQuadrant0(int c) {
+        int funct3 = c >>> 13;
+        switch (funct3) {
+            case 0x0: { // C.ADDI4SPN
+                int imm = ((c >> 7) & 0x30) | ((c >> 1) & 0x3C0) | ((c >> 4) & 0x4) | ((c >> 2) & 0x8);
+                if (imm == 0) {
+                    throw new UnsupportedOperationException("Illegal compressed instruction: " + c);
+                }
+                return iType(imm, 2, 0x0, rdPrime(c), 0x13);
+            }
+            case 0x2: // C.LW
+                return iType(wordOffset(c), rs1Prime(c), 0x2, rdPrime(c), 0x03);
+            case 0x6: // C.SW
+                return sType(wordOffset(c), rdPrime(c), rs1Prime(c), 0x2);
+            default:
+                throw new UnsupportedOperationException("Unsupported compressed instruction: " + c);
+        }
+    }
+
+    private static int expandQuadrant1(int c) {
+        int funct3 = c >>> 13;
+        int rd = rd(c);
+        int imm = Machine.signExtend(((c >> 7) & 0x20) | ((c >> 2) & 0x1F), 5);
+        switch (funct3) {
+            case 0x0: // C.ADDI, C.NOP
+                return iType(imm, rd, 0x0, rd, 0x13);
+            case 0x1: // C.JAL
+                return jType(jumpOffset(c), 1);
+            case 0x2: // C.LI
+                return iType(imm, 0, 0x0, rd, 0x13);
+            case 0x3:
+                if (rd == 2) { // C.ADDI16SP
+                    int value = ((c >> 3) & 0x200) | ((c >> 2) & 0x10) | ((c << 1) & 0x40) | ((c << 4) & 0x180) | ((c << 3) & 0x20);
+                    if (value == 0) {
+                        throw new UnsupportedOperationException("Reserved compressed instruction: " + c);
+                    }
+                    return iType(Machine.signExtend(value, 9), 2, 0x0, 2, 0x13);
+                }
+                if (imm == 0) { // C.LUI
+                    throw new UnsupportedOperationException("Reserved compressed instruction: " + c);
+                }
+                return (imm << 12) | (rd << 7) | 0x37;
+            case 0x4:
+                return expandArithmetic(c, imm);
+            case 0x5: // C.J
+                return jType(jumpOffset(c), 0);
+            default: { // C.BEQZ, C.BNEZ
+                int value = ((c >> 4) & 0x100) | ((c >> 7) & 0x18) | ((c << 1) & 0xC0) | ((c >> 2) & 0x6) | ((c << 3) & 0x20);
+                return bType(Machine.signExtend(value, 8), 0, rs1Prime(c), funct3 == 0x6 ? 0x0 : 0x1);
+            }
+        }
+    }
+
+    private static int expandArithmetic(int c, int imm) {
+        int rd = rs1Prime(c);
+        switch ((c >> 10) & 0x3) {
+            case 0x0: // C.SRLI
+                return iType(shiftAmount(c), rd, 0x5, rd, 0x13);
+            case 0x1: // C.SRAI
+                return iType(0x400 | shiftAmount(c), rd, 0x5, rd, 0x13);
+            case 0x2: // C.ANDI
+                return iType(imm, rd, 0x7, rd, 0x13);
+            default:
+                if ((c & 0x1000) != 0) {
+                    throw new UnsupportedOperationException("Unsupported compressed instruction: " + c);
+                }
+                int rs2 = rdPrime(c);
+                return switch ((c >> 5) & 0x3) {
+                    case 0x0 -> rType(0x20, rs2, rd, 0x0, rd); // C.SUB
+                    case 0x1 -> rType(0x00, rs2, rd, 0x4, rd); // C.XOR
+                    case 0x2 -> rType(0x00, rs2, rd, 0x6, rd); // C.OR
+                    default -> rType(0x00, rs2, rd, 0x7, rd); // C.AND
+                };
+        }
+    }
+
+    private static int expandQuadrant2(int c) {
+        int funct3 = c >>> 13;
+        int rd = rd(c);
+        int rs2 = (c >> 2) & 0x1F;
+        switch (funct3) {
+            case 0x0: // C.SLLI
+                return iType(shiftAmount(c), rd, 0x1, rd, 0x13);
+            case 0x2: { // C.LWSP
+                if (rd == 0) {
+                    throw new UnsupportedOperationException("Reserved compressed instruction: " + c);
+                }
+                int offset = ((c >> 7) & 0x20) | ((c >> 2) & 0x1C) | ((c << 4) & 0xC0);
+                return iType(offset, 2, 0x2, rd, 0x03);
+            }
+            case 0x4:
+                if ((c & 0x1000) == 0) {
+                    if (rs2 != 0) { // C.MV
+                        return rType(0x00, rs2, 0, 0x0, rd);
+                    }
+                    if (rd == 0) {
+                        throw new UnsupportedOperationException("Reserved compressed instruction: " + c);
+                    }
+                    return iType(0, rd, 0x0, 0, 0x67); // C.JR
+                }
+                if (rs2 != 0) { // C.ADD
+                    return rType(0x00, rs2, rd, 0x0, rd);
+                }
+                if (rd == 0) { // C.EBREAK
+                    return 0x00100073;
+                }
+                return iType(0, rd, 0x0, 1, 0x67); // C.JALR
+            case 0x6: { // C.SWSP
+                int offset = ((c >> 7) & 0x3C) | ((c >> 1) & 0xC0);
+                return sType(offset, rs2, 2, 0x2);
+            }
+            default:
+                throw new UnsupportedOperationException("Unsupported compressed instruction: " + c);
+        }
+    }
+
+    private static int rd(int c) {
+        return (c >> 7) & 0x1F;
+    }
+
+    private static int rdPrime(int c) {
+        return 8 + ((c >> 2) & 0x7);
+    }
+
+    private static int rs1Prime(int c) {
+        return 8 + ((c >> 7) & 0x7);
+    }
+
+    /**
+     * The zero-extended offset of C.LW and C.SW, scaled by four.
+     */
+    private static int wordOffset(int c) {
+        return ((c >> 7) & 0x38) | ((c >> 4) & 0x4) | ((c << 1) & 0x40);
+    }
+
+    /**
+     * The shift amount of C.SLLI, C.SRLI and C.SRAI, which must fit in five bits on RV32.
+     */
+    private static int shiftAmount(int c) {
+        if ((c & 0x1000) != 0) {
+            throw new UnsupportedOperationException("Unsupported compressed shift amount: " + c);
+        }
+        return (c >> 2) & 0x1F;
+    }
+
+    /**
+     * The sign-extended offset of C.J and C.JAL.
+     */
+    private static int jumpOffset(int c) {
+        int value = ((c >> 1) & 0x800) | ((c >> 7) & 0x10) | ((c >> 1) & 0x300) | ((c << 2) & 0x400)
+                | ((c >> 1) & 0x40) | ((c << 1) & 0x80) | ((c >> 2) & 0xE) | ((c << 3) & 0x20);
+        return Machine.signExtend(value, 11);
+    }
+
+    private static int rType(int funct7, int rs2, int rs1, int funct3, int rd) {
+        return (funct7 << 25) | (rs2 << 20) | (rs1 << 15) | (funct3 << 12) | (rd << 7) | 0x33;
+    }
+
+    private static int iType(int imm, int rs1, int funct3, int rd, int opcode) {
+        return (imm << 20) | (rs1 << 15) | (funct3 << 12) | (rd << 7) | opcode;
+    }
+
+    private static int sType(int imm, int rs2, int rs1, int funct3) {
+        return ((imm >> 5) << 25) | (rs2 << 20) | (rs1 << 15) | (funct3 << 12) | ((imm & 0x1F) << 7) | 0x23;
+    }
+
+    private static int bType(int imm, int rs2, int rs1, int funct3) {
+        return ((imm >> 12) << 31) | (((imm >> 5) & 0x3F) << 25) | (rs2 << 20) | (rs1 << 15) | (funct3 << 12)
+                | (((imm >> 1) & 0xF) << 8) | (((imm >> 11) & 0x1) << 7) | 0x63;
+    }
+
+    private static int jType(int imm, int rd) {
+        return ((imm >> 20) << 31) | (((imm >> 1) & 0x3FF) << 21) | (((imm >> 11) & 0x1) << 20)
+                | (imm & 0xFF000) | (rd << 7) | 0x6F;
+    }
+}
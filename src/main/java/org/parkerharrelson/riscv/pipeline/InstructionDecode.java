@@ -2,9 +2,13 @@ package org.parkerharrelson.riscv.pipeline;
 
 import org.parkerharrelson.riscv.core.IMachine;
 import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.memory.GuestMemory;
 import org.parkerharrelson.riscv.util.AluOp;
+import org.parkerharrelson.riscv.util.DecodedInstruction;
 import org.parkerharrelson.riscv.util.Instruction;
 
+import static org.parkerharrelson.riscv.util.EmulatorConstants.CODE_PAGE_SHIFT;
+
 public class InstructionDecode {
 
     private final IMachine machine;
@@ -23,117 +27,250 @@ public class InstructionDecode {
      * for further stages in the pipeline.
      *
      * <p>
-     * This method identifies the instruction type based on the opcode,
-     * extracts the relevant fields, and sets the appropriate fields in
-     * the Instruction object.
+     * The static fields of the instruction are taken from its cached decoded form,
+     * which is built and stored in the machine's decode cache the first time the
+     * instruction is seen. A compressed instruction is replaced by its expanded form, so
+     * the later stages only ever see four-byte instructions. Only the register operands
+     * are read on every execution.
      * </p>
      *
      * @param instruction The instruction to decode.
      */
     public void decodeInstruction(Instruction instruction) {
-        int inst = instruction.getInst();
-        int opcode = inst & 0x7F;
+        DecodedInstruction decoded = instruction.getDecoded();
+        if (decoded == null) {
+            decoded = predecode(instruction.getInst());
+            machine.getDecodeCache().put(instruction.getPc(), decoded);
+            instruction.setDecoded(decoded);
+            instruction.setInst(decoded.getInst());
+        }
 
-        switch (opcode) {
+        instruction.setRd(decoded.getRd());
+        instruction.setAluOp(decoded.getAluop());
+        instruction.setMemop(decoded.getMemop());
+
+        switch (decoded.getOpcode()) {
             case 0x33: // R-type
-                decodeRType(instruction);
+                instruction.setLeft(machine.getRegister(decoded.getRs1()));
+                instruction.setRight(machine.getRegister(decoded.getRs2()));
                 break;
             case 0x13: // I-type (OP-IMM)
-                decodeIType(instruction);
-                break;
             case 0x03: // I-type (LOAD)
-                decodeLoadType(instruction);
+            case 0x67: // JALR (I-type)
+            case 0x73: // SYSTEM
+                instruction.setLeft(machine.getRegister(decoded.getRs1()));
+                instruction.setRight(decoded.getImm());
                 break;
             case 0x23: // S-type
-                decodeSType(instruction);
+                instruction.setLeft(machine.getRegister(decoded.getRs1()));
+                instruction.setRight(decoded.getImm());
+                instruction.setDisp(machine.getRegister(decoded.getRs2()));
                 break;
             case 0x63: // B-type
-                decodeBType(instruction);
+                instruction.setLeft(machine.getRegister(decoded.getRs1()));
+                instruction.setRight(machine.getRegister(decoded.getRs2()));
+                instruction.setDisp(decoded.getImm());
                 break;
             case 0x37: // U-type (LUI)
+                instruction.setRight(decoded.getImm());
+                break;
             case 0x17: // U-type (AUIPC)
-                decodeUType(instruction);
+                instruction.setLeft(instruction.getPc());
+                instruction.setRight(decoded.getImm());
                 break;
             case 0x6F: // J-type (JAL)
-                decodeJType(instruction);
+                instruction.setDisp(decoded.getImm());
                 break;
-            case 0x67: // JALR (I-type)
-                decodeJALRType(instruction);
+            case 0x2F: // AMO
+                instruction.setLeft(machine.getRegister(decoded.getRs1()));
+                instruction.setRight(decoded.getImm());
+                instruction.setDisp(machine.getRegister(decoded.getRs2()));
                 break;
-            case 0x73: // SYSTEM
-                decodeSystemType(instruction);
+            case 0x0F: // MISC-MEM (FENCE, FENCE.I)
                 break;
             default:
-                throw new UnsupportedOperationException("Unsupported opcode: " + opcode);
+                throw new UnsupportedOperationException("Unsupported opcode: " + decoded.getOpcode());
         }
     }
 
     /**
-     * Decodes an R-type instruction.
+     * Extracts every field of an instruction word that does not depend on machine state.
      *
      * <p>
-     * This method extracts the destination register (rd), the source registers (rs1 and rs2),
-     * and the ALU operation (aluop) based on the funct3 and funct7 fields.
+     * This method identifies the instruction type based on the opcode,
+     * extracts the register indices and the sign-extended immediate, and
+     * selects the ALU and memory operations. A compressed instruction is first
+     * expanded into the four-byte instruction it stands for. The result can be
+     * cached and reused for every later execution of the same word.
      * </p>
      *
-     * @param instruction The instruction to decode.
+     * @param inst The instruction to decode; only the low 16 bits are used if it is compressed.
+     * @return The decoded instruction.
      */
-    private void decodeRType(Instruction instruction) {
-        int inst = instruction.getInst();
-        instruction.setRd((inst >> 7) & 0x1F);
-        int funct3 = (inst >> 12) & 0x7;
-        instruction.setLeft(machine.getRegister((inst >> 15) & 0x1F));
-        instruction.setRight(machine.getRegister((inst >> 20) & 0x1F));
-        int funct7 = (inst >> 25) & 0x7F;
+    public static DecodedInstruction predecode(int inst) {
+        if (CompressedExpander.isCompressed(inst)) {
+            return predecode(CompressedExpander.expand(inst)).compressed();
+        }
 
-        switch (funct3) {
-            case 0x0:
-                if (funct7 == 0x20) {
-                    instruction.setAluOp(AluOp.Sub);
-                } else if (funct7 == 0x01) {
-                    instruction.setAluOp(AluOp.Mul);
-                } else {
-                    instruction.setAluOp(AluOp.Add);
+        int opcode = inst & 0x7F;
+
+        return switch (opcode) {
+            case 0x33 -> decodeRType(inst); // R-type
+            case 0x13 -> decodeIType(inst); // I-type (OP-IMM)
+            case 0x03 -> decodeLoadType(inst); // I-type (LOAD)
+            case 0x23 -> decodeSType(inst); // S-type
+            case 0x63 -> decodeBType(inst); // B-type
+            case 0x37, 0x17 -> decodeUType(inst); // U-type (LUI, AUIPC)
+            case 0x6F -> decodeJType(inst); // J-type (JAL)
+            case 0x67 -> decodeJALRType(inst); // JALR (I-type)
+            case 0x73 -> decodeSystemType(inst); // SYSTEM
+            case 0x2F -> decodeAtomicType(inst); // AMO
+            case 0x0F -> decodeFenceType(inst); // MISC-MEM
+            default -> throw new UnsupportedOperationException("Unsupported opcode: " + opcode);
+        };
+    }
+
+    /**
+     * Reads the instruction at an address and decodes it. The first 16 bits are read on
+     * their own, so a compressed instruction at the very end of memory can be decoded.
+     *
+     * @param memory The memory holding the code.
+     * @param pc The address of the instruction.
+     * @return The decoded instruction.
+     */
+    public static DecodedInstruction predecode(GuestMemory memory, int pc) {
+        return predecode(fetch(memory, pc));
+    }
+
+    /**
+     * Reads the instruction at an address, which is two bytes long if it is compressed and four otherwise.
+     *
+     * @param memory The memory holding the code.
+     * @param pc The address of the instruction.
+     * @return The instruction, with the upper half zero if it is compressed.
+     */
+    public static int fetch(GuestMemory memory, int pc) {
+        int parcel = memory.load16(pc) & 0xFFFF;
+        return CompressedExpander.isCompressed(parcel) ? parcel : parcel | (memory.load16(pc + 2) << 16);
+    }
+
+    /**
+     * Decodes the instruction at an address and, if it begins a fusible idiom together
+     * with the instruction after it, fuses the two. Pairs are only fused within one
+     * code page, so that a store to either instruction drops the fused entry as well.
+     *
+     * @param memory The memory holding the code.
+     * @param pc The address of the instruction.
+     * @return The decoded instruction, fused with the next one where possible.
+     */
+    public static DecodedInstruction predecodeFused(GuestMemory memory, int pc) {
+        DecodedInstruction decoded = predecode(memory, pc);
+        int nextPc = pc + decoded.getLength();
+        if (decoded.getRd() == 0 || nextPc >>> CODE_PAGE_SHIFT != pc >>> CODE_PAGE_SHIFT
+                || Integer.toUnsignedLong(nextPc) + 2 > memory.size()) {
+            return decoded;
+        }
+        int length = CompressedExpander.isCompressed(memory.load16(nextPc)) ? 2 : 4;
+        if ((nextPc + length - 1) >>> CODE_PAGE_SHIFT != pc >>> CODE_PAGE_SHIFT
+                || Integer.toUnsignedLong(nextPc) + length > memory.size()) {
+            return decoded;
+        }
+        DecodedInstruction next;
+        try {
+            next = predecode(fetch(memory, nextPc));
+        } catch (UnsupportedOperationException e) {
+            return decoded;
+        }
+        return fuse(decoded, next);
+    }
+
+    /**
+     * Recognizes the two-instruction idioms compilers emit for constants, far calls,
+     * PC-relative loads and compare-and-branch. The second instruction must read the
+     * register the first one writes, so the pair behaves exactly like the two
+     * instructions run one after the other. Either instruction may be compressed.
+     *
+     * @param first The decoded first instruction, which writes a register other than x0.
+     * @param second The decoded instruction that follows it.
+     * @return The fused pair, or the first instruction unchanged if the pair is not an idiom.
+     */
+    static DecodedInstruction fuse(DecodedInstruction first, DecodedInstruction second) {
+        int rd = first.getRd();
+        int next = second.getInst();
+        int opcode = next & 0x7F;
+        int funct3 = (next >> 12) & 0x7;
+
+        switch (first.getOpcode()) {
+            case 0x37: // LUI rd + ADDI rd, rd, imm
+                if (opcode == 0x13 && funct3 == 0x0 && rd(next) == rd && rs1(next) == rd) {
+                    return first.fuse(DecodedInstruction.FUSED_LOAD_IMMEDIATE, second);
                 }
                 break;
-            case 0x1:
-                instruction.setAluOp(AluOp.LeftShift);
-                break;
-            case 0x2:
-                instruction.setAluOp(AluOp.Slt);
-                break;
-            case 0x3:
-                instruction.setAluOp(AluOp.SltU);
-                break;
-            case 0x4:
-                if (funct7 == 0x01) {
-                    instruction.setAluOp(AluOp.Div);
-                } else {
-                    instruction.setAluOp(AluOp.Xor);
+            case 0x17: // AUIPC rd + JALR rd2, imm(rd) or LOAD rd2, imm(rd)
+                if (rs1(next) != rd) {
+                    break;
                 }
-                break;
-            case 0x5:
-                instruction.setAluOp((funct7 == 0x20) ? AluOp.RightShiftA : AluOp.RightShiftL);
-                break;
-            case 0x6:
-                if (funct7 == 0x01) {
-                    instruction.setAluOp(AluOp.Rem);
-                } else {
-                    instruction.setAluOp(AluOp.Or);
+                if (opcode == 0x67 && funct3 == 0x0) {
+                    return first.fuse(DecodedInstruction.FUSED_FAR_JUMP, second);
+                }
+                if (opcode == 0x03 && funct3 != 0x3 && funct3 < 0x6) {
+                    return first.fuse(DecodedInstruction.FUSED_PC_RELATIVE_LOAD, second);
                 }
                 break;
-            case 0x7:
-                if (funct7 == 0x01) {
-                    instruction.setAluOp(AluOp.RemU);
-                } else if (funct7 == 0x20) {
-                    instruction.setAluOp(AluOp.DivU);
-                } else {
-                    instruction.setAluOp(AluOp.And);
+            case 0x33, 0x13: // SLT[I][U] rd + BEQ/BNE rd, zero
+                boolean compare = first.getAluop() == AluOp.Slt || first.getAluop() == AluOp.SltU;
+                boolean testsRd = (rs1(next) == rd && rs2(next) == 0) || (rs1(next) == 0 && rs2(next) == rd);
+                if (compare && opcode == 0x63 && (funct3 == 0x0 || funct3 == 0x1) && testsRd) {
+                    return first.fuse(DecodedInstruction.FUSED_COMPARE_BRANCH, second);
                 }
                 break;
             default:
-                throw new UnsupportedOperationException("Unsupported funct3: " + funct3);
+                break;
         }
+        return first;
+    }
+
+    /**
+     * Decodes an R-type instruction.
+     *
+     * <p>
+     * This method extracts the destination register (rd), the source registers (rs1 and rs2),
+     * and the ALU operation (aluop) based on the funct3 and funct7 fields.
+     * </p>
+     *
+     * @param inst The instruction to decode.
+     * @return The decoded instruction.
+     */
+    private static DecodedInstruction decodeRType(int inst) {
+        int funct3 = (inst >> 12) & 0x7;
+        int funct7 = (inst >> 25) & 0x7F;
+        AluOp aluOp;
+
+        if (funct7 == 0x01) { // RV32M
+            aluOp = switch (funct3) {
+                case 0x0 -> AluOp.Mul;
+                case 0x1 -> AluOp.MulH;
+                case 0x2 -> AluOp.MulHSU;
+                case 0x3 -> AluOp.MulHU;
+                case 0x4 -> AluOp.Div;
+                case 0x5 -> AluOp.DivU;
+                case 0x6 -> AluOp.Rem;
+                default -> AluOp.RemU;
+            };
+        } else {
+            aluOp = switch (funct3) {
+                case 0x0 -> (funct7 == 0x20) ? AluOp.Sub : AluOp.Add;
+                case 0x1 -> AluOp.LeftShift;
+                case 0x2 -> AluOp.Slt;
+                case 0x3 -> AluOp.SltU;
+                case 0x4 -> AluOp.Xor;
+                case 0x5 -> (funct7 == 0x20) ? AluOp.RightShiftA : AluOp.RightShiftL;
+                case 0x6 -> AluOp.Or;
+                default -> AluOp.And;
+            };
+        }
+
+        return new DecodedInstruction(inst, rd(inst), rs1(inst), rs2(inst), 0, aluOp, 0);
     }
 
     /**
@@ -144,43 +281,23 @@ public class InstructionDecode {
      * and the immediate value. It sets the appropriate ALU operation based on the funct3 field.
      * </p>
      *
-     * @param instruction The instruction to decode.
+     * @param inst The instruction to decode.
+     * @return The decoded instruction.
      */
-    private void decodeIType(Instruction instruction) {
-        int inst = instruction.getInst();
-        instruction.setRd((inst >> 7) & 0x1F);
+    private static DecodedInstruction decodeIType(int inst) {
         int funct3 = (inst >> 12) & 0x7;
-        instruction.setLeft(machine.getRegister((inst >> 15) & 0x1F));
-        instruction.setRight(Machine.signExtend(inst >> 20, 11));
+        AluOp aluOp = switch (funct3) {
+            case 0x0 -> AluOp.Add; // ADDI
+            case 0x2 -> AluOp.Slt; // SLTI
+            case 0x3 -> AluOp.SltU; // SLTIU
+            case 0x4 -> AluOp.Xor; // XORI
+            case 0x6 -> AluOp.Or; // ORI
+            case 0x7 -> AluOp.And; // ANDI
+            case 0x1 -> AluOp.LeftShift; // SLLI
+            default -> ((inst >> 30) & 0x1) == 1 ? AluOp.RightShiftA : AluOp.RightShiftL; // SRLI, SRAI
+        };
 
-        switch (funct3) {
-            case 0x0: // ADDI
-                instruction.setAluOp(AluOp.Add);
-                break;
-            case 0x2: // SLTI
-                instruction.setAluOp(AluOp.Slt);
-                break;
-            case 0x3: // SLTIU
-                instruction.setAluOp(AluOp.SltU);
-                break;
-            case 0x4: // XORI
-                instruction.setAluOp(AluOp.Xor);
-                break;
-            case 0x6: // ORI
-                instruction.setAluOp(AluOp.Or);
-                break;
-            case 0x7: // ANDI
-                instruction.setAluOp(AluOp.And);
-                break;
-            case 0x1: // SLLI
-                instruction.setAluOp(AluOp.LeftShift);
-                break;
-            case 0x5: // SRLI, SRAI
-                instruction.setAluOp(((inst >> 30) & 0x1) == 1 ? AluOp.RightShiftA : AluOp.RightShiftL);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unsupported funct3: " + funct3);
-        }
+        return new DecodedInstruction(inst, rd(inst), rs1(inst), 0, iImmediate(inst), aluOp, 0);
     }
 
     /**
@@ -192,14 +309,11 @@ public class InstructionDecode {
      * and sets the ALU operation to addition.
      * </p>
      *
-     * @param instruction The instruction to decode.
+     * @param inst The instruction to decode.
+     * @return The decoded instruction.
      */
-    private void decodeLoadType(Instruction instruction) {
-        int inst = instruction.getInst();
-        instruction.setRd((inst >> 7) & 0x1F);
+    private static DecodedInstruction decodeLoadType(int inst) {
         int funct3 = (inst >> 12) & 0x7;
-        instruction.setLeft(machine.getRegister((inst >> 15) & 0x1F));
-        instruction.setRight(Machine.signExtend(inst >> 20, 11));
 
         switch (funct3) {
             case 0x0: // LB
@@ -207,9 +321,7 @@ public class InstructionDecode {
             case 0x2: // LW
             case 0x4: // LBU
             case 0x5: // LHU
-                instruction.setMemop(1);
-                instruction.setAluOp(AluOp.Add);
-                break;
+                return new DecodedInstruction(inst, rd(inst), rs1(inst), 0, iImmediate(inst), AluOp.Add, 1);
             default:
                 throw new UnsupportedOperationException("Unsupported load funct3: " + funct3);
         }
@@ -223,15 +335,12 @@ public class InstructionDecode {
      * It sets the memop field to indicate a store operation and sets the ALU operation to addition.
      * </p>
      *
-     * @param instruction The instruction to decode.
+     * @param inst The instruction to decode.
+     * @return The decoded instruction.
      */
-    private void decodeSType(Instruction instruction) {
-        int inst = instruction.getInst();
-        int value = ((inst >> 7) & 0x1F) | ((inst >> 25) << 5);
-        instruction.setDisp(Machine.signExtend(value, 11));
-        instruction.setLeft(machine.getRegister((inst >> 15) & 0x1F));
-        instruction.setRight(machine.getRegister((inst >> 20) & 0x1F));
-        instruction.setMemop(2);
+    private static DecodedInstruction decodeSType(int inst) {
+        int value = ((inst >>> 7) & 0x1F) | ((inst >>> 25) << 5);
+        return new DecodedInstruction(inst, 0, rs1(inst), rs2(inst), Machine.signExtend(value, 11), AluOp.Add, 2);
     }
 
     /**
@@ -242,14 +351,16 @@ public class InstructionDecode {
      * It sets the ALU operation to compare.
      * </p>
      *
-     * @param instruction The instruction to decode.
+     * @param inst The instruction to decode.
+     * @return The decoded instruction.
      */
-    private void decodeBType(Instruction instruction) {
-        int inst = instruction.getInst();
-        instruction.setDisp(Machine.signExtend(((inst >> 7) & 0x1E) | ((inst >> 25) << 5) | ((inst & 0x80) << 4) | ((inst >> 31) << 12), 12));
-        instruction.setLeft(machine.getRegister((inst >> 15) & 0x1F));
-        instruction.setRight(machine.getRegister((inst >> 20) & 0x1F));
-        instruction.setAluOp(AluOp.Cmp);
+    private static DecodedInstruction decodeBType(int inst) {
+        int funct3 = (inst >> 12) & 0x7;
+        if (funct3 == 0x2 || funct3 == 0x3) {
+            throw new UnsupportedOperationException("Unsupported branch funct3: " + funct3);
+        }
+        int value = ((inst >>> 7) & 0x1E) | ((inst >>> 20) & 0x7E0) | ((inst << 4) & 0x800) | ((inst >>> 31) << 12);
+        return new DecodedInstruction(inst, 0, rs1(inst), rs2(inst), Machine.signExtend(value, 12), AluOp.Cmp, 0);
     }
 
     /**
@@ -260,14 +371,11 @@ public class InstructionDecode {
      * It sets the ALU operation to addition.
      * </p>
      *
-     * @param instruction The instruction to decode.
+     * @param inst The instruction to decode.
+     * @return The decoded instruction.
      */
-    private void decodeUType(Instruction instruction) {
-        int inst = instruction.getInst();
-        instruction.setRd((inst >> 7) & 0x1F);
-        instruction.setRight(inst & 0xFFFFF000);
-        instruction.setLeft((inst & 0x7F) == 0x17 ? machine.getProgramCounter() : 0);
-        instruction.setAluOp(AluOp.Add);
+    private static DecodedInstruction decodeUType(int inst) {
+        return new DecodedInstruction(inst, rd(inst), 0, 0, inst & 0xFFFFF000, AluOp.Add, 0);
     }
 
     /**
@@ -278,13 +386,12 @@ public class InstructionDecode {
      * It sets the ALU operation to no operation (Nop).
      * </p>
      *
-     * @param instruction The instruction to decode.
+     * @param inst The instruction to decode.
+     * @return The decoded instruction.
      */
-    private void decodeJType(Instruction instruction) {
-        int inst = instruction.getInst();
-        instruction.setRd((inst >> 7) & 0x1F);
-        instruction.setDisp(Machine.signExtend(((inst >> 21) & 0x3FF) | ((inst >> 20) & 0x1) | ((inst >> 12) & 0xFF) | ((inst >> 31) << 20), 20));
-        instruction.setAluOp(AluOp.Nop);
+    private static DecodedInstruction decodeJType(int inst) {
+        int value = ((inst >>> 20) & 0x7FE) | ((inst >>> 9) & 0x800) | (inst & 0xFF000) | ((inst >>> 31) << 20);
+        return new DecodedInstruction(inst, rd(inst), 0, 0, Machine.signExtend(value, 20), AluOp.Nop, 0);
     }
 
     /**
@@ -295,14 +402,11 @@ public class InstructionDecode {
      * and the immediate value. It sets the ALU operation to addition.
      * </p>
      *
-     * @param instruction The instruction to decode.
+     * @param inst The instruction to decode.
+     * @return The decoded instruction.
      */
-    private void decodeJALRType(Instruction instruction) {
-        int inst = instruction.getInst();
-        instruction.setRd((inst >> 7) & 0x1F);
-        instruction.setLeft(machine.getRegister((inst >> 15) & 0x1F));
-        instruction.setRight(Machine.signExtend(inst >> 20, 11));
-        instruction.setAluOp(AluOp.Add);
+    private static DecodedInstruction decodeJALRType(int inst) {
+        return new DecodedInstruction(inst, rd(inst), rs1(inst), 0, iImmediate(inst), AluOp.Add, 0);
     }
 
     /**
@@ -310,16 +414,89 @@ public class InstructionDecode {
      *
      * <p>
      * This method extracts the source register (rs1), the immediate value, and the destination register (rd).
-     * It sets the ALU operation to no operation (Nop).
+     * It sets the ALU operation to no operation (Nop), since the machine executes SYSTEM instructions itself
+     * at writeback, reading the CSR number from the instruction.
      * </p>
      *
-     * @param instruction The instruction to decode.
+     * @param inst The instruction to decode.
+     * @return The decoded instruction.
      */
-    private void decodeSystemType(Instruction instruction) {
-        int inst = instruction.getInst();
-        instruction.setRight(Machine.signExtend(inst >> 20, 11));
-        instruction.setLeft(machine.getRegister((inst >> 15) & 0x1F));
-        instruction.setRd((inst >> 7) & 0x1F);
-        instruction.setAluOp(AluOp.Nop);
+    private static DecodedInstruction decodeSystemType(int inst) {
+        return new DecodedInstruction(inst, rd(inst), rs1(inst), 0, iImmediate(inst), AluOp.Nop, 0);
+    }
+
+    /**
+     * Decodes an RV32A atomic instruction (R-type format).
+     *
+     * <p>
+     * This method extracts the destination register (rd) and the source registers
+     * (rs1 holding the address, rs2 holding the operand). It sets the memop field to
+     * indicate an atomic operation; the address is rs1 itself, so the immediate is 0.
+     * </p>
+     *
+     * @param inst The instruction to decode.
+     * @return The decoded instruction.
+     */
+    private static DecodedInstruction decodeAtomicType(int inst) {
+        int funct3 = (inst >> 12) & 0x7;
+        int funct5 = inst >>> 27;
+        if (funct3 != 0x2) {
+            throw new UnsupportedOperationException("Unsupported atomic funct3: " + funct3);
+        }
+        switch (funct5) {
+            case 0x02: // LR.W
+                if (rs2(inst) != 0) {
+                    throw new UnsupportedOperationException("Unsupported LR.W with rs2: " + rs2(inst));
+                }
+                return new DecodedInstruction(inst, rd(inst), rs1(inst), 0, 0, AluOp.Add, 3);
+            case 0x03: // SC.W
+            case 0x01: // AMOSWAP.W
+            case 0x00: // AMOADD.W
+            case 0x04: // AMOXOR.W
+            case 0x0C: // AMOAND.W
+            case 0x08: // AMOOR.W
+            case 0x10: // AMOMIN.W
+            case 0x14: // AMOMAX.W
+            case 0x18: // AMOMINU.W
+            case 0x1C: // AMOMAXU.W
+                return new DecodedInstruction(inst, rd(inst), rs1(inst), rs2(inst), 0, AluOp.Add, 3);
+            default:
+                throw new UnsupportedOperationException("Unsupported atomic funct5: " + funct5);
+        }
+    }
+
+    /**
+     * Decodes a FENCE or FENCE.I instruction.
+     *
+     * <p>
+     * Neither instruction reads or writes registers, so only the memop field is set
+     * to indicate a fence; the ordering bits are read from the instruction word.
+     * </p>
+     *
+     * @param inst The instruction to decode.
+     * @return The decoded instruction.
+     */
+    private static DecodedInstruction decodeFenceType(int inst) {
+        int funct3 = (inst >> 12) & 0x7;
+        if (funct3 != 0x0 && funct3 != 0x1) {
+            throw new UnsupportedOperationException("Unsupported fence funct3: " + funct3);
+        }
+        return new DecodedInstruction(inst, 0, 0, 0, 0, AluOp.Nop, 4);
+    }
+
+    private static int rd(int inst) {
+        return (inst >> 7) & 0x1F;
+    }
+
+    private static int rs1(int inst) {
+        return (inst >> 15) & 0x1F;
+    }
+
+    private static int rs2(int inst) {
+        return (inst >> 20) & 0x1F;
+    }
+
+    private static int iImmediate(int inst) {
+        return Machine.signExtend(inst >>> 20, 11);
     }
 }
@@ -1,5 +1,6 @@
 package org.parkerharrelson.riscv.pipeline;
 
+import org.parkerharrelson.riscv.util.AluOp;
 import org.parkerharrelson.riscv.util.Instruction;
 
 public class InstructionExecute {
@@ -18,14 +19,35 @@ public class InstructionExecute {
     public void executeInstruction(Instruction instruction) {
         int left = instruction.getLeft();
         int right = instruction.getRight();
-        int result = switch (instruction.getAluop()) {
+        int result = compute(instruction.getAluop(), left, right);
+
+        if (instruction.getMemop() == 1 || instruction.getMemop() == 2) {
+            result = left + right;
+        }
+
+        instruction.setResult(result);
+    }
+
+    /**
+     * Performs a single ALU operation on two operands.
+     *
+     * @param aluOp The ALU operation to perform.
+     * @param left The left operand.
+     * @param right The right operand.
+     * @return The result of the operation.
+     */
+    public static int compute(AluOp aluOp, int left, int right) {
+        return switch (aluOp) {
             case Add -> left + right;
             case Sub -> left - right;
             case Mul -> left * right;
-            case Div -> left / right;
-            case DivU -> Integer.divideUnsigned(left, right);
-            case Rem -> left % right;
-            case RemU -> Integer.remainderUnsigned(left, right);
+            case MulH -> (int) (((long) left * right) >> 32);
+            case MulHSU -> (int) (((long) left * Integer.toUnsignedLong(right)) >> 32);
+            case MulHU -> (int) ((Integer.toUnsignedLong(left) * Integer.toUnsignedLong(right)) >>> 32);
+            case Div -> (right == 0) ? -1 : left / right;
+            case DivU -> (right == 0) ? -1 : Integer.divideUnsigned(left, right);
+            case Rem -> (right == 0) ? left : left % right;
+            case RemU -> (right == 0) ? left : Integer.remainderUnsigned(left, right);
             case LeftShift -> left << right;
             case RightShiftA -> left >> right;
             case RightShiftL -> left >>> right;
@@ -39,11 +61,5 @@ public class InstructionExecute {
                     ((Integer.compareUnsigned(left, right) < 0) ? 0b100 : 0);
             case Nop -> 0;
         };
-
-        if (instruction.getMemop() == 1 || instruction.getMemop() == 2) {
-            result = left + right;
-        }
-
-        instruction.setResult(result);
     }
 }
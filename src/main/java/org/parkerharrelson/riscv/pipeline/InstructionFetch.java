@@ -1,10 +1,15 @@
 package org.parkerharrelson.riscv.pipeline;
 
+import org.parkerharrelson.riscv.core.DecodeCache;
 import org.parkerharrelson.riscv.core.IMachine;
+import org.parkerharrelson.riscv.timing.CacheModel;
+import org.parkerharrelson.riscv.util.DecodedInstruction;
 import org.parkerharrelson.riscv.util.Instruction;
 
 public class InstructionFetch {
 
+    private static final DecodedInstruction EBREAK = InstructionDecode.predecode(0x00100073);
+
     private final IMachine machine;
     private boolean stackPointerInitialized = false;
 
@@ -17,6 +22,26 @@ public class InstructionFetch {
         this.machine = machine;
     }
 
+    /**
+     * Points the stack pointer at the top of memory the first time it is called.
+     * Execution engines that bypass this stage call it before running any guest code.
+     */
+    public void initializeStackPointer() {
+        if (!stackPointerInitialized) {
+            machine.writeToRegister(2, (int) machine.getMemory().size());
+            stackPointerInitialized = true;
+        }
+    }
+
+    /**
+     * Checks whether the stack pointer has been initialized yet.
+     *
+     * @return True once {@link #initializeStackPointer()} has run.
+     */
+    public boolean isStackPointerInitialized() {
+        return stackPointerInitialized;
+    }
+
     /**
      * Fetches the next instruction from memory.
      * Initializes the stack pointer on the first fetch.
@@ -25,21 +50,55 @@ public class InstructionFetch {
      * @return The fetched instruction encapsulated in an Instruction object.
      */
     public Instruction fetchInstruction() {
-        if (!stackPointerInitialized) {
-            machine.writeToRegister(2, machine.getMemory().length);
-            stackPointerInitialized = true;
-        }
-
-        int pc = machine.getProgramCounter();
-        byte[] memory = machine.getMemory();
+        Instruction instruction = new Instruction(0);
+        fetchInstruction(instruction);
+        return instruction;
+    }
 
-        int instruction = ((memory[pc] & 0xFF)) |
-                ((memory[pc + 1] & 0xFF) << 8) |
-                ((memory[pc + 2] & 0xFF) << 16) |
-                ((memory[pc + 3] & 0xFF) << 24);
+    /**
+     * Fetches the next instruction into an existing Instruction object.
+     *
+     * <p>
+     * If the instruction at the program counter has already been decoded, the cached
+     * decoded form is attached and memory is not read at all. Otherwise the first 16 bits
+     * are read from memory, followed by the next 16 if they do not hold a compressed
+     * instruction, and the decode stage fills the cache. The program counter advances by
+     * the length of the instruction. Either way the fetch is passed to the machine's
+     * instruction cache model, if it has one.
+     * </p>
+     *
+     * <p>
+     * An instruction under a breakpoint is never cached, so only a miss checks for one.
+     * At a breakpoint nothing is fetched, the program counter stays where it is, and the
+     * instruction is filled with an EBREAK so callers see something that ends a block.
+     * </p>
+     *
+     * @param instruction The instruction object to reuse for the fetched instruction.
+     * @return False if the program counter is at a breakpoint.
+     */
+    public boolean fetchInstruction(Instruction instruction) {
+        initializeStackPointer();
 
-        machine.setProgramCounter(pc + 4);
+        int pc = machine.getProgramCounter();
+        DecodeCache decodeCache = machine.getDecodeCache();
+        DecodedInstruction decoded = decodeCache.get(pc);
+        if (decoded == null && decodeCache.isBreakpoint(pc)) {
+            instruction.reset(pc, EBREAK.getInst(), EBREAK);
+            return false;
+        }
+        CacheModel cache = machine.getInstructionCache();
+        if (cache != null) {
+            cache.access(pc, pc);
+        }
 
-        return new Instruction(instruction);
+        if (decoded != null) {
+            instruction.reset(pc, decoded.getInst(), decoded);
+            machine.setProgramCounter(pc + decoded.getLength());
+        } else {
+            int inst = InstructionDecode.fetch(machine.getMemory(), pc);
+            instruction.reset(pc, inst, null);
+            machine.setProgramCounter(pc + (CompressedExpander.isCompressed(inst) ? 2 : 4));
+        }
+        return true;
     }
 }
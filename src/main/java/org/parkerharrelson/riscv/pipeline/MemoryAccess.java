@@ -1,7 +1,9 @@
 package org.parkerharrelson.riscv.pipeline;
 
+import org.parkerharrelson.riscv.core.DecodeCache;
 import org.parkerharrelson.riscv.core.IMachine;
-import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.memory.GuestMemory;
+import org.parkerharrelson.riscv.timing.CacheModel;
 import org.parkerharrelson.riscv.util.Instruction;
 
 public class MemoryAccess {
@@ -18,21 +20,31 @@ public class MemoryAccess {
     }
 
     /**
-     * Accesses memory for LOAD and STORE instructions.
+     * Accesses memory for LOAD, STORE, AMO and FENCE instructions.
      *
      * <p>
      * This method handles LOAD and STORE instructions by either storing data
      * to memory or loading data from memory. It also performs sign extension
-     * or zero extension as needed.
+     * or zero extension as needed. Atomic and fence instructions are handed to
+     * the machine's atomic unit, with the value for rd left in result. Loads, stores
+     * and AMOs are passed to the machine's data cache model, if it has one.
      * </p>
      *
      * @param instruction The instruction to execute memory access for.
      */
     public void accessMemory(Instruction instruction) {
+        CacheModel cache = machine.getDataCache();
+        if (cache != null && instruction.getMemop() >= 1 && instruction.getMemop() <= 3) {
+            cache.access(instruction.getResult(), instruction.getPc());
+        }
         if (instruction.getMemop() == 2) {
             storeToMemory(instruction);
         } else if (instruction.getMemop() == 1) {
             loadFromMemory(instruction);
+        } else if (instruction.getMemop() == 3) {
+            instruction.setResult(machine.getAtomicUnit().execute(instruction.getInst(), instruction.getResult(), instruction.getDisp()));
+        } else if (instruction.getMemop() == 4) {
+            machine.getAtomicUnit().fence(instruction.getInst());
         }
     }
 
@@ -41,33 +53,34 @@ public class MemoryAccess {
      *
      * <p>
      * This method uses the calculated memory address (in result)
-     * and the value to be stored (in right) to store data into memory.
+     * and the value to be stored (in disp) to store data into memory.
+     * Any cached decoded instructions in the written code page are dropped.
      * </p>
      *
      * @param instruction The STORE instruction to execute.
      */
     private void storeToMemory(Instruction instruction) {
         int address = instruction.getResult();
-        int value = instruction.getRight();
-        byte[] memory = machine.getMemory();
+        int value = instruction.getDisp();
+        GuestMemory memory = machine.getMemory();
 
         switch ((instruction.getInst() >> 12) & 0x7) {
             case 0x0: // SB
-                memory[address] = (byte) value;
+                memory.store8(address, value);
                 break;
             case 0x1: // SH
-                memory[address] = (byte) (value & 0xFF);
-                memory[address + 1] = (byte) ((value >> 8) & 0xFF);
+                memory.store16(address, value);
                 break;
             case 0x2: // SW
-                memory[address] = (byte) (value & 0xFF);
-                memory[address + 1] = (byte) ((value >> 8) & 0xFF);
-                memory[address + 2] = (byte) ((value >> 16) & 0xFF);
-                memory[address + 3] = (byte) ((value >> 24) & 0xFF);
+                memory.store32(address, value);
                 break;
             default:
                 throw new UnsupportedOperationException("Unsupported store funct3: " + ((instruction.getInst() >> 12) & 0x7));
         }
+
+        DecodeCache decodeCache = machine.getDecodeCache();
+        decodeCache.invalidate(address);
+        decodeCache.invalidate(address + 3);
     }
 
     /**
@@ -83,18 +96,18 @@ public class MemoryAccess {
      */
     private void loadFromMemory(Instruction instruction) {
         int address = instruction.getResult();
-        byte[] memory = machine.getMemory();
+        GuestMemory memory = machine.getMemory();
         int loadedValue = switch ((instruction.getInst() >> 12) & 0x7) {
             case 0x0 -> // LB
-                    Machine.signExtend(memory[address], 7);
+                    memory.load8(address);
             case 0x1 -> // LH
-                    Machine.signExtend((memory[address] & 0xFF) | (memory[address + 1] << 8), 15);
+                    memory.load16(address);
             case 0x2 -> // LW
-                    (memory[address] & 0xFF) | ((memory[address + 1] & 0xFF) << 8) | ((memory[address + 2] & 0xFF) << 16) | (memory[address + 3] << 24);
+                    memory.load32(address);
             case 0x4 -> // LBU
-                    memory[address] & 0xFF;
+                    memory.load8(address) & 0xFF;
             case 0x5 -> // LHU
-                    (memory[address] & 0xFF) | ((memory[address + 1] & 0xFF) << 8);
+                    memory.load16(address) & 0xFFFF;
             default ->
                     throw new UnsupportedOperationException("Unsupported load funct3: " + ((instruction.getInst() >> 12) & 0x7));
         };
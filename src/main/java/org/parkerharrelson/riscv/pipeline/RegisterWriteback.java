@@ -1,6 +1,7 @@
 package org.parkerharrelson.riscv.pipeline;
 
 import org.parkerharrelson.riscv.core.IMachine;
+import org.parkerharrelson.riscv.stats.GuestProfiler;
 import org.parkerharrelson.riscv.util.Instruction;
 
 public class RegisterWriteback {
@@ -17,45 +18,81 @@ public class RegisterWriteback {
     }
 
     /**
-     * Writes the result into the destination register and handles system calls.
+     * Writes the result into the destination register and executes SYSTEM instructions.
      *
      * <p>
      * This method writes the result of the ALU operation into the destination
-     * register. It also handles system calls for the ECALL instruction and
-     * updates the program counter based on the instruction type and operation result.
+     * register. SYSTEM instructions (system calls, CSR accesses, traps and WFI) are
+     * handed to the machine, which writes their rd itself. It also
+     * redirects the program counter for jumps and taken branches. The fetch
+     * stage has already advanced the program counter past the instruction,
+     * so non-branching instructions leave it untouched. Jumps link the address
+     * after the instruction, which is two bytes on if it was compressed. Jumps are reported to the
+     * machine's profiler, if it has one, so it can follow calls and returns.
      * </p>
      *
      * @param instruction The instruction to execute writeback for.
      */
     public void writebackInstruction(Instruction instruction) {
         int rd = instruction.getRd();
-        int result = instruction.getResult();
-
-        if (rd != 0) {
-            machine.writeToRegister(rd, result);
-        }
-
-        if (instruction.getInst() == 0x73) {
-            machine.handleSystemCall();
-        }
-
         int opcode = instruction.getInst() & 0x7F;
-        int pc = machine.getProgramCounter();
+        int pc = instruction.getPc();
+        int nextPc = pc + instruction.getDecoded().getLength();
 
         switch (opcode) {
             case 0x6F: // J-type
+                if (rd != 0) {
+                    machine.writeToRegister(rd, nextPc);
+                }
                 machine.setProgramCounter(pc + instruction.getDisp());
+                reportJump(rd, 0, nextPc);
+                break;
+            case 0x67: // JALR
+                if (rd != 0) {
+                    machine.writeToRegister(rd, nextPc);
+                }
+                machine.setProgramCounter(instruction.getResult() & ~1);
+                reportJump(rd, (instruction.getInst() >> 15) & 0x1F, nextPc);
                 break;
             case 0x63: // B-type
-                if (instruction.getResult() != 0) {
+                if (isBranchTaken((instruction.getInst() >> 12) & 0x7, instruction.getResult())) {
                     machine.setProgramCounter(pc + instruction.getDisp());
-                } else {
-                    machine.setProgramCounter(pc + 4);
                 }
                 break;
+            case 0x73: // SYSTEM
+                machine.executeSystem(instruction.getInst(), instruction.getLeft(), pc);
+                break;
             default: // Non-branching instructions
-                machine.setProgramCounter(pc + 4);
+                if (rd != 0) {
+                    machine.writeToRegister(rd, instruction.getResult());
+                }
                 break;
         }
     }
+
+    private void reportJump(int rd, int rs1, int returnAddress) {
+        GuestProfiler profiler = machine.getProfiler();
+        if (profiler != null) {
+            profiler.jump(rd, rs1, returnAddress);
+        }
+    }
+
+    /**
+     * Evaluates a branch condition against the flags produced by the Cmp ALU operation.
+     *
+     * @param funct3 The funct3 field of the branch instruction.
+     * @param flags The Cmp result: bit 0 equal, bit 1 signed less than, bit 2 unsigned less than.
+     * @return True if the branch is taken.
+     */
+    public static boolean isBranchTaken(int funct3, int flags) {
+        return switch (funct3) {
+            case 0x0 -> (flags & 0b001) != 0; // BEQ
+            case 0x1 -> (flags & 0b001) == 0; // BNE
+            case 0x4 -> (flags & 0b010) != 0; // BLT
+            case 0x5 -> (flags & 0b010) == 0; // BGE
+            case 0x6 -> (flags & 0b100) != 0; // BLTU
+            case 0x7 -> (flags & 0b100) == 0; // BGEU
+            default -> throw new UnsupportedOperationException("Unsupported branch funct3: " + funct3);
+        };
+    }
 }
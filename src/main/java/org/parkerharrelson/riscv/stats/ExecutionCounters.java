@@ -0,0 +1,136 @@
+package org.parkerharrelson.riscv.stats;
+
+import org.parkerharrelson.riscv.util.AluOp;
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+
+import java.util.Arrays;
+
+/**
+ * Retired instruction counters for a single hart.
+ *
+ * <p>
+ * Only the hart that owns the counters writes them, so they are plain {@code long[]}
+ * slots with no synchronization. Other threads, such as JMX clients, read them while
+ * the hart is running and may see slightly stale values. Counting is switched off by
+ * not giving a machine any counters at all, which leaves a single null check per
+ * instruction (or per compiled block) in the execution engines.
+ * </p>
+ */
+public class ExecutionCounters {
+
+    public static final int SYSCALL_SLOTS = 512;
+
+    private static final AluOp[] ALU_OPS = AluOp.values();
+
+    final long[] opcodes = new long[128];      // Indexed by major opcode
+    final long[] aluOps = new long[ALU_OPS.length];
+    final long[] loads = new long[3];          // Indexed by log2 of the access width in bytes
+    final long[] stores = new long[3];
+    final long[] systemCalls = new long[SYSCALL_SLOTS];
+    long atomics;
+    long otherSystemCalls;                     // System calls numbered outside the slots above
+
+    /**
+     * Counts one retired instruction.
+     *
+     * @param decoded The instruction that was retired.
+     */
+    public void retire(DecodedInstruction decoded) {
+        opcodes[decoded.getOpcode()]++;
+        aluOps[decoded.getAluop().ordinal()]++;
+        switch (decoded.getMemop()) {
+            case 1 -> loads[decoded.getFunct3() & 0x3]++;
+            case 2 -> stores[decoded.getFunct3() & 0x3]++;
+            case 3 -> atomics++;
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Counts every instruction of a compiled block, which always runs to its end.
+     *
+     * @param block The instructions of the block.
+     */
+    public void retireBlock(DecodedInstruction[] block) {
+        for (DecodedInstruction decoded : block) {
+            retire(decoded);
+        }
+    }
+
+    /**
+     * Counts one system call.
+     *
+     * @param number The system call number from a7.
+     */
+    public void countSystemCall(int number) {
+        if (number >= 0 && number < SYSCALL_SLOTS) {
+            systemCalls[number]++;
+        } else {
+            otherSystemCalls++;
+        }
+    }
+
+    /**
+     * Total number of instructions retired.
+     *
+     * @return The number of instructions.
+     */
+    public long getRetired() {
+        long total = 0;
+        for (long count : opcodes) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long getOpcodeCount(int opcode) {
+        return opcodes[opcode];
+    }
+
+    public long getAluOpCount(AluOp aluOp) {
+        return aluOps[aluOp.ordinal()];
+    }
+
+    /**
+     * Number of loads of the given width.
+     *
+     * @param bytes The access width: 1, 2 or 4.
+     * @return The number of loads.
+     */
+    public long getLoadCount(int bytes) {
+        return loads[Integer.numberOfTrailingZeros(bytes)];
+    }
+
+    /**
+     * Number of stores of the given width.
+     *
+     * @param bytes The access width: 1, 2 or 4.
+     * @return The number of stores.
+     */
+    public long getStoreCount(int bytes) {
+        return stores[Integer.numberOfTrailingZeros(bytes)];
+    }
+
+    public long getAtomicCount() {
+        return atomics;
+    }
+
+    public long getSystemCallCount(int number) {
+        return number >= 0 && number < SYSCALL_SLOTS ? systemCalls[number] : otherSystemCalls;
+    }
+
+    /**
+     * Clears every counter. Like the counters themselves this is not synchronized
+     * with the owning hart, so counts made while it runs may survive the reset.
+     */
+    public void reset() {
+        Arrays.fill(opcodes, 0);
+        Arrays.fill(aluOps, 0);
+        Arrays.fill(loads, 0);
+        Arrays.fill(stores, 0);
+        Arrays.fill(systemCalls, 0);
+        atomics = 0;
+        otherSystemCalls = 0;
+    }
+}
@@ -0,0 +1,193 @@
+package org.parkerharrelson.riscv.stats;
+
+import org.parkerharrelson.riscv.util.AluOp;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ToLongFunction;
+
+/**
+ * Sums the {@link ExecutionCounters} of every hart of a run and publishes them over JMX.
+ *
+ * <p>
+ * Each hart gets its own counters from {@link #addHart()}, so harts never share a
+ * cache line while counting. The totals are only computed when they are read, either
+ * by a JMX client or by {@link #print(PrintStream)} once the run is over.
+ * </p>
+ */
+public class ExecutionStats implements ExecutionStatsMXBean {
+
+    public static final String OBJECT_NAME = "org.parkerharrelson.riscv:type=ExecutionStats";
+
+    private static final AluOp[] ALU_OPS = AluOp.values();
+    private static final int[] WIDTHS = {1, 2, 4};
+
+    private final List<ExecutionCounters> harts = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates the counters for one more hart.
+     *
+     * @return The counters to hand to the hart's machine.
+     */
+    public ExecutionCounters addHart() {
+        ExecutionCounters counters = new ExecutionCounters();
+        harts.add(counters);
+        return counters;
+    }
+
+    /**
+     * Registers this object with the platform MBean server, replacing any earlier registration.
+     */
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            try {
+                server.registerMBean(this, name);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to register " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Removes this object from the platform MBean server if it is registered there.
+     */
+    public void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (InstanceNotFoundException e) {
+            // Not registered
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to unregister " + OBJECT_NAME, e);
+        }
+    }
+
+    @Override
+    public int getHartCount() {
+        return harts.size();
+    }
+
+    @Override
+    public long getInstructionsRetired() {
+        return sum(ExecutionCounters::getRetired);
+    }
+
+    @Override
+    public Map<String, Long> getOpcodeCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (int opcode = 0; opcode < 128; opcode++) {
+            int index = opcode;
+            put(counts, opcodeName(opcode), sum(counters -> counters.opcodes[index]));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getAluOpCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (AluOp aluOp : ALU_OPS) {
+            put(counts, aluOp.name(), sum(counters -> counters.getAluOpCount(aluOp)));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getMemoryAccessCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (int bytes : WIDTHS) {
+            put(counts, "load" + bytes * 8, sum(counters -> counters.getLoadCount(bytes)));
+            put(counts, "store" + bytes * 8, sum(counters -> counters.getStoreCount(bytes)));
+        }
+        put(counts, "amo32", sum(ExecutionCounters::getAtomicCount));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getSystemCallCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (int number = 0; number < ExecutionCounters.SYSCALL_SLOTS; number++) {
+            int index = number;
+            put(counts, String.valueOf(number), sum(counters -> counters.systemCalls[index]));
+        }
+        put(counts, "other", sum(counters -> counters.otherSystemCalls));
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        for (ExecutionCounters counters : harts) {
+            counters.reset();
+        }
+    }
+
+    /**
+     * Writes every non-zero count, most frequent first within each group.
+     *
+     * @param out The stream to write to.
+     */
+    public void print(PrintStream out) {
+        out.println("=== Execution counters (" + harts.size() + " hart" + (harts.size() == 1 ? "" : "s") + ") ===");
+        out.println("instructions retired: " + getInstructionsRetired());
+        printGroup(out, "opcode", getOpcodeCounts());
+        printGroup(out, "aluop", getAluOpCounts());
+        printGroup(out, "memory", getMemoryAccessCounts());
+        printGroup(out, "syscall", getSystemCallCounts());
+    }
+
+    private static void printGroup(PrintStream out, String group, Map<String, Long> counts) {
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(entry -> out.printf("%-8s %-12s %d%n", group, entry.getKey(), entry.getValue()));
+    }
+
+    /**
+     * Name of a major opcode as used in the RISC-V opcode map.
+     *
+     * @param opcode The major opcode (bits 6:0).
+     * @return The name, or the opcode in hex if it has none.
+     */
+    public static String opcodeName(int opcode) {
+        return switch (opcode) {
+            case 0x03 -> "LOAD";
+            case 0x0F -> "MISC-MEM";
+            case 0x13 -> "OP-IMM";
+            case 0x17 -> "AUIPC";
+            case 0x23 -> "STORE";
+            case 0x2F -> "AMO";
+            case 0x33 -> "OP";
+            case 0x37 -> "LUI";
+            case 0x63 -> "BRANCH";
+            case 0x67 -> "JALR";
+            case 0x6F -> "JAL";
+            case 0x73 -> "SYSTEM";
+            default -> String.format("0x%02X", opcode);
+        };
+    }
+
+    private long sum(ToLongFunction<ExecutionCounters> counter) {
+        long total = 0;
+        for (ExecutionCounters counters : harts) {
+            total += counter.applyAsLong(counters);
+        }
+        return total;
+    }
+
+    private static void put(Map<String, Long> counts, String name, long count) {
+        if (count != 0) {
+            counts.put(name, count);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.parkerharrelson.riscv.stats;
+
+import java.util.Map;
+
+/**
+ * Management interface for the execution counters of every hart, published under
+ * {@link ExecutionStats#OBJECT_NAME}. Maps are keyed by a readable name and only
+ * contain entries that have been counted at least once.
+ */
+public interface ExecutionStatsMXBean {
+
+    int getHartCount();
+
+    long getInstructionsRetired();
+
+    Map<String, Long> getOpcodeCounts();
+
+    Map<String, Long> getAluOpCounts();
+
+    Map<String, Long> getMemoryAccessCounts();
+
+    Map<String, Long> getSystemCallCounts();
+
+    void reset();
+}
@@ -0,0 +1,143 @@
+package org.parkerharrelson.riscv.stats;
+
+import org.parkerharrelson.riscv.util.SymbolTable;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.PROFILER_MAX_DEPTH;
+
+/**
+ * Sampling profiler for the guest program running on a single hart.
+ *
+ * <p>
+ * The profiler keeps a shadow call stack of return addresses, maintained from the
+ * jumps the hart executes using the return address stack hints of the RISC-V
+ * specification: a JAL or JALR that writes a link register (ra or t0) is a call, and
+ * a JALR through a link register that does not write one is a return. Every
+ * {@code interval} retired instructions the current program counter and the shadow
+ * stack are symbolized and counted, and the counts are written in the folded stack
+ * format read by flame graph tools, one {@code outer;inner;leaf count} line per stack.
+ * </p>
+ *
+ * <p>
+ * Callers are named after the function containing their call site and the leaf after
+ * the function containing the sampled program counter. Addresses not covered by a
+ * symbol are shown in hex.
+ * </p>
+ */
+public class GuestProfiler {
+
+    private final SymbolTable symbols;
+    private final int interval;
+    private final int[] returnAddresses = new int[PROFILER_MAX_DEPTH];
+    private int depth = 0;
+    private int overflow = 0;  // Calls made while the shadow stack was full
+    private int countdown;
+    private final Map<String, Long> samples = new HashMap<>();
+
+    /**
+     * Constructor for GuestProfiler.
+     *
+     * @param symbols The guest program's function symbols.
+     * @param interval The number of retired instructions between samples.
+     */
+    public GuestProfiler(SymbolTable symbols, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Sample interval must be at least 1");
+        }
+        this.symbols = symbols;
+        this.interval = interval;
+        this.countdown = interval;
+    }
+
+    /**
+     * Counts retired instructions, taking a sample whenever an interval boundary is
+     * crossed. Instructions retired as a batch, such as a compiled block, all belong
+     * to the function at the given program counter, so a batch that spans several
+     * intervals is recorded as one sample with a matching weight.
+     *
+     * @param pc The address of the first retired instruction.
+     * @param instructions The number of instructions retired.
+     */
+    public void retire(int pc, int instructions) {
+        countdown -= instructions;
+        if (countdown <= 0) {
+            int weight = 1 + -countdown / interval;
+            countdown += weight * interval;
+            sample(pc, weight);
+        }
+    }
+
+    /**
+     * Updates the shadow call stack after a JAL or JALR.
+     *
+     * @param rd The destination register of the jump.
+     * @param rs1 The base register of a JALR, or 0 for a JAL.
+     * @param returnAddress The address of the instruction after the jump.
+     */
+    public void jump(int rd, int rs1, int returnAddress) {
+        boolean linkRd = rd == 1 || rd == 5;
+        boolean linkRs1 = rs1 == 1 || rs1 == 5;
+        if (linkRd) {
+            if (linkRs1 && rs1 != rd) { // Coroutine switch
+                pop();
+            }
+            push(returnAddress);
+        } else if (linkRs1) {
+            pop();
+        }
+    }
+
+    private void push(int returnAddress) {
+        if (depth < returnAddresses.length) {
+            returnAddresses[depth++] = returnAddress;
+        } else {
+            overflow++;
+        }
+    }
+
+    private void pop() {
+        if (overflow > 0) {
+            overflow--;
+        } else if (depth > 0) {
+            depth--;
+        }
+    }
+
+    private void sample(int pc, int weight) {
+        StringBuilder stack = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            stack.append(frame(returnAddresses[i] - 4)).append(';');
+        }
+        stack.append(frame(pc));
+        samples.merge(stack.toString(), (long) weight, Long::sum);
+    }
+
+    private String frame(int address) {
+        String name = symbols.lookup(address);
+        return name != null ? name : String.format("0x%08x", address);
+    }
+
+    /**
+     * The samples taken so far.
+     *
+     * @return The sample count of every folded stack, sorted by stack.
+     */
+    public Map<String, Long> getSamples() {
+        return new TreeMap<>(samples);
+    }
+
+    /**
+     * Writes the samples in folded stack format.
+     *
+     * @param out The stream to write to.
+     */
+    public void writeFolded(PrintStream out) {
+        for (Map.Entry<String, Long> entry : getSamples().entrySet()) {
+            out.println(entry.getKey() + " " + entry.getValue());
+        }
+    }
+}
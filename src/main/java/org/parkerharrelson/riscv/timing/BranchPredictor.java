@@ -0,0 +1,45 @@
+package org.parkerharrelson.riscv.timing;
+
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+
+/**
+ * Branch predictor consulted by the {@link TimingModel} for every jump and conditional branch.
+ *
+ * <p>
+ * The fetch stage only knows the address of the instruction it fetches, so the first
+ * guess about where execution continues comes from {@link #predictFetch(int, int)}. Once the
+ * instruction has been decoded the direction of a conditional branch is predicted
+ * again by {@link #predictTaken(int, DecodedInstruction)}, and its target is known from
+ * the immediate. After the instruction retires the predictor is told what really happened.
+ * </p>
+ */
+public interface BranchPredictor {
+
+    /**
+     * Predicts the address the fetch stage fetches after the given one.
+     *
+     * @param pc The address of a jump or branch.
+     * @param fallThrough The address just past the jump or branch, which is pc + 2 if it is compressed.
+     * @return The predicted address of the next instruction, fallThrough if the predictor has no target.
+     */
+    int predictFetch(int pc, int fallThrough);
+
+    /**
+     * Predicts the direction of a decoded conditional branch.
+     *
+     * @param pc The address of the branch.
+     * @param branch The decoded branch.
+     * @return True if the branch is predicted taken.
+     */
+    boolean predictTaken(int pc, DecodedInstruction branch);
+
+    /**
+     * Trains the predictor with the outcome of a retired jump or branch.
+     *
+     * @param pc The address of the jump or branch.
+     * @param instruction The decoded jump or branch.
+     * @param taken True if control went somewhere other than the next instruction in memory.
+     * @param target The address of the next instruction executed.
+     */
+    void update(int pc, DecodedInstruction instruction, boolean taken, int target);
+}
@@ -0,0 +1,66 @@
+package org.parkerharrelson.riscv.timing;
+
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+
+import java.util.Arrays;
+
+/**
+ * 2-bit direction predictor backed by a direct-mapped branch target buffer, which lets
+ * the fetch stage follow a jump or a predicted taken branch without waiting for it to be
+ * decoded.
+ *
+ * <p>
+ * Every jump or branch that is taken stores its target in the buffer, tagged with its
+ * full address. When the fetch stage later fetches a tagged address, it continues at
+ * the stored target if the entry is a jump or its counter predicts taken. A JALR whose
+ * target changes, such as a return to different callers, is mispredicted every time
+ * the target moves.
+ * </p>
+ */
+public class BranchTargetBuffer extends TwoBitPredictor {
+
+    private static final int EMPTY = 1; // Instruction addresses are never odd
+
+    private final int[] tags;
+    private final int[] targets;
+    private final boolean[] conditional;
+    private final int mask;
+
+    /**
+     * Constructor for BranchTargetBuffer.
+     *
+     * @param counterEntries The number of 2-bit counters, a power of two.
+     * @param bufferEntries The number of branch target buffer entries, a power of two.
+     */
+    public BranchTargetBuffer(int counterEntries, int bufferEntries) {
+        super(counterEntries);
+        if (bufferEntries < 1 || Integer.bitCount(bufferEntries) != 1) {
+            throw new IllegalArgumentException("Branch target buffer size must be a power of two");
+        }
+        this.tags = new int[bufferEntries];
+        this.targets = new int[bufferEntries];
+        this.conditional = new boolean[bufferEntries];
+        this.mask = bufferEntries - 1;
+        Arrays.fill(tags, EMPTY);
+    }
+
+    @Override
+    public int predictFetch(int pc, int fallThrough) {
+        int slot = (pc >>> 1) & mask;
+        if (tags[slot] == pc && (!conditional[slot] || isTaken(pc))) {
+            return targets[slot];
+        }
+        return fallThrough;
+    }
+
+    @Override
+    public void update(int pc, DecodedInstruction instruction, boolean taken, int target) {
+        super.update(pc, instruction, taken, target);
+        if (taken) {
+            int slot = (pc >>> 1) & mask;
+            tags[slot] = pc;
+            targets[slot] = target;
+            conditional[slot] = instruction.getOpcode() == 0x63;
+        }
+    }
+}
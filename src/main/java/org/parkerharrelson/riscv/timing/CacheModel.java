@@ -0,0 +1,241 @@
+package org.parkerharrelson.riscv.timing;
+
+import org.parkerharrelson.riscv.util.PageTable;
+import org.parkerharrelson.riscv.util.SymbolTable;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.CODE_PAGE_SHIFT;
+
+/**
+ * Set-associative cache model that counts hits and misses for the addresses a hart fetches or accesses.
+ *
+ * <p>
+ * Only tags are kept, so the model never changes what the guest reads. Writes allocate
+ * a line like reads do, and an access is charged to the line holding its first byte.
+ * Every access is also counted against the address of the instruction that made it,
+ * in a table with one pair of counters per instruction, which is folded into per
+ * function counts with the guest's symbol table only when a report is asked for. This
+ * keeps the cost of an access down to a tag compare per way and two increments.
+ * </p>
+ */
+public class CacheModel {
+
+    private static final int EMPTY = -1;  // Line addresses never have their top bits set
+    private static final int SLOTS_PER_PAGE = (1 << CODE_PAGE_SHIFT) >> 1;
+
+    private final String name;
+    private final int size;
+    private final int ways;
+    private final int lineShift;
+    private final int setMask;
+    private final ReplacementPolicy policy;
+    private final int[] lines;      // The line address held by each way of each set
+    private final long[] lastUse;   // LRU: the access count at each way's last use
+    private final int[] treeBits;   // PLRU: the tree of each set, node n at bit n
+    private int random = 0x2545F491;
+    private long clock = 0;
+    private long accesses = 0;
+    private long misses = 0;
+    private final PageTable<long[]> instructionCounts = new PageTable<>();
+    private int lastPageIndex = -1;
+    private long[] lastPage;
+
+    /**
+     * Constructor for CacheModel.
+     *
+     * @param name The name of the cache in reports, such as L1D.
+     * @param size The capacity in bytes, a power of two.
+     * @param ways The associativity, a power of two.
+     * @param lineSize The line size in bytes, a power of two of at least 4.
+     * @param policy The replacement policy.
+     */
+    public CacheModel(String name, int size, int ways, int lineSize, ReplacementPolicy policy) {
+        if (!isPowerOfTwo(size) || !isPowerOfTwo(ways) || !isPowerOfTwo(lineSize) || lineSize < 4 || ways > 32
+                || (long) ways * lineSize > size) {
+            throw new IllegalArgumentException("Cache size, associativity and line size must be powers of two, "
+                    + "with at most 32 ways of at least 4 bytes");
+        }
+        this.name = name;
+        this.size = size;
+        this.ways = ways;
+        this.lineShift = Integer.numberOfTrailingZeros(lineSize);
+        this.setMask = size / (ways * lineSize) - 1;
+        this.policy = policy;
+        this.lines = new int[size / lineSize];
+        this.lastUse = policy == ReplacementPolicy.LRU ? new long[lines.length] : null;
+        this.treeBits = policy == ReplacementPolicy.PLRU ? new int[setMask + 1] : null;
+        Arrays.fill(lines, EMPTY);
+    }
+
+    private static boolean isPowerOfTwo(int value) {
+        return value > 0 && Integer.bitCount(value) == 1;
+    }
+
+    /**
+     * Looks an address up, filling its line on a miss.
+     *
+     * @param address The address accessed.
+     * @param pc The address of the instruction making the access.
+     * @return True on a hit.
+     */
+    public boolean access(int address, int pc) {
+        int line = address >>> lineShift;
+        int set = line & setMask;
+        int base = set * ways;
+        accesses++;
+
+        int way = -1;
+        for (int i = 0; i < ways; i++) {
+            if (lines[base + i] == line) {
+                way = i;
+                break;
+            }
+        }
+        boolean hit = way >= 0;
+        if (!hit) {
+            misses++;
+            way = victim(set, base);
+            lines[base + way] = line;
+        }
+        touch(set, base, way);
+        count(pc, hit);
+        return hit;
+    }
+
+    private int victim(int set, int base) {
+        for (int i = 0; i < ways; i++) {
+            if (lines[base + i] == EMPTY) {
+                return i;
+            }
+        }
+        switch (policy) {
+            case LRU:
+                int oldest = 0;
+                for (int i = 1; i < ways; i++) {
+                    if (lastUse[base + i] < lastUse[base + oldest]) {
+                        oldest = i;
+                    }
+                }
+                return oldest;
+            case PLRU:
+                // Follow the bits from the root, each pointing at the half used less recently
+                int node = 1;
+                while (node < ways) {
+                    node = 2 * node + ((treeBits[set] >>> node) & 1);
+                }
+                return node - ways;
+            default:
+                random ^= random << 13;
+                random ^= random >>> 17;
+                random ^= random << 5;
+                return random & (ways - 1);
+        }
+    }
+
+    private void touch(int set, int base, int way) {
+        if (policy == ReplacementPolicy.LRU) {
+            lastUse[base + way] = ++clock;
+        } else if (policy == ReplacementPolicy.PLRU) {
+            // Point every node on the path to the way at the other half
+            int bits = treeBits[set];
+            for (int node = way + ways; node > 1; node >>>= 1) {
+                int parent = node >>> 1;
+                if ((node & 1) == 0) {
+                    bits |= 1 << parent;
+                } else {
+                    bits &= ~(1 << parent);
+                }
+            }
+            treeBits[set] = bits;
+        }
+    }
+
+    private void count(int pc, boolean hit) {
+        int pageIndex = pc >>> CODE_PAGE_SHIFT;
+        long[] page = lastPage;
+        if (pageIndex != lastPageIndex) {
+            page = instructionCounts.get(pageIndex);
+            if (page == null) {
+                page = new long[2 * SLOTS_PER_PAGE];
+                instructionCounts.put(pageIndex, page);
+            }
+            lastPageIndex = pageIndex;
+            lastPage = page;
+        }
+        int slot = ((pc >>> 1) & (SLOTS_PER_PAGE - 1)) << 1;
+        page[slot]++;
+        if (!hit) {
+            page[slot + 1]++;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getAccesses() {
+        return accesses;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Fraction of accesses that missed.
+     *
+     * @return The miss rate, or 0 if there were no accesses.
+     */
+    public double getMissRate() {
+        return accesses == 0 ? 0 : (double) misses / accesses;
+    }
+
+    /**
+     * Adds up the accesses and misses of every instruction by the function containing it.
+     * Instructions not covered by a symbol are counted under their address in hex.
+     *
+     * @param symbols The guest program's function symbols.
+     * @return Each function's access and miss counts, in that order.
+     */
+    public Map<String, long[]> getFunctionCounts(SymbolTable symbols) {
+        Map<String, long[]> counts = new HashMap<>();
+        instructionCounts.forEachPage(pageIndex -> {
+            long[] page = instructionCounts.get(pageIndex);
+            for (int slot = 0; slot < SLOTS_PER_PAGE; slot++) {
+                if (page[2 * slot] == 0) {
+                    continue;
+                }
+                int pc = (pageIndex << CODE_PAGE_SHIFT) | (slot << 1);
+                String function = symbols.lookup(pc);
+                long[] total = counts.computeIfAbsent(function != null ? function : String.format("0x%08x", pc),
+                        key -> new long[2]);
+                total[0] += page[2 * slot];
+                total[1] += page[2 * slot + 1];
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Writes the cache geometry, the overall miss rate and the miss rate of every
+     * function that made an access, most misses first.
+     *
+     * @param out The stream to write to.
+     * @param symbols The guest program's function symbols.
+     */
+    public void print(PrintStream out, SymbolTable symbols) {
+        out.printf("=== %s cache (%d bytes, %d-way, %d byte lines, %s) ===%n",
+                name, size, ways, 1 << lineShift, policy);
+        out.printf("accesses: %d  misses: %d  miss rate: %.2f%%%n", accesses, misses, 100 * getMissRate());
+        getFunctionCounts(symbols).entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, long[]> entry) -> -entry.getValue()[1])
+                        .thenComparing(Map.Entry::getKey))
+                .forEach(entry -> out.printf("%-32s %12d %10d %7.2f%%%n", entry.getKey(), entry.getValue()[0],
+                        entry.getValue()[1], 100.0 * entry.getValue()[1] / entry.getValue()[0]));
+    }
+}
@@ -0,0 +1,10 @@
+package org.parkerharrelson.riscv.timing;
+
+/**
+ * How a {@link CacheModel} picks the line to evict from a full set.
+ */
+public enum ReplacementPolicy {
+    LRU,    // The least recently used line
+    PLRU,   // Tree pseudo-LRU: one bit per node of a binary tree over the ways points at the colder half
+    RANDOM  // A pseudo-random line, from a fixed seed so runs are repeatable
+}
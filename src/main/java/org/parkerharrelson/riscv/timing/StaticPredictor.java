@@ -0,0 +1,25 @@
+package org.parkerharrelson.riscv.timing;
+
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+
+/**
+ * Backward taken, forward not taken static prediction: branches to lower addresses,
+ * which close loops, are predicted taken once decoded and all other branches not taken.
+ */
+public class StaticPredictor implements BranchPredictor {
+
+    @Override
+    public int predictFetch(int pc, int fallThrough) {
+        return fallThrough;
+    }
+
+    @Override
+    public boolean predictTaken(int pc, DecodedInstruction branch) {
+        return branch.getImm() < 0;
+    }
+
+    @Override
+    public void update(int pc, DecodedInstruction instruction, boolean taken, int target) {
+        // Static prediction does not learn
+    }
+}
@@ -0,0 +1,270 @@
+package org.parkerharrelson.riscv.timing;
+
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+
+import java.io.PrintStream;
+
+/**
+ * Cycle-approximate timing model of a classic in-order five stage pipeline for a single hart.
+ *
+ * <p>
+ * The model is fed the instructions the hart retires, in order, and works out the cycle
+ * each of them would have spent in the IF, ID, EX, MEM and WB latches of a scalar
+ * pipeline that issues at most one instruction per cycle. Results are unaffected, since
+ * the functional pipeline has already executed the instruction; only the cycle count is
+ * modelled. Every instruction spends one cycle in each stage, so a run without hazards
+ * takes one cycle per instruction plus four to drain the pipeline.
+ * </p>
+ *
+ * <p>
+ * Data hazards hold an instruction in ID until its source registers can be read. With
+ * forwarding, ALU results reach the next instruction's EX stage directly and only a
+ * load followed by an instruction using its result stalls, for one cycle. Without
+ * forwarding, a value can only be read in ID once its producer reaches WB, where the
+ * register file is written in the first half of the cycle and read in the second.
+ * AMOs are treated like loads.
+ * </p>
+ *
+ * <p>
+ * Control hazards depend on the {@link BranchPredictor}. Conditional branches and JALR
+ * are resolved in EX, so fetching down the wrong path costs two cycles. JAL targets and
+ * the targets of branches that ID predicts taken are known in ID, so reaching them costs
+ * one cycle unless the fetch stage already went there. System calls, fences and
+ * multiplies are modelled as ordinary single cycle instructions.
+ * </p>
+ */
+public class TimingModel {
+
+    private final BranchPredictor predictor;
+    private final boolean forwarding;
+    private final long[] ready = new long[32];         // Earliest cycle a reader of each register can leave ID
+    private final boolean[] loaded = new boolean[32];  // Whether that cycle is set by a load
+    private long nextDecode = 1;                        // The first instruction is fetched in cycle 0
+    private long lastDecode = 0;
+    private long instructions = 0;
+    private long loadUseStalls = 0;
+    private long dataStalls = 0;
+    private long redirectStalls = 0;
+    private long mispredictStalls = 0;
+    private long branches = 0;
+    private long branchMispredicts = 0;
+    private long jumps = 0;
+    private long jumpMispredicts = 0;
+
+    /**
+     * Constructor for TimingModel.
+     *
+     * @param predictor The branch predictor of the modelled core.
+     * @param forwarding Whether results are forwarded from EX and MEM to EX.
+     */
+    public TimingModel(BranchPredictor predictor, boolean forwarding) {
+        this.predictor = predictor;
+        this.forwarding = forwarding;
+    }
+
+    /**
+     * Advances the model by one retired instruction.
+     *
+     * @param pc The address of the instruction.
+     * @param decoded The instruction.
+     * @param nextPc The address of the instruction executed after it.
+     */
+    public void retire(int pc, DecodedInstruction decoded, int nextPc) {
+        int opcode = decoded.getOpcode();
+        long decode = nextDecode;
+        boolean loadUse = false;
+        if (readsRs1(opcode) && ready[decoded.getRs1()] > decode) {
+            decode = ready[decoded.getRs1()];
+            loadUse = loaded[decoded.getRs1()];
+        }
+        if (readsRs2(opcode) && ready[decoded.getRs2()] > decode) {
+            decode = ready[decoded.getRs2()];
+            loadUse = loaded[decoded.getRs2()];
+        }
+        if (loadUse) {
+            loadUseStalls += decode - nextDecode;
+        } else {
+            dataStalls += decode - nextDecode;
+        }
+
+        int rd = decoded.getRd();
+        if (rd != 0 && writesRd(opcode)) {
+            boolean load = opcode == 0x03 || opcode == 0x2F;
+            ready[rd] = !forwarding ? decode + 3 : load ? decode + 2 : decode + 1;
+            loaded[rd] = load && forwarding;
+        }
+
+        nextDecode = decode + 1 + controlPenalty(pc, decoded, nextPc);
+        lastDecode = decode;
+        instructions++;
+    }
+
+    /**
+     * Works out the bubbles a jump or branch leaves behind it and trains the predictor.
+     */
+    private int controlPenalty(int pc, DecodedInstruction decoded, int nextPc) {
+        int penalty;
+        int fallThrough = pc + decoded.getLength();
+        boolean taken = nextPc != fallThrough;
+        switch (decoded.getOpcode()) {
+            case 0x63: // B-type
+                branches++;
+                boolean predictedTaken = predictor.predictTaken(pc, decoded);
+                int decodedPath = predictedTaken ? pc + decoded.getImm() : fallThrough;
+                if (decodedPath != nextPc) {
+                    penalty = 2;
+                } else {
+                    penalty = predictor.predictFetch(pc, fallThrough) == decodedPath ? 0 : 1;
+                }
+                if (predictedTaken != taken) {
+                    branchMispredicts++;
+                }
+                break;
+            case 0x6F: // JAL
+                jumps++;
+                penalty = predictor.predictFetch(pc, fallThrough) == nextPc ? 0 : 1;
+                break;
+            case 0x67: // JALR
+                jumps++;
+                penalty = predictor.predictFetch(pc, fallThrough) == nextPc ? 0 : 2;
+                if (penalty != 0) {
+                    jumpMispredicts++;
+                }
+                break;
+            default:
+                return 0;
+        }
+        predictor.update(pc, decoded, taken, nextPc);
+        if (penalty == 1) {
+            redirectStalls++;
+        } else {
+            mispredictStalls += penalty;
+        }
+        return penalty;
+    }
+
+    private static boolean readsRs1(int opcode) {
+        return switch (opcode) {
+            case 0x03, 0x13, 0x23, 0x2F, 0x33, 0x63, 0x67 -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean readsRs2(int opcode) {
+        return switch (opcode) {
+            case 0x23, 0x2F, 0x33, 0x63 -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean writesRd(int opcode) {
+        return switch (opcode) {
+            case 0x03, 0x13, 0x17, 0x2F, 0x33, 0x37, 0x67, 0x6F, 0x73 -> true;
+            default -> false;
+        };
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Cycles from fetching the first instruction until the last one leaves WB.
+     *
+     * @return The number of cycles.
+     */
+    public long getCycles() {
+        return instructions == 0 ? 0 : lastDecode + 4;
+    }
+
+    /**
+     * Average cycles per retired instruction.
+     *
+     * @return The CPI, or 0 if nothing has retired.
+     */
+    public double getCpi() {
+        return instructions == 0 ? 0 : (double) getCycles() / instructions;
+    }
+
+    /**
+     * Cycles instructions spent in ID waiting for a load right before them.
+     *
+     * @return The number of stall cycles.
+     */
+    public long getLoadUseStalls() {
+        return loadUseStalls;
+    }
+
+    /**
+     * Cycles instructions spent in ID waiting for a result that is not forwarded.
+     *
+     * @return The number of stall cycles.
+     */
+    public long getDataStalls() {
+        return dataStalls;
+    }
+
+    /**
+     * Bubbles inserted while ID redirects fetch to a jump or predicted branch target.
+     *
+     * @return The number of bubbles.
+     */
+    public long getRedirectStalls() {
+        return redirectStalls;
+    }
+
+    /**
+     * Bubbles from instructions fetched down the wrong path and flushed when EX resolved a branch or JALR.
+     *
+     * @return The number of bubbles.
+     */
+    public long getMispredictStalls() {
+        return mispredictStalls;
+    }
+
+    public long getBranches() {
+        return branches;
+    }
+
+    public long getBranchMispredicts() {
+        return branchMispredicts;
+    }
+
+    public long getJumps() {
+        return jumps;
+    }
+
+    /**
+     * Jumps that were fetched down the wrong path. Only a JALR can be, since a JAL's
+     * target is always known once it has been decoded.
+     *
+     * @return The number of mispredicted JALRs.
+     */
+    public long getJumpMispredicts() {
+        return jumpMispredicts;
+    }
+
+    /**
+     * Writes the cycle count, CPI, stall breakdown and misprediction rates.
+     *
+     * @param out The stream to write to.
+     * @param name The name of the hart in the heading.
+     */
+    public void print(PrintStream out, String name) {
+        out.println("=== Timing model (" + name + ", " + predictor.getClass().getSimpleName()
+                + (forwarding ? ", forwarding" : ", no forwarding") + ") ===");
+        out.println("instructions:        " + instructions);
+        out.println("cycles:              " + getCycles());
+        out.printf("CPI:                 %.3f%n", getCpi());
+        out.println("load-use stalls:     " + loadUseStalls);
+        out.println("data hazard stalls:  " + dataStalls);
+        out.println("redirect bubbles:    " + redirectStalls);
+        out.println("mispredict bubbles:  " + mispredictStalls);
+        out.printf("branches:            %d (%.2f%% mispredicted)%n", branches, percent(branchMispredicts, branches));
+        out.printf("jumps:               %d (%.2f%% mispredicted)%n", jumps, percent(jumpMispredicts, jumps));
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : 100.0 * part / whole;
+    }
+}
@@ -0,0 +1,64 @@
+package org.parkerharrelson.riscv.timing;
+
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+
+import java.util.Arrays;
+
+/**
+ * Dynamic direction predictor with a table of 2-bit saturating counters indexed by
+ * the branch address. A branch has to go the other way twice in a row before its
+ * prediction flips, so a loop branch is only mispredicted once per loop exit.
+ * Counters start out weakly not taken.
+ */
+public class TwoBitPredictor implements BranchPredictor {
+
+    private final byte[] counters;
+    private final int mask;
+
+    /**
+     * Constructor for TwoBitPredictor.
+     *
+     * @param entries The number of counters, a power of two.
+     */
+    public TwoBitPredictor(int entries) {
+        if (entries < 1 || Integer.bitCount(entries) != 1) {
+            throw new IllegalArgumentException("Predictor size must be a power of two");
+        }
+        this.counters = new byte[entries];
+        this.mask = entries - 1;
+        Arrays.fill(counters, (byte) 1);
+    }
+
+    @Override
+    public int predictFetch(int pc, int fallThrough) {
+        return fallThrough;
+    }
+
+    @Override
+    public boolean predictTaken(int pc, DecodedInstruction branch) {
+        return isTaken(pc);
+    }
+
+    @Override
+    public void update(int pc, DecodedInstruction instruction, boolean taken, int target) {
+        if (instruction.getOpcode() != 0x63) {
+            return;
+        }
+        int index = (pc >>> 1) & mask;
+        if (taken && counters[index] < 3) {
+            counters[index]++;
+        } else if (!taken && counters[index] > 0) {
+            counters[index]--;
+        }
+    }
+
+    /**
+     * Reads the counter for a branch address.
+     *
+     * @param pc The address of the branch.
+     * @return True if the counter predicts taken.
+     */
+    protected boolean isTaken(int pc) {
+        return counters[(pc >>> 1) & mask] >= 2;
+    }
+}
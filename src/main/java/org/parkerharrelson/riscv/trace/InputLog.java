@@ -0,0 +1,195 @@
+package org.parkerharrelson.riscv.trace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Log of every nondeterministic input a hart receives, for deterministic record and replay.
+ *
+ * <p>
+ * A recording log is written while the guest runs against the real host. Every
+ * system call whose outcome depends on the host is appended as one event: the number
+ * of instructions the hart had retired before the call, the system call number, the
+ * value returned in a0 and the bytes the call stored into guest memory. A replaying
+ * log hands the same events back in the same order, so the guest sees exactly the
+ * inputs of the recorded run without waiting on a terminal or touching host files.
+ * Replay checks that every call happens at the recorded instruction with the
+ * recorded number and fails as soon as the run diverges.
+ * </p>
+ *
+ * <p>
+ * The file starts with the magic {@code RVINPUT1}. Every event is a sequence of
+ * unsigned LEB128 varints: the instruction count as a delta from the previous event,
+ * the zigzag-encoded event number (system call numbers, leaving negative numbers for
+ * inputs that are not system calls), the zigzag-encoded result and the length of the
+ * stored bytes, followed by the guest address and the bytes themselves if the length
+ * is not 0.
+ * </p>
+ */
+public class InputLog implements AutoCloseable {
+
+    private static final byte[] MAGIC = "RVINPUT1".getBytes(StandardCharsets.US_ASCII);
+
+    private final DataOutputStream output;
+    private final DataInputStream input;
+    private long lastInstruction = 0;
+    private long eventCount = 0;
+
+    private InputLog(DataOutputStream output, DataInputStream input) {
+        this.output = output;
+        this.input = input;
+    }
+
+    /**
+     * Creates a log file to record into, replacing any existing file.
+     *
+     * @param path The log file.
+     * @return The recording log.
+     * @throws IOException Exception thrown if the file cannot be created.
+     */
+    public static InputLog record(Path path) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+        output.write(MAGIC);
+        return new InputLog(output, null);
+    }
+
+    /**
+     * Opens a recorded log file for replay.
+     *
+     * @param path The log file.
+     * @return The replaying log.
+     * @throws IOException Exception thrown if the file cannot be read or is not an input log.
+     */
+    public static InputLog replay(Path path) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+        byte[] magic = new byte[MAGIC.length];
+        try {
+            input.readFully(magic);
+        } catch (EOFException e) {
+            magic = null;
+        }
+        if (!Arrays.equals(magic, MAGIC)) {
+            input.close();
+            throw new IOException("Invalid input log: " + path);
+        }
+        return new InputLog(null, input);
+    }
+
+    public boolean isReplaying() {
+        return input != null;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Appends an event to a recording log.
+     *
+     * @param instruction The number of instructions retired before the input was received.
+     * @param number The event number.
+     * @param result The value returned to the guest.
+     * @param address The guest address of the stored bytes.
+     * @param data The bytes stored into guest memory, possibly empty.
+     * @throws IOException Exception thrown if the log cannot be written.
+     */
+    public void record(long instruction, int number, int result, int address, byte[] data) throws IOException {
+        writeVarLong(instruction - lastInstruction);
+        writeVarLong(zigzag(number));
+        writeVarLong(zigzag(result));
+        writeVarLong(data.length);
+        if (data.length > 0) {
+            writeVarLong(Integer.toUnsignedLong(address));
+            output.write(data);
+        }
+        lastInstruction = instruction;
+        eventCount++;
+    }
+
+    /**
+     * Reads the next event from a replaying log and checks that the guest asked for it at the same point.
+     *
+     * @param instruction The number of instructions the hart has retired.
+     * @param number The event number the guest asked for.
+     * @param event The event to fill in.
+     * @throws IOException Exception thrown if the log cannot be read.
+     * @throws IllegalStateException Exception thrown if the run has diverged from the recording.
+     */
+    public void replay(long instruction, int number, Event event) throws IOException {
+        long recordedInstruction;
+        try {
+            recordedInstruction = lastInstruction + readVarLong();
+        } catch (EOFException e) {
+            throw new IllegalStateException("Replay diverged at instruction " + instruction
+                    + ": event " + number + " is not in the log");
+        }
+        event.number = (int) unzigzag(readVarLong());
+        event.result = (int) unzigzag(readVarLong());
+        int length = (int) readVarLong();
+        event.address = length > 0 ? (int) readVarLong() : 0;
+        event.data = new byte[length];
+        input.readFully(event.data);
+        lastInstruction = recordedInstruction;
+        eventCount++;
+
+        if (recordedInstruction != instruction || event.number != number) {
+            throw new IllegalStateException("Replay diverged at instruction " + instruction + ": event " + number
+                    + " was recorded as event " + event.number + " at instruction " + recordedInstruction);
+        }
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt input log");
+    }
+
+    private static long zigzag(int value) {
+        return Integer.toUnsignedLong((value << 1) ^ (value >> 31));
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (output != null) {
+            output.close();
+        } else {
+            input.close();
+        }
+    }
+
+    /**
+     * One replayed input.
+     */
+    public static class Event {
+        public int number;
+        public int result;
+        public int address;
+        public byte[] data;
+    }
+}
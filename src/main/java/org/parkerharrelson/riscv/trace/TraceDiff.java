@@ -0,0 +1,99 @@
+package org.parkerharrelson.riscv.trace;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+
+/**
+ * Command line tool that compares two execution traces record by record and reports
+ * the first instruction at which they diverge, together with the instructions leading
+ * up to it. Typical uses are comparing the execution modes against each other or a
+ * run against a trace recorded before a change.
+ *
+ * <pre>
+ * java -cp bin org.parkerharrelson.riscv.trace.TraceDiff [--context=N] &lt;expected&gt; &lt;actual&gt;
+ * </pre>
+ *
+ * <p>
+ * The exit status is 0 if the traces are identical, 1 if they differ and 2 if they cannot be read.
+ * </p>
+ */
+public class TraceDiff {
+
+    private static final int DEFAULT_CONTEXT = 8;
+
+    public static void main(String[] args) {
+        int context = DEFAULT_CONTEXT;
+        String expected = null;
+        String actual = null;
+        for (String arg : args) {
+            if (arg.startsWith("--context=")) {
+                try {
+                    context = Integer.parseInt(arg.substring("--context=".length()));
+                } catch (NumberFormatException e) {
+                    context = -1;
+                }
+                if (context < 0) {
+                    System.err.println("Error: Context Must Be A Non-Negative Number");
+                    System.exit(2);
+                }
+            } else if (expected == null) {
+                expected = arg;
+            } else {
+                actual = arg;
+            }
+        }
+        if (actual == null) {
+            System.err.println("Usage: TraceDiff [--context=N] <expected> <actual>");
+            System.exit(2);
+        }
+
+        try (TraceReader left = new TraceReader(Path.of(expected)); TraceReader right = new TraceReader(Path.of(actual))) {
+            System.exit(compare(left, right, context, System.out) < 0 ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println("Error reading trace: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Compares two traces from their current positions and prints the first divergence.
+     *
+     * @param expected The reference trace.
+     * @param actual The trace being checked.
+     * @param context The number of matching records to print before the divergence.
+     * @param out The stream to print to.
+     * @return The index of the first differing record, or -1 if the traces are identical.
+     * @throws IOException Exception thrown if a trace cannot be read.
+     */
+    public static long compare(TraceReader expected, TraceReader actual, int context, PrintStream out) throws IOException {
+        TraceRecord[] history = new TraceRecord[Math.max(context, 1)];
+        for (int i = 0; i < history.length; i++) {
+            history[i] = new TraceRecord();
+        }
+        TraceRecord left = new TraceRecord();
+        TraceRecord right = new TraceRecord();
+        long index = 0;
+
+        while (true) {
+            boolean hasLeft = expected.next(left);
+            boolean hasRight = actual.next(right);
+            if (!hasLeft && !hasRight) {
+                out.println("Traces are identical (" + index + " records)");
+                return -1;
+            }
+            if (hasLeft != hasRight || !left.matches(right)) {
+                out.println("Traces diverge at record " + index + ":");
+                long first = Math.max(0, index - context);
+                for (long i = first; i < index; i++) {
+                    out.println("  " + history[(int) (i % history.length)]);
+                }
+                out.println("- " + (hasLeft ? left : "(end of trace)"));
+                out.println("+ " + (hasRight ? right : "(end of trace)"));
+                return index;
+            }
+            history[(int) (index % history.length)].copyFrom(left);
+            index++;
+        }
+    }
+}
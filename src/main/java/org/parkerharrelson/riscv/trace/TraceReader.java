@@ -0,0 +1,96 @@
+package org.parkerharrelson.riscv.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.TRACE_HEADER_SIZE;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.TRACE_RECORD_SIZE;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.TRACE_WINDOW_RECORDS;
+
+/**
+ * Reads the records of a trace file written by {@link TraceRecorder} in order,
+ * through read-only mappings of one window of the file at a time.
+ */
+public class TraceReader implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final long recordCount;
+    private long position = 0;
+    private ByteBuffer window;
+
+    /**
+     * Opens a trace file and checks its header.
+     *
+     * @param path The trace file.
+     * @throws IOException Exception thrown if the file cannot be read or is not a trace file.
+     */
+    public TraceReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(TRACE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            if (header.remaining() < TRACE_HEADER_SIZE) {
+                throw new IOException("Invalid trace file: " + path);
+            }
+            byte[] magic = new byte[TraceRecorder.MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, TraceRecorder.MAGIC)) {
+                throw new IOException("Invalid trace file: " + path);
+            }
+            if (header.getInt() != TRACE_RECORD_SIZE) {
+                throw new IOException("Unsupported trace record size in " + path);
+            }
+            recordCount = (channel.size() - TRACE_HEADER_SIZE) / TRACE_RECORD_SIZE;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * The index of the record the next call to {@link #next(TraceRecord)} reads.
+     *
+     * @return The record index.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @param record The record to fill in.
+     * @return False if there are no more records, in which case the record is left untouched.
+     * @throws IOException Exception thrown if the file cannot be mapped.
+     */
+    public boolean next(TraceRecord record) throws IOException {
+        if (position >= recordCount) {
+            return false;
+        }
+        if (window == null || !window.hasRemaining()) {
+            long records = Math.min(TRACE_WINDOW_RECORDS, recordCount - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, TRACE_HEADER_SIZE + position * TRACE_RECORD_SIZE,
+                    records * TRACE_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        record.readFrom(window);
+        position++;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
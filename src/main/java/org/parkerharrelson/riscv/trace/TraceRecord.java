@@ -0,0 +1,105 @@
+package org.parkerharrelson.riscv.trace;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One retired instruction in an execution trace.
+ *
+ * <p>
+ * On disk every record takes {@link org.parkerharrelson.riscv.util.EmulatorConstants#TRACE_RECORD_SIZE}
+ * bytes, little-endian: the pc, the raw instruction, the value written to the
+ * destination register, the memory address and the memory value, followed by the
+ * destination register index, a flags byte and two reserved bytes. Fields an
+ * instruction does not use are 0. An ECALL is recorded as writing a0, since that is
+ * where system calls return their results. For stores the memory value is the full
+ * source register, and for AMOs it is the value read from memory.
+ * </p>
+ *
+ * <p>
+ * Records are mutable so that a reader can scan billions of them without allocating.
+ * </p>
+ */
+public class TraceRecord {
+
+    public static final int WRITES_REGISTER = 0x1;
+    public static final int LOADS = 0x2;
+    public static final int STORES = 0x4;
+
+    public int pc;
+    public int inst;
+    public int rdValue;
+    public int address;
+    public int memoryValue;
+    public int rd;
+    public int flags;
+
+    /**
+     * Parses a record in place from a little-endian buffer, advancing its position.
+     *
+     * @param buffer The buffer positioned at the record.
+     * @return This record.
+     */
+    public TraceRecord readFrom(ByteBuffer buffer) {
+        pc = buffer.getInt();
+        inst = buffer.getInt();
+        rdValue = buffer.getInt();
+        address = buffer.getInt();
+        memoryValue = buffer.getInt();
+        rd = buffer.get() & 0xFF;
+        flags = buffer.get() & 0xFF;
+        buffer.getShort();
+        return this;
+    }
+
+    /**
+     * Copies every field of another record into this one.
+     *
+     * @param other The record to copy.
+     */
+    public void copyFrom(TraceRecord other) {
+        pc = other.pc;
+        inst = other.inst;
+        rdValue = other.rdValue;
+        address = other.address;
+        memoryValue = other.memoryValue;
+        rd = other.rd;
+        flags = other.flags;
+    }
+
+    public boolean writesRegister() {
+        return (flags & WRITES_REGISTER) != 0;
+    }
+
+    public boolean loads() {
+        return (flags & LOADS) != 0;
+    }
+
+    public boolean stores() {
+        return (flags & STORES) != 0;
+    }
+
+    /**
+     * Checks whether two records describe the same instruction with the same effects.
+     *
+     * @param other The record to compare with.
+     * @return True if every field is equal.
+     */
+    public boolean matches(TraceRecord other) {
+        return pc == other.pc && inst == other.inst && rdValue == other.rdValue && address == other.address
+                && memoryValue == other.memoryValue && rd == other.rd && flags == other.flags;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder(String.format("0x%08x: %08x", pc, inst));
+        if (writesRegister()) {
+            line.append(String.format("  x%d=0x%08x", rd, rdValue));
+        }
+        if (loads()) {
+            line.append(String.format("  [0x%08x] -> 0x%08x", address, memoryValue));
+        } else if (stores()) {
+            line.append(String.format("  [0x%08x] <- 0x%08x", address, memoryValue));
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,237 @@
+package org.parkerharrelson.riscv.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.parkerharrelson.riscv.util.EmulatorConstants.TRACE_BUFFER_RECORDS;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.TRACE_HEADER_SIZE;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.TRACE_RECORD_SIZE;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.TRACE_WINDOW_RECORDS;
+
+/**
+ * Records every instruction retired by one hart into a binary trace file.
+ *
+ * <p>
+ * The hart only copies a few fields into a single-producer, single-consumer ring
+ * buffer of ints and publishes the new tail with a release store. A background
+ * writer thread drains the ring into a memory-mapped window of the trace file,
+ * mapping the next window as each one fills up. The file starts with a
+ * {@link org.parkerharrelson.riscv.util.EmulatorConstants#TRACE_HEADER_SIZE} byte
+ * header holding the magic {@code RVTRACE1} and the record size, followed by the
+ * records described in {@link TraceRecord}. When the ring is full the hart waits for
+ * the writer instead of dropping records, so a trace is always complete.
+ * </p>
+ */
+public class TraceRecorder implements AutoCloseable {
+
+    static final byte[] MAGIC = "RVTRACE1".getBytes(StandardCharsets.US_ASCII);
+    private static final int INTS_PER_RECORD = 6;
+    private static final long WRITER_PARK_NANOS = 100_000;
+
+    private final FileChannel channel;
+    private final int[] ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();  // Next record the writer reads
+    private final AtomicLong tail = new AtomicLong();  // Next record the hart writes
+    private long producerTail = 0;                     // The hart's own copy of the tail
+    private long cachedHead = 0;                       // The last head the hart has seen
+    private final Thread writer;
+    private volatile boolean closed = false;
+    private volatile IOException failure;
+
+    /**
+     * Creates the trace file, replacing any existing file, and starts the writer thread.
+     *
+     * @param path The trace file.
+     * @throws IOException Exception thrown if the file cannot be created.
+     */
+    public TraceRecorder(Path path) throws IOException {
+        this(path, TRACE_BUFFER_RECORDS);
+    }
+
+    /**
+     * Constructor for TraceRecorder.
+     *
+     * @param path The trace file.
+     * @param bufferRecords The number of records the ring holds, a power of two.
+     * @throws IOException Exception thrown if the file cannot be created.
+     */
+    public TraceRecorder(Path path, int bufferRecords) throws IOException {
+        if (Integer.bitCount(bufferRecords) != 1) {
+            throw new IllegalArgumentException("Trace buffer size must be a power of two");
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(TRACE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(TRACE_RECORD_SIZE).putInt(0).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+
+        ring = new int[bufferRecords * INTS_PER_RECORD];
+        mask = bufferRecords - 1;
+        writer = new Thread(this::drain, "trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records a retired instruction. Its destination register and whether it accesses
+     * memory are taken from the opcode, and the destination register's new value from
+     * the register file. Only the thread running the hart may call this.
+     *
+     * @param pc The address of the instruction.
+     * @param inst The raw instruction.
+     * @param registers The register file after the instruction retired.
+     * @param address The memory address accessed, or anything for instructions without a memory access.
+     * @param memoryValue The value loaded or stored, or anything for instructions without a memory access.
+     */
+    public void record(int pc, int inst, int[] registers, int address, int memoryValue) {
+        int rd = (inst >> 7) & 0x1F;
+        int flags;
+        switch (inst & 0x7F) {
+            case 0x03: // LOAD
+                flags = TraceRecord.LOADS | TraceRecord.WRITES_REGISTER;
+                break;
+            case 0x23: // STORE
+                flags = TraceRecord.STORES;
+                break;
+            case 0x2F: // AMO
+                flags = TraceRecord.LOADS | TraceRecord.STORES | TraceRecord.WRITES_REGISTER;
+                break;
+            case 0x33, 0x13, 0x37, 0x17, 0x6F, 0x67:
+                flags = TraceRecord.WRITES_REGISTER;
+                break;
+            case 0x73: // SYSTEM, of which the Zicsr instructions write rd and ECALL writes a0
+                if ((inst >> 12 & 0x7) != 0) {
+                    flags = TraceRecord.WRITES_REGISTER;
+                } else {
+                    flags = inst == 0x73 ? TraceRecord.WRITES_REGISTER : 0;
+                    rd = 10;
+                }
+                break;
+            default:
+                flags = 0;
+                break;
+        }
+        if (rd == 0) {
+            flags &= ~TraceRecord.WRITES_REGISTER;
+        }
+        if ((flags & TraceRecord.WRITES_REGISTER) == 0) {
+            rd = 0;
+        }
+        if ((flags & (TraceRecord.LOADS | TraceRecord.STORES)) == 0) {
+            address = 0;
+            memoryValue = 0;
+        }
+
+        long position = producerTail;
+        if (position - cachedHead > mask) {
+            waitForSpace(position);
+        }
+        int i = (int) (position & mask) * INTS_PER_RECORD;
+        ring[i] = pc;
+        ring[i + 1] = inst;
+        ring[i + 2] = registers[rd];
+        ring[i + 3] = address;
+        ring[i + 4] = memoryValue;
+        ring[i + 5] = rd | flags << 8;
+        producerTail = position + 1;
+        tail.lazySet(producerTail);
+    }
+
+    private void waitForSpace(long position) {
+        LockSupport.unpark(writer);
+        while (position - (cachedHead = head.get()) > mask) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * The number of records written so far.
+     *
+     * @return The record count.
+     */
+    public long getRecordCount() {
+        return tail.get();
+    }
+
+    /**
+     * Runs on the writer thread, copying records from the ring into the mapped file
+     * until the recorder is closed and the ring is empty. After a write error the
+     * records are still consumed, so the hart never waits forever, but are discarded.
+     */
+    private void drain() {
+        long consumed = 0;
+        MappedByteBuffer window = null;
+        while (true) {
+            long available = tail.get();
+            if (available == consumed) {
+                if (closed && tail.get() == consumed) {
+                    break;
+                }
+                LockSupport.parkNanos(WRITER_PARK_NANOS);
+                continue;
+            }
+            for (; consumed < available; consumed++) {
+                if (failure != null) {
+                    continue;
+                }
+                try {
+                    if (window == null || !window.hasRemaining()) {
+                        window = channel.map(FileChannel.MapMode.READ_WRITE,
+                                TRACE_HEADER_SIZE + consumed * TRACE_RECORD_SIZE, (long) TRACE_WINDOW_RECORDS * TRACE_RECORD_SIZE);
+                        window.order(ByteOrder.LITTLE_ENDIAN);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                    continue;
+                }
+                int i = (int) (consumed & mask) * INTS_PER_RECORD;
+                window.putInt(ring[i]);
+                window.putInt(ring[i + 1]);
+                window.putInt(ring[i + 2]);
+                window.putInt(ring[i + 3]);
+                window.putInt(ring[i + 4]);
+                window.putInt(ring[i + 5]);
+            }
+            head.lazySet(consumed);
+        }
+    }
+
+    /**
+     * Waits for the writer to drain every record and trims the file to the records written.
+     *
+     * @throws IOException Exception thrown if writing the trace failed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing trace", e);
+        }
+        try {
+            channel.truncate(TRACE_HEADER_SIZE + tail.get() * TRACE_RECORD_SIZE);
+        } finally {
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -6,6 +6,9 @@ public enum AluOp {
     Add,         // Signed addition
     Sub,         // Signed subtraction
     Mul,         // Signed multiplication
+    MulH,        // Upper 32 bits of signed x signed multiplication
+    MulHSU,      // Upper 32 bits of signed x unsigned multiplication
+    MulHU,       // Upper 32 bits of unsigned x unsigned multiplication
     Div,         // Signed division
     DivU,        // Unsigned division
     Rem,         // Signed remainder (modulo)
@@ -0,0 +1,155 @@
+package org.parkerharrelson.riscv.util;
+
+/**
+ * Immutable, pre-decoded form of a single instruction word.
+ *
+ * <p>
+ * Everything that depends only on the instruction bits (register indices,
+ * the sign-extended immediate, the ALU operation and the memory operation)
+ * is extracted once and stored here, so the pipeline can reuse it every time
+ * the same program counter is executed instead of re-parsing the word.
+ * </p>
+ *
+ * <p>
+ * An instruction that begins a common two-instruction idiom can additionally carry
+ * the decoded form of the instruction after it and a fused opcode naming the idiom,
+ * so that an interpreter can run the pair as one operation. Its other fields still
+ * describe the first instruction alone, so code that does not know about fusion
+ * executes it as a single instruction.
+ * </p>
+ *
+ * <p>
+ * A compressed (RVC) instruction is expanded into the 32-bit instruction it stands for
+ * when it is decoded, so everything after the decoder sees an ordinary instruction
+ * word. Only its length, used to find the next instruction and the return address of
+ * a jump, tells it apart.
+ * </p>
+ */
+public final class DecodedInstruction {
+
+    private final int inst;     // The four-byte instruction, expanded if the original was compressed
+    private final int length;   // The length of the original instruction in bytes, 2 or 4
+    private final int opcode;   // The major opcode (bits 6:0)
+    private final int funct3;   // The minor opcode (bits 14:12)
+    private final int rd;       // The destination register index (0 - 31)
+    private final int rs1;      // The first source register index (0 - 31)
+    private final int rs2;      // The second source register index (0 - 31)
+    private final int imm;      // The sign-extended immediate or displacement
+    private final AluOp aluop;  // ALU operation
+    private final int memop;    // 0 = No mem op, 1 = Load mem op, 2 = Store mem op
+    private final int fusedOpcode;          // One of the FUSED_ constants, or the opcode if not fused
+    private final DecodedInstruction next;  // The second instruction of a fused pair, or null
+
+    // Fused opcodes, outside the range of major opcodes
+    public static final int FUSED_LOAD_IMMEDIATE = 0x80;    // LUI rd + ADDI rd, rd
+    public static final int FUSED_FAR_JUMP = 0x81;          // AUIPC rd + JALR rd2, rd
+    public static final int FUSED_PC_RELATIVE_LOAD = 0x82;  // AUIPC rd + LOAD rd2, rd
+    public static final int FUSED_COMPARE_BRANCH = 0x83;    // SLT[I][U] rd + BEQ/BNE rd, zero
+
+    public DecodedInstruction(int inst, int rd, int rs1, int rs2, int imm, AluOp aluop, int memop) {
+        this(inst, 4, rd, rs1, rs2, imm, aluop, memop, inst & 0x7F, null);
+    }
+
+    private DecodedInstruction(int inst, int length, int rd, int rs1, int rs2, int imm, AluOp aluop, int memop,
+                               int fusedOpcode, DecodedInstruction next) {
+        this.inst = inst;
+        this.length = length;
+        this.opcode = inst & 0x7F;
+        this.funct3 = (inst >> 12) & 0x7;
+        this.rd = rd;
+        this.rs1 = rs1;
+        this.rs2 = rs2;
+        this.imm = imm;
+        this.aluop = aluop;
+        this.memop = memop;
+        this.fusedOpcode = fusedOpcode;
+        this.next = next;
+    }
+
+    /**
+     * Creates a copy of this instruction fused with the instruction that follows it.
+     *
+     * @param fusedOpcode The FUSED_ constant naming the idiom.
+     * @param next The decoded instruction at the following address.
+     * @return The fused instruction.
+     */
+    public DecodedInstruction fuse(int fusedOpcode, DecodedInstruction next) {
+        return new DecodedInstruction(inst, length, rd, rs1, rs2, imm, aluop, memop, fusedOpcode, next);
+    }
+
+    /**
+     * Creates a copy of this instruction without the instruction fused to it, if any.
+     *
+     * @return The first instruction on its own.
+     */
+    public DecodedInstruction unfused() {
+        return next == null ? this : new DecodedInstruction(inst, length, rd, rs1, rs2, imm, aluop, memop, opcode, null);
+    }
+
+    /**
+     * Creates a copy of this instruction marked as the expansion of a two-byte compressed instruction.
+     *
+     * @return The compressed instruction.
+     */
+    public DecodedInstruction compressed() {
+        return new DecodedInstruction(inst, 2, rd, rs1, rs2, imm, aluop, memop, fusedOpcode, next);
+    }
+
+    public int getInst() {
+        return inst;
+    }
+
+    /**
+     * The number of bytes the instruction occupies in memory.
+     *
+     * @return 2 for a compressed instruction, otherwise 4.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public int getOpcode() {
+        return opcode;
+    }
+
+    public int getFunct3() {
+        return funct3;
+    }
+
+    public int getRd() {
+        return rd;
+    }
+
+    public int getRs1() {
+        return rs1;
+    }
+
+    public int getRs2() {
+        return rs2;
+    }
+
+    public int getImm() {
+        return imm;
+    }
+
+    public AluOp getAluop() {
+        return aluop;
+    }
+
+    public int getMemop() {
+        return memop;
+    }
+
+    /**
+     * The opcode an interpreter that supports fusion dispatches on.
+     *
+     * @return One of the FUSED_ constants for a fused pair, otherwise the major opcode.
+     */
+    public int getFusedOpcode() {
+        return fusedOpcode;
+    }
+
+    public DecodedInstruction getNext() {
+        return next;
+    }
+}
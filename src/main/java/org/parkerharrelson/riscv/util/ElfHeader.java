@@ -28,7 +28,18 @@ public class ElfHeader {
     public int e_shstrndx;
 
     public static ElfHeader fromBytes(byte[] data) {
-        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        return fromBuffer(ByteBuffer.wrap(data), 0);
+    }
+
+    /**
+     * Parses the header in place from a buffer, such as a mapping of the whole file.
+     *
+     * @param image The buffer holding the header.
+     * @param offset The offset of the header in the buffer.
+     * @return The parsed header.
+     */
+    public static ElfHeader fromBuffer(ByteBuffer image, int offset) {
+        ByteBuffer buffer = image.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(offset);
         ElfHeader header = new ElfHeader();
         header.e_ident0 = buffer.get();
         header.e_ident1 = buffer.get();
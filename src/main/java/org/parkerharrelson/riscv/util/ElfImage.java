@@ -0,0 +1,65 @@
+package org.parkerharrelson.riscv.util;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A parsed and validated ELF file, ready to be loaded into any number of machines.
+ *
+ * <p>
+ * The image holds the read-only mapping of the file together with its entry point,
+ * loadable segments and function symbols. It is never modified after it is created, so one image can
+ * be shared by machines running on different threads.
+ * </p>
+ */
+public class ElfImage {
+
+    private final ByteBuffer contents;
+    private final int entry;
+    private final List<ProgramHeader> segments;
+    private final SymbolTable symbols;
+
+    /**
+     * Constructor for ElfImage.
+     *
+     * @param contents The read-only contents of the whole file.
+     * @param entry The entry point address.
+     * @param segments The PT_LOAD program headers, already checked against the file bounds.
+     * @param symbols The function symbols from the file's symbol table.
+     */
+    public ElfImage(ByteBuffer contents, int entry, List<ProgramHeader> segments, SymbolTable symbols) {
+        this.contents = contents;
+        this.entry = entry;
+        this.segments = List.copyOf(segments);
+        this.symbols = symbols;
+    }
+
+    public ByteBuffer getContents() {
+        return contents;
+    }
+
+    public int getEntry() {
+        return entry;
+    }
+
+    public List<ProgramHeader> getSegments() {
+        return segments;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * The first page-aligned address above every loadable segment, where the program break starts.
+     *
+     * @return The end address of the loaded program.
+     */
+    public int getEnd() {
+        long end = 0;
+        for (ProgramHeader segment : segments) {
+            end = Math.max(end, Integer.toUnsignedLong(segment.p_vaddr) + Integer.toUnsignedLong(segment.p_memsz));
+        }
+        return (int) Math.min((end + 0xFFF) & ~0xFFFL, 0xFFFFF000L);
+    }
+}
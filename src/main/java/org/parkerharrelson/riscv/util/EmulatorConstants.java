@@ -2,13 +2,54 @@ package org.parkerharrelson.riscv.util;
 
 public class EmulatorConstants {
 
-    // Machine Constants
+    // Machine Constants (RAM_SIZE is the default for the flat heap and direct backends)
     public static final int RAM_SIZE = 1_048_576;
+    public static final int CODE_PAGE_SHIFT = 12;
+    public static final int HART_STACK_SIZE = 0x10000;
+    public static final int CONSOLE_BUFFER_SIZE = 64 * 1024;
+    public static final int MAX_OPEN_FILES = 64;
+
+    // JIT Constants
+    public static final int JIT_HOT_THRESHOLD = 50;
+    public static final int JIT_BLOCK_CAPACITY = 4096;
+    public static final int JIT_MAX_BACKOFF = 16;     // The hot threshold doubles each time a block's code page is written, up to this many times
+
+    // Scheduler Constants
+    public static final int SCHEDULER_QUANTUM = 100_000;
+
+    // Device Constants (every device sits inside the window at DEVICE_BASE)
+    public static final int DEVICE_BASE = 0x02000000;
+    public static final int DEVICE_SIZE = 0x20000;
+    public static final int CLINT_BASE = 0x02000000;
+    public static final int CLINT_SIZE = 0x10000;
+    public static final int UART_BASE = 0x02010000;
+    public static final int UART_SIZE = 0x8;
+    public static final int MIP_MSIP = 1 << 3;
+    public static final int MIP_MTIP = 1 << 7;
+    public static final int MTIME_TICK_NANOS = 100;     // 10 MHz, the rate mtime advances at while a hart waits in WFI
+
+    // Profiler Constants
+    public static final int PROFILER_SAMPLE_INTERVAL = 10_000;
+    public static final int PROFILER_MAX_DEPTH = 256;
+
+    // Trace Constants
+    public static final int TRACE_HEADER_SIZE = 16;
+    public static final int TRACE_RECORD_SIZE = 24;
+    public static final int TRACE_BUFFER_RECORDS = 1 << 20;
+    public static final int TRACE_WINDOW_RECORDS = 1 << 21;
+
+    // Timing Model Constants
+    public static final int TIMING_PREDICTOR_ENTRIES = 1024;
+    public static final int TIMING_BTB_ENTRIES = 256;
 
     // Reader Constants
     public static final int ELF_HEADER_SIZE = 52;
     public static final int PROGRAM_HEADER_SIZE = 32;
     public static final int PT_LOAD = 1;
+    public static final int SECTION_HEADER_SIZE = 40;
+    public static final int SYMBOL_SIZE = 16;
+    public static final int SHT_SYMTAB = 2;
+    public static final int STT_FUNC = 2;
 
     EmulatorConstants() {
 
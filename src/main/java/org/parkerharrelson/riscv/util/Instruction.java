@@ -7,7 +7,9 @@ public class Instruction {
         this.aluop = AluOp.Nop;
     }
 
-    private int inst;   // The four-byte instruction
+    private int inst;   // The four-byte instruction, expanded once decoded if it was compressed
+    private int pc;     // The address the instruction was fetched from
+    private DecodedInstruction decoded; // The cached decoded form, or null if it has not been decoded yet
     private int left;   // The left operand
     private int right;  // The right operand
     private int disp;   // The displacement for BRANCH instructions or the value to store for STORE instructions.
@@ -17,10 +19,47 @@ public class Instruction {
     private AluOp aluop; // ALU operation
     private int result;  // Result of the ALU operation
 
+    /**
+     * Clears all per-execution state so the same object can carry the next instruction
+     * through the pipeline without allocating a new one.
+     *
+     * @param pc The address the instruction was fetched from.
+     * @param instruction The instruction as fetched, or its expanded form if it is already decoded.
+     * @param decoded The cached decoded form, or null if it still needs decoding.
+     */
+    public void reset(int pc, int instruction, DecodedInstruction decoded) {
+        this.inst = instruction;
+        this.pc = pc;
+        this.decoded = decoded;
+        this.left = 0;
+        this.right = 0;
+        this.disp = 0;
+        this.rd = 0;
+        this.memop = 0;
+        this.aluop = AluOp.Nop;
+        this.result = 0;
+    }
+
     public int getInst() {
         return inst;
     }
 
+    public void setInst(int inst) {
+        this.inst = inst;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public DecodedInstruction getDecoded() {
+        return decoded;
+    }
+
+    public void setDecoded(DecodedInstruction decoded) {
+        this.decoded = decoded;
+    }
+
     public int getLeft() {
         return left;
     }
@@ -0,0 +1,87 @@
+package org.parkerharrelson.riscv.util;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Two-level table mapping 20-bit page indices (a 32-bit address shifted right by 12) to per-page data.
+ *
+ * <p>
+ * The directory has 1024 slots, each pointing to a 1024-entry table that is only
+ * allocated once a page in its 4 MiB range is stored. This keeps per-page caches
+ * cheap for guests that use a handful of pages scattered across the whole 32-bit
+ * address space.
+ * </p>
+ *
+ * @param <T> The type of the per-page data.
+ */
+public class PageTable<T> {
+
+    private static final int LEVEL_SHIFT = 10;
+    private static final int LEVEL_SIZE = 1 << LEVEL_SHIFT;
+    private static final int LEVEL_MASK = LEVEL_SIZE - 1;
+
+    private final Object[][] directory = new Object[LEVEL_SIZE][];
+
+    /**
+     * Looks up the data for a page.
+     *
+     * @param pageIndex The page index.
+     * @return The data for the page, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int pageIndex) {
+        Object[] table = directory[pageIndex >>> LEVEL_SHIFT];
+        return table == null ? null : (T) table[pageIndex & LEVEL_MASK];
+    }
+
+    /**
+     * Stores the data for a page.
+     *
+     * @param pageIndex The page index.
+     * @param page The data for the page, or null to remove it.
+     */
+    public void put(int pageIndex, T page) {
+        Object[] table = directory[pageIndex >>> LEVEL_SHIFT];
+        if (table == null) {
+            if (page == null) {
+                return;
+            }
+            table = new Object[LEVEL_SIZE];
+            directory[pageIndex >>> LEVEL_SHIFT] = table;
+        }
+        table[pageIndex & LEVEL_MASK] = page;
+    }
+
+    /**
+     * Creates a copy of this table holding the same page data.
+     *
+     * @return The copy.
+     */
+    public PageTable<T> copy() {
+        PageTable<T> copy = new PageTable<>();
+        for (int high = 0; high < LEVEL_SIZE; high++) {
+            if (directory[high] != null) {
+                copy.directory[high] = directory[high].clone();
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Calls the given action with the index of every page that currently has data.
+     *
+     * @param action The action to call.
+     */
+    public void forEachPage(IntConsumer action) {
+        for (int high = 0; high < LEVEL_SIZE; high++) {
+            Object[] table = directory[high];
+            if (table != null) {
+                for (int low = 0; low < LEVEL_SIZE; low++) {
+                    if (table[low] != null) {
+                        action.accept((high << LEVEL_SHIFT) | low);
+                    }
+                }
+            }
+        }
+    }
+}
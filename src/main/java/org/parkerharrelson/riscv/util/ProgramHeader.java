@@ -14,7 +14,18 @@ public class ProgramHeader {
     public int p_align;
 
     public static ProgramHeader fromBytes(byte[] data) {
-        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        return fromBuffer(ByteBuffer.wrap(data), 0);
+    }
+
+    /**
+     * Parses the header in place from a buffer, such as a mapping of the whole file.
+     *
+     * @param image The buffer holding the header.
+     * @param offset The offset of the header in the buffer.
+     * @return The parsed header.
+     */
+    public static ProgramHeader fromBuffer(ByteBuffer image, int offset) {
+        ByteBuffer buffer = image.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(offset);
         ProgramHeader header = new ProgramHeader();
         header.p_type = buffer.getInt();
         header.p_offset = buffer.getInt();
@@ -0,0 +1,40 @@
+package org.parkerharrelson.riscv.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class SectionHeader {
+    public int sh_name;
+    public int sh_type;
+    public int sh_flags;
+    public int sh_addr;
+    public int sh_offset;
+    public int sh_size;
+    public int sh_link;
+    public int sh_info;
+    public int sh_addralign;
+    public int sh_entsize;
+
+    /**
+     * Parses the header in place from a buffer, such as a mapping of the whole file.
+     *
+     * @param image The buffer holding the header.
+     * @param offset The offset of the header in the buffer.
+     * @return The parsed header.
+     */
+    public static SectionHeader fromBuffer(ByteBuffer image, int offset) {
+        ByteBuffer buffer = image.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(offset);
+        SectionHeader header = new SectionHeader();
+        header.sh_name = buffer.getInt();
+        header.sh_type = buffer.getInt();
+        header.sh_flags = buffer.getInt();
+        header.sh_addr = buffer.getInt();
+        header.sh_offset = buffer.getInt();
+        header.sh_size = buffer.getInt();
+        header.sh_link = buffer.getInt();
+        header.sh_info = buffer.getInt();
+        header.sh_addralign = buffer.getInt();
+        header.sh_entsize = buffer.getInt();
+        return header;
+    }
+}
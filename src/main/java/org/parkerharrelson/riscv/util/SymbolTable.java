@@ -0,0 +1,82 @@
+package org.parkerharrelson.riscv.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The function symbols of an ELF file, sorted by address for lookups by program counter.
+ */
+public class SymbolTable {
+
+    public static final SymbolTable EMPTY = new SymbolTable(List.of());
+
+    private final int[] addresses;
+    private final int[] sizes;
+    private final String[] names;
+
+    /**
+     * Constructor for SymbolTable.
+     *
+     * @param symbols The symbols, in any order.
+     */
+    public SymbolTable(List<Symbol> symbols) {
+        Symbol[] sorted = symbols.toArray(new Symbol[0]);
+        Arrays.sort(sorted, Comparator.comparingLong(symbol -> Integer.toUnsignedLong(symbol.address)));
+        addresses = new int[sorted.length];
+        sizes = new int[sorted.length];
+        names = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            addresses[i] = sorted[i].address;
+            sizes[i] = sorted[i].size;
+            names[i] = sorted[i].name;
+        }
+    }
+
+    /**
+     * Finds the function containing an address: the symbol with the highest address
+     * at or below it, as long as the address is within the symbol's size. Symbols
+     * without a size are taken to extend up to the next symbol.
+     *
+     * @param address The address to look up.
+     * @return The name of the function, or null if no symbol covers the address.
+     */
+    public String lookup(int address) {
+        int low = 0;
+        int high = addresses.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (Integer.compareUnsigned(addresses[middle], address) <= 0) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        if (found < 0 || (sizes[found] != 0 && Integer.toUnsignedLong(address - addresses[found]) >= Integer.toUnsignedLong(sizes[found]))) {
+            return null;
+        }
+        return names[found];
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * A single named address range.
+     */
+    public static class Symbol {
+        public final String name;
+        public final int address;
+        public final int size;
+
+        public Symbol(String name, int address, int size) {
+            this.name = name;
+            this.address = address;
+            this.size = size;
+        }
+    }
+}
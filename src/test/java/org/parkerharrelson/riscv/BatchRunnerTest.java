@@ -0,0 +1,58 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.parkerharrelson.riscv.core.BatchRunner;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.memory.SparseMemory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchRunnerTest {
+
+    @Test
+    public void testRunsManifestWithSharedImages(@TempDir Path directory) throws IOException {
+        Path manifest = directory.resolve("jobs.txt");
+        Path elf = Path.of("src/test/resources/loop.elf").toAbsolutePath();
+        StringBuilder contents = new StringBuilder("# regression jobs\n");
+        for (int i = 0; i < 8; i++) {
+            contents.append(elf).append('\n');
+        }
+        contents.append("missing.elf\n");
+        Files.writeString(manifest, contents);
+
+        List<BatchRunner.Job> jobs = BatchRunner.readManifest(manifest);
+        assertEquals(9, jobs.size(), "Manifest was not parsed");
+
+        BatchRunner runner = new BatchRunner(3, ExecutionMode.FAST, SparseMemory::new);
+        List<BatchRunner.Result> results = runner.run(jobs);
+
+        for (int i = 0; i < 8; i++) {
+            assertTrue(results.get(i).succeeded(), "Job " + i + " failed");
+            assertEquals("OK\n", new String(results.get(i).output, StandardCharsets.UTF_8), "Job " + i + " output was not captured");
+        }
+        assertFalse(results.get(8).succeeded(), "Missing ELF file did not fail its job");
+        assertEquals(1, runner.getImageCount(), "Identical ELF files were parsed more than once");
+    }
+
+    @Test
+    public void testRunawayJobFailsOnItsBudget() {
+        List<BatchRunner.Job> jobs = List.of(new BatchRunner.Job(Path.of("src/test/resources/spin.elf"), null),
+                new BatchRunner.Job(Path.of("src/test/resources/loop.elf"), null));
+
+        BatchRunner runner = new BatchRunner(1, ExecutionMode.JIT, SparseMemory::new);
+        runner.setInstructionBudget(1_000_000);
+        List<BatchRunner.Result> results = runner.run(jobs);
+
+        assertFalse(results.get(0).succeeded(), "Runaway job was not stopped by its budget");
+        assertTrue(results.get(1).succeeded(), "Job after a runaway job failed");
+    }
+}
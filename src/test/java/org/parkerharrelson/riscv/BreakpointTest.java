@@ -0,0 +1,137 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.DebugStop;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.core.Reader;
+import org.parkerharrelson.riscv.stats.ExecutionStats;
+import org.parkerharrelson.riscv.util.SymbolTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BreakpointTest {
+
+    private static Machine load(String elf, ExecutionMode mode) throws IOException {
+        Machine machine = new Machine();
+        machine.setExecutionMode(mode);
+        machine.setConsole(InputStream.nullInputStream(), new ByteArrayOutputStream());
+        machine.setExecutionCounters(new ExecutionStats().addHart());
+        machine.loadContents("src/test/resources/" + elf);
+        return machine;
+    }
+
+    private static int address(String elf, String function) throws IOException {
+        SymbolTable symbols = new Reader().parseElfFile("src/test/resources/" + elf).getSymbols();
+        for (int address = 0x1000; address < 0x2000; address += 4) {
+            if (function.equals(symbols.lookup(address))) {
+                return address;
+            }
+        }
+        throw new IllegalArgumentException(function);
+    }
+
+    @Test
+    public void testBreakpointStopsEveryCallInEveryMode() throws IOException {
+        int inner = address("calls.elf", "inner");
+        Machine reference = load("calls.elf", ExecutionMode.INTERPRETER);
+        reference.run();
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Machine machine = load("calls.elf", mode);
+            machine.addBreakpoint(inner);
+            int hits = 0;
+            while (true) {
+                machine.run();
+                DebugStop stop = machine.getDebugStop();
+                if (stop == null) {
+                    break;
+                }
+                assertEquals(DebugStop.Kind.BREAKPOINT, stop.kind);
+                assertEquals(inner, stop.address);
+                assertEquals(inner, machine.getProgramCounter(), "Stopped past the breakpoint in mode " + mode);
+                assertTrue(machine.isRunning());
+                if (++hits == 400) {
+                    machine.removeBreakpoint(inner);
+                }
+            }
+            assertEquals(400, hits, "Wrong number of stops in mode " + mode);
+            assertFalse(machine.isRunning());
+            for (int i = 0; i < 32; i++) {
+                assertEquals(reference.getRegister(i), machine.getRegister(i), "x" + i + " differs in mode " + mode);
+            }
+            assertEquals(reference.getExecutionCounters().getRetired(), machine.getExecutionCounters().getRetired(),
+                    "Retired count differs in mode " + mode);
+        }
+    }
+
+    @Test
+    public void testBreakpointOnSecondInstructionOfFusedPair() throws IOException {
+        Machine probe = load("fusion.elf", ExecutionMode.FAST);
+        int second = 0;
+        for (int pc = 0x1000; pc < 0x1100; pc += 4) {
+            int first = probe.getMemory().load32(pc);
+            int next = probe.getMemory().load32(pc + 4);
+            int rd = (first >> 7) & 0x1F;
+            // LUI rd followed by ADDI rd, rd
+            if ((first & 0x7F) == 0x37 && (next & 0x707F) == 0x13
+                    && ((next >> 7) & 0x1F) == rd && ((next >> 15) & 0x1F) == rd) {
+                second = pc + 4;
+                break;
+            }
+        }
+        assertTrue(second != 0, "No LUI + ADDI pair found");
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Machine machine = load("fusion.elf", mode);
+            machine.addBreakpoint(second);
+            machine.run();
+            assertNotNull(machine.getDebugStop(), "The fused pair ran over the breakpoint in mode " + mode);
+            assertEquals(second, machine.getProgramCounter());
+            machine.run();
+            assertNull(machine.getDebugStop());
+            assertEquals(0x12345678, machine.getRegister(8), "Mode " + mode);
+        }
+    }
+
+    @Test
+    public void testWatchpointStopsAfterEveryStore() throws IOException {
+        int work = address("calls.elf", "work");
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Machine machine = load("calls.elf", mode);
+            // work saves ra in the word at sp + 12, with sp 16 bytes below the top of memory
+            machine.addWatchpoint(0xFFFFFFFD, 1);
+            int hits = 0;
+            while (true) {
+                machine.run();
+                DebugStop stop = machine.getDebugStop();
+                if (stop == null) {
+                    break;
+                }
+                hits++;
+                assertEquals(DebugStop.Kind.WATCHPOINT, stop.kind);
+                assertEquals(0xFFFFFFFD, stop.address);
+                assertEquals(0x1008, machine.getMemory().load32(0xFFFFFFFC), "The store was not made before the stop");
+                if (mode != ExecutionMode.JIT) {
+                    assertEquals(work + 8, machine.getProgramCounter(), "Did not stop after the store in mode " + mode);
+                }
+            }
+            assertEquals(50, hits, "Wrong number of stops in mode " + mode);
+
+            Machine unwatched = load("calls.elf", mode);
+            unwatched.addWatchpoint(0xFFFFFFF0, 8);
+            unwatched.removeWatchpoint(0xFFFFFFF0, 8);
+            unwatched.addWatchpoint(0x2000, 4);
+            unwatched.run();
+            assertNull(unwatched.getDebugStop(), "Stores outside the watched range stopped the machine in mode " + mode);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.core.Reader;
+import org.parkerharrelson.riscv.timing.CacheModel;
+import org.parkerharrelson.riscv.timing.ReplacementPolicy;
+import org.parkerharrelson.riscv.util.SymbolTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CacheModelTest {
+
+    // Four lines that all map to set 0 of a 4-way cache with 16 byte lines and 4 sets
+    private static final int A = 0x0000;
+    private static final int B = 0x0040;
+    private static final int C = 0x0080;
+    private static final int D = 0x00C0;
+    private static final int E = 0x0100;
+
+    @Test
+    public void testStreamingMissesOncePerLine() {
+        CacheModel cache = new CacheModel("L1D", 1024, 1, 16, ReplacementPolicy.LRU);
+        for (int address = 0; address < 4096; address += 4) {
+            cache.access(address, 0x1000);
+        }
+        assertEquals(1024, cache.getAccesses());
+        assertEquals(256, cache.getMisses());
+        assertEquals(0.25, cache.getMissRate());
+    }
+
+    @Test
+    public void testReplacementPolicies() {
+        for (ReplacementPolicy policy : new ReplacementPolicy[]{ReplacementPolicy.LRU, ReplacementPolicy.PLRU}) {
+            CacheModel cache = new CacheModel("L1D", 256, 4, 16, policy);
+            for (int address : new int[]{A, B, C, D, A, C}) {
+                cache.access(address, 0);
+            }
+            // B is the coldest line, so E replaces it and everything else still hits
+            assertFalse(cache.access(E, 0), policy.name());
+            assertTrue(cache.access(A, 0), policy.name());
+            assertTrue(cache.access(C, 0), policy.name());
+            assertTrue(cache.access(D, 0), policy.name());
+            assertFalse(cache.access(B, 0), policy.name());
+        }
+
+        CacheModel first = new CacheModel("L1D", 256, 4, 16, ReplacementPolicy.RANDOM);
+        CacheModel second = new CacheModel("L1D", 256, 4, 16, ReplacementPolicy.RANDOM);
+        for (int i = 0; i < 1000; i++) {
+            int address = (i * 7919) & 0x3F0;
+            assertEquals(first.access(address, 0), second.access(address, 0), "Random replacement is not repeatable");
+        }
+    }
+
+    @Test
+    public void testInvalidGeometry() {
+        assertThrows(IllegalArgumentException.class, () -> new CacheModel("L1D", 1024, 3, 16, ReplacementPolicy.LRU));
+        assertThrows(IllegalArgumentException.class, () -> new CacheModel("L1D", 64, 8, 16, ReplacementPolicy.LRU));
+    }
+
+    @Test
+    public void testCachesSeeTheSameAccessesInEveryMode() throws IOException {
+        SymbolTable symbols = new Reader().parseElfFile("src/test/resources/calls.elf").getSymbols();
+        long[] expected = null;
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Machine machine = new Machine();
+            machine.setExecutionMode(mode);
+            machine.setConsole(InputStream.nullInputStream(), new ByteArrayOutputStream());
+            CacheModel instructionCache = new CacheModel("L1I", 1024, 2, 32, ReplacementPolicy.PLRU);
+            CacheModel dataCache = new CacheModel("L1D", 256, 2, 16, ReplacementPolicy.LRU);
+            machine.setInstructionCache(instructionCache);
+            machine.setDataCache(dataCache);
+            machine.loadContents("src/test/resources/calls.elf");
+            machine.run();
+
+            long[] actual = {instructionCache.getAccesses(), instructionCache.getMisses(),
+                    dataCache.getAccesses(), dataCache.getMisses()};
+            assertEquals(machine.getInstructionsRetired(), actual[0], "Fetches were missed in mode " + mode);
+            if (expected != null) {
+                for (int i = 0; i < actual.length; i++) {
+                    assertEquals(expected[i], actual[i], "Cache counts differ in mode " + mode);
+                }
+            }
+            expected = actual;
+
+            Map<String, long[]> functions = instructionCache.getFunctionCounts(symbols);
+            assertEquals(21000, functions.get("inner")[0], "Fetches in inner differ in mode " + mode);
+            assertEquals(100, dataCache.getFunctionCounts(symbols).get("work")[0]);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.DecodeCache;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.jit.JitEngine;
+import org.parkerharrelson.riscv.pipeline.CompressedExpander;
+import org.parkerharrelson.riscv.pipeline.InstructionDecode;
+import org.parkerharrelson.riscv.stats.ExecutionStats;
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CompressedInstructionTest {
+
+    // Compressed instructions as a compiler emits them, and the instructions they expand to
+    private static final int[][] EXPANSIONS = {
+            {0x1101, 0xFE010113}, // c.addi sp, -32
+            {0x7179, 0xFD010113}, // c.addi16sp sp, -48
+            {0x0800, 0x01010413}, // c.addi4spn s0, sp, 16
+            {0x4501, 0x00000513}, // c.li a0, 0
+            {0x57FD, 0xFFF00793}, // c.li a5, -1
+            {0x6785, 0x000017B7}, // c.lui a5, 1
+            {0x411C, 0x00052783}, // c.lw a5, 0(a0)
+            {0xC11C, 0x00F52023}, // c.sw a5, 0(a0)
+            {0x40B2, 0x00C12083}, // c.lwsp ra, 12(sp)
+            {0xC606, 0x00112623}, // c.swsp ra, 12(sp)
+            {0x078A, 0x00279793}, // c.slli a5, 2
+            {0x8385, 0x0017D793}, // c.srli a5, 1
+            {0x8785, 0x4017D793}, // c.srai a5, 1
+            {0x8B85, 0x0017F793}, // c.andi a5, 1
+            {0x8F99, 0x40E787B3}, // c.sub a5, a4
+            {0x8FB9, 0x00E7C7B3}, // c.xor a5, a4
+            {0x8FD9, 0x00E7E7B3}, // c.or a5, a4
+            {0x8FF9, 0x00E7F7B3}, // c.and a5, a4
+            {0x852E, 0x00B00533}, // c.mv a0, a1
+            {0x97BA, 0x00E787B3}, // c.add a5, a4
+            {0x8082, 0x00008067}, // c.jr ra
+            {0x9782, 0x000780E7}, // c.jalr a5
+            {0xA001, 0x0000006F}, // c.j .
+            {0x0001, 0x00000013}, // c.nop
+    };
+
+    private static Machine run(ExecutionMode mode) throws IOException {
+        Machine machine = new Machine();
+        machine.setExecutionMode(mode);
+        machine.setConsole(InputStream.nullInputStream(), new ByteArrayOutputStream());
+        machine.setExecutionCounters(new ExecutionStats().addHart());
+        machine.loadContents("src/test/resources/rvc.elf");
+        machine.run();
+        return machine;
+    }
+
+    @Test
+    public void testExpansion() {
+        for (int[] expansion : EXPANSIONS) {
+            DecodedInstruction decoded = InstructionDecode.predecode(expansion[0]);
+            assertEquals(expansion[1], decoded.getInst(), String.format("Wrong expansion of 0x%04x", expansion[0]));
+            assertEquals(2, decoded.getLength());
+        }
+        assertEquals(4, InstructionDecode.predecode(0xFE010113).getLength());
+        assertThrows(UnsupportedOperationException.class, () -> CompressedExpander.expand(0x0000)); // All zeros is illegal
+        assertThrows(UnsupportedOperationException.class, () -> CompressedExpander.expand(0x6101)); // c.addi16sp sp, 0
+        assertThrows(UnsupportedOperationException.class, () -> CompressedExpander.expand(0x2002)); // c.fldsp
+    }
+
+    @Test
+    public void testCompressedProgramRunsInEveryMode() throws IOException {
+        Machine reference = run(ExecutionMode.INTERPRETER);
+        assertEquals(5050, reference.getRegister(18));
+        assertEquals(300, reference.getRegister(19));
+        assertEquals(5051, reference.getRegister(20));
+        assertEquals(5050, reference.getRegister(21));
+        assertEquals(5051, reference.getRegister(22));
+        assertEquals(0xFFFFFE14, reference.getRegister(23));
+        assertEquals(0x2000, reference.getRegister(24));
+        assertEquals(0x15, reference.getRegister(25));
+        assertEquals(0x12345006, reference.getRegister(26));
+        assertEquals(1, reference.getRegister(27));
+        assertEquals(0, reference.getRegister(30), "c.jalr did not link the address two bytes on");
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Machine machine = run(mode);
+            for (int i = 0; i < 32; i++) {
+                assertEquals(reference.getRegister(i), machine.getRegister(i), "x" + i + " differs in mode " + mode);
+            }
+            assertEquals(reference.getExecutionCounters().getRetired(), machine.getExecutionCounters().getRetired(),
+                    "Retired count differs in mode " + mode);
+        }
+
+        Machine compiled = new Machine();
+        compiled.loadContents("src/test/resources/rvc.elf");
+        new JitEngine(compiled, 1, 16).run();
+        for (int i = 0; i < 32; i++) {
+            assertEquals(reference.getRegister(i), compiled.getRegister(i), "x" + i + " differs in compiled blocks");
+        }
+    }
+
+    @Test
+    public void testInstructionAcrossPagesIsDroppedWithEitherPage() {
+        DecodedInstruction straddling = InstructionDecode.predecode(0xFE010113);
+        DecodeCache decodeCache = new DecodeCache();
+        decodeCache.put(0x1FFE, straddling);
+        decodeCache.invalidate(0x2000);
+        assertNull(decodeCache.get(0x1FFE), "A store to the second half of an instruction did not drop it");
+
+        decodeCache.put(0x1FFE, InstructionDecode.predecode(0x0001));
+        decodeCache.invalidate(0x2000);
+        assertNotNull(decodeCache.get(0x1FFE), "A compressed instruction ends inside its own page");
+    }
+}
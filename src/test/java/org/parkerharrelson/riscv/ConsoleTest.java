@@ -0,0 +1,79 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.Console;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ConsoleTest {
+
+    @Test
+    public void testOutputIsByteExact() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Console console = new Console(InputStream.nullInputStream(), output, false);
+
+        for (int value : new int[]{0xC3, 0xA9, 0x00, 0xFF, 0x1F6}) {
+            console.write(value);
+        }
+        assertEquals(0, output.size(), "Fully buffered output was written before a flush");
+
+        console.flush();
+        assertArrayEquals(new byte[]{(byte) 0xC3, (byte) 0xA9, 0x00, (byte) 0xFF, (byte) 0xF6}, output.toByteArray());
+    }
+
+    @Test
+    public void testLineBufferedOutputFlushesOnNewline() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Console console = new Console(InputStream.nullInputStream(), output, true);
+
+        console.write('h');
+        console.write('i');
+        assertEquals(0, output.size());
+        console.write('\n');
+        assertEquals("hi\n", output.toString());
+    }
+
+    @Test
+    public void testInputIsReadAheadAndFlushesOutput() throws IOException {
+        int[] reads = new int[1];
+        InputStream input = new ByteArrayInputStream(new byte[]{'a', 'b', (byte) 0x80}) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                reads[0]++;
+                return super.read(b, off, len);
+            }
+        };
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Console console = new Console(input, output, false);
+
+        console.write('?');
+        assertEquals('a', console.read());
+        assertEquals("?", output.toString(), "Pending output was not flushed before reading input");
+        assertEquals('b', console.read());
+        assertEquals(0x80, console.read());
+        assertEquals(-1, console.read());
+        assertEquals(-1, console.read());
+        assertEquals(2, reads[0], "Input was not read ahead in one block");
+    }
+
+    @Test
+    public void testMachineFlushesOnExitInEveryMode() throws IOException {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            Machine machine = new Machine();
+            machine.setExecutionMode(mode);
+            machine.setConsole(InputStream.nullInputStream(), output);
+            machine.loadContents("src/test/resources/loop.elf");
+            machine.run();
+            assertEquals("OK\n", output.toString(), "Output is wrong in mode " + mode);
+        }
+    }
+}
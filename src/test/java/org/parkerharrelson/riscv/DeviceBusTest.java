@@ -0,0 +1,118 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.device.DeviceBus;
+import org.parkerharrelson.riscv.memory.SparseMemory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.MIP_MTIP;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.UART_BASE;
+
+public class DeviceBusTest {
+
+    private static Machine load(String elf, ExecutionMode mode, InputStream input, ByteArrayOutputStream output)
+            throws IOException {
+        Machine machine = new Machine(new SparseMemory(), true);
+        machine.setExecutionMode(mode);
+        machine.setConsole(input, output);
+        machine.loadContents("src/test/resources/" + elf);
+        return machine;
+    }
+
+    @Test
+    public void testUartAndTimerInEveryMode() throws IOException {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            InputStream input = new ByteArrayInputStream("echo".getBytes(StandardCharsets.UTF_8));
+            Machine machine = load("devices.elf", mode, input, output);
+            machine.run();
+
+            assertFalse(machine.isRunning());
+            assertEquals("Hi\necho", output.toString(StandardCharsets.UTF_8), "Mode " + mode);
+            int start = machine.getRegister(20);
+            int compare = machine.getRegister(21);
+            int last = machine.getRegister(22);
+            assertTrue(start > 0 && start < machine.getInstructionsRetired(), "mtime did not follow the retired count in mode " + mode);
+            assertEquals(start + 1000, compare);
+            assertTrue(last >= compare && last < compare + 10, "mtime overshot in mode " + mode);
+            assertEquals(MIP_MTIP, machine.getDevices().getPendingInterrupts() & MIP_MTIP, "Timer did not fire in mode " + mode);
+        }
+    }
+
+    @Test
+    public void testLineStatusNeverWaitsForInput() throws IOException {
+        PipedOutputStream host = new PipedOutputStream();
+        Machine machine = new Machine(new SparseMemory(), true);
+        machine.setConsole(new PipedInputStream(host), new ByteArrayOutputStream());
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            assertEquals(0x60, machine.getMemory().load8(UART_BASE + 5), "Data ready before any input arrived");
+            host.write('k');
+            assertEquals(0x61, machine.getMemory().load8(UART_BASE + 5));
+            assertEquals('k', machine.getMemory().load8(UART_BASE));
+            assertEquals(0x60, machine.getMemory().load8(UART_BASE + 5));
+        });
+    }
+
+    @Test
+    public void testEventsFireAtTheirRetiredCount() throws IOException {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Machine machine = load("spin.elf", mode, InputStream.nullInputStream(), new ByteArrayOutputStream());
+            DeviceBus devices = machine.getDevices();
+            List<Long> fired = new ArrayList<>();
+            devices.schedule(10_000, () -> fired.add(10_000L));
+            devices.schedule(500, () -> {
+                fired.add(500L);
+                // An event scheduled by another one still runs at its own time
+                devices.schedule(devices.now() + 700, () -> fired.add(1200L));
+            });
+            devices.schedule(500, () -> fired.add(501L));
+            devices.schedule(20_000, () -> {
+                fired.add(20_000L);
+                machine.stop();
+            });
+            machine.run();
+
+            assertEquals(List.of(500L, 501L, 1200L, 10_000L, 20_000L), fired, "Mode " + mode);
+            long retired = machine.getInstructionsRetired();
+            assertTrue(retired >= 20_000 && retired < 20_010, "Stopped at " + retired + " in mode " + mode);
+            if (mode != ExecutionMode.JIT) {
+                assertEquals(20_000, retired, "Event was late in mode " + mode);
+            }
+            assertEquals(retired / 2, machine.getRegister(8), "Mode " + mode);
+        }
+    }
+
+    @Test
+    public void testDeviceWindowIsMemoryWithoutDevices() {
+        Machine plain = new Machine();
+        plain.getMemory().store32(0x0200BFF8, 42);
+        assertEquals(42, plain.getMemory().load32(0x0200BFF8));
+
+        Machine machine = new Machine(new SparseMemory(), true);
+        machine.getMemory().store32(0x0200BFF8, 42);
+        assertNotEquals(42, machine.getMemory().load32(0x0200BFF8));
+        machine.getMemory().store32(0x1000, 42);
+        assertEquals(42, machine.getMemory().load32(0x1000));
+        assertThrows(UnsupportedOperationException.class, () -> machine.getMemory().getAndAdd32(0x02004000, 1));
+        assertThrows(UnsupportedOperationException.class, () -> machine.getMemory().load32(0x0201F000));
+    }
+}
@@ -0,0 +1,41 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ExecutionModeTest {
+
+    private static byte[] dump(Machine machine) {
+        // The program lives at the bottom of memory and its stack in the top page
+        byte[] contents = new byte[0x20000];
+        machine.getMemory().read(0, contents, 0, 0x10000);
+        machine.getMemory().read(0xFFFF0000, contents, 0x10000, 0x10000);
+        return contents;
+    }
+
+    private static Machine runInMode(ExecutionMode mode) throws IOException {
+        Machine machine = new Machine();
+        machine.setExecutionMode(mode);
+        machine.loadContents("src/test/resources/loop.elf");
+        machine.run();
+        return machine;
+    }
+
+    @Test
+    public void testAllModesProduceIdenticalState() throws IOException {
+        Machine reference = runInMode(ExecutionMode.INTERPRETER);
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Machine machine = runInMode(mode);
+            assertArrayEquals(reference.getRegisters(), machine.getRegisters(), "Registers differ in mode " + mode);
+            assertArrayEquals(dump(reference), dump(machine), "Memory differs in mode " + mode);
+            assertEquals(reference.getProgramCounter(), machine.getProgramCounter(), "Program counter differs in mode " + mode);
+        }
+    }
+}
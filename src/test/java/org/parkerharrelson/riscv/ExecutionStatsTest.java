@@ -0,0 +1,72 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.stats.ExecutionCounters;
+import org.parkerharrelson.riscv.stats.ExecutionStats;
+import org.parkerharrelson.riscv.util.AluOp;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ExecutionStatsTest {
+
+    private static ExecutionCounters runInMode(ExecutionStats stats, ExecutionMode mode) throws IOException {
+        Machine machine = new Machine();
+        machine.setExecutionMode(mode);
+        machine.setConsole(InputStream.nullInputStream(), new PrintStream(new ByteArrayOutputStream()));
+        machine.setExecutionCounters(stats.addHart());
+        machine.loadContents("src/test/resources/loop.elf");
+        machine.run();
+        return machine.getExecutionCounters();
+    }
+
+    @Test
+    public void testCountsAreIdenticalInEveryMode() throws IOException {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            ExecutionCounters counters = runInMode(new ExecutionStats(), mode);
+            assertEquals(330, counters.getRetired(), "Retired count is wrong in mode " + mode);
+            assertEquals(100, counters.getOpcodeCount(0x63), "Branch count is wrong in mode " + mode);
+            assertEquals(4, counters.getOpcodeCount(0x73), "ECALL count is wrong in mode " + mode);
+            assertEquals(1, counters.getAluOpCount(AluOp.Mul), "Mul count is wrong in mode " + mode);
+            assertEquals(2, counters.getLoadCount(1), "Byte load count is wrong in mode " + mode);
+            assertEquals(1, counters.getLoadCount(4), "Word load count is wrong in mode " + mode);
+            assertEquals(1, counters.getStoreCount(1), "Byte store count is wrong in mode " + mode);
+            assertEquals(1, counters.getStoreCount(4), "Word store count is wrong in mode " + mode);
+            assertEquals(3, counters.getSystemCallCount(1), "Putchar count is wrong in mode " + mode);
+            assertEquals(1, counters.getSystemCallCount(0), "Exit count is wrong in mode " + mode);
+        }
+    }
+
+    @Test
+    public void testCountsArePublishedOverJmx() throws Exception {
+        ExecutionStats stats = new ExecutionStats();
+        stats.register();
+        try {
+            runInMode(stats, ExecutionMode.FAST);
+            runInMode(stats, ExecutionMode.JIT);
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(ExecutionStats.OBJECT_NAME);
+            assertEquals(2, server.getAttribute(name, "HartCount"));
+            assertEquals(660L, server.getAttribute(name, "InstructionsRetired"));
+            assertEquals(200L, stats.getOpcodeCounts().get("BRANCH"));
+            assertEquals(2L, stats.getMemoryAccessCounts().get("store32"));
+            assertNull(stats.getMemoryAccessCounts().get("load16"), "Counts of zero should be left out");
+
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "InstructionsRetired"));
+        } finally {
+            stats.unregister();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.memory.GuestMemory;
+import org.parkerharrelson.riscv.memory.HeapMemory;
+import org.parkerharrelson.riscv.pipeline.InstructionDecode;
+import org.parkerharrelson.riscv.stats.ExecutionCounters;
+import org.parkerharrelson.riscv.stats.ExecutionStats;
+import org.parkerharrelson.riscv.trace.TraceReader;
+import org.parkerharrelson.riscv.trace.TraceRecorder;
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.parkerharrelson.riscv.util.EmulatorConstants.CODE_PAGE_SHIFT;
+
+public class FusionTest {
+
+    private static final int[] OPCODES = {0x03, 0x13, 0x17, 0x23, 0x33, 0x37, 0x63, 0x67, 0x6F, 0x73};
+
+    private static Machine run(ExecutionMode mode) throws IOException {
+        Machine machine = new Machine();
+        machine.setExecutionMode(mode);
+        machine.setConsole(InputStream.nullInputStream(), new ByteArrayOutputStream());
+        machine.setExecutionCounters(new ExecutionStats().addHart());
+        machine.loadContents("src/test/resources/fusion.elf");
+        machine.run();
+        return machine;
+    }
+
+    @Test
+    public void testFusedPairsMatchTheInterpreter() throws IOException {
+        Machine reference = run(ExecutionMode.INTERPRETER);
+        assertEquals(0x12345678, reference.getRegister(8));
+        assertEquals(0xFFF, reference.getRegister(9));
+        assertEquals(0xCAFEBABE, reference.getRegister(18));
+        assertEquals(0xBE, reference.getRegister(19));
+        assertEquals(1, reference.getRegister(20));
+        assertEquals(0, reference.getRegister(21));
+        assertEquals(0x1002, reference.getRegister(22), "The rewritten addi did not take effect");
+        assertEquals(42, reference.getRegister(23));
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Machine machine = run(mode);
+            for (int i = 0; i < 32; i++) {
+                assertEquals(reference.getRegister(i), machine.getRegister(i), "x" + i + " differs in mode " + mode);
+            }
+            ExecutionCounters expected = reference.getExecutionCounters();
+            ExecutionCounters actual = machine.getExecutionCounters();
+            assertEquals(expected.getRetired(), actual.getRetired(), "Retired count differs in mode " + mode);
+            assertEquals(reference.getInstructionsRetired(), machine.getInstructionsRetired(),
+                    "Retired instruction count differs in mode " + mode);
+            for (int opcode : OPCODES) {
+                assertEquals(expected.getOpcodeCount(opcode), actual.getOpcodeCount(opcode),
+                        "Count of opcode " + opcode + " differs in mode " + mode);
+            }
+        }
+    }
+
+    @Test
+    public void testPairsAreRecognized() throws IOException {
+        Machine machine = run(ExecutionMode.FAST);
+        GuestMemory memory = machine.getMemory();
+        assertEquals(DecodedInstruction.FUSED_LOAD_IMMEDIATE, InstructionDecode.predecodeFused(memory, 0x1000).getFusedOpcode());
+        assertEquals(DecodedInstruction.FUSED_PC_RELATIVE_LOAD, InstructionDecode.predecodeFused(memory, 0x1010).getFusedOpcode());
+        assertEquals(DecodedInstruction.FUSED_PC_RELATIVE_LOAD, InstructionDecode.predecodeFused(memory, 0x1018).getFusedOpcode());
+        assertEquals(DecodedInstruction.FUSED_FAR_JUMP, InstructionDecode.predecodeFused(memory, 0x1020).getFusedOpcode());
+        assertEquals(DecodedInstruction.FUSED_COMPARE_BRANCH, InstructionDecode.predecodeFused(memory, 0x1034).getFusedOpcode());
+        assertEquals(DecodedInstruction.FUSED_COMPARE_BRANCH, InstructionDecode.predecodeFused(memory, 0x103C).getFusedOpcode());
+        assertEquals(DecodedInstruction.FUSED_COMPARE_BRANCH, InstructionDecode.predecodeFused(memory, 0x1048).getFusedOpcode());
+        // Two independent addi instructions are not a fused pair
+        DecodedInstruction first = InstructionDecode.predecodeFused(memory, 0x1028);
+        assertEquals(first.getOpcode(), first.getFusedOpcode());
+    }
+
+    @Test
+    public void testEveryInstructionIsTraced(@TempDir Path temp) throws IOException {
+        Machine reference = run(ExecutionMode.INTERPRETER);
+
+        Machine machine = new Machine();
+        machine.setExecutionMode(ExecutionMode.FAST);
+        machine.setConsole(InputStream.nullInputStream(), new ByteArrayOutputStream());
+        Path path = temp.resolve("fusion.trace");
+        try (TraceRecorder tracer = new TraceRecorder(path, 1 << 10)) {
+            machine.setTracer(tracer);
+            machine.loadContents("src/test/resources/fusion.elf");
+            machine.run();
+        }
+        try (TraceReader reader = new TraceReader(path)) {
+            assertEquals(reference.getExecutionCounters().getRetired(), reader.getRecordCount());
+        }
+    }
+
+    @Test
+    public void testPairsAreNotFusedAcrossCodePages() {
+        GuestMemory memory = new HeapMemory(2 << CODE_PAGE_SHIFT);
+        int pc = (1 << CODE_PAGE_SHIFT) - 4;
+        memory.store32(pc, 0x12345437);      // lui s0, 0x12345
+        memory.store32(pc + 4, 0x67840413);  // addi s0, s0, 0x678
+        DecodedInstruction straddling = InstructionDecode.predecodeFused(memory, pc);
+        assertEquals(0x37, straddling.getFusedOpcode());
+
+        memory.store32(pc - 4, 0x12345437);
+        memory.store32(pc, 0x67840413);
+        assertEquals(DecodedInstruction.FUSED_LOAD_IMMEDIATE, InstructionDecode.predecodeFused(memory, pc - 4).getFusedOpcode());
+    }
+}
@@ -0,0 +1,99 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.memory.DirectMemory;
+import org.parkerharrelson.riscv.memory.GuestMemory;
+import org.parkerharrelson.riscv.memory.HeapMemory;
+import org.parkerharrelson.riscv.memory.SparseMemory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class GuestMemoryTest {
+
+    private static void checkChannels(GuestMemory memory, int address) throws IOException {
+        byte[] contents = new byte[300];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = (byte) (i * 7);
+        }
+        assertEquals(contents.length, memory.readFrom(Channels.newChannel(new ByteArrayInputStream(contents)), address, 1000),
+                "Channel read did not stop at the end of the input");
+        assertEquals(contents[299], memory.load8(address + 299), "Channel read stored the wrong bytes");
+        assertEquals(-1, memory.readFrom(Channels.newChannel(InputStream.nullInputStream()), address, 10),
+                "Channel read did not report the end of the input");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        memory.writeTo(Channels.newChannel(output), address, contents.length);
+        assertArrayEquals(contents, output.toByteArray(), "Channel write did not round trip");
+    }
+
+    private static void checkBackend(GuestMemory memory) throws IOException {
+        memory.store32(0x101, 0x8081_82F3); // unaligned
+        assertEquals(0x8081_82F3, memory.load32(0x101), "Word did not round trip");
+        assertEquals((byte) 0xF3, memory.load8(0x101), "Word was not stored little-endian");
+        assertEquals((short) 0x82F3, memory.load16(0x101), "Halfword load was not sign-extended");
+        assertEquals(-128, memory.load8(0x104), "Byte load was not sign-extended");
+
+        memory.store16(0x200, 0x1234_ABCD);
+        assertEquals(0x0000_ABCD, memory.load32(0x200), "Halfword store wrote more than two bytes");
+        memory.store8(0x200, 0x1FF);
+        assertEquals(0x0000_ABFF, memory.load32(0x200), "Byte store wrote more than one byte");
+
+        byte[] source = {1, 2, 3, 4, 5};
+        byte[] destination = new byte[5];
+        memory.write(0x300, source, 0, source.length);
+        memory.read(0x300, destination, 0, destination.length);
+        assertArrayEquals(source, destination, "Bulk copy did not round trip");
+        assertEquals(0x04030201, memory.load32(0x300), "Bulk copy was not stored in address order");
+
+        GuestMemory fork = memory.fork();
+        fork.store32(0x300, 0x11111111);
+        memory.store32(0x304, 0x22222222);
+        assertEquals(0x04030201, memory.load32(0x300), "Write to a fork leaked into the original");
+        assertEquals(0x11111111, fork.load32(0x300), "Fork lost its own write");
+        assertEquals(0x05, fork.load8(0x304), "Write to the original leaked into a fork");
+
+        memory.map(0x3FE, ByteBuffer.wrap(new byte[] {9, 8, 7, 6, 5, 4}).position(1));
+        assertEquals(0x05060708, memory.load32(0x3FE), "Mapped buffer was not copied from its position");
+        memory.zero(0x3FF, 2);
+        assertEquals(0x05000008, memory.load32(0x3FE), "Zeroed range is wrong");
+
+        checkChannels(memory, 0x500);
+    }
+
+    @Test
+    public void testHeapMemory() throws IOException {
+        checkBackend(new HeapMemory(4096));
+    }
+
+    @Test
+    public void testDirectMemory() throws IOException {
+        checkBackend(new DirectMemory(4096));
+    }
+
+    @Test
+    public void testSparseMemory() throws IOException {
+        SparseMemory memory = new SparseMemory();
+        checkBackend(memory);
+        int allocated = memory.getAllocatedPageCount();
+
+        assertEquals(0, memory.load32(0x8000_0000), "Untouched memory did not read as zero");
+        assertEquals(allocated, memory.getAllocatedPageCount(), "Reading untouched memory allocated a page");
+
+        memory.store32(0xFFFF_FFFC, 0xCAFE_BABE);
+        assertEquals(0xCAFE_BABE, memory.load32(0xFFFF_FFFC), "Top of the address space did not round trip");
+        memory.store32(0x7FFF_FFFE, 0x1234_5678); // straddles two pages
+        assertEquals(0x1234_5678, memory.load32(0x7FFF_FFFE), "Page-crossing word did not round trip");
+        assertEquals(allocated + 3, memory.getAllocatedPageCount(), "Only touched pages should be allocated");
+
+        checkChannels(memory, 0x1FFF_FF80); // spans two pages
+        checkChannels(memory.fork(), 0x1FFF_FF80);
+    }
+}
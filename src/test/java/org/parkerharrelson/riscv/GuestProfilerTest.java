@@ -0,0 +1,58 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.core.Reader;
+import org.parkerharrelson.riscv.stats.GuestProfiler;
+import org.parkerharrelson.riscv.util.ElfImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class GuestProfilerTest {
+
+    private static GuestProfiler profile(String elf, ExecutionMode mode, int interval) throws IOException {
+        ElfImage image = new Reader().parseElfFile("src/test/resources/" + elf);
+        GuestProfiler profiler = new GuestProfiler(image.getSymbols(), interval);
+        Machine machine = new Machine();
+        machine.setExecutionMode(mode);
+        machine.setProfiler(profiler);
+        machine.loadImage(image);
+        machine.run();
+        return profiler;
+    }
+
+    @Test
+    public void testEveryInstructionIsAttributedToItsStackInEveryMode() throws IOException {
+        Map<String, Long> expected = Map.of(
+                "main", 153L,
+                "main;work", 1800L,
+                "main;work;inner", 21000L);
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            assertEquals(expected, profile("calls.elf", mode, 1).getSamples(), "Samples are wrong in mode " + mode);
+        }
+    }
+
+    @Test
+    public void testBlockThatDropsItselfIsProfiled() throws IOException {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            long total = profile("selfpage.elf", mode, 1).getSamples().values().stream().mapToLong(Long::longValue).sum();
+            assertEquals(5 + 1000 * 4 + 2 + 3, total, "Samples are wrong in mode " + mode);
+        }
+    }
+
+    @Test
+    public void testFoldedOutput() throws IOException {
+        GuestProfiler profiler = profile("calls.elf", ExecutionMode.FAST, 1000);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        profiler.writeFolded(new PrintStream(output, true));
+
+        assertEquals("main;work 2\nmain;work;inner 20\n", output.toString().replace(System.lineSeparator(), "\n"));
+    }
+}
@@ -0,0 +1,122 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.GuestScheduler;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.memory.SparseMemory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GuestSchedulerTest {
+
+    private static Machine load(String elf, ExecutionMode mode, ByteArrayOutputStream output) throws IOException {
+        Machine machine = new Machine();
+        machine.setExecutionMode(mode);
+        machine.setConsole(InputStream.nullInputStream(), output);
+        machine.loadContents("src/test/resources/" + elf);
+        return machine;
+    }
+
+    @Test
+    public void testGuestThrowingAnErrorFails() throws IOException, ExecutionException, InterruptedException, TimeoutException {
+        Machine machine = new Machine(new SparseMemory(), true);
+        machine.setConsole(InputStream.nullInputStream(), new ByteArrayOutputStream());
+        machine.loadContents("src/test/resources/spin.elf");
+        machine.getDevices().schedule(1000, () -> {
+            throw new StackOverflowError();
+        });
+
+        try (GuestScheduler scheduler = new GuestScheduler(1)) {
+            GuestScheduler.Result result = scheduler.submit(machine).get(30, TimeUnit.SECONDS);
+            assertEquals(GuestScheduler.Status.FAILED, result.status);
+            assertTrue(result.error instanceof StackOverflowError, "Failed with " + result.error);
+            assertEquals(0, scheduler.getGuestCount());
+        }
+    }
+
+    @Test
+    public void testRunForResumesInEveryMode() throws IOException {
+        Machine reference = load("loop.elf", ExecutionMode.INTERPRETER, new ByteArrayOutputStream());
+        reference.run();
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            Machine machine = load("loop.elf", mode, output);
+            int quanta = 1;
+            while (machine.runFor(7)) {
+                quanta++;
+            }
+            assertTrue(quanta > 10, "Quanta were not bounded in mode " + mode);
+            assertArrayEquals(reference.getRegisters(), machine.getRegisters(), "Registers differ in mode " + mode);
+            assertEquals(reference.getInstructionsRetired(), machine.getInstructionsRetired(), "Retired count differs in mode " + mode);
+            assertEquals("OK\n", output.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testRunawayGuestsDoNotStarveOthers() throws IOException {
+        List<CompletableFuture<GuestScheduler.Result>> runaways = new ArrayList<>();
+        List<CompletableFuture<GuestScheduler.Result>> guests = new ArrayList<>();
+        try (GuestScheduler scheduler = new GuestScheduler(2, 1000)) {
+            for (ExecutionMode mode : ExecutionMode.values()) {
+                // More runaways than threads, submitted first
+                for (int i = 0; i < 4; i++) {
+                    Machine machine = load("spin.elf", mode, new ByteArrayOutputStream());
+                    runaways.add(scheduler.submit(machine, Long.MAX_VALUE, Duration.ofMillis(500)));
+                }
+                for (int i = 0; i < 300; i++) {
+                    guests.add(scheduler.submit(load("loop.elf", mode, new ByteArrayOutputStream())));
+                }
+            }
+
+            for (CompletableFuture<GuestScheduler.Result> future : guests) {
+                GuestScheduler.Result result = future.join();
+                assertTrue(result.exited(), "Guest did not exit: " + result.status);
+                assertEquals(5050, result.machine.getRegister(25));
+            }
+            for (CompletableFuture<GuestScheduler.Result> future : runaways) {
+                assertTrue(!future.isDone() || future.join().elapsedNanos >= 500_000_000L, "Runaway stopped early");
+            }
+            for (CompletableFuture<GuestScheduler.Result> future : runaways) {
+                GuestScheduler.Result result = future.join();
+                assertEquals(GuestScheduler.Status.TIMED_OUT, result.status);
+                assertTrue(result.machine.isRunning(), "A timed out guest was stopped instead of suspended");
+            }
+            assertEquals(0, scheduler.getGuestCount());
+        }
+    }
+
+    @Test
+    public void testBudgetSuspendsAndResubmitResumes() throws IOException {
+        try (GuestScheduler scheduler = new GuestScheduler(1, 3000)) {
+            for (ExecutionMode mode : ExecutionMode.values()) {
+                Machine machine = load("spin.elf", mode, new ByteArrayOutputStream());
+                for (int round = 1; round <= 3; round++) {
+                    GuestScheduler.Result result = scheduler.submit(machine, 10_000, null).join();
+                    assertEquals(GuestScheduler.Status.BUDGET_EXHAUSTED, result.status, "Mode " + mode);
+                    assertTrue(result.instructions >= 10_000 && result.instructions < 10_100, "Budget overrun in mode " + mode);
+                    // After clearing s0 the loop adds one to it every two instructions
+                    assertEquals(machine.getInstructionsRetired() / 2, machine.getRegister(8), "Mode " + mode);
+                }
+            }
+
+            GuestScheduler.Result failed = scheduler.submit(new Machine()).join();
+            assertEquals(GuestScheduler.Status.FAILED, failed.status, "An unloaded machine ran");
+        }
+    }
+}
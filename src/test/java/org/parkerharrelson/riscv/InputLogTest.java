@@ -0,0 +1,93 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.trace.InputLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class InputLogTest {
+
+    private static final String INPUT = "x" + "hello, replay\n".repeat(10);
+
+    /**
+     * Standard input that fails the test if the guest reads it during replay.
+     */
+    private static final InputStream NO_INPUT = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            throw new IOException("Replay read the host's input");
+        }
+    };
+
+    private static Machine run(String elf, ExecutionMode mode, InputStream input, ByteArrayOutputStream output, InputLog log) throws IOException {
+        Machine machine = new Machine();
+        machine.setExecutionMode(mode);
+        machine.setConsole(input, output);
+        machine.setInputLog(log);
+        machine.loadContents("src/test/resources/" + elf);
+        machine.run();
+        return machine;
+    }
+
+    @Test
+    public void testReplayReproducesRecordedInputInEveryMode(@TempDir Path temp) throws IOException {
+        Path path = temp.resolve("echo.log");
+        ByteArrayOutputStream recordedOutput = new ByteArrayOutputStream();
+        Machine recorded;
+        try (InputLog log = InputLog.record(path)) {
+            recorded = run("echo.elf", ExecutionMode.INTERPRETER,
+                    new ByteArrayInputStream(INPUT.getBytes(StandardCharsets.UTF_8)), recordedOutput, log);
+            assertEquals(8, log.getEventCount(), "Expected getchar, three reads and echoes and the final read");
+        }
+        assertEquals('x', recorded.getRegister(9));
+        assertEquals(INPUT.length() - 1, recorded.getRegister(18));
+        assertEquals(INPUT.substring(1), recordedOutput.toString(StandardCharsets.UTF_8));
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (InputLog log = InputLog.replay(path)) {
+                Machine replayed = run("echo.elf", mode, NO_INPUT, output, log);
+                assertEquals(recordedOutput.toString(StandardCharsets.UTF_8), output.toString(StandardCharsets.UTF_8),
+                        "Output differs in mode " + mode);
+                assertEquals(recorded.getRegister(9), replayed.getRegister(9), "getchar result differs in mode " + mode);
+                assertEquals(recorded.getRegister(18), replayed.getRegister(18), "Byte count differs in mode " + mode);
+                assertEquals(recorded.getInstructionsRetired(), replayed.getInstructionsRetired(),
+                        "Retired instruction count differs in mode " + mode);
+            }
+        }
+    }
+
+    @Test
+    public void testRetiredInstructionsAreCountedInEveryMode(@TempDir Path temp) throws IOException {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            try (InputLog log = InputLog.record(temp.resolve(mode + ".log"))) {
+                Machine machine = run("loop.elf", mode, NO_INPUT, new ByteArrayOutputStream(), log);
+                assertEquals(330, machine.getInstructionsRetired(), "Retired instruction count is wrong in mode " + mode);
+            }
+        }
+    }
+
+    @Test
+    public void testReplayOfAnotherProgramFails(@TempDir Path temp) throws IOException {
+        Path path = temp.resolve("echo.log");
+        try (InputLog log = InputLog.record(path)) {
+            run("echo.elf", ExecutionMode.FAST, new ByteArrayInputStream(new byte[]{'y'}), new ByteArrayOutputStream(), log);
+        }
+
+        try (InputLog log = InputLog.replay(path)) {
+            assertThrows(IllegalStateException.class,
+                    () -> run("files.elf", ExecutionMode.FAST, NO_INPUT, new ByteArrayOutputStream(), log));
+        }
+    }
+}
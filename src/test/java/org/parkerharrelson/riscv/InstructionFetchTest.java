@@ -3,6 +3,7 @@ package org.parkerharrelson.riscv;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.memory.GuestMemory;
 import org.parkerharrelson.riscv.pipeline.InstructionFetch;
 import org.parkerharrelson.riscv.util.Instruction;
 
@@ -22,29 +23,30 @@ public class InstructionFetchTest {
         machine.loadContents("src/test/resources/test.elf");
 
         int pc = machine.getProgramCounter();
-        byte[] memory = machine.getMemory();
+        GuestMemory memory = machine.getMemory();
         System.out.printf("Initial PC: %d%n", pc);
-        System.out.printf("Memory at PC: %02x %02x %02x %02x%n", memory[pc], memory[pc + 1], memory[pc + 2], memory[pc + 3]);
+        System.out.printf("Memory at PC: %02x %02x %02x %02x%n", memory.load8(pc) & 0xFF, memory.load8(pc + 1) & 0xFF,
+                memory.load8(pc + 2) & 0xFF, memory.load8(pc + 3) & 0xFF);
 
-        for (int i = 0; i < memory.length; i++) {
-            if (memory[i] != 0) {
-                System.out.println("Index " + i + ": " + memory[i]);
+        for (int i = 0; i < 0x10000; i++) {
+            if (memory.load8(i) != 0) {
+                System.out.println("Index " + i + ": " + memory.load8(i));
             }
         }
     }
 
     @Test
     public void testFetchInstruction() {
-        int expectedInst = 0x04030201;
+        // The low bits of 0x04030201 mark a compressed instruction, so only its first half is fetched
+        int expectedInst = 0x0201;
+        int expectedPc = machine.getProgramCounter() + 2;
 
         Instruction fetchedInstruction = instructionFetch.fetchInstruction();
 
         assertEquals(expectedInst, fetchedInstruction.getInst(), "Fetched instruction does not match expected value");
-
-        int expectedPc = machine.getProgramCounter() - 4 + 4;
         assertEquals(expectedPc, machine.getProgramCounter(), "Program counter did not increment correctly");
 
-        int expectedSp = machine.getMemory().length;
+        int expectedSp = (int) machine.getMemory().size();
         assertEquals(expectedSp, machine.getRegister(2), "Stack pointer was not set correctly");
     }
 }
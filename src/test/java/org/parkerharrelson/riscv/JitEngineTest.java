@@ -0,0 +1,93 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.jit.JitEngine;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JitEngineTest {
+
+    private static byte[] dump(Machine machine) {
+        // The program lives at the bottom of memory and its stack in the top page
+        byte[] contents = new byte[0x20000];
+        machine.getMemory().read(0, contents, 0, 0x10000);
+        machine.getMemory().read(0xFFFF0000, contents, 0x10000, 0x10000);
+        return contents;
+    }
+
+    @Test
+    public void testCompiledBlocksMatchInterpreter() throws IOException {
+        Machine interpreted = new Machine();
+        interpreted.loadContents("src/test/resources/loop.elf");
+        interpreted.run();
+
+        Machine compiled = new Machine();
+        compiled.loadContents("src/test/resources/loop.elf");
+        new JitEngine(compiled, 2, 16).run();
+
+        assertArrayEquals(interpreted.getRegisters(), compiled.getRegisters(), "Registers differ from the interpreter");
+        assertArrayEquals(dump(interpreted), dump(compiled), "Memory differs from the interpreter");
+        assertEquals(interpreted.getProgramCounter(), compiled.getProgramCounter(), "Program counter differs from the interpreter");
+    }
+
+    @Test
+    public void testEvictionFallsBackToInterpreter() throws IOException {
+        Machine interpreted = new Machine();
+        interpreted.loadContents("src/test/resources/loop.elf");
+        interpreted.run();
+
+        Machine compiled = new Machine();
+        compiled.loadContents("src/test/resources/loop.elf");
+        new JitEngine(compiled, 1, 1).run();
+
+        assertArrayEquals(interpreted.getRegisters(), compiled.getRegisters(), "Registers differ after evicting blocks");
+    }
+
+    @Test
+    public void testLinksAreDroppedWhenCodeIsWritten() throws IOException {
+        Machine interpreted = new Machine();
+        interpreted.loadContents("src/test/resources/chain.elf");
+        interpreted.run();
+        assertEquals(180, interpreted.getRegister(9));
+
+        Machine compiled = new Machine();
+        compiled.loadContents("src/test/resources/chain.elf");
+        new JitEngine(compiled, 1, 16).run();
+
+        assertArrayEquals(interpreted.getRegisters(), compiled.getRegisters(), "A linked block ran code that was overwritten");
+    }
+
+    @Test
+    public void testBlockWritingItsOwnCodePage() throws IOException {
+        Machine interpreted = new Machine();
+        interpreted.loadContents("src/test/resources/selfpage.elf");
+        interpreted.run();
+        assertEquals(1000, interpreted.getRegister(19));
+
+        Machine compiled = new Machine();
+        compiled.loadContents("src/test/resources/selfpage.elf");
+        new JitEngine(compiled, 2, 16).run();
+
+        assertArrayEquals(interpreted.getRegisters(), compiled.getRegisters(), "A block that dropped itself went wrong");
+        assertEquals(interpreted.getInstructionsRetired(), compiled.getInstructionsRetired());
+    }
+
+    @Test
+    public void testBlockWritingItsOwnCodePageKeepsItsProfile() throws IOException {
+        Machine machine = new Machine();
+        machine.loadContents("src/test/resources/selfpage.elf");
+        JitEngine engine = new JitEngine(machine);
+        engine.run();
+
+        assertEquals(1000, machine.getRegister(19));
+        // The two loop blocks are compiled once they are hot, then again with a doubled
+        // threshold each time the loop writes its own page, but not on every pass
+        long compilations = engine.getCompilations();
+        assertTrue(compilations > 2 && compilations < 20, "Compiled " + compilations + " blocks");
+    }
+}
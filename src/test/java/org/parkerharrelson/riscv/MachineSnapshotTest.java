@@ -0,0 +1,51 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.core.MachineSnapshot;
+import org.parkerharrelson.riscv.memory.SparseMemory;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MachineSnapshotTest {
+
+    private static byte[] dump(Machine machine) {
+        // The program lives at the bottom of memory and its stack in the top page
+        byte[] contents = new byte[0x20000];
+        machine.getMemory().read(0, contents, 0, 0x10000);
+        machine.getMemory().read(0xFFFF0000, contents, 0x10000, 0x10000);
+        return contents;
+    }
+
+    @Test
+    public void testForksFinishLikeAnUninterruptedRun() throws IOException {
+        Machine reference = new Machine();
+        reference.loadContents("src/test/resources/loop.elf");
+        reference.run();
+
+        Machine parent = new Machine();
+        parent.loadContents("src/test/resources/loop.elf");
+        for (int i = 0; i < 20; i++) {
+            parent.step();
+        }
+        MachineSnapshot snapshot = parent.snapshot();
+        parent.run();
+        assertArrayEquals(reference.getRegisters(), parent.getRegisters(), "Snapshot disturbed the parent");
+        assertArrayEquals(dump(reference), dump(parent), "Snapshot disturbed the parent's memory");
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Machine child = snapshot.fork();
+            child.setExecutionMode(mode);
+            child.run();
+
+            assertArrayEquals(reference.getRegisters(), child.getRegisters(), "Registers differ in fork running in mode " + mode);
+            assertArrayEquals(dump(reference), dump(child), "Memory differs in fork running in mode " + mode);
+            assertEquals(reference.getProgramCounter(), child.getProgramCounter(), "Program counter differs in fork running in mode " + mode);
+            assertEquals(1, ((SparseMemory) child.getMemory()).getAllocatedPageCount(), "Fork copied pages it never wrote");
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.pipeline.MemoryAccess;
+import org.parkerharrelson.riscv.util.Instruction;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class MachineTest {
+
+    private Machine machine;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        machine = new Machine();
+        machine.loadContents("src/test/resources/loop.elf");
+    }
+
+    @Test
+    public void testRunLoopProgram() {
+        machine.run();
+
+        assertEquals(100, machine.getRegister(5), "Loop counter t0 is wrong");
+        assertEquals(5050, machine.getRegister(25), "Loop sum s9 is wrong");
+        assertEquals(5050, machine.getRegister(11), "Value loaded back from the stack is wrong");
+        assertEquals(5051, machine.getRegister(8), "Call through jal/jalr returned the wrong value");
+        assertEquals(0x12345678, machine.getRegister(9), "lui/addi constant is wrong");
+        assertEquals(10000, machine.getRegister(18), "mul result is wrong");
+        assertEquals(-100, machine.getRegister(19), "sub result is wrong");
+        assertEquals(-25, machine.getRegister(20), "srai result is wrong");
+        assertEquals(-1, machine.getRegister(21), "div result is wrong");
+        assertEquals(0x9C, machine.getRegister(22), "lbu result is wrong");
+        assertEquals(-100, machine.getRegister(23), "lb result is wrong");
+        assertEquals(0x1054, machine.getRegister(24), "auipc result is wrong");
+        assertEquals((int) machine.getMemory().size() - 16, machine.getRegister(2), "Stack pointer is wrong");
+    }
+
+    @Test
+    public void testStoreInvalidatesDecodedInstructions() {
+        machine.run();
+        assertNotNull(machine.getDecodeCache().get(0x1000), "Executed instruction was not cached");
+
+        Instruction store = new Instruction(0x00002023); // sw x0, 0(x0)
+        store.setMemop(2);
+        store.setResult(0x1010);
+        new MemoryAccess(machine).accessMemory(store);
+
+        assertNull(machine.getDecodeCache().get(0x1000), "Store into a code page did not invalidate it");
+    }
+}
@@ -0,0 +1,54 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.core.MultiHartMachine;
+import org.parkerharrelson.riscv.memory.SparseMemory;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MultiHartMachineTest {
+
+    private static final int HARTS = 4;
+    private static final int ITERATIONS = 1000;
+
+    @Test
+    public void testAtomicsAcrossHartsInEveryMode() throws IOException {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            MultiHartMachine machine = new MultiHartMachine(new SparseMemory(), HARTS);
+            machine.setExecutionMode(mode);
+            machine.loadContents("src/test/resources/smp.elf");
+            machine.run();
+
+            Machine hart = machine.getHart(0);
+            assertEquals(HARTS * ITERATIONS, hart.getRegister(8), "amoadd.w lost updates in mode " + mode);
+            assertEquals(HARTS * ITERATIONS, hart.getRegister(9), "lr.w/sc.w lost updates in mode " + mode);
+            assertEquals(HARTS, hart.getRegister(21), "amoswap.w returned the wrong value in mode " + mode);
+            assertEquals(-5, hart.getRegister(22), "amomaxu.w is wrong in mode " + mode);
+            assertEquals(-5, hart.getRegister(23), "amomin.w is wrong in mode " + mode);
+            assertEquals(-5, hart.getRegister(24), "amomax.w is wrong in mode " + mode);
+            assertEquals(3, hart.getRegister(25), "amominu.w is wrong in mode " + mode);
+            assertEquals(3, hart.getRegister(26), "amoor.w is wrong in mode " + mode);
+            assertEquals(0xF3, hart.getRegister(27), "amoand.w is wrong in mode " + mode);
+            assertEquals(0xF3, hart.getRegister(28), "amoxor.w is wrong in mode " + mode);
+            assertEquals(3, hart.getRegister(29), "Memory after the AMO sequence is wrong in mode " + mode);
+            assertEquals(1, hart.getRegister(30), "sc.w without a reservation succeeded in mode " + mode);
+        }
+    }
+
+    @Test
+    public void testHartsGetTheirOwnIdAndStack() throws IOException {
+        MultiHartMachine machine = new MultiHartMachine(new SparseMemory(), HARTS);
+        machine.loadContents("src/test/resources/smp.elf");
+
+        for (int i = 0; i < HARTS; i++) {
+            Machine hart = machine.getHart(i);
+            assertEquals(i, hart.getRegister(10), "Hart ID was not passed in a0");
+            assertEquals(-i * 0x10000, hart.getRegister(2), "Hart stacks overlap");
+            assertEquals(0x1000, hart.getProgramCounter(), "Hart does not start at the entry point");
+        }
+    }
+}
@@ -3,13 +3,16 @@ package org.parkerharrelson.riscv;
 import org.junit.jupiter.api.Test;
 import org.parkerharrelson.riscv.core.Machine;
 import org.parkerharrelson.riscv.core.Reader;
+import org.parkerharrelson.riscv.memory.SparseMemory;
+import org.parkerharrelson.riscv.util.SymbolTable;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 public class ReaderTest {
 
@@ -24,8 +27,35 @@ public class ReaderTest {
 
         int vaddrStart = 0x1000;
         int vaddrEnd = vaddrStart + expectedMemory.length;
-        byte[] loadedMemorySegment = Arrays.copyOfRange(machine.getMemory(), vaddrStart, vaddrEnd);
+        byte[] loadedMemorySegment = new byte[vaddrEnd - vaddrStart];
+        machine.getMemory().read(vaddrStart, loadedMemorySegment, 0, loadedMemorySegment.length);
 
         assertArrayEquals(expectedMemory, loadedMemorySegment, "Memory contents do not match the expected output");
     }
+
+    @Test
+    public void testSegmentsAreLoadedLazily() throws IOException {
+        SparseMemory memory = new SparseMemory();
+        Machine machine = new Machine(memory);
+
+        new Reader().readElfFile(memory, machine, "src/test/resources/test.elf");
+        assertEquals(0, memory.getAllocatedPageCount(), "Loading copied segments before they were touched");
+
+        assertEquals(0x04030201, memory.load32(0x1000), "Segment contents were not faulted in");
+        assertEquals(1, memory.getAllocatedPageCount(), "Touching one page should fault in only that page");
+    }
+
+    @Test
+    public void testFunctionSymbolsAreRead() throws IOException {
+        SymbolTable symbols = new Reader().parseElfFile("src/test/resources/calls.elf").getSymbols();
+
+        assertEquals(3, symbols.size());
+        assertEquals("main", symbols.lookup(0x1000));
+        assertEquals("work", symbols.lookup(0x1018));
+        assertEquals("work", symbols.lookup(0x103B));
+        assertEquals("inner", symbols.lookup(0x103C));
+        assertNull(symbols.lookup(0x104C), "Address past the last symbol's size should not be symbolized");
+        assertNull(symbols.lookup(0xFFC), "Address below every symbol should not be symbolized");
+        assertEquals(0, new Reader().parseElfFile("src/test/resources/loop.elf").getSymbols().size());
+    }
 }
@@ -0,0 +1,126 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SystemCallsTest {
+
+    private static final String MESSAGE = "hello, files\n";
+    private static final int PATH = 0x8000;
+    private static final int BUFFER = 0x9000;
+
+    /**
+     * Makes a system call directly, with its arguments in a0 onwards, and returns a0.
+     */
+    private static int call(Machine machine, int number, int... arguments) {
+        for (int i = 0; i < arguments.length; i++) {
+            machine.writeToRegister(10 + i, arguments[i]);
+        }
+        machine.writeToRegister(17, number);
+        machine.handleSystemCall();
+        return machine.getRegister(10);
+    }
+
+    private static Machine sandboxed(Path sandbox, String path, String contents) throws IOException {
+        Machine machine = new Machine();
+        machine.setFileSystemRoot(sandbox);
+        byte[] name = (path + "\0").getBytes(StandardCharsets.UTF_8);
+        machine.getMemory().write(PATH, name, 0, name.length);
+        byte[] data = contents.getBytes(StandardCharsets.UTF_8);
+        machine.getMemory().write(BUFFER, data, 0, data.length);
+        return machine;
+    }
+
+    @Test
+    public void testFileSystemCallsInEveryMode(@TempDir Path temp) throws IOException {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Path sandbox = Files.createDirectory(temp.resolve(mode.name()));
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            Machine machine = new Machine();
+            machine.setExecutionMode(mode);
+            machine.setConsole(InputStream.nullInputStream(), output);
+            machine.setFileSystemRoot(sandbox);
+            machine.loadContents("src/test/resources/files.elf");
+            machine.run();
+
+            assertEquals(3, machine.getRegister(9), "openat returned the wrong descriptor in mode " + mode);
+            assertEquals(MESSAGE.length(), machine.getRegister(18), "write count is wrong in mode " + mode);
+            assertEquals(0, machine.getRegister(19), "lseek result is wrong in mode " + mode);
+            assertEquals(MESSAGE.length(), machine.getRegister(20), "read count is wrong in mode " + mode);
+            assertEquals(0, machine.getRegister(21), "fstat failed in mode " + mode);
+            assertEquals(MESSAGE.length(), machine.getRegister(22), "st_size is wrong in mode " + mode);
+            assertEquals(0x2000, machine.getRegister(23), "Initial break is not the page after the image in mode " + mode);
+            assertEquals(0x3000, machine.getRegister(24), "brk did not grow the heap in mode " + mode);
+            assertEquals(-13, machine.getRegister(25), "Path outside the sandbox was not refused in mode " + mode);
+            assertEquals(0, machine.getRegister(26), "close failed in mode " + mode);
+            assertEquals(-9, machine.getRegister(27), "Second close did not fail with EBADF in mode " + mode);
+            assertEquals(7, machine.getExitCode(), "Exit status is wrong in mode " + mode);
+
+            assertEquals(MESSAGE, output.toString(), "File contents were not echoed to stdout in mode " + mode);
+            assertEquals(MESSAGE, Files.readString(sandbox.resolve("notes.txt")), "File on the host is wrong in mode " + mode);
+            assertFalse(Files.exists(temp.resolve("outside.txt")));
+        }
+    }
+
+    @Test
+    public void testReadWriteAppend(@TempDir Path temp) throws IOException {
+        Files.writeString(temp.resolve("log.txt"), "abc");
+        Machine machine = sandboxed(temp, "log.txt", "de");
+
+        // O_RDWR | O_APPEND, what fopen sends for "a+"
+        int fd = call(machine, 56, -100, PATH, 0x402);
+        assertEquals(3, fd);
+        assertEquals(0, call(machine, 62, fd, 0, 0));
+        assertEquals(2, call(machine, 64, fd, BUFFER, 2));
+        assertEquals(0, call(machine, 62, fd, 0, 0));
+        assertEquals(2, call(machine, 64, fd, BUFFER, 2));
+        assertEquals(0, call(machine, 62, fd, 0, 0));
+        assertEquals(7, call(machine, 63, fd, BUFFER, 16));
+        byte[] read = new byte[7];
+        machine.getMemory().read(BUFFER, read, 0, 7);
+        assertEquals("abcdede", new String(read, StandardCharsets.UTF_8));
+        assertEquals("abcdede", Files.readString(temp.resolve("log.txt")));
+    }
+
+    @Test
+    public void testReadOnlyCreate(@TempDir Path temp) throws IOException {
+        Machine machine = sandboxed(temp, "new.txt", "x");
+
+        // O_RDONLY | O_CREAT creates the file but still cannot write it
+        int fd = call(machine, 56, -100, PATH, 0x40);
+        assertEquals(3, fd);
+        assertTrue(Files.exists(temp.resolve("new.txt")));
+        assertEquals(0, call(machine, 63, fd, BUFFER, 16));
+        assertEquals(-9, call(machine, 64, fd, BUFFER, 1));
+        assertEquals(0, Files.size(temp.resolve("new.txt")));
+        assertEquals(-17, call(machine, 56, -100, PATH, 0xC0), "O_EXCL opened a file that exists");
+        // O_WRONLY cannot read
+        int writer = call(machine, 56, -100, PATH, 0x1);
+        assertEquals(-9, call(machine, 63, writer, BUFFER, 1));
+    }
+
+    @Test
+    public void testFilesAreRefusedWithoutSandbox() throws IOException {
+        Machine machine = new Machine();
+        machine.setConsole(InputStream.nullInputStream(), new ByteArrayOutputStream());
+        machine.loadContents("src/test/resources/files.elf");
+        machine.run();
+
+        assertEquals(-13, machine.getRegister(9), "openat succeeded without a sandbox");
+        assertEquals(-9, machine.getRegister(18), "write to an unopened descriptor did not fail with EBADF");
+        assertEquals(7, machine.getExitCode());
+    }
+}
@@ -0,0 +1,113 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.pipeline.InstructionDecode;
+import org.parkerharrelson.riscv.timing.BranchPredictor;
+import org.parkerharrelson.riscv.timing.BranchTargetBuffer;
+import org.parkerharrelson.riscv.timing.StaticPredictor;
+import org.parkerharrelson.riscv.timing.TimingModel;
+import org.parkerharrelson.riscv.timing.TwoBitPredictor;
+import org.parkerharrelson.riscv.util.DecodedInstruction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TimingModelTest {
+
+    private static final DecodedInstruction INCREMENT = InstructionDecode.predecode(0x00128293); // addi t0, t0, 1
+    private static final DecodedInstruction LOOP = InstructionDecode.predecode(0xFE629EE3);      // bne t0, t1, -4
+    private static final DecodedInstruction LOAD = InstructionDecode.predecode(0x0000A283);      // lw t0, 0(ra)
+    private static final DecodedInstruction USE = InstructionDecode.predecode(0x00528333);       // add t1, t0, t0
+    private static final DecodedInstruction CHAIN = InstructionDecode.predecode(0x006303B3);     // add t2, t1, t1
+
+    /**
+     * Feeds a ten iteration loop of an increment and a backward branch to a model.
+     */
+    private static TimingModel runLoop(BranchPredictor predictor) {
+        TimingModel model = new TimingModel(predictor, true);
+        for (int i = 1; i <= 10; i++) {
+            model.retire(0x1000, INCREMENT, 0x1004);
+            model.retire(0x1004, LOOP, i < 10 ? 0x1000 : 0x1008);
+        }
+        return model;
+    }
+
+    @Test
+    public void testIndependentInstructionsTakeOneCycleEach() {
+        TimingModel model = new TimingModel(new StaticPredictor(), true);
+        for (int i = 0; i < 10; i++) {
+            model.retire(0x1000 + 4 * i, InstructionDecode.predecode(0x00000013 | (i + 1) << 7), 0x1004 + 4 * i);
+        }
+        assertEquals(10, model.getInstructions());
+        assertEquals(14, model.getCycles(), "Ten instructions plus four cycles to drain the pipeline");
+    }
+
+    @Test
+    public void testDataHazards() {
+        TimingModel forwarded = new TimingModel(new StaticPredictor(), true);
+        TimingModel unforwarded = new TimingModel(new StaticPredictor(), false);
+        for (TimingModel model : new TimingModel[]{forwarded, unforwarded}) {
+            model.retire(0x1000, LOAD, 0x1004);
+            model.retire(0x1004, USE, 0x1008);
+            model.retire(0x1008, CHAIN, 0x100C);
+        }
+
+        assertEquals(1, forwarded.getLoadUseStalls());
+        assertEquals(0, forwarded.getDataStalls(), "The add result is forwarded");
+        assertEquals(8, forwarded.getCycles());
+
+        assertEquals(0, unforwarded.getLoadUseStalls());
+        assertEquals(4, unforwarded.getDataStalls(), "Both adds wait for the previous result to be written back");
+        assertEquals(11, unforwarded.getCycles());
+    }
+
+    @Test
+    public void testBranchPredictors() {
+        // Backward taken: every taken iteration waits for ID, and the exit is mispredicted
+        TimingModel fixed = runLoop(new StaticPredictor());
+        assertEquals(10, fixed.getBranches());
+        assertEquals(1, fixed.getBranchMispredicts());
+        assertEquals(9, fixed.getRedirectStalls());
+        assertEquals(2, fixed.getMispredictStalls());
+
+        // Weakly not taken counters mispredict the first iteration and the exit
+        TimingModel counters = runLoop(new TwoBitPredictor(16));
+        assertEquals(2, counters.getBranchMispredicts());
+        assertEquals(8, counters.getRedirectStalls());
+        assertEquals(4, counters.getMispredictStalls());
+
+        // The target buffer lets fetch follow the taken branch with no bubble at all
+        TimingModel buffered = runLoop(new BranchTargetBuffer(16, 16));
+        assertEquals(2, buffered.getBranchMispredicts());
+        assertEquals(0, buffered.getRedirectStalls());
+        assertEquals(4, buffered.getMispredictStalls());
+        // Only the first misprediction delays a later instruction
+        assertEquals(20 + 2 + 4, buffered.getCycles());
+    }
+
+    @Test
+    public void testModelRunsInEveryMode() throws IOException {
+        long cycles = -1;
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Machine machine = new Machine();
+            machine.setExecutionMode(mode);
+            machine.setConsole(InputStream.nullInputStream(), new ByteArrayOutputStream());
+            TimingModel model = new TimingModel(new BranchTargetBuffer(1024, 256), true);
+            machine.setTimingModel(model);
+            machine.loadContents("src/test/resources/loop.elf");
+            machine.run();
+
+            assertEquals(330, model.getInstructions(), "Instructions were missed in mode " + mode);
+            assertEquals(100, model.getBranches());
+            if (cycles >= 0) {
+                assertEquals(cycles, model.getCycles(), "Cycle count differs in mode " + mode);
+            }
+            cycles = model.getCycles();
+        }
+    }
+}
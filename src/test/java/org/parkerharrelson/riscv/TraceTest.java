@@ -0,0 +1,108 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.memory.SparseMemory;
+import org.parkerharrelson.riscv.trace.TraceDiff;
+import org.parkerharrelson.riscv.trace.TraceReader;
+import org.parkerharrelson.riscv.trace.TraceRecord;
+import org.parkerharrelson.riscv.trace.TraceRecorder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TraceTest {
+
+    private static Path trace(Path directory, String elf, ExecutionMode mode, int bufferRecords) throws IOException {
+        Path path = directory.resolve(elf + "." + mode + ".trace");
+        Machine machine = new Machine();
+        machine.setExecutionMode(mode);
+        machine.setConsole(InputStream.nullInputStream(), new ByteArrayOutputStream());
+        try (TraceRecorder tracer = new TraceRecorder(path, bufferRecords)) {
+            machine.setTracer(tracer);
+            machine.loadContents("src/test/resources/" + elf);
+            machine.run();
+        }
+        return path;
+    }
+
+    private static long compare(Path expected, Path actual) throws IOException {
+        try (TraceReader left = new TraceReader(expected); TraceReader right = new TraceReader(actual)) {
+            return TraceDiff.compare(left, right, 4, new PrintStream(new ByteArrayOutputStream()));
+        }
+    }
+
+    @Test
+    public void testTracesAreIdenticalInEveryMode(@TempDir Path temp) throws IOException {
+        // A tiny ring makes the hart wait for the writer thread over and over
+        Path reference = trace(temp, "loop.elf", ExecutionMode.INTERPRETER, 16);
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            assertEquals(-1, compare(reference, trace(temp, "loop.elf", mode, 16)), "Trace differs in mode " + mode);
+        }
+
+        try (TraceReader reader = new TraceReader(reference)) {
+            assertEquals(330, reader.getRecordCount());
+            TraceRecord record = new TraceRecord();
+            TraceRecord store = null;
+            TraceRecord load = null;
+            while (reader.next(record)) {
+                if (store == null && record.stores()) {
+                    store = new TraceRecord();
+                    store.copyFrom(record);
+                } else if (load == null && record.loads()) {
+                    load = new TraceRecord();
+                    load.copyFrom(record);
+                }
+            }
+            assertEquals(5050, store.memoryValue, "sw did not record the stored value");
+            assertEquals(store.address, load.address, "lw did not record the address it read");
+            assertEquals(11, load.rd);
+            assertEquals(5050, load.rdValue, "lw did not record the value written to a1");
+            assertTrue(load.writesRegister());
+        }
+    }
+
+    @Test
+    public void testCsrReadsAreTraced(@TempDir Path temp) throws IOException {
+        // The program idles until timer interrupts arrive, so it needs the devices
+        Path path = temp.resolve("traps.trace");
+        Machine machine = new Machine(new SparseMemory(), true);
+        machine.setConsole(InputStream.nullInputStream(), new ByteArrayOutputStream());
+        try (TraceRecorder tracer = new TraceRecorder(path, 1 << 10)) {
+            machine.setTracer(tracer);
+            machine.loadContents("src/test/resources/traps.elf");
+            machine.run();
+        }
+        assertEquals(0, machine.getExitCode());
+
+        try (TraceReader reader = new TraceReader(path)) {
+            TraceRecord record = new TraceRecord();
+            // The first CSR instruction reads instret into s6
+            while (reader.next(record)) {
+                if ((record.inst & 0x707F) == 0x2073) { // CSRRS
+                    break;
+                }
+            }
+            assertTrue(record.writesRegister());
+            assertEquals(22, record.rd);
+            assertEquals(201, record.rdValue);
+        }
+    }
+
+    @Test
+    public void testDivergenceIsFound(@TempDir Path temp) throws IOException {
+        Path loop = trace(temp, "loop.elf", ExecutionMode.FAST, 1 << 10);
+        Path calls = trace(temp, "calls.elf", ExecutionMode.FAST, 1 << 10);
+
+        // Both programs start by writing a different register at the same address
+        assertEquals(0, compare(loop, calls));
+    }
+}
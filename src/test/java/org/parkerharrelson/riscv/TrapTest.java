@@ -0,0 +1,95 @@
+package org.parkerharrelson.riscv;
+
+import org.junit.jupiter.api.Test;
+import org.parkerharrelson.riscv.core.ControlStatusRegisters;
+import org.parkerharrelson.riscv.core.ExecutionMode;
+import org.parkerharrelson.riscv.core.Machine;
+import org.parkerharrelson.riscv.memory.SparseMemory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TrapTest {
+
+    @Test
+    public void testCsrsTrapsAndTimerInterruptsInEveryMode() throws IOException {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Machine machine = new Machine(new SparseMemory(), true);
+            machine.setExecutionMode(mode);
+            machine.setConsole(InputStream.nullInputStream(), new ByteArrayOutputStream());
+            machine.loadContents("src/test/resources/traps.elf");
+            long start = System.nanoTime();
+            machine.run();
+            long elapsed = System.nanoTime() - start;
+
+            assertFalse(machine.isRunning());
+            assertEquals(0, machine.getExitCode(), "Mode " + mode);
+            assertEquals(201, machine.getRegister(22), "instret in mode " + mode);
+            assertEquals(202, machine.getRegister(23), "instret in mode " + mode);
+            assertEquals(0, machine.getRegister(9));
+            assertEquals(0x1234, machine.getRegister(18));
+            assertEquals(0x1237, machine.getRegister(19));
+            assertEquals(0x1233, machine.getRegister(20));
+            assertEquals(0, machine.getRegister(21));
+            assertEquals(11 + 2 + 2 + 2, machine.getRegister(24), "Exception causes in mode " + mode);
+            // The CSR read, the undecodable word and the reserved compressed parcel each trapped with their bits in mtval
+            assertEquals(0x7C0025F3 + 0xFFFFFFFF + 0x0004, machine.getRegister(12), "mtvals in mode " + mode);
+            assertEquals(5, machine.getRegister(25), "Timer interrupts in mode " + mode);
+
+            // The hart idled through the timer intervals instead of retiring instructions
+            long mtime = Integer.toUnsignedLong(machine.getRegister(27));
+            assertTrue(mtime >= 5000, "mtime only reached " + mtime + " in mode " + mode);
+            assertTrue(machine.getInstructionsRetired() < 500, "Retired " + machine.getInstructionsRetired() + " in mode " + mode);
+            assertTrue(elapsed < 1_000_000_000L, "Idled for " + elapsed + "ns in mode " + mode);
+        }
+    }
+
+    @Test
+    public void testUnknownCsrWithoutHandlerThrows() throws IOException {
+        Machine machine = new Machine();
+        machine.loadContents("src/test/resources/traps.elf");
+        ControlStatusRegisters csrs = machine.getControlStatusRegisters();
+        assertFalse(csrs.hasTrapVector());
+        // csrrs a1, 0x7C0, zero
+        assertThrows(UnsupportedOperationException.class, () -> machine.executeSystem(0x7C0025F3, 0, 0x1000));
+        // csrrw zero, cycle, t0
+        assertThrows(UnsupportedOperationException.class, () -> machine.executeSystem(0xC0029073, 1, 0x1000));
+    }
+
+    @Test
+    public void testUndecodableInstructionWithoutHandlerThrows() throws IOException {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Machine machine = new Machine(new SparseMemory(), true);
+            machine.setExecutionMode(mode);
+            machine.loadContents("src/test/resources/traps.elf");
+            machine.getMemory().store32(machine.getProgramCounter(), 0xFFFFFFFF);
+            assertThrows(UnsupportedOperationException.class, machine::run, "Mode " + mode);
+        }
+    }
+
+    @Test
+    public void testVectoredInterruptsAndMret() {
+        ControlStatusRegisters csrs = new Machine().getControlStatusRegisters();
+        csrs.write(ControlStatusRegisters.MTVEC, 0x2001);
+        csrs.write(ControlStatusRegisters.MSTATUS, ControlStatusRegisters.MSTATUS_MIE);
+
+        assertEquals(0x2000 + 4 * 7, csrs.trap(ControlStatusRegisters.INTERRUPT | 7, 0x1234, 0));
+        assertEquals(ControlStatusRegisters.MSTATUS_MPIE | ControlStatusRegisters.MSTATUS_MPP,
+                csrs.read(ControlStatusRegisters.MSTATUS));
+        assertEquals(0x80000007, csrs.read(ControlStatusRegisters.MCAUSE));
+        assertEquals(0x1234, csrs.read(ControlStatusRegisters.MEPC));
+        // Exceptions always go to the base address
+        assertEquals(0x2000, csrs.trap(11, 0x1300, 0));
+
+        assertEquals(0x1300, csrs.mret());
+        assertEquals(ControlStatusRegisters.MSTATUS_MPIE | ControlStatusRegisters.MSTATUS_MPP,
+                csrs.read(ControlStatusRegisters.MSTATUS));
+        assertEquals(0, csrs.takeableInterrupt());
+    }
+}
@@ -0,0 +1,795 @@
+# create_program_elf.py
+#
+# Hand-assembles small RV32IMAC guest programs and wraps each one in a minimal
+# ELF file with a single PT_LOAD segment at 0x1000, like create_test_elf.py.
+# Programs with function symbols also get a .symtab section.
+
+import struct
+
+BASE = 0x1000
+
+REG = {
+    'zero': 0, 'ra': 1, 'sp': 2, 'gp': 3, 'tp': 4, 't0': 5, 't1': 6, 't2': 7,
+    's0': 8, 's1': 9, 'a0': 10, 'a1': 11, 'a2': 12, 'a3': 13, 'a4': 14, 'a5': 15,
+    'a6': 16, 'a7': 17, 's2': 18, 's3': 19, 's4': 20, 's5': 21, 's6': 22, 's7': 23,
+    's8': 24, 's9': 25, 's10': 26, 's11': 27, 't3': 28, 't4': 29, 't5': 30, 't6': 31,
+}
+
+
+def r_type(funct7, rs2, rs1, funct3, rd, opcode):
+    return (funct7 << 25) | (REG[rs2] << 20) | (REG[rs1] << 15) | (funct3 << 12) | (REG[rd] << 7) | opcode
+
+
+def i_type(imm, rs1, funct3, rd, opcode):
+    return ((imm & 0xFFF) << 20) | (REG[rs1] << 15) | (funct3 << 12) | (REG[rd] << 7) | opcode
+
+
+def s_type(imm, rs2, rs1, funct3):
+    imm &= 0xFFF
+    return ((imm >> 5) << 25) | (REG[rs2] << 20) | (REG[rs1] << 15) | (funct3 << 12) | ((imm & 0x1F) << 7) | 0x23
+
+
+def b_type(offset, rs2, rs1, funct3):
+    imm = offset & 0x1FFF
+    return (((imm >> 12) & 1) << 31) | (((imm >> 5) & 0x3F) << 25) | (REG[rs2] << 20) | (REG[rs1] << 15) | \
+        (funct3 << 12) | (((imm >> 1) & 0xF) << 8) | (((imm >> 11) & 1) << 7) | 0x63
+
+
+def u_type(imm, rd, opcode):
+    return ((imm & 0xFFFFF) << 12) | (REG[rd] << 7) | opcode
+
+
+def j_type(offset, rd):
+    imm = offset & 0x1FFFFF
+    return (((imm >> 20) & 1) << 31) | (((imm >> 1) & 0x3FF) << 21) | (((imm >> 11) & 1) << 20) | \
+        (((imm >> 12) & 0xFF) << 12) | (REG[rd] << 7) | 0x6F
+
+
+class Program:
+    # Code is kept as 16-bit parcels so compressed and full-size instructions can be mixed;
+    # labels and fixups are byte offsets from the start of the code.
+    def __init__(self):
+        self.parcels = []
+        self.labels = {}
+        self.fixups = []
+
+    def size(self):
+        return len(self.parcels) * 2
+
+    def label(self, name):
+        self.labels[name] = self.size()
+
+    def emit(self, word):
+        self.parcels.extend((word & 0xFFFF, (word >> 16) & 0xFFFF))
+
+    def emit16(self, parcel):
+        self.parcels.append(parcel & 0xFFFF)
+
+    def fixup(self, encode, target, width=4):
+        # Emits a placeholder and patches in encode(target - offset of the placeholder) once labels are known
+        self.fixups.append((self.size(), width, encode, target))
+        self.parcels.extend([0] * (width // 2))
+
+    def branch(self, funct3, rs1, rs2, target):
+        self.fixup(lambda off: b_type(off, rs2, rs1, funct3), target)
+
+    def jal(self, rd, target):
+        self.fixup(lambda off: j_type(off, rd), target)
+
+    def data(self, contents):
+        contents += b'\x00' * (-len(contents) % 4)
+        self.parcels.extend(struct.unpack('<%dH' % (len(contents) // 2), contents))
+
+    def assemble(self):
+        for offset, width, encode, target in self.fixups:
+            value = encode(self.labels[target] - offset)
+            self.parcels[offset // 2] = value & 0xFFFF
+            if width == 4:
+                self.parcels[offset // 2 + 1] = (value >> 16) & 0xFFFF
+        return b''.join(struct.pack('<H', h) for h in self.parcels)
+
+
+def addi(p, rd, rs1, imm): p.emit(i_type(imm, rs1, 0, rd, 0x13))
+def andi(p, rd, rs1, imm): p.emit(i_type(imm, rs1, 7, rd, 0x13))
+def srai(p, rd, rs1, shamt): p.emit(i_type(0x400 | shamt, rs1, 5, rd, 0x13))
+def add(p, rd, rs1, rs2): p.emit(r_type(0x00, rs2, rs1, 0, rd, 0x33))
+def sub(p, rd, rs1, rs2): p.emit(r_type(0x20, rs2, rs1, 0, rd, 0x33))
+def mul(p, rd, rs1, rs2): p.emit(r_type(0x01, rs2, rs1, 0, rd, 0x33))
+def div(p, rd, rs1, rs2): p.emit(r_type(0x01, rs2, rs1, 4, rd, 0x33))
+def lui(p, rd, imm): p.emit(u_type(imm, rd, 0x37))
+def auipc(p, rd, imm): p.emit(u_type(imm, rd, 0x17))
+def lw(p, rd, imm, rs1): p.emit(i_type(imm, rs1, 2, rd, 0x03))
+def lb(p, rd, imm, rs1): p.emit(i_type(imm, rs1, 0, rd, 0x03))
+def lbu(p, rd, imm, rs1): p.emit(i_type(imm, rs1, 4, rd, 0x03))
+def sw(p, rs2, imm, rs1): p.emit(s_type(imm, rs2, rs1, 2))
+def sb(p, rs2, imm, rs1): p.emit(s_type(imm, rs2, rs1, 0))
+def jalr(p, rd, imm, rs1): p.emit(i_type(imm, rs1, 0, rd, 0x67))
+def ecall(p): p.emit(0x73)
+def csrrw(p, rd, csr, rs1): p.emit(i_type(csr, rs1, 1, rd, 0x73))
+def csrrs(p, rd, csr, rs1): p.emit(i_type(csr, rs1, 2, rd, 0x73))
+def csrrc(p, rd, csr, rs1): p.emit(i_type(csr, rs1, 3, rd, 0x73))
+def csrrsi(p, rd, csr, uimm): p.emit(((csr & 0xFFF) << 20) | (uimm << 15) | (6 << 12) | (REG[rd] << 7) | 0x73)
+def csrrci(p, rd, csr, uimm): p.emit(((csr & 0xFFF) << 20) | (uimm << 15) | (7 << 12) | (REG[rd] << 7) | 0x73)
+def mret(p): p.emit(0x30200073)
+def wfi(p): p.emit(0x10500073)
+def amo(p, funct5, rd, rs2, rs1): p.emit(r_type(funct5 << 2, rs2, rs1, 2, rd, 0x2F))
+def lr_w(p, rd, rs1): p.emit(r_type(0x02 << 2, 'zero', rs1, 2, rd, 0x2F))
+def sc_w(p, rd, rs2, rs1): p.emit(r_type(0x03 << 2, rs2, rs1, 2, rd, 0x2F))
+def fence(p, pred, succ): p.emit((pred << 24) | (succ << 20) | 0x0F)
+
+
+# RV32C, with rd', rs1' and rs2' limited to s0, s1 and a0 - a5
+def creg(r):
+    assert 8 <= REG[r] < 16
+    return REG[r] - 8
+
+
+def ci(funct3, rd, imm, quadrant):
+    return (funct3 << 13) | (((imm >> 5) & 1) << 12) | (REG[rd] << 7) | ((imm & 0x1F) << 2) | quadrant
+
+
+def cr(funct4, rd, rs2):
+    return (funct4 << 12) | (REG[rd] << 7) | (REG[rs2] << 2) | 0x2
+
+
+def ca(funct2, rd, rs2):
+    return (0x8C00 | (funct2 << 5)) | (creg(rd) << 7) | (creg(rs2) << 2) | 0x1
+
+
+def cj_offset(off):
+    return (((off >> 11) & 1) << 12) | (((off >> 4) & 1) << 11) | (((off >> 8) & 3) << 9) | \
+        (((off >> 10) & 1) << 8) | (((off >> 6) & 1) << 7) | (((off >> 7) & 1) << 6) | \
+        (((off >> 1) & 7) << 3) | (((off >> 5) & 1) << 2)
+
+
+def cb_offset(off):
+    return (((off >> 8) & 1) << 12) | (((off >> 3) & 3) << 10) | (((off >> 6) & 3) << 5) | \
+        (((off >> 1) & 3) << 3) | (((off >> 5) & 1) << 2)
+
+
+def cl_offset(uimm):
+    return (((uimm >> 3) & 7) << 10) | (((uimm >> 2) & 1) << 6) | (((uimm >> 6) & 1) << 5)
+
+
+def c_addi(p, rd, imm): p.emit16(ci(0, rd, imm, 0x1))
+def c_li(p, rd, imm): p.emit16(ci(2, rd, imm, 0x1))
+def c_lui(p, rd, imm): p.emit16(ci(3, rd, imm, 0x1))
+def c_slli(p, rd, shamt): p.emit16(ci(0, rd, shamt, 0x2))
+def c_srli(p, rd, shamt): p.emit16(0x8001 | (creg(rd) << 7) | (shamt << 2))
+def c_srai(p, rd, shamt): p.emit16(0x8401 | (creg(rd) << 7) | (shamt << 2))
+def c_andi(p, rd, imm): p.emit16(0x8801 | (((imm >> 5) & 1) << 12) | (creg(rd) << 7) | ((imm & 0x1F) << 2))
+def c_sub(p, rd, rs2): p.emit16(ca(0, rd, rs2))
+def c_xor(p, rd, rs2): p.emit16(ca(1, rd, rs2))
+def c_or(p, rd, rs2): p.emit16(ca(2, rd, rs2))
+def c_and(p, rd, rs2): p.emit16(ca(3, rd, rs2))
+def c_mv(p, rd, rs2): p.emit16(cr(0x8, rd, rs2))
+def c_add(p, rd, rs2): p.emit16(cr(0x9, rd, rs2))
+def c_jr(p, rs1): p.emit16(cr(0x8, rs1, 'zero'))
+def c_jalr(p, rs1): p.emit16(cr(0x9, rs1, 'zero'))
+def c_lw(p, rd, uimm, rs1): p.emit16(0x4000 | cl_offset(uimm) | (creg(rs1) << 7) | (creg(rd) << 2))
+def c_sw(p, rs2, uimm, rs1): p.emit16(0xC000 | cl_offset(uimm) | (creg(rs1) << 7) | (creg(rs2) << 2))
+def c_lwsp(p, rd, uimm): p.emit16(0x4002 | (((uimm >> 5) & 1) << 12) | (REG[rd] << 7) | (((uimm >> 2) & 7) << 4) | (((uimm >> 6) & 3) << 2))
+def c_swsp(p, rs2, uimm): p.emit16(0xC002 | (((uimm >> 2) & 0xF) << 9) | (((uimm >> 6) & 3) << 7) | (REG[rs2] << 2))
+def c_j(p, target): p.fixup(lambda off: 0xA001 | cj_offset(off), target, 2)
+def c_jal(p, target): p.fixup(lambda off: 0x2001 | cj_offset(off), target, 2)
+def c_beqz(p, rs1, target): p.fixup(lambda off: 0xC001 | (creg(rs1) << 7) | cb_offset(off), target, 2)
+def c_bnez(p, rs1, target): p.fixup(lambda off: 0xE001 | (creg(rs1) << 7) | cb_offset(off), target, 2)
+
+
+def c_addi16sp(p, imm):
+    p.emit16(0x6101 | (((imm >> 9) & 1) << 12) | (((imm >> 4) & 1) << 6) | (((imm >> 6) & 1) << 5) |
+             (((imm >> 7) & 3) << 3) | (((imm >> 5) & 1) << 2))
+
+
+def c_addi4spn(p, rd, uimm):
+    p.emit16((((uimm >> 4) & 3) << 11) | (((uimm >> 6) & 0xF) << 7) | (((uimm >> 2) & 1) << 6) |
+             (((uimm >> 3) & 1) << 5) | (creg(rd) << 2))
+
+
+def la(p, rd, target):
+    # auipc + addi, with the offset taken relative to the auipc
+    auipc(p, rd, 0)
+    p.fixup(lambda off: i_type(off + 4, rd, 0, rd, 0x13), target)
+
+
+def pc_relative(p, encode, target):
+    # auipc followed by an instruction whose immediate is the offset from the auipc
+    p.fixup(lambda off: encode(off + 4), target)
+
+
+def li(p, rd, value):
+    # lui + addi, the way assemblers materialize 32-bit constants
+    hi = ((value + 0x800) >> 12) & 0xFFFFF
+    lui(p, rd, hi)
+    addi(p, rd, rd, value - (((value + 0x800) >> 12) << 12))
+
+
+def syscall(p, number):
+    addi(p, 'a7', 'zero', number)
+    ecall(p)
+
+
+def write_elf(path, code, symbols=None):
+    sections = b''
+    shoff = shnum = shstrndx = 0
+    if symbols:
+        sections, shoff, shnum, shstrndx = symbol_sections(0x54 + len(code), len(code), symbols)
+    elf_header = struct.pack(
+        '<16sHHIIIIIHHHHHH',
+        b'\x7fELF\x01\x01\x01\x00' + b'\x00' * 8,
+        2, 243, 1, BASE, 0x34, shoff, 0, 0x34, 0x20, 1, 0x28 if shnum else 0, shnum, shstrndx
+    )
+    program_header = struct.pack('<IIIIIIII', 1, 0x54, BASE, BASE, len(code), len(code), 0x7, 0x1000)
+    with open(path, 'wb') as f:
+        f.write(elf_header)
+        f.write(program_header)
+        f.write(code)
+        f.write(sections)
+
+
+def symbol_sections(offset, code_size, symbols):
+    # Lays out .symtab, .strtab and .shstrtab after the code, followed by the section
+    # headers: null, .text, .symtab, .strtab, .shstrtab. symbols maps a function name
+    # to its (start, end) offsets in the code.
+    strtab = b'\x00'
+    symtab = b'\x00' * 16
+    for name, (start, end) in symbols.items():
+        symtab += struct.pack('<IIIBBH', len(strtab), BASE + start, end - start, 0x12, 0, 1)  # GLOBAL FUNC in .text
+        strtab += name.encode() + b'\x00'
+    shstrtab = b'\x00.text\x00.symtab\x00.strtab\x00.shstrtab\x00'
+    symtab_offset = offset
+    strtab_offset = symtab_offset + len(symtab)
+    shstrtab_offset = strtab_offset + len(strtab)
+    shoff = shstrtab_offset + len(shstrtab)
+    headers = b'\x00' * 40
+    headers += struct.pack('<10I', 1, 1, 0x6, BASE, 0x54, code_size, 0, 0, 4, 0)
+    headers += struct.pack('<10I', 7, 2, 0, 0, symtab_offset, len(symtab), 3, 1, 4, 16)
+    headers += struct.pack('<10I', 15, 3, 0, 0, strtab_offset, len(strtab), 0, 0, 1, 0)
+    headers += struct.pack('<10I', 23, 3, 0, 0, shstrtab_offset, len(shstrtab), 0, 0, 1, 0)
+    return symtab + strtab + shstrtab + headers, shoff, 5, 4
+
+
+def loop_program():
+    p = Program()
+    addi(p, 'sp', 'sp', -16)
+    addi(p, 't0', 'zero', 0)        # i = 0
+    addi(p, 't1', 'zero', 100)      # n = 100
+    addi(p, 'a0', 'zero', 0)        # sum = 0
+    p.label('loop')
+    addi(p, 't0', 't0', 1)
+    add(p, 'a0', 'a0', 't0')
+    p.branch(4, 't0', 't1', 'loop')  # blt t0, t1, loop
+    addi(p, 's9', 'a0', 0)          # s9 = 5050
+    sw(p, 'a0', 4, 'sp')
+    lw(p, 'a1', 4, 'sp')
+    p.jal('ra', 'func')
+    addi(p, 's0', 'a2', 0)          # s0 = 5051
+    lui(p, 's1', 0x12345)
+    addi(p, 's1', 's1', 0x678)      # s1 = 0x12345678
+    mul(p, 's2', 't1', 't1')        # s2 = 10000
+    sub(p, 's3', 'zero', 't1')      # s3 = -100
+    srai(p, 's4', 's3', 2)          # s4 = -25
+    div(p, 's5', 's3', 't0')        # s5 = -1
+    sb(p, 's3', 8, 'sp')
+    lbu(p, 's6', 8, 'sp')           # s6 = 0x9C
+    lb(p, 's7', 8, 'sp')            # s7 = -100
+    auipc(p, 's8', 0)               # s8 = address of this instruction
+    addi(p, 'a7', 'zero', 1)
+    for ch in b'OK\n':
+        addi(p, 'a0', 'zero', ch)
+        ecall(p)
+    addi(p, 'a7', 'zero', 0)
+    ecall(p)
+    p.label('func')
+    addi(p, 'a2', 'a1', 1)
+    jalr(p, 'zero', 0, 'ra')
+    return p.assemble()
+
+
+def calls_program():
+    # main calls work 50 times and work calls inner 10 times, with every function
+    # looping in place so that each one retires a known number of instructions.
+    p = Program()
+    p.label('main')
+    addi(p, 's0', 'zero', 50)
+    p.label('main_loop')
+    p.jal('ra', 'work')
+    addi(p, 's0', 's0', -1)
+    p.branch(1, 's0', 'zero', 'main_loop')  # bnez s0, main_loop
+    addi(p, 'a7', 'zero', 0)
+    ecall(p)
+    p.label('work')
+    addi(p, 'sp', 'sp', -16)
+    sw(p, 'ra', 12, 'sp')
+    addi(p, 't0', 'zero', 10)
+    p.label('work_loop')
+    p.jal('ra', 'inner')
+    addi(p, 't0', 't0', -1)
+    p.branch(1, 't0', 'zero', 'work_loop')  # bnez t0, work_loop
+    lw(p, 'ra', 12, 'sp')
+    addi(p, 'sp', 'sp', 16)
+    jalr(p, 'zero', 0, 'ra')
+    p.label('inner')
+    addi(p, 't1', 'zero', 20)
+    p.label('inner_loop')
+    addi(p, 't1', 't1', -1)
+    p.branch(1, 't1', 'zero', 'inner_loop')  # bnez t1, inner_loop
+    jalr(p, 'zero', 0, 'ra')
+    p.label('end')
+    code = p.assemble()
+    labels = p.labels
+    return code, {
+        'main': (labels['main'], labels['work']),
+        'work': (labels['work'], labels['inner']),
+        'inner': (labels['inner'], labels['end']),
+    }
+
+
+FILES_MESSAGE = b'hello, files\n'
+
+
+def files_program():
+    # Creates notes.txt in the sandbox, writes a message, seeks back and reads it into
+    # a buffer, checks fstat and brk, echoes the buffer to stdout, tries to escape the
+    # sandbox, closes the file twice and exits with status 7. Each result is kept in
+    # a saved register.
+    p = Program()
+    la(p, 'a1', 'path')
+    addi(p, 'a0', 'zero', -100)         # AT_FDCWD
+    addi(p, 'a2', 'zero', 0x242)        # O_RDWR | O_CREAT | O_TRUNC
+    addi(p, 'a3', 'zero', 0o644)
+    syscall(p, 56)                      # openat
+    addi(p, 's1', 'a0', 0)              # s1 = fd
+    addi(p, 'a0', 's1', 0)
+    la(p, 'a1', 'message')
+    addi(p, 'a2', 'zero', len(FILES_MESSAGE))
+    syscall(p, 64)                      # write
+    addi(p, 's2', 'a0', 0)              # s2 = bytes written
+    addi(p, 'a0', 's1', 0)
+    addi(p, 'a1', 'zero', 0)
+    addi(p, 'a2', 'zero', 0)            # SEEK_SET
+    syscall(p, 62)                      # lseek
+    addi(p, 's3', 'a0', 0)              # s3 = 0
+    addi(p, 'a0', 's1', 0)
+    la(p, 'a1', 'buffer')
+    addi(p, 'a2', 'zero', 64)
+    syscall(p, 63)                      # read
+    addi(p, 's4', 'a0', 0)              # s4 = bytes read
+    addi(p, 'a0', 's1', 0)
+    la(p, 'a1', 'stat')
+    syscall(p, 80)                      # fstat
+    addi(p, 's5', 'a0', 0)              # s5 = 0
+    la(p, 't0', 'stat')
+    lw(p, 's6', 32, 't0')               # s6 = st_size
+    addi(p, 'a0', 'zero', 0)
+    syscall(p, 214)                     # brk(0)
+    addi(p, 's7', 'a0', 0)              # s7 = initial break
+    lui(p, 't0', 0x1)
+    add(p, 'a0', 's7', 't0')
+    syscall(p, 214)                     # brk(break + 4096)
+    addi(p, 's8', 'a0', 0)              # s8 = new break
+    addi(p, 'a0', 'zero', 1)
+    la(p, 'a1', 'buffer')
+    addi(p, 'a2', 's4', 0)
+    syscall(p, 64)                      # write to stdout
+    addi(p, 'a0', 'zero', -100)
+    la(p, 'a1', 'escape')
+    addi(p, 'a2', 'zero', 0)            # O_RDONLY
+    syscall(p, 56)                      # openat outside the sandbox
+    addi(p, 's9', 'a0', 0)              # s9 = -EACCES
+    addi(p, 'a0', 's1', 0)
+    syscall(p, 57)                      # close
+    addi(p, 's10', 'a0', 0)             # s10 = 0
+    addi(p, 'a0', 's1', 0)
+    syscall(p, 57)                      # close again
+    addi(p, 's11', 'a0', 0)             # s11 = -EBADF
+    addi(p, 'a0', 'zero', 7)
+    syscall(p, 93)                      # exit
+    p.label('path')
+    p.data(b'/notes.txt\x00')
+    p.label('escape')
+    p.data(b'../outside.txt\x00')
+    p.label('message')
+    p.data(FILES_MESSAGE)
+    p.label('buffer')
+    p.data(b'\x00' * 64)
+    p.label('stat')
+    p.data(b'\x00' * 80)
+    return p.assemble()
+
+
+def echo_program():
+    # Reads one byte with getchar into s1, then copies standard input to standard
+    # output in 64 byte reads until the end of the input, counting the bytes in s2.
+    p = Program()
+    syscall(p, 2)                       # getchar
+    addi(p, 's1', 'a0', 0)
+    addi(p, 's2', 'zero', 0)
+    p.label('loop')
+    addi(p, 'a0', 'zero', 0)
+    la(p, 'a1', 'buffer')
+    addi(p, 'a2', 'zero', 64)
+    syscall(p, 63)                      # read
+    p.branch(0, 'a0', 'zero', 'done')   # beqz a0, done
+    add(p, 's2', 's2', 'a0')
+    addi(p, 'a2', 'a0', 0)
+    addi(p, 'a0', 'zero', 1)
+    la(p, 'a1', 'buffer')
+    syscall(p, 64)                      # write
+    p.jal('zero', 'loop')
+    p.label('done')
+    addi(p, 'a0', 'zero', 0)
+    syscall(p, 93)                      # exit
+    p.label('buffer')
+    p.data(b'\x00' * 64)
+    return p.assemble()
+
+
+def fusion_program():
+    # Exercises every instruction pair the decoder fuses, including pairs whose second
+    # instruction overwrites the first one's destination, both branch polarities, and a
+    # pair whose second instruction is rewritten while the program runs.
+    p = Program()
+    li(p, 's0', 0x12345678)                 # s0 = 0x12345678
+    li(p, 's1', 0xFFF)                      # s1 = 0xFFF (negative addi)
+    auipc(p, 't0', 0)
+    pc_relative(p, lambda off: i_type(off, 't0', 2, 's2', 0x03), 'value')   # lw s2, value
+    auipc(p, 's3', 0)
+    pc_relative(p, lambda off: i_type(off, 's3', 4, 's3', 0x03), 'value')   # lbu s3, value (rd == base)
+    auipc(p, 'ra', 0)
+    pc_relative(p, lambda off: i_type(off, 'ra', 0, 'ra', 0x67), 'func')    # call func
+    addi(p, 't1', 'zero', 5)
+    addi(p, 't2', 'zero', 0)
+    p.label('count')
+    addi(p, 't2', 't2', 1)
+    p.emit(i_type(10, 't2', 2, 't3', 0x13))  # slti t3, t2, 10
+    p.branch(1, 't3', 'zero', 'count')      # bnez t3, count
+    p.emit(r_type(0, 't2', 'zero', 3, 't4', 0x33))  # sltu t4, zero, t2
+    p.branch(0, 't4', 'zero', 'skip')       # beqz t4, skip (not taken)
+    addi(p, 's4', 'zero', 1)                # s4 = 1
+    p.label('skip')
+    p.emit(r_type(0, 't1', 't2', 2, 't5', 0x33))    # slt t5, t2, t1
+    p.branch(0, 'zero', 't5', 'skip2')      # beq zero, t5, skip2 (taken)
+    addi(p, 's5', 'zero', 1)                # never runs
+    p.label('skip2')
+    addi(p, 's8', 'zero', 2)
+    p.label('smc')
+    lui(p, 's6', 0x1)
+    p.label('smc_addi')
+    addi(p, 's6', 's6', 1)                  # rewritten to addi s6, s6, 2
+    addi(p, 's8', 's8', -1)
+    p.branch(0, 's8', 'zero', 'smc_done')   # beqz s8, smc_done
+    la(p, 't0', 'smc_addi')
+    li(p, 't1', i_type(2, 's6', 0, 's6', 0x13))
+    sw(p, 't1', 0, 't0')
+    p.emit(0x0000100F)                      # fence.i
+    p.jal('zero', 'smc')
+    p.label('smc_done')                     # s6 = 0x1002
+    addi(p, 'a7', 'zero', 0)
+    ecall(p)
+    p.label('func')
+    auipc(p, 's9', 0)                       # tail call with jalr rd = x0
+    pc_relative(p, lambda off: i_type(off, 's9', 0, 'zero', 0x67), 'tail')
+    p.label('tail')
+    addi(p, 's7', 'zero', 42)               # s7 = 42
+    jalr(p, 'zero', 0, 'ra')
+    p.label('value')
+    p.data(struct.pack('<I', 0xCAFEBABE))
+    return p.assemble()
+
+
+def chain_program():
+    # A hot loop whose blocks link to a block on the next code page, which is rewritten
+    # after 60 iterations. s1 ends up as 60 * 1 + 40 * 3 = 180 only if the link from the
+    # first page into the old code is dropped.
+    p = Program()
+    addi(p, 's0', 'zero', 0)
+    addi(p, 's1', 'zero', 0)
+    addi(p, 's2', 'zero', 100)
+    p.label('loop')
+    addi(p, 's0', 's0', 1)
+    p.jal('zero', 'body')
+    p.label('back')
+    addi(p, 't0', 'zero', 60)
+    p.branch(1, 's0', 't0', 'next')         # bne s0, t0, next
+    li(p, 't1', 0x2000)                     # body, too far away for la
+    li(p, 't2', i_type(3, 's1', 0, 's1', 0x13))
+    sw(p, 't2', 0, 't1')
+    p.label('next')
+    p.branch(4, 's0', 's2', 'loop')         # blt s0, s2, loop
+    addi(p, 'a7', 'zero', 0)
+    ecall(p)
+    while p.size() % 0x1000 != 0:
+        addi(p, 'zero', 'zero', 0)          # pad to the next code page
+    p.label('body')
+    addi(p, 's1', 's1', 1)                  # rewritten to addi s1, s1, 3
+    p.jal('zero', 'back')
+    assert p.labels['body'] == 0x1000
+    return p.assemble()
+
+
+def self_page_program():
+    # A hot loop that stores its counter 1000 times, to a data page for the first 500
+    # iterations and from then on into a word on its own code page, the way small
+    # programs keep .data right after .text, so a compiled block drops itself while it
+    # runs. The last value stored is loaded into s3.
+    p = Program()
+    li(p, 's1', 0x8000)
+    addi(p, 's0', 'zero', 0)
+    addi(p, 's2', 'zero', 1000)
+    addi(p, 's4', 'zero', 500)
+    p.label('loop')
+    addi(p, 's0', 's0', 1)
+    sw(p, 's0', 0, 's1')
+    p.branch(1, 's0', 's4', 'next')     # bne s0, s4, next
+    la(p, 's1', 'counter')
+    p.label('next')
+    p.branch(4, 's0', 's2', 'loop')     # blt s0, s2, loop
+    lw(p, 's3', 0, 's1')                # s3 = 1000
+    addi(p, 'a7', 'zero', 0)
+    ecall(p)
+    p.label('counter')
+    p.data(b'\x00\x00\x00\x00')
+    assert p.labels['counter'] < 0x1000
+    return p.assemble()
+
+
+def spin_program():
+    # A runaway guest that counts in s0 forever and never exits
+    p = Program()
+    addi(p, 's0', 'zero', 0)
+    p.label('loop')
+    addi(p, 's0', 's0', 1)
+    p.jal('zero', 'loop')
+    return p.assemble()
+
+
+def devices_program():
+    # Prints a greeting through the UART, echoes UART input until the line status
+    # register reports none left, then arms the CLINT timer 1000 ticks after the mtime
+    # it reads into s4 and polls mtime until it reaches the compare value in s5,
+    # leaving the last mtime read in s6.
+    p = Program()
+    li(p, 's1', 0x02010000)             # UART
+    la(p, 's2', 'message')
+    p.label('print')
+    lbu(p, 't0', 0, 's2')
+    p.branch(0, 't0', 'zero', 'echo')   # beqz t0, echo
+    p.label('busy')
+    lbu(p, 't1', 5, 's1')               # LSR
+    andi(p, 't1', 't1', 0x20)           # THRE
+    p.branch(0, 't1', 'zero', 'busy')
+    sb(p, 't0', 0, 's1')                # THR
+    addi(p, 's2', 's2', 1)
+    p.jal('zero', 'print')
+    p.label('echo')
+    lbu(p, 't1', 5, 's1')
+    andi(p, 't1', 't1', 0x01)           # DR
+    p.branch(0, 't1', 'zero', 'timer')
+    lbu(p, 't0', 0, 's1')               # RBR
+    sb(p, 't0', 0, 's1')
+    p.jal('zero', 'echo')
+    p.label('timer')
+    li(p, 's3', 0x02000000)             # CLINT
+    li(p, 't2', 0xBFF8)
+    add(p, 't2', 's3', 't2')            # mtime
+    li(p, 't3', 0x4000)
+    add(p, 't3', 's3', 't3')            # mtimecmp
+    lw(p, 's4', 0, 't2')
+    addi(p, 's5', 's4', 1000)
+    sw(p, 's5', 0, 't3')                # low word first, while the high word still holds all ones
+    sw(p, 'zero', 4, 't3')
+    p.label('wait')
+    lw(p, 's6', 0, 't2')
+    sub(p, 't4', 's6', 's5')
+    p.branch(4, 't4', 'zero', 'wait')   # bltz t4, wait
+    addi(p, 'a0', 'zero', 0)
+    syscall(p, 93)                      # exit
+    p.label('message')
+    p.data(b'Hi\n\x00')
+    return p.assemble()
+
+
+def traps_program():
+    # Reads instret after a loop long enough to be compiled, exercises the Zicsr forms on
+    # mscratch, installs a trap handler and traps into it with ECALL, a read of a CSR
+    # that does not exist and two instructions that cannot be decoded, then takes five
+    # timer interrupts 1000 ticks apart while waiting in WFI, leaving the last mtime read
+    # in s11. The handler adds exception causes to s8 and mtvals to a2, skipping the
+    # four bytes at the instruction that trapped, and counts interrupts in s9, re-arming
+    # the timer each time.
+    p = Program()
+    addi(p, 't0', 'zero', 100)
+    p.label('spin')
+    addi(p, 't0', 't0', -1)
+    p.branch(1, 't0', 'zero', 'spin')   # bnez t0, spin
+    csrrs(p, 's6', 0xC02, 'zero')       # s6 = instret = 201
+    csrrs(p, 's7', 0xC02, 'zero')       # s7 = 202
+    li(p, 't1', 0x1234)
+    csrrw(p, 's1', 0x340, 't1')         # s1 = 0, mscratch = 0x1234
+    csrrsi(p, 's2', 0x340, 3)           # s2 = 0x1234, mscratch = 0x1237
+    csrrci(p, 's3', 0x340, 4)           # s3 = 0x1237, mscratch = 0x1233
+    csrrs(p, 's4', 0x340, 'zero')       # s4 = 0x1233
+    csrrs(p, 's5', 0xF14, 'zero')       # s5 = mhartid = 0
+    la(p, 't0', 'handler')
+    csrrw(p, 'zero', 0x305, 't0')       # mtvec
+    addi(p, 'a0', 'zero', 7)
+    ecall(p)                            # mcause 11
+    csrrs(p, 'a1', 0x7C0, 'zero')       # mcause 2
+    p.emit(0xFFFFFFFF)                  # mcause 2, undecodable
+    p.emit16(0x0004)                    # mcause 2, reserved c.addi4spn
+    p.emit16(0x0001)                    # c.nop, skipped by the handler
+    li(p, 's10', 0x02000000)
+    li(p, 't2', 0xBFF8)
+    add(p, 't2', 's10', 't2')           # mtime
+    li(p, 't3', 0x4000)
+    add(p, 't3', 's10', 't3')           # mtimecmp
+    addi(p, 't1', 'zero', 0x80)
+    csrrs(p, 'zero', 0x304, 't1')       # mie.MTIE
+    lw(p, 't0', 0, 't2')
+    addi(p, 't0', 't0', 1000)
+    sw(p, 't0', 0, 't3')
+    sw(p, 'zero', 4, 't3')
+    csrrsi(p, 'zero', 0x300, 8)         # mstatus.MIE
+    p.label('idle')
+    wfi(p)
+    addi(p, 't0', 'zero', 5)
+    p.branch(4, 's9', 't0', 'idle')     # blt s9, t0, idle
+    csrrci(p, 'zero', 0x300, 8)
+    lw(p, 's11', 0, 't2')               # s11 = mtime
+    csrrw(p, 'zero', 0x305, 'zero')     # ECALL is a system call again once mtvec is cleared
+    addi(p, 'a0', 'zero', 0)
+    syscall(p, 93)                      # exit
+    p.label('handler')
+    csrrs(p, 't5', 0x342, 'zero')       # mcause
+    p.branch(4, 't5', 'zero', 'interrupt')
+    add(p, 's8', 's8', 't5')
+    csrrs(p, 't4', 0x343, 'zero')       # mtval
+    add(p, 'a2', 'a2', 't4')
+    csrrs(p, 't4', 0x341, 'zero')
+    addi(p, 't4', 't4', 4)
+    csrrw(p, 'zero', 0x341, 't4')       # mepc += 4
+    mret(p)
+    p.label('interrupt')
+    addi(p, 's9', 's9', 1)
+    lw(p, 't6', 0, 't2')
+    addi(p, 't6', 't6', 1000)
+    sw(p, 't6', 0, 't3')
+    mret(p)
+    return p.assemble()
+
+
+def rvc_program():
+    # Mixes compressed and full-size instructions, so that some full-size ones start two
+    # bytes into a word, and covers every RV32C instruction the emulator supports,
+    # including calls that have to link pc + 2 and fused pairs with a compressed half.
+    p = Program()
+    addi(p, 'a0', 'zero', 100)
+    c_li(p, 'a1', 0)
+    p.label('loop')
+    c_add(p, 'a1', 'a0')                    # a1 += a0
+    c_jal(p, 'bump')                        # s0 += 3
+    p.label('unaligned')
+    addi(p, 'a2', 'a1', 1)
+    c_addi(p, 'a0', -1)
+    c_bnez(p, 'a0', 'loop')
+    assert p.labels['unaligned'] % 4 == 2
+    c_mv(p, 's2', 'a1')                     # s2 = 5050
+    c_mv(p, 's3', 's0')                     # s3 = 300
+    c_mv(p, 's4', 'a2')                     # s4 = 5051
+    c_addi16sp(p, -64)
+    c_addi4spn(p, 's1', 16)                 # s1 = sp + 16
+    c_sw(p, 'a1', 4, 's1')
+    c_lwsp(p, 's5', 20)                     # s5 = 5050
+    c_swsp(p, 'a2', 60)
+    c_lw(p, 'a4', 44, 's1')
+    c_mv(p, 's6', 'a4')                     # s6 = 5051
+    c_addi16sp(p, 64)
+    c_lui(p, 'a5', -2)                      # a5 = 0xFFFFE000
+    c_srai(p, 'a5', 4)                      # a5 = 0xFFFFFE00
+    c_li(p, 'a0', 0x15)
+    c_or(p, 'a5', 'a0')
+    c_andi(p, 'a5', -4)
+    c_mv(p, 's7', 'a5')                     # s7 = 0xFFFFFE14
+    c_lui(p, 'a5', 1)
+    c_srli(p, 'a5', 3)
+    c_slli(p, 'a5', 4)                      # a5 = 0x2000
+    c_xor(p, 'a5', 'a0')                    # a5 = 0x2015
+    c_li(p, 'a0', 0x1F)
+    c_and(p, 'a0', 'a5')                    # a0 = 0x15
+    c_sub(p, 'a5', 'a0')
+    c_mv(p, 's8', 'a5')                     # s8 = 0x2000
+    c_mv(p, 's9', 'a0')                     # s9 = 0x15
+    lui(p, 's10', 0x12345)
+    c_addi(p, 's10', 6)                     # s10 = 0x12345006, fused with the lui
+    p.emit(r_type(0, 'a0', 'zero', 3, 'a5', 0x33))  # sltu a5, zero, a0
+    c_beqz(p, 'a5', 'skip')                 # not taken, fused with the sltu
+    c_li(p, 's11', 1)                       # s11 = 1
+    p.label('skip')
+    c_j(p, 'over')
+    p.emit16(0)                             # illegal, jumped over
+    p.label('over')
+    la(p, 'a5', 'func')
+    c_jalr(p, 'a5')                         # t3 = return address
+    p.label('return')
+    la(p, 't4', 'return')
+    sub(p, 't5', 't3', 't4')                # t5 = 0
+    addi(p, 'a7', 'zero', 0)
+    ecall(p)
+    p.label('bump')
+    c_addi(p, 's0', 3)
+    c_jr(p, 'ra')
+    p.label('func')
+    c_mv(p, 't3', 'ra')
+    c_jr(p, 'ra')
+    return p.assemble()
+
+
+SMP_HARTS = 4
+SMP_ITERATIONS = 1000
+AMOSWAP, AMOADD, AMOXOR, AMOAND, AMOOR = 0x01, 0x00, 0x04, 0x0C, 0x08
+AMOMIN, AMOMAX, AMOMINU, AMOMAXU = 0x10, 0x14, 0x18, 0x1C
+
+
+def smp_program():
+    # Every hart (hart ID in a0) bumps one counter with amoadd.w and another with
+    # an lr.w/sc.w loop, then checks in. Hart 0 waits for all of them, exercises
+    # the remaining AMOs on its own and exits; the others park.
+    p = Program()
+    lui(p, 's2', 0x2)               # s2 = 0x2000, amoadd counter
+    addi(p, 's3', 's2', 4)          # s3 = lr/sc counter
+    addi(p, 's4', 's2', 8)          # s4 = harts done
+    addi(p, 't0', 'zero', 1)
+    addi(p, 't1', 'zero', SMP_ITERATIONS)
+    p.label('loop')
+    amo(p, AMOADD, 'zero', 't0', 's2')
+    p.label('retry')
+    lr_w(p, 't2', 's3')
+    addi(p, 't2', 't2', 1)
+    sc_w(p, 't3', 't2', 's3')
+    p.branch(1, 't3', 'zero', 'retry')  # bnez t3, retry
+    addi(p, 't1', 't1', -1)
+    p.branch(1, 't1', 'zero', 'loop')   # bnez t1, loop
+    fence(p, 0b0011, 0b0001)            # fence rw, w
+    amo(p, AMOADD, 'zero', 't0', 's4')
+    p.branch(1, 'a0', 'zero', 'park')   # bnez a0, park
+    addi(p, 't1', 'zero', SMP_HARTS)
+    p.label('wait')
+    lw(p, 't2', 0, 's4')
+    fence(p, 0b0010, 0b0011)            # fence r, rw
+    p.branch(4, 't2', 't1', 'wait')     # blt t2, t1, wait
+    lw(p, 's0', 0, 's2')            # s0 = harts * iterations
+    lw(p, 's1', 0, 's3')            # s1 = harts * iterations
+    addi(p, 't0', 'zero', -5)
+    addi(p, 't1', 'zero', 3)
+    amo(p, AMOSWAP, 's5', 't0', 's4')   # s5 = harts, mem = -5
+    amo(p, AMOMAXU, 's6', 't1', 's4')   # s6 = -5, mem = -5
+    amo(p, AMOMIN, 's7', 't1', 's4')    # s7 = -5, mem = -5
+    amo(p, AMOMAX, 's8', 't1', 's4')    # s8 = -5, mem = 3
+    amo(p, AMOMINU, 's9', 't0', 's4')   # s9 = 3, mem = 3
+    addi(p, 't2', 'zero', 0xF0)
+    amo(p, AMOOR, 's10', 't2', 's4')    # s10 = 3, mem = 0xF3
+    amo(p, AMOAND, 's11', 't0', 's4')   # s11 = 0xF3, mem = 0xF3
+    amo(p, AMOXOR, 't3', 't2', 's4')    # t3 = 0xF3, mem = 0x03
+    lw(p, 't4', 0, 's4')                # t4 = 3
+    sc_w(p, 't5', 't0', 's4')           # t5 = 1, no reservation
+    addi(p, 'a7', 'zero', 0)
+    ecall(p)
+    p.label('park')
+    p.jal('zero', 'park')
+    return p.assemble()
+
+
+if __name__ == '__main__':
+    write_elf('loop.elf', loop_program())
+    write_elf('smp.elf', smp_program())
+    write_elf('calls.elf', *calls_program())
+    write_elf('files.elf', files_program())
+    write_elf('echo.elf', echo_program())
+    write_elf('fusion.elf', fusion_program())
+    write_elf('chain.elf', chain_program())
+    write_elf('selfpage.elf', self_page_program())
+    write_elf('rvc.elf', rvc_program())
+    write_elf('spin.elf', spin_program())
+    write_elf('devices.elf', devices_program())
+    write_elf('traps.elf', traps_program())